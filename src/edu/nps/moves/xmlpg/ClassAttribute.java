@@ -84,6 +84,31 @@ public class ClassAttribute
      */
     protected boolean shouldSerialize = true;
     
+    // The rest are worked out by WireLayout once the whole document has been read.
+    
+    /** Offset in bytes from the start of the marshalled object, counting inherited fields. 
+     * -1 if a variable length field comes before this one, or it isn't serialized.
+     */
+    protected int wireOffset = -1;
+    
+    /** Marshalled size in bytes, or -1 if that depends on the contents */
+    protected int wireSize = -1;
+    
+    /** For lists, the marshalled size of one element, or -1 if the elements vary in size */
+    protected int wireElementSize = -1;
+    
+    /** The fixed-size segment this attribute is in. Segment 0 starts at the beginning of the 
+     * object, and each variable length field starts a new segment after it.
+     */
+    protected int wireSegment = 0;
+    
+    /** Offset in bytes from the start of the segment */
+    protected int segmentOffset = 0;
+    
+    /** The smallest and largest this attribute can be when marshalled; maxWireSize is -1 if unbounded */
+    protected int minWireSize = 0;
+    protected int maxWireSize = -1;
+    
     /** Get the name of the class attribute/iname*/
     public String getName()
     {
@@ -237,4 +262,86 @@ public class ClassAttribute
     {
         bitFieldList.add(aBitField);
     }
+    
+    /** Offset from the start of the marshalled object, or -1 if it isn't fixed */
+    public int getWireOffset()
+    {
+        return wireOffset;
+    }
+    
+    public void setWireOffset(int pWireOffset)
+    {
+        wireOffset = pWireOffset;
+    }
+    
+    /** Marshalled size in bytes, or -1 if it varies */
+    public int getWireSize()
+    {
+        return wireSize;
+    }
+    
+    public void setWireSize(int pWireSize)
+    {
+        wireSize = pWireSize;
+    }
+    
+    /** True if the marshalled size of this attribute is always the same */
+    public boolean isFixedSize()
+    {
+        return wireSize >= 0;
+    }
+    
+    /** Marshalled size of one list element, or -1 if it varies */
+    public int getWireElementSize()
+    {
+        return wireElementSize;
+    }
+    
+    public void setWireElementSize(int pWireElementSize)
+    {
+        wireElementSize = pWireElementSize;
+    }
+    
+    /** The fixed-size segment this attribute is in */
+    public int getWireSegment()
+    {
+        return wireSegment;
+    }
+    
+    public void setWireSegment(int pWireSegment)
+    {
+        wireSegment = pWireSegment;
+    }
+    
+    /** Offset from the start of the attribute's segment */
+    public int getSegmentOffset()
+    {
+        return segmentOffset;
+    }
+    
+    public void setSegmentOffset(int pSegmentOffset)
+    {
+        segmentOffset = pSegmentOffset;
+    }
+    
+    public int getMinWireSize()
+    {
+        return minWireSize;
+    }
+    
+    public void setMinWireSize(int pMinWireSize)
+    {
+        minWireSize = pMinWireSize;
+    }
+    
+    /** Largest marshalled size, or -1 if unbounded */
+    public int getMaxWireSize()
+    {
+        return maxWireSize;
+    }
+    
+    public void setMaxWireSize(int pMaxWireSize)
+    {
+        maxWireSize = pMaxWireSize;
+    }
 }
@@ -111,26 +111,20 @@ public class CppGenerator extends Generator
         
         this.writeMacroFile();
         
-        Iterator it = classDescriptions.values().iterator();
-        
         // Loop through all the class descriptions, generating a header file and cpp file for each.
-        while(it.hasNext())
-        {
-            try
-           {
-              GeneratedClass aClass = (GeneratedClass)it.next();
-			  // System.out.println("Generating class " + aClass.getName());
-              this.writeHeaderFile(aClass);
-              this.writeCppFile(aClass);
-           }
-           catch(Exception e)
-           {
-                System.out.println("error creating source code " + e);
-           }
-            
-        } // End while
+        this.writeAllClasses();
         
     }
+    
+    /**
+     * Generates the header file and cpp file for one class
+     */
+    protected void writeClassFiles(GeneratedClass aClass)
+    {
+        // System.out.println("Generating class " + aClass.getName());
+        this.writeHeaderFile(aClass);
+        this.writeCppFile(aClass);
+    }
    
     /**
      * Microsoft C++ requires a macro file to generate dlls. The preprocessor will import this and
@@ -153,9 +147,7 @@ public class CppGenerator extends Generator
         try
         {
             String headerFullPath = getDirectory() + "/" + headerFile + ".h";
-            File outputFile = new File(headerFullPath);
-            outputFile.createNewFile();
-            PrintWriter pw = new PrintWriter(outputFile);
+            PrintWriter pw = this.openOutputFile(headerFullPath);
             
             String libMacro = languageProperties.getProperty("microsoftLibMacro");
             String library = languageProperties.getProperty("microsoftLibDef");
@@ -194,9 +186,7 @@ public void writeHeaderFile(GeneratedClass aClass)
         String name = aClass.getName();
         //System.out.println("Creating cpp and .h source code files for " + name);
         String headerFullPath = getDirectory() + "/" + name + ".h";
-        File outputFile = new File(headerFullPath);
-        outputFile.createNewFile();
-        PrintWriter pw = new PrintWriter(outputFile);
+        PrintWriter pw = this.openOutputFile(headerFullPath);
         
         // Write the usual #ifdef to prevent multiple inclusions by the preprocessor
         pw.println("#ifndef " + aClass.getName().toUpperCase() + "_H");
@@ -448,9 +438,7 @@ public void writeCppFile(GeneratedClass aClass)
         String name = aClass.getName();
         //System.out.println("Creating cpp and .h source code files for " + name);
         String headerFullPath = getDirectory() + "/" + name + ".cpp";
-        File outputFile = new File(headerFullPath);
-        outputFile.createNewFile();
-        PrintWriter pw = new PrintWriter(outputFile);
+        PrintWriter pw = this.openOutputFile(headerFullPath);
          
         String namespace = languageProperties.getProperty("namespace");
         if(namespace==null)
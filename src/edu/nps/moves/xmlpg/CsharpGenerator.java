@@ -1,6 +1,5 @@
 package edu.nps.moves.xmlpg;
 
-import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -166,8 +165,6 @@ public class CsharpGenerator extends Generator {
     public void writeClasses() {
         this.createDirectory();
 
-        Iterator it = classDescriptions.values().iterator();
-
         System.out.println("Creating C# source code.");
 
         // PES 02/10/2009 used to store all classes
@@ -186,64 +183,58 @@ public class CsharpGenerator extends Generator {
 
         //END storing all Classes
 
-        while (it.hasNext()) {
-            try {
-                GeneratedClass aClass = (GeneratedClass) it.next();
-                String name = aClass.getName();
-
-                // Create namespace structure, if any
-                String namespace = languageProperties.getProperty("namespace");
-                String fullPath;
+        this.writeAllClasses();
 
-                // If we have a namespace specified, replace the dots in the namespace name
-                // with slashes and create that directory
-                if (namespace != null)
-                {
-                    namespace = namespace.replace(".", "/");
-                    fullPath = getDirectory() + "/" + name + ".cs";
-                    //System.out.println("full path is " + fullPath);
-                } 
-                else
-                {
-                    fullPath = getDirectory() + "/" + name + ".cs";
-                }
-                //System.out.println("Creating Csharp source code file for " + fullPath);
+    } // End write classes
 
-                // Create the new, empty file, and create printwriter object for output to it
-                File outputFile = new File(fullPath);
-                outputFile.createNewFile();
-                //System.out.println("created output file");
+    /**
+     * Generate the C# source code file for one class
+     */
+    protected void writeClassFiles(GeneratedClass aClass) {
+        try {
+            String name = aClass.getName();
 
-                PrintWriter pw = new PrintWriter(outputFile);
-                PrintStringBuffer psw = new PrintStringBuffer(); //PES 05/01/2009
-                
-                //System.out.println("psw is " + PrintStringBuffer.class.getName());
-                //System.out.println("created pw, psw " + pw + ", " + psw.toString());
+            // Create namespace structure, if any
+            String namespace = languageProperties.getProperty("namespace");
+            String fullPath;
 
-                //PES 05/01/2009 modified to print data to a stringbuilder prior to output to a file
-                //will use this to post process any changes
-                this.writeClass(psw, aClass);
-                //System.out.println("wrote class");
+            // If we have a namespace specified, replace the dots in the namespace name
+            // with slashes and create that directory
+            if (namespace != null)
+            {
+                namespace = namespace.replace(".", "/");
+                fullPath = getDirectory() + "/" + name + ".cs";
+                //System.out.println("full path is " + fullPath);
+            } 
+            else
+            {
+                fullPath = getDirectory() + "/" + name + ".cs";
+            }
+            //System.out.println("Creating Csharp source code file for " + fullPath);
 
-                //See if any post processing is needed
-                this.postProcessData(psw, aClass);
-                //System.out.println("post processed");
+            // Create a writer for the new file
+            PrintWriter pw = this.openOutputFile(fullPath);
+            PrintStringBuffer psw = new PrintStringBuffer(); //PES 05/01/2009
 
-                // print the source code of the class to the file
-                pw.print(psw.toString());
-                pw.flush();
-                pw.close();
+            //PES 05/01/2009 modified to print data to a stringbuilder prior to output to a file
+            //will use this to post process any changes
+            this.writeClass(psw, aClass);
 
-            }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-                System.out.println("error creating source code " + e);
-            }
+            //See if any post processing is needed
+            this.postProcessData(psw, aClass);
 
-        } // End while
+            // print the source code of the class to the file
+            pw.print(psw.toString());
+            pw.flush();
+            pw.close();
 
-    } // End write classes
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.out.println("error creating source code " + e);
+        }
+    }
 
     /**
      * Generate a source code file with getters, setters, ivars, and marshal/unmarshal
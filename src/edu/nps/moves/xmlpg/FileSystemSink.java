@@ -0,0 +1,82 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Writes the generated files to disk, under a root directory. Missing parent
+ * directories are created as needed.<p>
+ *
+ * In incremental mode an existing file whose contents are the same as the
+ * generated source is left alone, so its timestamp doesn't change and
+ * make-style builds of the generated code don't recompile it.
+ *
+ * @author DMcG
+ */
+public class FileSystemSink implements OutputSink
+{
+    /** Paths are relative to this directory. If null, paths are used as they are. */
+    private File root;
+
+    /** If true, don't rewrite a file when its contents wouldn't change */
+    private boolean incremental;
+
+    public FileSystemSink(File pRoot)
+    {
+        this(pRoot, false);
+    }
+
+    public FileSystemSink(File pRoot, boolean pIncremental)
+    {
+        root = pRoot;
+        incremental = pIncremental;
+    }
+
+    /** The file a path is written to */
+    public File fileFor(String path)
+    {
+        File aFile = new File(path);
+        if(root == null || aFile.isAbsolute())
+            return aFile;
+        return new File(root, path);
+    }
+
+    public boolean write(String path, byte[] contents) throws IOException
+    {
+        File outputFile = this.fileFor(path);
+        if(incremental && FileSystemSink.fileContains(outputFile, contents))
+            return false;
+
+        File parent = outputFile.getParentFile();
+        if(parent != null)
+            parent.mkdirs();
+
+        FileOutputStream fos = new FileOutputStream(outputFile);
+        try
+        {
+            fos.write(contents);
+        }
+        finally
+        {
+            fos.close();
+        }
+        return true;
+    }
+
+    public void close()
+    {
+    }
+
+    /**
+     * True if the file exists and holds exactly these bytes. The length is
+     * checked first so that most changed files are caught without reading them.
+     */
+    private static boolean fileContains(File aFile, byte[] contents) throws IOException
+    {
+        if(!aFile.isFile() || aFile.length() != contents.length)
+            return false;
+
+        return Arrays.equals(contents, Files.readAllBytes(aFile.toPath()));
+    }
+}
@@ -30,6 +30,25 @@ public class GeneratedClass
     /** Whether this is an XmlRootElement; used only with XML marshalling */
     protected boolean xmlRootElement = false;
     
+    // Worked out by WireLayout once the whole document has been read. The sizes include
+    // the fields inherited from superclasses.
+    
+    /** All the serialized attributes in the order they are marshalled, inherited ones first */
+    protected List wireAttributes = new ArrayList();
+    
+    /** Marshalled size in bytes if it is always the same, otherwise -1 */
+    protected int fixedSize = -1;
+    
+    /** Total size of the attributes whose size is always the same */
+    protected int fixedPartSize = 0;
+    
+    /** Smallest and largest marshalled size; maxSize is -1 if unbounded */
+    protected int minSize = 0;
+    protected int maxSize = -1;
+    
+    /** Number of fixed-size segments, one more than the number of variable length fields */
+    protected int segmentCount = 1;
+    
     /** Constructor */
     public GeneratedClass()
     {
@@ -110,6 +129,76 @@ public class GeneratedClass
         return result;
     }
 
+    /** The serialized attributes in marshalling order, including inherited ones */
+    public List getWireAttributes()
+    {
+        return wireAttributes;
+    }
+    
+    public void setWireAttributes(List pWireAttributes)
+    {
+        wireAttributes = pWireAttributes;
+    }
+    
+    /** True if every object of this class marshals to the same number of bytes */
+    public boolean isFixedSize()
+    {
+        return fixedSize >= 0;
+    }
+    
+    /** Marshalled size in bytes, or -1 if it varies */
+    public int getFixedSize()
+    {
+        return fixedSize;
+    }
+    
+    public void setFixedSize(int pFixedSize)
+    {
+        fixedSize = pFixedSize;
+    }
+    
+    /** Total size of the fixed-size attributes, including inherited ones */
+    public int getFixedPartSize()
+    {
+        return fixedPartSize;
+    }
+    
+    public void setFixedPartSize(int pFixedPartSize)
+    {
+        fixedPartSize = pFixedPartSize;
+    }
+    
+    public int getMinSize()
+    {
+        return minSize;
+    }
+    
+    public void setMinSize(int pMinSize)
+    {
+        minSize = pMinSize;
+    }
+    
+    /** Largest marshalled size, or -1 if unbounded */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+    
+    public void setMaxSize(int pMaxSize)
+    {
+        maxSize = pMaxSize;
+    }
+    
+    public int getSegmentCount()
+    {
+        return segmentCount;
+    }
+    
+    public void setSegmentCount(int pSegmentCount)
+    {
+        segmentCount = pSegmentCount;
+    }
+    
     public boolean isXmlRootElement()
     {
         return xmlRootElement;
@@ -0,0 +1,104 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+
+/**
+ * A PrintWriter that holds the source code for one generated file in memory,
+ * and hands it to an OutputSink in a single operation when it is closed. The
+ * generators flush and print in small pieces; buffering the whole file means
+ * that none of that turns into disk traffic, and that several files can be
+ * rendered at once on different threads without any of them seeing a
+ * half-written file.
+ *
+ * @author DMcG
+ */
+public class GeneratedSourceWriter extends PrintWriter
+{
+    /** Where the source code is accumulated until close() */
+    private StringWriter buffer;
+
+    /** Where the source code goes on close() */
+    private OutputSink sink;
+
+    /** The path of the file within the sink */
+    private String path;
+
+    /** True once the buffer has been written out */
+    private boolean written = false;
+
+    /** True if close() found the sink already held this source and left it alone */
+    private boolean unchanged = false;
+
+    public GeneratedSourceWriter(File pOutputFile)
+    {
+        this(pOutputFile, false);
+    }
+
+    /**
+     * Writes to a file on disk. In incremental mode an existing file with the same contents
+     * is left alone; see FileSystemSink.
+     */
+    public GeneratedSourceWriter(File pOutputFile, boolean pIncremental)
+    {
+        this(new FileSystemSink(null, pIncremental), pOutputFile.getPath());
+    }
+
+    public GeneratedSourceWriter(OutputSink pSink, String pPath)
+    {
+        this(pSink, pPath, new StringWriter());
+    }
+
+    private GeneratedSourceWriter(OutputSink pSink, String pPath, StringWriter pBuffer)
+    {
+        super(pBuffer);
+        buffer = pBuffer;
+        sink = pSink;
+        path = pPath;
+    }
+
+    /** The path of the file within the sink */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /** The source code written so far */
+    public String getSource()
+    {
+        this.flush();
+        return buffer.toString();
+    }
+
+    /**
+     * True if the sink already held the generated source and it was not rewritten
+     */
+    public boolean isUnchanged()
+    {
+        return unchanged;
+    }
+
+    /**
+     * Hands the buffered source code to the sink. Calling close() more than once
+     * writes the file only once.
+     */
+    public void close()
+    {
+        synchronized(lock)
+        {
+            if(written)
+                return;
+            written = true;
+            super.close();
+        }
+
+        try
+        {
+            unchanged = !sink.write(path, buffer.toString().getBytes());
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing " + path + " " + e);
+            this.setError();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package edu.nps.moves.xmlpg;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Abstract superclass for all the concrete language generators, such as java, c++, etc.
@@ -20,6 +21,24 @@ public abstract class Generator
     
     protected Properties languageProperties;
     
+    /** Number of threads used to render the classes. 1 renders them one after another
+     * on the calling thread, as before. Set with -Dxmlpg.threads=n on the command line.
+     */
+    protected int threadCount = 1;
+    
+    /** If true, generated files whose contents haven't changed are not rewritten, which
+     * leaves their timestamps alone. Set with -Dxmlpg.incremental=true on the command line.
+     */
+    protected boolean incremental = false;
+    
+    /** Where the generated files go. If null they are written to disk at the paths the
+     * generator works out, as they always have been.
+     */
+    protected OutputSink outputSink = null;
+    
+    /** If not null, writeAllClasses() writes only the classes with these names */
+    protected Collection classFilter = null;
+    
     /**
      * Constructor
      */
@@ -27,6 +46,25 @@ public abstract class Generator
     {
         classDescriptions = pClassDescriptions;
         languageProperties = pLanguageProperties;
+        
+        String clThreads = System.getProperty("xmlpg.threads");
+        if(clThreads != null)
+        {
+            try
+            {
+                this.setThreadCount(Integer.parseInt(clThreads.trim()));
+            }
+            catch(NumberFormatException e)
+            {
+                System.out.println("Invalid xmlpg.threads value " + clThreads + ", generating classes on one thread");
+            }
+        }
+        
+        String clIncremental = System.getProperty("xmlpg.incremental");
+        if(clIncremental != null)
+        {
+            incremental = clIncremental.equalsIgnoreCase("true");
+        }
 
         // Directory is set in the subclasses
 
@@ -51,12 +89,188 @@ public abstract class Generator
     public abstract void writeClasses();
     
     /**
-     * Create the directory in which to put the generated source code files
+     * Generates the code for only the named classes, for example the ones affected by an
+     * edit to the XML file. Files that don't belong to any one class, and generators that
+     * put every class in a single file, are written in full.
+     */
+    public void writeClasses(Collection classNames)
+    {
+        classFilter = classNames;
+        try
+        {
+            this.writeClasses();
+        }
+        finally
+        {
+            classFilter = null;
+        }
+    }
+    
+    /**
+     * Writes the source code file(s) for a single class. Generators that produce
+     * one or more files per class override this and call writeAllClasses() from
+     * writeClasses(). This may be called for several classes at once on different
+     * threads, so it should not modify any state shared between classes.
+     */
+    protected void writeClassFiles(GeneratedClass aClass) throws Exception
+    {
+    }
+    
+    /**
+     * Calls writeClassFiles() for every class description, or every class in classFilter
+     * if that is set, using threadCount threads.
+     */
+    protected void writeAllClasses()
+    {
+        List classes = this.classesByName();
+        if(classFilter != null)
+        {
+            Iterator it = classes.iterator();
+            while(it.hasNext())
+            {
+                if(!classFilter.contains(((GeneratedClass)it.next()).getName()))
+                    it.remove();
+            }
+        }
+        
+        this.forEachClass(classes, new ClassAction()
+        {
+            public void apply(int index, GeneratedClass aClass) throws Exception
+            {
+                writeClassFiles(aClass);
+            }
+        });
+    }
+    
+    /**
+     * Performs some action on every class in the list. If threadCount is greater than one the
+     * list is split up and worked on by a fork-join pool of that many threads; the index passed
+     * to the action is the position of the class in the list, so results can be stored in a
+     * slot per class and assembled afterwards in a deterministic order. An exception on one
+     * class is reported and does not stop the others.
+     */
+    protected void forEachClass(List classes, ClassAction action)
+    {
+        if(threadCount <= 1 || classes.size() <= 1)
+        {
+            new ClassRangeTask(classes, action, 0, classes.size()).compute();
+            return;
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try
+        {
+            pool.invoke(new ClassRangeTask(classes, action, 0, classes.size()));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Returns all the class descriptions sorted by class name.
+     */
+    protected List classesByName()
+    {
+        List classes = new ArrayList(classDescriptions.values());
+        Collections.sort(classes, new Comparator()
+        {
+            public int compare(Object o1, Object o2)
+            {
+                return ((GeneratedClass)o1).getName().compareTo(((GeneratedClass)o2).getName());
+            }
+        });
+        return classes;
+    }
+    
+    /**
+     * Returns a writer for one generated source file. The source code is held in memory and
+     * written to disk when the writer is closed, unless this is an incremental run and the
+     * file on disk already has the same contents. If an output sink has been set the file
+     * goes to the sink instead, with a path relative to the output directory.
+     */
+    protected PrintWriter openOutputFile(String fullPath) throws IOException
+    {
+        if(outputSink == null)
+            return new GeneratedSourceWriter(new File(fullPath), incremental);
+        
+        return new GeneratedSourceWriter(outputSink, this.relativePath(fullPath));
+    }
+    
+    /**
+     * The part of a path below the output directory, for example edu/nps/moves/dis/EntityID.java.
+     * Paths that aren't below the output directory are returned as they are.
+     */
+    protected String relativePath(String fullPath)
+    {
+        String path = fullPath.replace(File.separatorChar, '/');
+        // The generators build paths as getDirectory() + "/" + ..., even when the directory is null
+        String prefix = this.getDirectory() + "/";
+        if(path.startsWith(prefix))
+            return path.substring(prefix.length());
+        return path;
+    }
+    
+    /**
+     * Where the generated files go; null means straight to disk
+     */
+    public OutputSink getOutputSink()
+    {
+        return outputSink;
+    }
+    
+    /**
+     * Sends the generated files to a sink, for example a MemorySink, rather than to
+     * disk. Set to null to write to disk again. The sink is not closed by the generator.
+     */
+    public void setOutputSink(OutputSink pOutputSink)
+    {
+        outputSink = pOutputSink;
+    }
+    
+    /**
+     * True if unchanged files are left alone rather than rewritten
+     */
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+    
+    /**
+     * If true, unchanged files are left alone rather than rewritten
+     */
+    public void setIncremental(boolean pIncremental)
+    {
+        incremental = pIncremental;
+    }
+    
+    /**
+     * Number of threads used to render the classes
+     */
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+    
+    /**
+     * Number of threads used to render the classes. Values less than one are treated as one.
+     */
+    public void setThreadCount(int pThreadCount)
+    {
+        threadCount = Math.max(1, pThreadCount);
+    }
+    
+    /**
+     * Create the directory in which to put the generated source code files. Nothing
+     * is created when the files go to an output sink.
      */
     protected void createDirectory()
     {
         //System.out.println("creating directory");
         //System.out.println("directory=" + this.getDirectory());
+        if(outputSink != null)
+            return;
         boolean success = (new File(this.getDirectory())).mkdirs();
         
     }
@@ -181,7 +395,60 @@ public abstract class Generator
        return startBit;
         
     }
-    
-    
 
+    /**
+     * Something done to one class; see forEachClass()
+     */
+    protected interface ClassAction
+    {
+        public void apply(int index, GeneratedClass aClass) throws Exception;
+    }
+    
+    /**
+     * Applies a ClassAction to a range of a list of classes, splitting the range in half
+     * until it is small enough to do directly. Never serialized; RecursiveAction is only
+     * Serializable because ForkJoinTask is.
+     */
+    @SuppressWarnings("serial")
+    private static class ClassRangeTask extends RecursiveAction
+    {
+        /** Ranges this size or smaller are not split any further */
+        private static final int THRESHOLD = 4;
+        
+        private List classes;
+        private ClassAction action;
+        private int start, end;
+        
+        ClassRangeTask(List pClasses, ClassAction pAction, int pStart, int pEnd)
+        {
+            classes = pClasses;
+            action = pAction;
+            start = pStart;
+            end = pEnd;
+        }
+        
+        protected void compute()
+        {
+            if(end - start > THRESHOLD && inForkJoinPool())
+            {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ClassRangeTask(classes, action, start, middle),
+                          new ClassRangeTask(classes, action, middle, end));
+                return;
+            }
+            
+            for(int idx = start; idx < end; idx++)
+            {
+                GeneratedClass aClass = (GeneratedClass)classes.get(idx);
+                try
+                {
+                    action.apply(idx, aClass);
+                }
+                catch(Exception e)
+                {
+                    System.out.println("error creating source code for " + aClass.getName() + " " + e);
+                }
+            }
+        }
+    }
 }
@@ -24,6 +24,65 @@ public class JavaGenerator extends Generator
     /** "false" or "true" */
     boolean useHibernateAnnotations = true;
     
+    /** If true, a read-only XxxView class that reads fields straight from a ByteBuffer is
+     * written alongside each class. Set with generateViews="true" in the XML file or
+     * -Dxmlpg.generateViews=true on the command line.
+     */
+    boolean generateViews = false;
+    
+    /** If true, and the XML file sets initial pduType values, a PduFactory class is written that
+     * creates the right class for a marshalled PDU. Set with generatePduFactory="true" in the
+     * XML file or -Dxmlpg.generatePduFactory=true on the command line.
+     */
+    boolean generatePduFactory = false;
+    
+    /** If true, a PduFilter class is written that picks PDUs out of a buffer by header field.
+     * Set with generatePduFilter="true" in the XML file or -Dxmlpg.generatePduFilter=true.
+     */
+    boolean generatePduFilter = false;
+    
+    /** If true, a PduBatchWriter class is written that packs PDUs into one buffer. Set with
+     * generatePduBatchWriter="true" in the XML file or -Dxmlpg.generatePduBatchWriter=true.
+     */
+    boolean generatePduBatchWriter = false;
+    
+    /** If true, a PduStreamReader class is written that reads PDUs from a file or channel.
+     * Set with generatePduStreamReader="true" in the XML file or -Dxmlpg.generatePduStreamReader=true.
+     * Turns on generatePduFactory and generatePduFilter.
+     */
+    boolean generatePduStreamReader = false;
+    
+    /** If true, PduCaptureWriter and PduCaptureReader classes are written that record and
+     * search indexed PDU captures. Set with generatePduCapture="true" in the XML file or
+     * -Dxmlpg.generatePduCapture=true. Turns on generatePduFactory.
+     */
+    boolean generatePduCapture = false;
+    
+    /** If true, a PduReplayer class is written that sends a capture back out in time. Set with
+     * generatePduReplayer="true" in the XML file or -Dxmlpg.generatePduReplayer=true. Turns on
+     * generatePduCapture and generatePduBatchWriter.
+     */
+    boolean generatePduReplayer = false;
+    
+    /** If true, unmarshal(ByteBuffer) in the PDU classes leaves contained objects and lists in
+     * the buffer, and decodes each one the first time it is used. Set with lazyDecoding="true"
+     * in the XML file or -Dxmlpg.lazyDecoding=true on the command line.
+     */
+    boolean lazyDecoding = false;
+    
+    /** If true, each class gets marshal() and unmarshal() methods for a java.lang.foreign.MemorySegment,
+     * and the constant size classes a static MemoryLayout. The generated code then needs Java 22 or
+     * later. Set with generateMemorySegment="true" in the XML file or -Dxmlpg.generateMemorySegment=true
+     * on the command line.
+     */
+    boolean generateMemorySegment = false;
+    
+    /** Projections to write, as "EntityStatePdu:entityID,entityLocation;FirePdu:eventID". Each
+     * gets an XxxProjection class that decodes only the fields listed from a marshalled Xxx. Set
+     * with projections="..." in the XML file or -Dxmlpg.projections=... on the command line.
+     */
+    String projections = null;
+    
     /** Maps the primitive types listed in the XML file to the java types */
     Properties types = new Properties();
     
@@ -46,6 +105,28 @@ public class JavaGenerator extends Generator
      */
     Properties javaProperties;
     
+    /** Names of the classes whose marshalled size is always the same, so that getMarshalledSize()
+     * can return a constant. Worked out in writeClasses().
+     */
+    Set constantSizeClasses = new HashSet();
+    
+    /** Names of the classes that have subclasses */
+    Set parentClasses = new HashSet();
+    
+    /** Which class goes with each pduType, or null if the XML file doesn't set any. Worked out in writeClasses(). */
+    PduTypeTable pduTypes = null;
+    
+    /** Names of the PDU header classes: the class that declares pduType, and the classes
+     * between it and the concrete PDUs. These get static peekXxx() methods.
+     */
+    Set headerClasses = new HashSet();
+    
+    /** Names of the classes that decode lazily: the PDU classes, if lazyDecoding is on */
+    Set lazyClasses = new HashSet();
+    
+    /** The most spare instances of each class kept for acquire() */
+    public static final int POOL_SIZE = 128;
+    
     public JavaGenerator(HashMap pClassDescriptions, Properties pJavaProperties)
     {
         super(pClassDescriptions, pJavaProperties);
@@ -62,6 +143,16 @@ public class JavaGenerator extends Generator
             String clDirectory = systemProperties.getProperty("xmlpg.generatedSourceDir");
             //System.out.println("clDirectory=" + clDirectory);
             String clPackage = systemProperties.getProperty("xmlpg.package");
+            String clGenerateViews = systemProperties.getProperty("xmlpg.generateViews");
+            String clGeneratePduFactory = systemProperties.getProperty("xmlpg.generatePduFactory");
+            String clGeneratePduFilter = systemProperties.getProperty("xmlpg.generatePduFilter");
+            String clGeneratePduBatchWriter = systemProperties.getProperty("xmlpg.generatePduBatchWriter");
+            String clGeneratePduStreamReader = systemProperties.getProperty("xmlpg.generatePduStreamReader");
+            String clGeneratePduCapture = systemProperties.getProperty("xmlpg.generatePduCapture");
+            String clGeneratePduReplayer = systemProperties.getProperty("xmlpg.generatePduReplayer");
+            String clLazyDecoding = systemProperties.getProperty("xmlpg.lazyDecoding");
+            String clGenerateMemorySegment = systemProperties.getProperty("xmlpg.generateMemorySegment");
+            String clProjections = systemProperties.getProperty("xmlpg.projections");
 
             //System.out.println("System properties: " + systemProperties);
             
@@ -77,6 +168,36 @@ public class JavaGenerator extends Generator
             if(clPackage != null)
                 pJavaProperties.setProperty("package", clPackage);
 
+            if(clGenerateViews != null)
+                pJavaProperties.setProperty("generateViews", clGenerateViews);
+
+            if(clGeneratePduFactory != null)
+                pJavaProperties.setProperty("generatePduFactory", clGeneratePduFactory);
+
+            if(clGeneratePduFilter != null)
+                pJavaProperties.setProperty("generatePduFilter", clGeneratePduFilter);
+
+            if(clGeneratePduBatchWriter != null)
+                pJavaProperties.setProperty("generatePduBatchWriter", clGeneratePduBatchWriter);
+
+            if(clGeneratePduStreamReader != null)
+                pJavaProperties.setProperty("generatePduStreamReader", clGeneratePduStreamReader);
+
+            if(clGeneratePduCapture != null)
+                pJavaProperties.setProperty("generatePduCapture", clGeneratePduCapture);
+
+            if(clGeneratePduReplayer != null)
+                pJavaProperties.setProperty("generatePduReplayer", clGeneratePduReplayer);
+
+            if(clLazyDecoding != null)
+                pJavaProperties.setProperty("lazyDecoding", clLazyDecoding);
+
+            if(clGenerateMemorySegment != null)
+                pJavaProperties.setProperty("generateMemorySegment", clGenerateMemorySegment);
+
+            if(clProjections != null)
+                pJavaProperties.setProperty("projections", clProjections);
+
             super.setDirectory(clDirectory);
 
             System.out.println("Source code directory set to " + clDirectory);
@@ -89,6 +210,36 @@ public class JavaGenerator extends Generator
                 this.useJaxbAnnotations = false;
             else
                 this.useJaxbAnnotations = true;
+
+            this.generateViews = "true".equalsIgnoreCase(pJavaProperties.getProperty("generateViews"));
+            this.generatePduFactory = "true".equalsIgnoreCase(pJavaProperties.getProperty("generatePduFactory"));
+            this.generatePduFilter = "true".equalsIgnoreCase(pJavaProperties.getProperty("generatePduFilter"));
+            this.generatePduBatchWriter = "true".equalsIgnoreCase(pJavaProperties.getProperty("generatePduBatchWriter"));
+            this.generatePduStreamReader = "true".equalsIgnoreCase(pJavaProperties.getProperty("generatePduStreamReader"));
+            this.generatePduCapture = "true".equalsIgnoreCase(pJavaProperties.getProperty("generatePduCapture"));
+            this.generatePduReplayer = "true".equalsIgnoreCase(pJavaProperties.getProperty("generatePduReplayer"));
+            this.lazyDecoding = "true".equalsIgnoreCase(pJavaProperties.getProperty("lazyDecoding"));
+            this.generateMemorySegment = "true".equalsIgnoreCase(pJavaProperties.getProperty("generateMemorySegment"));
+            this.projections = pJavaProperties.getProperty("projections");
+            
+            // The replayer reads captures and sends batches; the stream reader takes a PduFilter;
+            // the stream and capture readers decode with PduFactory
+            if(this.generatePduReplayer && !(this.generatePduCapture && this.generatePduBatchWriter))
+            {
+                System.out.println("generatePduReplayer is set, so generatePduCapture and generatePduBatchWriter are turned on too");
+                this.generatePduCapture = true;
+                this.generatePduBatchWriter = true;
+            }
+            if(this.generatePduStreamReader && !this.generatePduFilter)
+            {
+                System.out.println("generatePduStreamReader is set, so generatePduFilter is turned on too");
+                this.generatePduFilter = true;
+            }
+            if((this.generatePduStreamReader || this.generatePduCapture) && !this.generatePduFactory)
+            {
+                System.out.println("generatePduStreamReader or generatePduCapture is set, so generatePduFactory is turned on too");
+                this.generatePduFactory = true;
+            }
         }
         catch(Exception e)
         {
@@ -165,52 +316,259 @@ public class JavaGenerator extends Generator
     public void writeClasses()
     {
         this.createDirectory();
+        parentClasses = this.findParentClasses();
+        constantSizeClasses = this.findConstantSizeClasses();
+        pduTypes = PduTypeTable.build(classDescriptions);
+        headerClasses = this.findHeaderClasses();
+        lazyClasses = this.findLazyClasses();
         
-        Iterator it = classDescriptions.values().iterator();
+        // Each PDU in a list of PDUs is measured with PduFactory, whatever its class
+        String pduListClass = this.findPduListClass();
+        if(pduListClass != null && !generatePduFactory)
+        {
+            System.out.println(pduListClass + " has a list of PDUs, which are measured with PduFactory, so generatePduFactory is turned on too");
+            generatePduFactory = true;
+        }
         
-        while(it.hasNext())
+        if(generateMemorySegment && classDescriptions.containsKey("SegmentLayouts"))
         {
-            try
-           {
-              GeneratedClass aClass = (GeneratedClass)it.next();
-              String name = aClass.getName();
-              
-              // Create package structure, if any
-              String pack = languageProperties.getProperty("package");
-              String fullPath;
-              
-              // If we have a package specified, replace the dots in the package name (edu.nps.moves.dis)
-              // with slashes (edu/nps/moves/dis and create that directory
-              if(pack != null)
-              {
-                  pack = pack.replace(".", "/");
-                  fullPath = getDirectory() + "/" + pack + "/" + name + ".java";
-                  //System.out.println("full path is " + fullPath);
-              }
-              else
-             {
-                   fullPath = getDirectory() + "/" + name + ".java";
-             }
-			 //System.out.println("Creating Java source code file for " + fullPath);
-              
-              // Create the new, empty file, and create printwriter object for output to it
-              File outputFile = new File(fullPath);
-              outputFile.getParentFile().mkdirs();
-              outputFile.createNewFile();
-              PrintWriter pw = new PrintWriter(outputFile);
-              
-              // print the source code of the class to the file
-              this.writeClass(pw, aClass);
-           }
-           catch(Exception e)
-           {
-               System.out.println("error creating source code " + e);
-           }
-            
-        } // End while
+            System.out.println("The XML file has a class called SegmentLayouts, so no MemorySegment methods were written");
+            generateMemorySegment = false;
+        }
+        if(generateMemorySegment)
+            this.writeSegmentLayouts();
+        
+        this.writeAllClasses();
+        
+        if(pduTypes != null)
+        {
+            if(generatePduFactory)
+                this.writePduFactory(pduTypes);
+            if(generatePduFilter)
+                this.writePduFilter(pduTypes);
+            if(generatePduBatchWriter)
+                this.writePduBatchWriter(pduTypes);
+            if(generatePduStreamReader)
+                this.writePduStreamReader(pduTypes);
+            if(generatePduCapture)
+            {
+                this.writePduCaptureWriter(pduTypes);
+                this.writePduCaptureReader(pduTypes);
+            }
+            if(generatePduReplayer)
+                this.writePduReplayer(pduTypes);
+        }
+        
+        if(projections != null)
+            this.writeProjections();
     
     } // End write classes
     
+    /**
+     * Write the java source file for one class
+     */
+    protected void writeClassFiles(GeneratedClass aClass) throws Exception
+    {
+        String name = aClass.getName();
+        
+        // Create a writer for the new file; the parent directories are created when it is closed
+        PrintWriter pw = this.openOutputFile(this.sourceFilePath(name));
+        
+        // print the source code of the class to the file
+        this.writeClass(pw, aClass);
+        
+        if(generateViews)
+        {
+            pw = this.openOutputFile(this.sourceFilePath(name + "View"));
+            this.writeViewClass(pw, aClass);
+        }
+    }
+    
+    /**
+     * The path of the source file for a class, in the package directory if there is one
+     */
+    private String sourceFilePath(String className)
+    {
+        // Create package structure, if any
+        String pack = languageProperties.getProperty("package");
+        
+        // If we have a package specified, replace the dots in the package name (edu.nps.moves.dis)
+        // with slashes (edu/nps/moves/dis and create that directory
+        if(pack != null)
+        {
+            pack = pack.replace(".", "/");
+            return getDirectory() + "/" + pack + "/" + className + ".java";
+        }
+        
+        return getDirectory() + "/" + className + ".java";
+    }
+
+    /**
+     * Writes PduFactory, which creates the right class for a marshalled PDU by looking up
+     * its pduType in a table. The table entry for each type is created the first time that
+     * type is seen, so the PDU classes are only loaded when they are needed.
+     */
+    private void writePduFactory(PduTypeTable pduTypes)
+    {
+        if(classDescriptions.containsKey("PduFactory"))
+        {
+            System.out.println("The XML file has a class called PduFactory, so no PDU factory was written");
+            return;
+        }
+
+        String base = pduTypes.getBaseClass().getName();
+
+        try
+        {
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("PduFactory"));
+
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
+            {
+                pw.println("package " + packageName + ";");
+                pw.println();
+            }
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Creates PDUs from their marshalled form, using the pduType field in the header");
+            pw.println(" * to pick the class. The class for each pduType comes from the initial values in");
+            pw.println(" * the XML file this code was generated from.<p>");
+            pw.println(" *");
+            pw.println(" * The decoder for a pduType is made the first time that type is seen, so only the");
+            pw.println(" * classes of PDUs that are actually received get loaded.<p>");
+            pw.println(" *");
+            pw.println(" * A factory made with usePool true takes its PDUs from each class's pool with");
+            pw.println(" * acquire(). Call release() on those PDUs once they are no longer needed.");
+            pw.println(" */");
+            pw.println("public class PduFactory");
+            pw.println("{");
+            pw.println("    /** Offset in bytes of the pduType field from the start of a PDU */");
+            pw.println("    public static final int PDU_TYPE_OFFSET = " + pduTypes.getTypeOffset() + ";");
+            pw.println();
+            pw.println("    /** Makes instances of the class for one pduType */");
+            pw.println("    public interface Decoder");
+            pw.println("    {");
+            pw.println("        /** A new PDU of this type */");
+            pw.println("        public " + base + " create();");
+            pw.println();
+            pw.println("        /** A PDU of this type from the class's pool */");
+            pw.println("        public " + base + " acquire();");
+            pw.println();
+            pw.println("        /** Size of the marshalled PDU of this type starting at offset in buff */");
+            pw.println("        public int sizeAt(ByteBuffer buff, int offset);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Decoders indexed by pduType, made when first needed. Decoders have no state, so");
+            pw.println("     * two threads that both make the decoder for a type do no harm. */");
+            pw.println("    private static final Decoder[] decoders = new Decoder[" + pduTypes.getTableSize() + "];");
+            pw.println();
+            pw.println("    /** If true, PDUs come from the pools rather than being created */");
+            pw.println("    private boolean usePool;");
+            pw.println();
+            pw.println("    public PduFactory()");
+            pw.println("    {");
+            pw.println("        this(false);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public PduFactory(boolean pUsePool)");
+            pw.println("    {");
+            pw.println("        usePool = pUsePool;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Unmarshals the PDU at the buffer's position, leaving the position just past it.");
+            pw.println("     * Returns null, without moving the position, if the pduType is not known.");
+            pw.println("     */");
+            pw.println("    public " + base + " createPdu(ByteBuffer buff)");
+            pw.println("    {");
+            pw.println("        int pduType = " + base + ".peek" + this.initialCap(PduTypeTable.TYPE_FIELD) + "(buff, buff.position());");
+            pw.println("        " + base + " pdu = this.createPdu(pduType);");
+            pw.println("        if(pdu != null)");
+            pw.println("            pdu.unmarshal(buff);");
+            pw.println("        return pdu;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Unmarshals a PDU from the start of a byte array, or returns null if the pduType is not known */");
+            pw.println("    public " + base + " createPdu(byte[] data)");
+            pw.println("    {");
+            pw.println("        return this.createPdu(ByteBuffer.wrap(data));");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** An empty PDU of the given type, or null if the type is not known */");
+            pw.println("    public " + base + " createPdu(int pduType)");
+            pw.println("    {");
+            pw.println("        Decoder decoder = PduFactory.getDecoder(pduType);");
+            pw.println("        if(decoder == null)");
+            pw.println("            return null;");
+            pw.println("        return usePool ? decoder.acquire() : decoder.create();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Size of the marshalled PDU starting at offset in buff, worked out from its pduType and");
+            pw.println("     * count fields without unmarshalling it, or -1 if the pduType is not known");
+            pw.println("     */");
+            pw.println("    public static int sizeAt(ByteBuffer buff, int offset)");
+            pw.println("    {");
+            pw.println("        Decoder decoder = PduFactory.getDecoder(" + base + ".peek" + this.initialCap(PduTypeTable.TYPE_FIELD) + "(buff, offset));");
+            pw.println("        if(decoder == null)");
+            pw.println("            return -1;");
+            pw.println("        return decoder.sizeAt(buff, offset);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The decoder for a pduType, or null if no class has that type */");
+            pw.println("    public static Decoder getDecoder(int pduType)");
+            pw.println("    {");
+            pw.println("        if(pduType < 0 || pduType >= decoders.length)");
+            pw.println("            return null;");
+            pw.println();
+            pw.println("        Decoder decoder = decoders[pduType];");
+            pw.println("        if(decoder == null)");
+            pw.println("        {");
+            pw.println("            decoder = PduFactory.newDecoder(pduType);");
+            pw.println("            decoders[pduType] = decoder;");
+            pw.println("        }");
+            pw.println("        return decoder;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Makes the decoder for a pduType. Each decoder is its own class, and neither it");
+            pw.println("     * nor the PDU class is loaded until its case runs. (Decoder is an interface so");
+            pw.println("     * that the verifier doesn't load every decoder class to check the return type.)");
+            pw.println("     */");
+            pw.println("    private static Decoder newDecoder(int pduType)");
+            pw.println("    {");
+            pw.println("        switch(pduType)");
+            pw.println("        {");
+
+            Iterator it = pduTypes.getPduTypes().iterator();
+            while(it.hasNext())
+            {
+                Integer aType = (Integer)it.next();
+                String className = pduTypes.getClassName(aType.intValue());
+                pw.println("            case " + aType + ": // " + className);
+                pw.println("                return new Decoder()");
+                pw.println("                {");
+                pw.println("                    public " + base + " create() { return new " + className + "(); }");
+                pw.println("                    public " + base + " acquire() { return " + className + ".acquire(); }");
+                pw.println("                    public int sizeAt(ByteBuffer buff, int offset) { return " + className + ".sizeAt(buff, offset); }");
+                pw.println("                };");
+                pw.println();
+            }
+
+            pw.println("            default:");
+            pw.println("                return null;");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println("}");
+            pw.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing PduFactory " + e);
+        }
+    }
+
       /**
      * Generate a source code file with getters, setters, ivars, and marshal/unmarshal
      * methods for one class. 
@@ -218,33 +576,37 @@ public class JavaGenerator extends Generator
     private void writeClass(PrintWriter pw, GeneratedClass aClass)
     {
         this.writeImports(pw, aClass);
-		pw.flush();
         this.writeClassComments(pw, aClass);
-		pw.flush();
         this.writeClassDeclaration(pw, aClass);
-		pw.flush();
         this.writeIvars(pw, aClass);
-		pw.flush();
         this.writeConstructor(pw, aClass);
-		pw.flush();
+        this.writeResetAndPoolMethods(pw, aClass);
+        this.writeCopyMethods(pw, aClass);
         this.writeGetMarshalledSizeMethod(pw, aClass);
-		pw.flush();
+        this.writeSizeAtMethods(pw, aClass);
         this.writeGettersAndSetters(pw, aClass);
-		pw.flush();
         this.writeBitflagMethods(pw, aClass);
-                pw.flush();
         this.writeMarshalMethod(pw, aClass);
-		pw.flush();
         this.writeUnmarshallMethod(pw, aClass);
-		pw.flush();
         this.writeMarshalMethodWithByteBuffer(pw, aClass);
-		pw.flush();
         this.writeUnmarshallMethodWithByteBuffer(pw, aClass);
-		pw.flush();
+        if(generateMemorySegment)
+        {
+            this.writeMarshalMethodWithSegment(pw, aClass);
+            this.writeUnmarshalMethodWithSegment(pw, aClass);
+        }
+        if(headerClasses.contains(aClass.getName()))
+        {
+            this.writePeekMethods(pw, aClass);
+        }
+        this.writePokeMethods(pw, aClass);
+        if(lazyClasses.contains(aClass.getName()))
+        {
+            this.writeLazyMethods(pw, aClass);
+        }
         if( aClass.getName().equals("Pdu") )
 	{
             this.writeMarshalMethodToByteArray(pw, aClass);
-            pw.flush();
         }
 
         
@@ -257,7 +619,6 @@ public class JavaGenerator extends Generator
         this.writeEqualityMethod(pw, aClass);
         
         pw.println("} // end of class");
-        pw.flush();
         pw.close();
     }
     
@@ -463,7 +824,16 @@ public class JavaGenerator extends Generator
                     pw.println("   /** " + anAttribute.getComment() + " */");
                 }
                 
-                pw.println("   protected List< " + attributeType + " > " + anAttribute.getName() + " = new ArrayList< " + attributeType + " >(); ");
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                {
+                    // A primitive array rather than a List, so the elements aren't boxed
+                    String javaType = types.getProperty(attributeType);
+                    pw.println("   protected " + javaType + "[] " + anAttribute.getName() + " = new " + javaType + "[0]; ");
+                }
+                else
+                {
+                    pw.println("   protected List< " + attributeType + " > " + anAttribute.getName() + " = new ArrayList< " + attributeType + " >(); ");
+                }
             }
         } // End of loop through ivars
     }
@@ -478,6 +848,37 @@ public class JavaGenerator extends Generator
         pw.println(" public " + aClass.getName() + "()");
         pw.println(" {");
         
+        this.writeInitialValues(pw, aClass);
+        
+        // If we have fixed lists with object instances in them, initialize those
+
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST)
+            {
+                //System.out.println("Generating constructor fixed list for " + anAttribute.getName() + " listIsClass:" + anAttribute.listIsClass());
+                if(anAttribute.listIsClass() == true)
+                {
+                    pw.println("\n     for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
+                    pw.println("     {");
+                    pw.println("         " + anAttribute.getName() + "[idx] = new " + anAttribute.getType() + "();");
+                    pw.println("     }\n");
+                }
+            }
+                
+        }
+        pw.println(" }");
+        
+    }
+    
+    /**
+     * Writes the calls that set the initial values given in the XML file, for the
+     * constructor and reset()
+     */
+    private void writeInitialValues(PrintWriter pw, GeneratedClass aClass)
+    {
         // Set primitive types with initial values
         List inits = aClass.getInitialValues();
         for(int idx = 0; idx < inits.size(); idx++)
@@ -517,944 +918,4528 @@ public class JavaGenerator extends Generator
                 pw.println("    " + anInit.getSetterMethodName() + "( (" +  types.getProperty(aType) + ")" + anInit.getVariableValue() + " );");
             }
         } // End initialize initial values
+    }
+    
+    /**
+     * Writes copyFrom(), which makes an object a copy of another of the same class reusing
+     * the objects it already contains, and deepCopy(), which makes a new copy
+     */
+    private void writeCopyMethods(PrintWriter pw, GeneratedClass aClass)
+    {
+        String name = aClass.getName();
+        List ivars = aClass.getClassAttributes();
+        
+        pw.println("/**");
+        pw.println(" * Makes this a copy of other. Contained objects, arrays and lists are copied into the");
+        pw.println(" * ones this already has, so nothing is allocated unless a list gets longer. Objects");
+        pw.println(" * dropped from the lists aren't released to their pools, since they may still be in use.");
+        pw.println(" */");
+        pw.println("public void copyFrom(" + name + " other)");
+        pw.println("{");
+        if(!aClass.getParentClass().equalsIgnoreCase("root"))
+        {
+            pw.println("    super.copyFrom(other);");
+        }
+        else if(lazyClasses.contains(name))
+        {
+            pw.println("    other.decodeAll();");
+            pw.println("    this.dropLazyFields();");
+        }
         
-        // If we have fixed lists with object instances in them, initialize those
-
         for(int idx = 0; idx < ivars.size(); idx++)
         {
             ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            String attributeName = anAttribute.getName();
+            String type = anAttribute.getType();
             
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST)
+            switch(anAttribute.getAttributeKind())
             {
-                //System.out.println("Generating constructor fixed list for " + anAttribute.getName() + " listIsClass:" + anAttribute.listIsClass());
-                if(anAttribute.listIsClass() == true)
-                {
-                    pw.println("\n     for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
-                    pw.println("     {");
-                    pw.println("         " + anAttribute.getName() + "[idx] = new " + anAttribute.getType() + "();");
-                    pw.println("     }\n");
-                }
+                case PRIMITIVE:
+                    pw.println("    " + attributeName + " = other." + attributeName + ";");
+                    break;
+                    
+                case CLASSREF:
+                    // A field of a class with subclasses may hold a subclass, whose own fields
+                    // copyFrom() wouldn't copy; deepCopy() is overridden, so copies the lot
+                    if(parentClasses.contains(type))
+                    {
+                        pw.println("    if(" + attributeName + ".getClass() == " + type + ".class && other." + attributeName + ".getClass() == " + type + ".class)");
+                        pw.println("        " + attributeName + ".copyFrom(other." + attributeName + ");");
+                        pw.println("    else");
+                        pw.println("        " + attributeName + " = other." + attributeName + ".deepCopy();");
+                    }
+                    else
+                    {
+                        pw.println("    " + attributeName + ".copyFrom(other." + attributeName + ");");
+                    }
+                    break;
+                    
+                case FIXED_LIST:
+                    if(anAttribute.getUnderlyingTypeIsPrimitive())
+                    {
+                        pw.println("    System.arraycopy(other." + attributeName + ", 0, " + attributeName + ", 0, " + attributeName + ".length);");
+                    }
+                    else
+                    {
+                        pw.println("    for(int idx = 0; idx < " + attributeName + ".length; idx++)");
+                        pw.println("        " + attributeName + "[idx].copyFrom(other." + attributeName + "[idx]);");
+                    }
+                    break;
+                    
+                case VARIABLE_LIST:
+                    if(this.isPrimitiveList(anAttribute))
+                    {
+                        pw.println("    if(" + attributeName + ".length != other." + attributeName + ".length)");
+                        pw.println("        " + attributeName + " = new " + types.getProperty(type) + "[other." + attributeName + ".length];");
+                        pw.println("    System.arraycopy(other." + attributeName + ", 0, " + attributeName + ", 0, " + attributeName + ".length);");
+                        break;
+                    }
+                    
+                    pw.println("    while(" + attributeName + ".size() > other." + attributeName + ".size())");
+                    pw.println("        " + attributeName + ".remove(" + attributeName + ".size() - 1);");
+                    pw.println("    for(int idx = 0; idx < other." + attributeName + ".size(); idx++)");
+                    pw.println("    {");
+                    pw.println("        " + type + " from = other." + attributeName + ".get(idx);");
+                    if(parentClasses.contains(type))
+                    {
+                        pw.println("        if(idx < " + attributeName + ".size() && " + attributeName + ".get(idx).getClass() == " + type + ".class && from.getClass() == " + type + ".class)");
+                        pw.println("            " + attributeName + ".get(idx).copyFrom(from);");
+                        pw.println("        else if(idx < " + attributeName + ".size())");
+                        pw.println("            " + attributeName + ".set(idx, from.deepCopy());");
+                        pw.println("        else");
+                        pw.println("            " + attributeName + ".add(from.deepCopy());");
+                    }
+                    else
+                    {
+                        pw.println("        if(idx == " + attributeName + ".size())");
+                        pw.println("            " + attributeName + ".add(" + type + ".acquire());");
+                        pw.println("        " + attributeName + ".get(idx).copyFrom(from);");
+                    }
+                    pw.println("    }");
+                    break;
+                    
+                default:
+                    break;
             }
-                
         }
-        pw.println(" }");
+        pw.println("}");
+        pw.println();
         
+        pw.println("/** A new " + name + " that is a copy of this one, down to the objects in its lists */");
+        if(!aClass.getParentClass().equalsIgnoreCase("root"))
+        {
+            pw.println("@Override");
+        }
+        pw.println("public " + name + " deepCopy()");
+        pw.println("{");
+        pw.println("    " + name + " copy = new " + name + "();");
+        pw.println("    copy.copyFrom(this);");
+        pw.println("    return copy;");
+        pw.println("}");
+        pw.println();
     }
     
-    public void writeGetMarshalledSizeMethod(PrintWriter pw, GeneratedClass aClass)
+    /**
+     * Writes reset(), which puts an object back the way the constructor left it while
+     * keeping the contained objects, and the pool used by acquire() and release()
+     */
+    private void writeResetAndPoolMethods(PrintWriter pw, GeneratedClass aClass)
     {
+        String name = aClass.getName();
         List ivars = aClass.getClassAttributes();
-         // Create a getMarshalledSize() method
+        
         pw.println();
-        // Methods of the form getFoo() for non-iVars will confuse hibernate unless marked as transient
-        if(useHibernateAnnotations)
-        {
-          pw.println("@Transient  // Marked as transient to prevent hibernate from thinking this is a persistent property");
-        }
-        pw.println("public int getMarshalledSize()");
+        pw.println("/**");
+        pw.println(" * Sets the fields back to the values a new " + name + " has, reusing the objects it");
+        pw.println(" * contains. Variable length lists are emptied; their objects aren't released to their");
+        pw.println(" * pools, since they may still be in use.");
+        pw.println(" */");
+        pw.println("public void reset()");
         pw.println("{");
-        pw.println("   int marshalSize = 0; ");
-        pw.println();
-        
-        // Size of superclass is the starting point
         if(!aClass.getParentClass().equalsIgnoreCase("root"))
         {
-            pw.println("   marshalSize = super.getMarshalledSize();");
+            pw.println("    super.reset();");
+        }
+        else if(lazyClasses.contains(aClass.getName()))
+        {
+            pw.println("    this.dropLazyFields();");
         }
         
         for(int idx = 0; idx < ivars.size(); idx++)
         {
             ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            if(anAttribute.shouldSerialize == false)
+                continue;
             
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            switch(anAttribute.getAttributeKind())
             {
-                pw.print("   marshalSize = marshalSize + ");
-                pw.println(primitiveSizes.get(anAttribute.getType()) + ";  // " + anAttribute.getName());
-            }
-            
+                case PRIMITIVE:
+                    String attributeType = types.getProperty(anAttribute.getType());
+                    String defaultValue = anAttribute.getDefaultValue();
+                    if(defaultValue == null)
+                        defaultValue = "0";
+                    pw.println("    " + anAttribute.getName() + " = (" + attributeType + ")" + defaultValue + ";");
+                    break;
+                    
+                case CLASSREF:
+                    pw.println("    " + anAttribute.getName() + ".reset();");
+                    break;
+                    
+                case FIXED_LIST:
+                    if(anAttribute.getUnderlyingTypeIsPrimitive())
+                    {
+                        pw.println("    java.util.Arrays.fill(" + anAttribute.getName() + ", (" + types.getProperty(anAttribute.getType()) + ")0);");
+                    }
+                    else if(anAttribute.listIsClass())
+                    {
+                        pw.println("    for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
+                        pw.println("        " + anAttribute.getName() + "[idx].reset();");
+                    }
+                    break;
+                    
+                case VARIABLE_LIST:
+                    if(this.isPrimitiveList(anAttribute))
+                    {
+                        String javaType = types.getProperty(anAttribute.getType());
+                        pw.println("    if(" + anAttribute.getName() + ".length != 0)");
+                        pw.println("        " + anAttribute.getName() + " = new " + javaType + "[0];");
+                        break;
+                    }
+                    pw.println("    " + anAttribute.getName() + ".clear();");
+                    break;
+                    
+                default:
+                    break;
+            }
+        }
+        
+        this.writeInitialValues(pw, aClass);
+        pw.println("}");
+        pw.println();
+        
+        pw.println("/** Spare instances handed out by acquire() */");
+        pw.println("private static final java.util.ArrayList<" + name + "> instancePool = new java.util.ArrayList<" + name + ">();");
+        pw.println();
+        pw.println("/** The most spare instances kept in the pool */");
+        pw.println("public static final int MAX_POOLED = " + POOL_SIZE + ";");
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Returns a spare " + name + " from the pool, or a new one if there are none. Either way");
+        pw.println(" * it is in the same state as a newly constructed object.");
+        pw.println(" */");
+        pw.println("public static " + name + " acquire()");
+        pw.println("{");
+        pw.println("    synchronized(instancePool)");
+        pw.println("    {");
+        pw.println("        if(!instancePool.isEmpty())");
+        pw.println("            return instancePool.remove(instancePool.size() - 1);");
+        pw.println("    }");
+        pw.println("    return new " + name + "();");
+        pw.println("}");
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Resets this object and returns it to the pool, to be handed out again by acquire().");
+        pw.println(" * Only call it once nothing uses the object any more. The objects in its lists aren't");
+        pw.println(" * released with it; release them first if nothing else uses them either.");
+        pw.println(" */");
+        pw.println("public void release()");
+        pw.println("{");
+        pw.println("    this.reset();");
+        pw.println("    synchronized(instancePool)");
+        pw.println("    {");
+        pw.println("        if(instancePool.size() < MAX_POOLED)");
+        pw.println("            instancePool.add(this);");
+        pw.println("    }");
+        pw.println("}");
+        pw.println();
+    }
+    
+    /**
+     * Writes the code that unmarshals a variable length list of objects from source (dis,
+     * buff or segment). The objects already in the list are reused and the list grows from the
+     * element type's pool. Any left over are dropped, not released, since the caller may still
+     * hold them.
+     */
+    private void writeObjectListUnmarshal(PrintWriter pw, ClassAttribute anAttribute, String source)
+    {
+        String list = anAttribute.getName();
+        String type = anAttribute.getType();
+        String count = anAttribute.getCountFieldName();
+        
+        pw.println("       while(" + list + ".size() > " + count + ")");
+        pw.println("           " + list + ".remove(" + list + ".size() - 1);");
+        pw.println("       for(int idx = 0; idx < " + count + "; idx++)");
+        pw.println("       {");
+        pw.println("            " + type + " anX;");
+        
+        // A list of a class with subclasses may be holding a subclass, which would unmarshal
+        // the wrong fields; only reuse elements of exactly the right class.
+        if(parentClasses.contains(type))
+        {
+            pw.println("            if(idx < " + list + ".size() && " + list + ".get(idx).getClass() == " + type + ".class)");
+            pw.println("                anX = " + list + ".get(idx);");
+            pw.println("            else");
+            pw.println("            {");
+            pw.println("                anX = " + type + ".acquire();");
+            pw.println("                if(idx < " + list + ".size())");
+            pw.println("                    " + list + ".set(idx, anX);");
+            pw.println("                else");
+            pw.println("                    " + list + ".add(anX);");
+            pw.println("            }");
+        }
+        else
+        {
+            pw.println("            if(idx < " + list + ".size())");
+            pw.println("                anX = " + list + ".get(idx);");
+            pw.println("            else");
+            pw.println("            {");
+            pw.println("                anX = " + type + ".acquire();");
+            pw.println("                " + list + ".add(anX);");
+            pw.println("            }");
+        }
+        if(source.equals("segment"))
+            pw.println("            offset = anX.unmarshal(segment, offset);");
+        else
+            pw.println("            anX.unmarshal(" + source + ");");
+        pw.println("       }");
+        pw.println();
+    }
+
+    /**
+     * True for a variable length list of primitives. These are kept in a plain Java array
+     * whose length is the number of elements, rather than a List of boxed values.
+     */
+    private boolean isPrimitiveList(ClassAttribute anAttribute)
+    {
+        return anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST && anAttribute.getUnderlyingTypeIsPrimitive();
+    }
+
+    /** Java expression for the number of elements in a variable length list */
+    private String listSize(ClassAttribute anAttribute)
+    {
+        if(this.isPrimitiveList(anAttribute))
+            return anAttribute.getName() + ".length";
+        return anAttribute.getName() + ".size()";
+    }
+
+    /**
+     * True if the Java array type for a primitive holds exactly what is marshalled, so the
+     * array can be copied in bulk. Unsigned types are held in a wider Java type and have
+     * to be converted one element at a time.
+     */
+    private boolean marshalsAsJavaType(String type)
+    {
+        return types.getProperty(type).equals(marshalTypes.getProperty(type)) && !type.equals("unsigned long");
+    }
+
+    /**
+     * Writes the code that reads the elements of a primitive array from source (dis or buff).
+     * The array must already be the right length.
+     */
+    private void writePrimitiveArrayRead(PrintWriter pw, String type, String array, String source)
+    {
+        String marshalType = marshalTypes.getProperty(type);
+        int size = WireLayout.primitiveSize(type);
+        boolean stream = source.equals("dis");
+
+        if(marshalType.equals("byte") && this.marshalsAsJavaType(type))
+        {
+            pw.println("       " + source + (stream ? ".readFully(" : ".get(") + array + ");");
+            return;
+        }
+
+        if(!stream && this.marshalsAsJavaType(type))
+        {
+            // A typed view of the buffer copies the whole array in one go, in the buffer's byte order
+            pw.println("       " + source + ".as" + this.initialCap(marshalType) + "Buffer().get(" + array + ");");
+            pw.println("       " + source + ".position(" + source + ".position() + " + array + ".length * " + size + ");");
+            return;
+        }
+
+        if(stream)
+        {
+            String read;
+            if(type.equals("unsigned byte"))
+                read = "(short)dis.readUnsignedByte()";
+            else if(type.equals("unsigned short"))
+                read = "dis.readUnsignedShort()";
+            else
+                read = "dis.read" + this.initialCap(marshalType) + "()";
+
+            pw.println("       for(int idx = 0; idx < " + array + ".length; idx++)");
+            pw.println("           " + array + "[idx] = " + read + ";");
+            return;
+        }
+
+        // Unsigned values are widened in a counted loop that reads at absolute indexes and only
+        // moves the position once at the end, which the JIT can unroll and vectorize
+        String start = array + "Start";
+        String index = size == 1 ? start + " + idx" : start + " + idx * " + size;
+        String length = size == 1 ? array + ".length" : array + ".length * " + size;
+        String read = this.viewRead(type, source, index);
+
+        pw.println("       if(" + source + ".remaining() < " + length + ")");
+        pw.println("           throw new java.nio.BufferUnderflowException();");
+        pw.println("       int " + start + " = " + source + ".position();");
+        pw.println("       for(int idx = 0; idx < " + array + ".length; idx++)");
+        pw.println("           " + array + "[idx] = " + read + ";");
+        pw.println("       " + source + ".position(" + start + " + " + length + ");");
+    }
+
+    /**
+     * Writes the code that writes the elements of a primitive array to dest (dos or buff)
+     */
+    private void writePrimitiveArrayWrite(PrintWriter pw, String type, String array, String dest)
+    {
+        String marshalType = marshalTypes.getProperty(type);
+        int size = WireLayout.primitiveSize(type);
+        boolean stream = dest.equals("dos");
+
+        if(marshalType.equals("byte") && this.marshalsAsJavaType(type))
+        {
+            pw.println("       " + dest + (stream ? ".write(" : ".put(") + array + ");");
+            return;
+        }
+
+        if(!stream && this.marshalsAsJavaType(type))
+        {
+            pw.println("       " + dest + ".as" + this.initialCap(marshalType) + "Buffer().put(" + array + ");");
+            pw.println("       " + dest + ".position(" + dest + ".position() + " + array + ".length * " + size + ");");
+            return;
+        }
+
+        if(stream)
+        {
+            pw.println("       for(int idx = 0; idx < " + array + ".length; idx++)");
+            pw.println("           dos.write" + this.initialCap(marshalType) + "((" + marshalType + ")" + array + "[idx]);");
+            return;
+        }
+
+        String start = array + "Start";
+        String index = size == 1 ? start + " + idx" : start + " + idx * " + size;
+        String length = size == 1 ? array + ".length" : array + ".length * " + size;
+        String put = dest + ".put" + (marshalType.equals("byte") ? "" : this.initialCap(marshalType));
+
+        pw.println("       if(" + dest + ".remaining() < " + length + ")");
+        pw.println("           throw new java.nio.BufferOverflowException();");
+        pw.println("       int " + start + " = " + dest + ".position();");
+        pw.println("       for(int idx = 0; idx < " + array + ".length; idx++)");
+        pw.println("           " + put + "(" + index + ", (" + marshalType + ")" + array + "[idx]);");
+        pw.println("       " + dest + ".position(" + start + " + " + length + ");");
+    }
+
+    /**
+     * Writes the code that unmarshals a variable length list of primitives from source (dis
+     * or buff). The array is only reallocated when the number of elements changes.
+     */
+    private void writePrimitiveListUnmarshal(PrintWriter pw, ClassAttribute anAttribute, String source)
+    {
+        String list = anAttribute.getName();
+        String javaType = types.getProperty(anAttribute.getType());
+        String count = "(int)" + anAttribute.getCountFieldName();
+
+        pw.println("       if(" + list + ".length != " + count + ")");
+        pw.println("           " + list + " = new " + javaType + "[" + count + "];");
+        this.writePrimitiveArrayRead(pw, anAttribute.getType(), list, source);
+        pw.println();
+    }
+    
+    /**
+     * The classes whose marshalled size never changes. WireLayout says which classes
+     * have a fixed layout, but in Java a field or list of some class can also hold a
+     * subclass, which marshals more fields. So a class only counts if it has a fixed
+     * layout and none of the classes it contains have subclasses.
+     */
+    private Set findConstantSizeClasses()
+    {
+        Set constant = new HashSet();
+        Iterator it = classDescriptions.values().iterator();
+        while(it.hasNext())
+        {
+            GeneratedClass aClass = (GeneratedClass)it.next();
+            if(this.hasConstantSize(aClass))
+                constant.add(aClass.getName());
+        }
+        return constant;
+    }
+    
+    /** The names of the classes that some other class inherits from */
+    private Set findParentClasses()
+    {
+        Set parents = new HashSet();
+        Iterator it = classDescriptions.values().iterator();
+        while(it.hasNext())
+        {
+            parents.add(((GeneratedClass)it.next()).getParentClass());
+        }
+        return parents;
+    }
+
+    /**
+     * The class that declares pduType plus the classes below it that have subclasses of
+     * their own, eg PduSuperclass, Pdu and the family PDUs. Empty if there are no pduTypes.
+     */
+    private Set findHeaderClasses()
+    {
+        Set header = new HashSet();
+        if(pduTypes == null)
+            return header;
+
+        String base = pduTypes.getBaseClass().getName();
+        header.add(base);
+
+        Iterator it = classDescriptions.values().iterator();
+        while(it.hasNext())
+        {
+            GeneratedClass aClass = (GeneratedClass)it.next();
+            if(!parentClasses.contains(aClass.getName()))
+                continue;
+
+            GeneratedClass current = aClass;
+            while(current != null && !current.getName().equals(base))
+                current = (GeneratedClass)classDescriptions.get(current.getParentClass());
+            if(current != null)
+                header.add(aClass.getName());
+        }
+        return header;
+    }
+
+    /**
+     * The class that declares pduType and everything that inherits from it, if lazyDecoding
+     * is on. Empty otherwise.
+     */
+    private Set findLazyClasses()
+    {
+        Set lazy = new HashSet();
+        if(!lazyDecoding)
+            return lazy;
+
+        if(pduTypes == null)
+        {
+            System.out.println("lazyDecoding is set, but no class sets an initial pduType, so there are no PDU classes to decode lazily");
+            return lazy;
+        }
+
+        String base = pduTypes.getBaseClass().getName();
+        Iterator it = classDescriptions.values().iterator();
+        while(it.hasNext())
+        {
+            GeneratedClass aClass = (GeneratedClass)it.next();
+            GeneratedClass current = aClass;
+            while(current != null && !current.getName().equals(base))
+                current = (GeneratedClass)classDescriptions.get(current.getParentClass());
+            if(current != null)
+                lazy.add(aClass.getName());
+        }
+        return lazy;
+    }
+
+    /**
+     * True if unmarshal(ByteBuffer) leaves this attribute in the buffer to be decoded when
+     * it is first used. That's contained objects and lists in the lazy classes; primitives
+     * are always decoded straight away. A variable list is only left if its count field
+     * comes before it, since the count is needed to skip over it.
+     */
+    private boolean isLazy(GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        if(!lazyClasses.contains(aClass.getName()) || !anAttribute.shouldSerialize)
+            return false;
+
+        switch(anAttribute.getAttributeKind())
+        {
+            case CLASSREF:
+                return true;
+
+            case FIXED_LIST:
+                return anAttribute.listIsClass();
+
+            case VARIABLE_LIST:
+                List wireAttributes = aClass.getWireAttributes();
+                for(int idx = 0; idx < wireAttributes.size(); idx++)
+                {
+                    ClassAttribute wireAttribute = (ClassAttribute)wireAttributes.get(idx);
+                    if(wireAttribute == anAttribute)
+                        return false;
+                    if(wireAttribute.getName().equals(anAttribute.getCountFieldName()))
+                        return true;
+                }
+                return false;
+
+            default:
+                return false;
+        }
+    }
+
+    /** Code for the start of a getter that decodes a lazy attribute if it hasn't been yet; empty for other attributes */
+    private String lazyDecode(GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        if(!this.isLazy(aClass, anAttribute))
+            return "";
+        return "if(" + anAttribute.getName() + "At >= 0) this.decode" + this.initialCap(anAttribute.getName()) + "(); ";
+    }
+
+    /** Code for the start of a setter that forgets the undecoded value of a lazy attribute; empty for other attributes */
+    private String lazyForget(GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        if(!this.isLazy(aClass, anAttribute))
+            return "";
+        return "if(" + anAttribute.getName() + "At >= 0) { " + anAttribute.getName() + "At = -1; this.lazyFieldDecoded(); } ";
+    }
+
+    /**
+     * Writes the fields and methods that keep track of the attributes unmarshal(ByteBuffer)
+     * skipped. The class that declares pduType holds the buffer they are read from; each
+     * class has an xxxAt field for each of its own lazy attributes, the position of the
+     * attribute in the buffer or -1 once it is decoded.
+     */
+    private void writeLazyMethods(PrintWriter pw, GeneratedClass aClass)
+    {
+        boolean isBase = aClass == pduTypes.getBaseClass();
+        List lazyAttributes = new ArrayList();
+        List attributes = aClass.getClassAttributes();
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            if(this.isLazy(aClass, anAttribute))
+                lazyAttributes.add(anAttribute);
+        }
+
+        if(!isBase && lazyAttributes.isEmpty())
+            return;
+
+        pw.println();
+        if(isBase)
+        {
+            pw.println("/** A copy of the buffer the fields skipped by unmarshal(ByteBuffer) are decoded from, or null if there are none */");
+            pw.println("protected transient java.nio.ByteBuffer lazyBuffer = null;");
+            pw.println();
+            pw.println("/** The number of fields still to be decoded from lazyBuffer */");
+            pw.println("protected transient int lazyCount = 0;");
+            pw.println();
+        }
+
+        for(int idx = 0; idx < lazyAttributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)lazyAttributes.get(idx);
+            pw.println("/** Position of " + anAttribute.getName() + " in lazyBuffer, or -1 if it has been decoded */");
+            pw.println("protected transient int " + anAttribute.getName() + "At = -1;");
+            pw.println();
+        }
+
+        if(isBase)
+        {
+            pw.println("/** Called by unmarshal(ByteBuffer) for each field it leaves in buff to be decoded later */");
+            pw.println("protected void deferField(java.nio.ByteBuffer buff)");
+            pw.println("{");
+            pw.println("    if(lazyBuffer == null)");
+            pw.println("    {");
+            pw.println("        lazyBuffer = buff.duplicate();");
+            pw.println("        lazyBuffer.order(buff.order());");
+            pw.println("    }");
+            pw.println("    lazyCount++;");
+            pw.println("}");
+            pw.println();
+            pw.println("/** Called when a skipped field has been decoded or set; lets go of the buffer once none are left */");
+            pw.println("protected void lazyFieldDecoded()");
+            pw.println("{");
+            pw.println("    lazyCount--;");
+            pw.println("    if(lazyCount <= 0)");
+            pw.println("    {");
+            pw.println("        lazyCount = 0;");
+            pw.println("        lazyBuffer = null;");
+            pw.println("    }");
+            pw.println("}");
+            pw.println();
+        }
+
+        pw.println("/** Forgets the fields waiting to be decoded, without decoding them */");
+        pw.println("protected void dropLazyFields()");
+        pw.println("{");
+        if(!isBase)
+            pw.println("    super.dropLazyFields();");
+        for(int idx = 0; idx < lazyAttributes.size(); idx++)
+        {
+            pw.println("    " + ((ClassAttribute)lazyAttributes.get(idx)).getName() + "At = -1;");
+        }
+        if(isBase)
+        {
+            pw.println("    lazyBuffer = null;");
+            pw.println("    lazyCount = 0;");
+        }
+        pw.println("}");
+        pw.println();
+
+        if(isBase)
+        {
+            pw.println("/** Decodes the skipped fields before serializing, since lazyBuffer is not serialized */");
+            pw.println("private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException");
+            pw.println("{");
+            pw.println("    this.decodeAll();");
+            pw.println("    out.defaultWriteObject();");
+            pw.println("}");
+            pw.println();
+        }
+        if(!lazyAttributes.isEmpty())
+        {
+            pw.println("/** A deserialized object has nothing left to decode */");
+            pw.println("private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException");
+            pw.println("{");
+            pw.println("    in.defaultReadObject();");
+            for(int idx = 0; idx < lazyAttributes.size(); idx++)
+            {
+                pw.println("    " + ((ClassAttribute)lazyAttributes.get(idx)).getName() + "At = -1;");
+            }
+            pw.println("}");
+            pw.println();
+        }
+
+        pw.println("/**");
+        pw.println(" * Decodes the fields unmarshal(ByteBuffer) skipped. Fields are decoded from the buffer");
+        pw.println(" * they were unmarshalled from, so call this before that buffer's contents are changed.");
+        pw.println(" * Lazy decoding is not thread safe; call this before handing the object to another thread.");
+        pw.println(" */");
+        pw.println("public void decodeAll()");
+        pw.println("{");
+        if(!isBase)
+            pw.println("    super.decodeAll();");
+        for(int idx = 0; idx < lazyAttributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)lazyAttributes.get(idx);
+            pw.println("    " + this.lazyDecode(aClass, anAttribute).trim());
+        }
+        pw.println("}");
+        pw.println();
+
+        for(int idx = 0; idx < lazyAttributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)lazyAttributes.get(idx);
+            String name = anAttribute.getName();
+
+            pw.println("private void decode" + this.initialCap(name) + "()");
+            pw.println("{");
+            pw.println("    java.nio.ByteBuffer buff = lazyBuffer;");
+            pw.println("    buff.position(" + name + "At);");
+            pw.println("    " + name + "At = -1;");
+            switch(anAttribute.getAttributeKind())
+            {
+                case CLASSREF:
+                    pw.println("    " + name + ".unmarshal(buff);");
+                    break;
+
+                case FIXED_LIST:
+                    pw.println("    for(int idx = 0; idx < " + name + ".length; idx++)");
+                    pw.println("        " + name + "[idx].unmarshal(buff);");
+                    break;
+
+                default:
+                    if(this.isPrimitiveList(anAttribute))
+                        this.writePrimitiveListUnmarshal(pw, anAttribute, "buff");
+                    else
+                        this.writeObjectListUnmarshal(pw, anAttribute, "buff");
+            }
+            pw.println("    this.lazyFieldDecoded();");
+            pw.println("}");
+            pw.println();
+        }
+    }
+
+    /**
+     * Writes the code in getMarshalledSize() that measures a lazy attribute in lazyBuffer
+     * if it hasn't been decoded yet, the same way unmarshal(ByteBuffer) skipped over it
+     */
+    private void writeDeferredSize(PrintWriter pw, ClassAttribute anAttribute)
+    {
+        String name = anAttribute.getName();
+
+        pw.println("   if(" + name + "At >= 0)");
+        pw.println("   {");
+        if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
+        {
+            pw.println("       marshalSize = marshalSize + " + anAttribute.getType() + ".sizeAt(lazyBuffer, " + name + "At);");
+        }
+        else if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST && anAttribute.getWireElementSize() >= 0 && !this.isPduList(anAttribute))
+        {
+            pw.println("       marshalSize = marshalSize + (int)" + anAttribute.getCountFieldName() + " * " + anAttribute.getWireElementSize() + ";");
+        }
+        else
+        {
+            String count = anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST ? String.valueOf(anAttribute.getListLength()) : anAttribute.getCountFieldName();
+            pw.println("       int " + name + "End = " + name + "At;");
+            this.writeElementWalk(pw, "       ", anAttribute, "lazyBuffer", name + "End", count);
+            pw.println("       marshalSize = marshalSize + " + name + "End - " + name + "At;");
+        }
+        pw.println("   }");
+    }
+
+    /** The class an attribute is declared in: aClass or one of its superclasses, or null if neither */
+    private GeneratedClass declaringClass(GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        while(aClass != null)
+        {
+            if(aClass.getClassAttributes().contains(anAttribute))
+                return aClass;
+            aClass = (GeneratedClass)classDescriptions.get(aClass.getParentClass());
+        }
+        return null;
+    }
+
+    /**
+     * Writes the code in unmarshal(ByteBuffer) that skips over a lazy attribute, noting
+     * where it starts so it can be decoded later
+     */
+    private void writeDeferredField(PrintWriter pw, ClassAttribute anAttribute)
+    {
+        String name = anAttribute.getName();
+
+        pw.println("       " + name + "At = buff.position();");
+        if(anAttribute.isFixedSize())
+        {
+            pw.println("       buff.position(" + name + "At + " + anAttribute.getWireSize() + ");");
+        }
+        else if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
+        {
+            pw.println("       buff.position(" + name + "At + " + anAttribute.getType() + ".sizeAt(buff, " + name + "At));");
+        }
+        else if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST && anAttribute.getWireElementSize() >= 0 && !this.isPduList(anAttribute))
+        {
+            pw.println("       buff.position(" + name + "At + (int)" + anAttribute.getCountFieldName() + " * " + anAttribute.getWireElementSize() + ");");
+        }
+        else
+        {
+            String count = anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST ? String.valueOf(anAttribute.getListLength()) : anAttribute.getCountFieldName();
+            pw.println("       int " + name + "End = " + name + "At;");
+            this.writeElementWalk(pw, "       ", anAttribute, "buff", name + "End", count);
+            pw.println("       buff.position(" + name + "End);");
+        }
+        pw.println("       this.deferField(buff);");
+        pw.println();
+    }
+
+    /**
+     * The primitive attributes declared in a class that are always at the same offset in
+     * the marshalled form, so can be read without unmarshalling anything
+     */
+    private List fixedOffsetPrimitives(GeneratedClass aClass)
+    {
+        List primitives = new ArrayList();
+        List attributes = aClass.getClassAttributes();
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            if(anAttribute.shouldSerialize && anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE
+                    && anAttribute.getWireOffset() >= 0)
+                primitives.add(anAttribute);
+        }
+        return primitives;
+    }
+
+    private boolean hasConstantSize(GeneratedClass aClass)
+    {
+        if(!aClass.isFixedSize())
+            return false;
+        
+        List wireAttributes = aClass.getWireAttributes();
+        for(int idx = 0; idx < wireAttributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)wireAttributes.get(idx);
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF || anAttribute.listIsClass())
+            {
+                GeneratedClass refClass = (GeneratedClass)classDescriptions.get(anAttribute.getType());
+                if(refClass == null || parentClasses.contains(refClass.getName()) || !this.hasConstantSize(refClass))
+                    return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * True if the marshalled size of one element of the attribute, or the whole attribute
+     * if it isn't a list, is always the same. An attribute of a class that has subclasses
+     * may hold one of the subclasses, so its size isn't known until runtime.
+     */
+    private boolean elementHasConstantSize(ClassAttribute anAttribute)
+    {
+        if(anAttribute.getUnderlyingTypeIsPrimitive() && anAttribute.getAttributeKind() != ClassAttribute.ClassAttributeType.CLASSREF)
+            return true;
+        return constantSizeClasses.contains(anAttribute.getType()) && !parentClasses.contains(anAttribute.getType());
+    }
+    
+    public void writeGetMarshalledSizeMethod(PrintWriter pw, GeneratedClass aClass)
+    {
+        // The sizes come from WireLayout. Inherited attributes are included directly rather
+        // than by calling super.getMarshalledSize(), so all the fixed-size attributes add
+        // up to a single constant.
+        boolean constantSize = constantSizeClasses.contains(aClass.getName());
+        
+        // Every class declares its own, so a variable size subclass doesn't inherit the
+        // constant of a fixed size parent
+        pw.println();
+        if(constantSize)
+        {
+            pw.println("/** Size in bytes of every marshalled " + aClass.getName() + " */");
+            pw.println("public static final int MARSHALLED_SIZE = " + aClass.getFixedSize() + ";");
+        }
+        else
+        {
+            pw.println("/** -1: the marshalled size of " + aClass.getName() + " varies, so use getMarshalledSize() */");
+            pw.println("public static final int MARSHALLED_SIZE = -1;");
+        }
+        pw.println();
+        
+        // Methods of the form getFoo() for non-iVars will confuse hibernate unless marked as transient
+        if(useHibernateAnnotations)
+        {
+          pw.println("@Transient  // Marked as transient to prevent hibernate from thinking this is a persistent property");
+        }
+        pw.println("public int getMarshalledSize()");
+        pw.println("{");
+        
+        if(constantSize)
+        {
+            pw.println("   return MARSHALLED_SIZE;");
+            pw.println("}");
+            pw.println();
+            return;
+        }
+        
+        // Everything whose size never changes is added up here; the rest is added at runtime
+        List wireAttributes = aClass.getWireAttributes();
+        int fixedPart = 0;
+        for(int idx = 0; idx < wireAttributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)wireAttributes.get(idx);
+            if(anAttribute.isFixedSize() && this.elementHasConstantSize(anAttribute))
+                fixedPart = fixedPart + anAttribute.getWireSize();
+        }
+        
+        pw.println("   int marshalSize = " + fixedPart + "; // fields whose size is always the same");
+        pw.println();
+        
+        for(int idx = 0; idx < wireAttributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)wireAttributes.get(idx);
+            if(anAttribute.isFixedSize() && this.elementHasConstantSize(anAttribute))
+                continue;
+            
+            // A field still waiting to be decoded is measured where it is in lazyBuffer
+            GeneratedClass declaringClass = this.declaringClass(aClass, anAttribute);
+            boolean deferred = declaringClass != null && this.isLazy(declaringClass, anAttribute);
+            if(deferred)
+            {
+                this.writeDeferredSize(pw, anAttribute);
+                pw.println("   else");
+                pw.println("   {");
+            }
+            
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
+            {
+                pw.print("   marshalSize = marshalSize + ");
+                pw.println(anAttribute.getName() + ".getMarshalledSize();  // " + anAttribute.getName());
+            }
+            
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST)
+            {
+                if(anAttribute.listIsClass() == true)
+                {
+                    pw.println("\n   for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
+                    pw.println("   {");
+                    pw.println("       marshalSize = marshalSize + " + anAttribute.getName() + "[idx].getMarshalledSize();");
+                    pw.println("   }\n");
+                }
+                else
+                {
+                    pw.println(" THIS IS A CONDITION NOT HANDLED BY XMLPG: a fixed list array of lists. That's  why you got the compile error.");
+                }
+            }
+            
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST)
+            {
+                // If every element is the same size, it's the list size times the element size.
+                if(this.elementHasConstantSize(anAttribute) && anAttribute.getWireElementSize() >= 0)
+                {
+                    pw.println("   marshalSize = marshalSize + " + this.listSize(anAttribute) + " * " + anAttribute.getWireElementSize() + ";  // " + anAttribute.getName());
+                }
+                else
+                {
+                    pw.println("   for(int idx=0; idx < " + anAttribute.getName() + ".size(); idx++)");
+                    pw.println("   {");
+                    pw.println("        " + anAttribute.getType() + " listElement = " + anAttribute.getName() + ".get(idx);");
+                    pw.println("        marshalSize = marshalSize + listElement.getMarshalledSize();");
+                    pw.println("   }");
+                }
+            }
+            
+            if(deferred)
+                pw.println("   }");
+        }
+        
+        pw.println();
+        pw.println("   return marshalSize;");
+        pw.println("}");
+        pw.println();
+    }
+    
+    private void writeGettersAndSetters(PrintWriter pw, GeneratedClass aClass)
+    {
+        List ivars = aClass.getClassAttributes();
+        
+         pw.println();
+
+        if(this.useHibernateAnnotations && aClass.parentClass.equalsIgnoreCase("root"))
+        {
+           pw.println("/** Primary key for hibernate, not part of the DIS standard */");
+           String keyName = "pk_" + aClass.getName();
+           pw.println("@Id");
+           pw.println("@GeneratedValue(strategy=GenerationType.AUTO)");
+           pw.println("public long get" + this.initialCap(keyName) + "()");
+           pw.println("{");
+           pw.println("   return " + keyName + ";");
+           pw.println("}");
+           pw.println();
+
+           pw.println("/** Hibernate primary key, not part of the DIS standard */");
+           pw.println("public void set" + this.initialCap(keyName) + "(long pKeyName)");
+           pw.println("{");
+           pw.println("   this." + keyName + " = pKeyName;");
+           pw.println("}");
+           pw.println();
+           
+        }
+        
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            
+            // The setter method should be of the form
+            //
+            // public void setName(AType pName)
+            // { name = pName;
+            // }
+            //
+            
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            {
+                if(anAttribute.getIsDynamicListLengthField() == false)
+                {
+                    String beanType = types.getProperty(anAttribute.getType());
+                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + beanType + " p" + this.initialCap(anAttribute.getName()) + ")");
+                    pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
+                    pw.println("}");
+                    
+                    pw.println();
+
+                    if(this.useJaxbAnnotations)
+                    {
+                        pw.println("@XmlAttribute // Jaxb");
+                    }
+                    if(this.useHibernateAnnotations)
+                    {
+                        pw.println("@Basic       // Hibernate");
+                    }
+                    pw.println("public " + beanType + " get" + this.initialCap(anAttribute.getName()) + "()");
+                    pw.println("{ return " + anAttribute.getName() + "; \n}");
+                    pw.println();   
+                }
+                else // This is the count field for a dynamic list
+                {
+                    String beanType = types.getProperty(anAttribute.getType());
+                    ClassAttribute listAttribute = anAttribute.getDynamicListClassAttribute();
+                    
+                    if(this.useJaxbAnnotations)
+                    {
+                        pw.println("@XmlAttribute");
+                    }
+                    if(this.useHibernateAnnotations)
+                    {
+                        pw.println("@Basic");
+                    }
+                    pw.println("public " + beanType + " get" + this.initialCap(anAttribute.getName()) + "()");
+                    if(this.isLazy(aClass, listAttribute))
+                        pw.println("{ if(" + listAttribute.getName() + "At >= 0) return " + anAttribute.getName() + "; return (" + beanType + ")" + this.listSize(listAttribute) + ";");
+                    else
+                        pw.println("{ return (" + beanType + ")" + this.listSize(listAttribute) + ";");
+                    pw.println("}");
+                    pw.println();
+                    
+                    pw.println("/** Note that setting this value will not change the marshalled value. The list whose length this describes is used for that purpose.");
+                    pw.println(" * The get" + anAttribute.getName() + " method will also be based on the actual list length rather than this value. ");
+                    pw.println(" * The method is simply here for java bean completeness.");
+                    pw.println(" */");
+                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + beanType + " p" + this.initialCap(anAttribute.getName()) + ")");
+                    pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
+                    pw.println("}");
+                    pw.println();
+                    
+                }
+            } // End is primitive
+            
+            // The attribute is a class of some sort. Generate getters and setters.
+            
             if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
             {
-                pw.print("   marshalSize = marshalSize + ");
-                pw.println(anAttribute.getName() + ".getMarshalledSize();  // " + anAttribute.getName());
+                pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + anAttribute.getType() + " p" + this.initialCap(anAttribute.getName()) + ")");
+                pw.println("{ " + this.lazyForget(aClass, anAttribute) + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
+                pw.println("}");
+                
+                pw.println();
+
+                if(this.useHibernateAnnotations)
+                {
+                    pw.println("// HIBERNATE: this ivar is a foreign key, linked to the below class table. ");
+                    pw.println("// It is not a DIS-standard variable and is not marshalled to IEEE-1278.1");
+                    pw.println("public long fk_" + anAttribute.getName() + ";");
+                    pw.println();
+                }
+                if(this.useJaxbAnnotations)
+                {
+                    pw.println("@XmlElement");
+                }
+                if(this.useHibernateAnnotations)
+                {
+                    pw.println("@OneToOne(cascade = CascadeType.ALL)");
+                    pw.println("@JoinColumn(name=\"fk_" + anAttribute.getName() + "\")");
+                }
+                pw.println("public " + anAttribute.getType() + " get" + this.initialCap(anAttribute.getName()) + "()");
+                pw.println("{ " + this.lazyDecode(aClass, anAttribute) + "return " + anAttribute.getName() + "; \n}");
+                pw.println();
+                
+            }
+            
+            // The attribute is an array of some sort. Generate getters and setters.
+            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            {
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                {
+                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + types.getProperty(anAttribute.getType()) + "[] p" + this.initialCap(anAttribute.getName()) + ")");
+                    pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
+                    pw.println("}");
+                    
+                    pw.println();
+
+                    if(this.useJaxbAnnotations)
+                    {
+                        pw.println("@XmlElement(name=\"" + anAttribute.getName() + "\" )");
+                    }
+                    if(this.useHibernateAnnotations)
+                    {
+                        pw.println("@Basic");
+                    }
+                    pw.println("public " + types.getProperty(anAttribute.getType()) + "[] get" + this.initialCap(anAttribute.getName()) + "()");
+                    pw.println("{ return " + anAttribute.getName() + "; }");
+                    pw.println();                    
+                }
+                 else if(anAttribute.listIsClass() == true)
+                {
+                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + anAttribute.getType() + "[] p" + this.initialCap(anAttribute.getName()) + ")");
+                    pw.println("{ " + this.lazyForget(aClass, anAttribute) + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
+                    pw.println("}");
+                    
+                    pw.println();
+
+                    if(this.useJaxbAnnotations)
+                    {
+                        pw.println("@XmlElementWrapper(name=\"" + anAttribute.getName() + "Array\" )  // Jaxb");
+                    }
+                    if(this.useHibernateAnnotations)
+                    {
+                        pw.println("@OneToMany(cascade=CascadeType.ALL)   // Hibernate");
+                    }
+                    pw.println("public " + anAttribute.getType() + "[] get" + this.initialCap(anAttribute.getName()) + "()");
+                    pw.println("{ " + this.lazyDecode(aClass, anAttribute) + "return " + anAttribute.getName() + "; \n}");
+                    pw.println();         
+       
+                }
+                
+            }
+                
+            
+             if(this.isPrimitiveList(anAttribute))
+             {
+                 String javaType = types.getProperty(anAttribute.getType());
+                 pw.println("/** The number of elements marshalled is the length of the array */");
+                 pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + javaType + "[] p" + this.initialCap(anAttribute.getName()) + ")");
+                 pw.println("{ " + this.lazyForget(aClass, anAttribute) + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
+                 pw.println("}");
+                 pw.println();
+
+                 if(this.useJaxbAnnotations)
+                 {
+                    pw.println("@XmlElement(name=\"" + anAttribute.getName() + "\" )");
+                 }
+                 if(this.useHibernateAnnotations)
+                 {
+                     pw.println("@Basic");
+                 }
+                 pw.println("public " + javaType + "[] get" + this.initialCap(anAttribute.getName()) + "()");
+                 pw.println("{ " + this.lazyDecode(aClass, anAttribute) + "return " + anAttribute.getName() + "; }");
+                 pw.println();
+             }
+             else if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+             {
+                 pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(List<" + anAttribute.getType() + ">" + " p" + this.initialCap(anAttribute.getName()) + ")");
+                 pw.println("{ " + this.lazyForget(aClass, anAttribute) + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
+                 pw.println("}");
+                 
+                 pw.println();
+
+                 if(this.useJaxbAnnotations)
+                 {
+                    pw.println("@XmlElementWrapper(name=\"" + anAttribute.getName() + "List\" ) //  Jaxb");
+                 }
+                 if(this.useHibernateAnnotations)
+                 {
+                     pw.println("@OneToMany    // Hibernate");
+                 }
+                 pw.println("public List<" + anAttribute.getType() + ">"  + " get" + this.initialCap(anAttribute.getName()) + "()");
+                 pw.println("{ " + this.lazyDecode(aClass, anAttribute) + "return " + anAttribute.getName() + "; }");
+                 pw.println();
+                 
+             }
+        } // End of loop trough writing getter/setter methods
+        
+    }
+    
+    /**
+     * Some fields have integers with bit fields defined, eg an integer where 
+     * bits 0-2 represent some value, while bits 3-4 represent another value, 
+     * and so on. This writes accessor and mutator methods for those fields.
+     * 
+     * @param pw
+     * @param aClass 
+     */
+    private void writeBitflagMethods(PrintWriter pw, GeneratedClass aClass)
+    {
+        List attributes = aClass.getClassAttributes();
+        
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+           
+            
+            switch(anAttribute.getAttributeKind())
+            {
+                
+                // Anything with bitfields must be a primitive type
+                case PRIMITIVE:
+                    
+                    List bitfields = anAttribute.bitFieldList;
+                    String attributeType = types.getProperty(anAttribute.getType());
+                    String bitfieldIvarName = anAttribute.getName();
+   
+                    for(int jdx = 0; jdx < bitfields.size(); jdx++)
+                    {
+                        BitField bitfield = (BitField)bitfields.get(jdx);
+                        String capped = this.initialCap(bitfield.name);
+                        String cappedIvar = this.initialCap(bitfieldIvarName);
+                        int shiftBits = super.getBitsToShift(anAttribute, bitfield.mask);
+                        
+                        // write getter
+                        pw.println();
+                        if(bitfield.comment != null)
+                        {
+                            pw.println( "/**\n * " + bitfield.comment + "\n */");
+                        }
+                        
+                        pw.println("public int get" + cappedIvar + "_" + bitfield.name + "()");
+                        pw.println("{");
+                        
+                        
+                        pw.println("    " + attributeType + " val = (" + attributeType + ")(this." + bitfield.parentAttribute.getName() + "   & " + "(" + attributeType + ")" + bitfield.mask + ");");
+                        pw.println("    return (int)(val >> " + shiftBits + ");");
+                        pw.println("}\n");
+                        
+                        // Write the setter/mutator
+                        
+                        pw.println();
+                        if(bitfield.comment != null)
+                        {
+                            pw.println( "/** \n * " + bitfield.comment + "\n */");
+                        }
+                        pw.println("public void set" + cappedIvar + "_" + bitfield.name + "(int val)");
+                        pw.println("{");
+                        pw.println("    " + attributeType + " " + " aVal = 0;");
+                        pw.println("    this." + bitfield.parentAttribute.getName() + " &= (" + attributeType + ")(~" + bitfield.mask + "); // clear bits");
+                        pw.println("    aVal = (" + attributeType + ")(val << " + shiftBits + ");");
+                        pw.println("    this." + bitfield.parentAttribute.getName() + " = (" + attributeType + ")(this." + bitfield.parentAttribute.getName() + " | aVal);" );
+                        pw.println("}\n");
+                    }
+                    
+                    break;
+                    
+                default:
+                    bitfields = anAttribute.bitFieldList;
+                    if(!bitfields.isEmpty())
+                    {
+                        System.out.println("Attempted to use bit flags on a non-primitive field");
+                        System.out.println( "Field: " + anAttribute.getName() );
+                    }
+            }
+        
+        }
+    }
+    
+    
+    private void writeMarshalMethod(PrintWriter pw, GeneratedClass aClass)
+    {
+        List ivars = aClass.getClassAttributes();
+        
+        pw.println();
+        pw.println("public void marshal(DataOutputStream dos)");
+        pw.println("{");
+         
+        // If we're a sublcass of another class, we should first call super
+        // to make sure the superclass's ivars are marshaled out.
+        
+        String superclassName = aClass.getParentClass();
+        if(!(superclassName.equalsIgnoreCase("root")))
+        {
+            pw.println("    super.marshal(dos);");
+        }
+        
+        // Everything has to be decoded before it can be marshalled again
+        if(lazyClasses.contains(aClass.getName()) && aClass == pduTypes.getBaseClass())
+        {
+            pw.println("    this.decodeAll();");
+        }
+        
+       
+        pw.println("    try \n    {");
+        
+        // Loop through the class attributes, generating the output for each.
+        
+        ivars = aClass.getClassAttributes();
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            
+            if(anAttribute.shouldSerialize == false)
+            {
+                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
+                 continue;
+            }
+        
+            // Write out a method call to serialize a primitive type
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            {
+                String marshalType = marshalTypes.getProperty(anAttribute.getType());
+                String capped = this.initialCap(marshalType);
+                
+                // If we're a normal primitivetype, marshal out directly; otherwise, marshall out
+                // the list length.
+                if(anAttribute.getIsDynamicListLengthField() == false)
+                {
+                     pw.println("       dos.write" + capped + "( (" + marshalType + ")" + anAttribute.getName() + ");");
+                }
+               else
+               {
+                   ClassAttribute listAttribute = anAttribute.getDynamicListClassAttribute();
+                   pw.println("       dos.write" + capped + "( (" + marshalType + ")" + this.listSize(listAttribute) + ");");
+               }
+                
+            }
+            
+            // Write out a method call to serialize a class.
+            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF )
+            {
+                String marshalType = anAttribute.getType();
+            
+                pw.println("       " + anAttribute.getName() + ".marshal(dos);" );
+            }
+            
+            // Write out the method call to marshal a fixed length list, aka an array.
+            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            {
+                pw.println();
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                {
+                    this.writePrimitiveArrayWrite(pw, anAttribute.getType(), anAttribute.getName(), "dos");
+                }
+                else
+                {
+                    pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
+                    pw.println("       {");
+                    pw.println("           " + anAttribute.getName() + "[idx].marshal(dos);" );
+                    pw.println("       } // end of array marshaling");
+                }
+                pw.println();
+            }
+            
+            // Write out a section of code to marshal a variable length list. The code should look like
+            //
+            // for(int idx = 0; idx < attrName.size(); idx++)
+            // { anAttribute.marshal(dos);
+            // }
+            //    
+            
+            if(this.isPrimitiveList(anAttribute))
+            {
+                pw.println();
+                this.writePrimitiveArrayWrite(pw, anAttribute.getType(), anAttribute.getName(), "dos");
+                pw.println();
+            }
+            else if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+            {
+                pw.println();
+                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".size(); idx++)");
+                pw.println("       {");
+                pw.println("            " + anAttribute.getType() + " a" + initialCap(anAttribute.getType() + " = " +
+                                                                                 anAttribute.getName() + ".get(idx);"));
+                pw.println("            a" + initialCap(anAttribute.getType()) + ".marshal(dos);" );
+                pw.println("       } // end of list marshalling");
+                pw.println();
+            }   
+        } // End of loop through the ivars for a marshal method
+        
+        pw.println("    } // end try \n    catch(Exception e)");
+        pw.println("    { \n      System.out.println(e);}");
+        
+        pw.println("    } // end of marshal method");
+    }
+    
+    private void writeUnmarshallMethod(PrintWriter pw, GeneratedClass aClass)
+    {
+        List ivars = aClass.getClassAttributes();
+        String superclassName;
+        
+		pw.println();
+        pw.println("public void unmarshal(DataInputStream dis)");
+        pw.println("{");
+		pw.flush();
+        
+        superclassName = aClass.getParentClass();
+        if(!(superclassName.equalsIgnoreCase("root")))
+        {
+            pw.println("     super.unmarshal(dis);\n");
+        }
+        
+        if(lazyClasses.contains(aClass.getName()) && aClass == pduTypes.getBaseClass())
+        {
+            pw.println("     this.dropLazyFields();");
+        }
+        
+        
+        pw.println("    try \n    {");
+        
+        // Loop through the class attributes, generating the output for each.
+        
+        ivars = aClass.getClassAttributes();
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            
+            if(anAttribute.shouldSerialize == false)
+            {
+                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
+                 continue;
+            }
+            
+            // Write out a method call to deserialize a primitive type
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            {
+                String marshalType = unmarshalTypes.getProperty(anAttribute.getType());
+                String capped = this.initialCap(marshalType);
+                if(marshalType.equalsIgnoreCase("UnsignedByte"))
+                    pw.println("       " + anAttribute.getName() + " = (short)dis.read" + capped + "();");
+                else if (marshalType.equalsIgnoreCase("UnsignedShort"))
+                    pw.println("       " + anAttribute.getName() + " = (int)dis.read" + capped + "();");
+				else if(marshalType.equalsIgnoreCase("UnsignedLong"))
+					pw.println("       " + anAttribute.getName() + " = (int)dis.readLong" + "();"); // ^^^This is wrong; need to read unsigned here
+                else
+                    pw.println("       " + anAttribute.getName() + " = dis.read" + capped + "();");
+                pw.flush();
+            }
+            
+            // Write out a method call to deserialize a class.
+            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
+            {
+                String marshalType = anAttribute.getType();
+                
+                pw.println("       " + anAttribute.getName() + ".unmarshal(dis);" );
+            }
+            
+            // Write out the method call to unmarshal a fixed length list, aka an array.
+            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            {
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                {
+                    this.writePrimitiveArrayRead(pw, anAttribute.getType(), anAttribute.getName(), "dis");
+                }
+                else
+                {
+                    pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
+                    pw.println("       {");
+                    pw.println("           " + anAttribute.getName() + "[idx].unmarshal(dis);" );
+                    pw.println("       } // end of array unmarshaling");
+                }
+            } // end of array unmarshalling
+            
+            // Unmarshall a variable length array.
+            
+            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+            {
+                // This is some sleaze. We're an array, but an array of what? We could be either a
+                // primitive or a class. We need to figure out which. This is done via the expedient
+                // but not very reliable way of trying to do a lookup on the type. If we don't find
+                // it in our map of primitives to marshal types, we assume it is a class.
+                
+                String marshalType = marshalTypes.getProperty(anAttribute.getType());
+                
+                if(marshalType == null) // It's a class
+                {
+                    this.writeObjectListUnmarshal(pw, anAttribute, "dis");
+                }
+                else // It's a primitive
+                {
+                    this.writePrimitiveListUnmarshal(pw, anAttribute, "dis");
+                }
+            } // end of unmarshalling a variable list
+            
+        } // End of loop through ivars for writing the unmarshal method
+        
+        pw.println("    } // end try \n   catch(Exception e)");
+        pw.println("    { \n      System.out.println(e); \n    }");
+        
+        pw.println(" } // end of unmarshal method \n");
+        
+    }
+
+
+
+    private void writeMarshalMethodWithByteBuffer(PrintWriter pw, GeneratedClass aClass)
+    {
+        List ivars = aClass.getClassAttributes();
+        
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Packs a Pdu into the ByteBuffer.");
+        pw.println(" * @throws java.nio.BufferOverflowException if buff is too small");
+        pw.println(" * @throws java.nio.ReadOnlyBufferException if buff is read only");
+        pw.println(" * @see java.nio.ByteBuffer");
+        pw.println(" * @param buff The ByteBuffer at the position to begin writing");
+        pw.println(" * @since ??");
+        pw.println(" */");
+        pw.println("public void marshal(java.nio.ByteBuffer buff)");
+        pw.println("{");
+
+        // If we're a sublcass of another class, we should first call super
+        // to make sure the superclass's ivars are marshaled out.
+
+        String superclassName = aClass.getParentClass();
+        if(!(superclassName.equalsIgnoreCase("root")))
+        {
+            pw.println("       super.marshal(buff);");
+        }
+
+        if(lazyClasses.contains(aClass.getName()) && aClass == pduTypes.getBaseClass())
+        {
+            pw.println("       this.decodeAll();");
+        }
+
+
+        //pw.println("    try \n    {");
+
+        // Loop through the class attributes, generating the output for each.
+
+        ivars = aClass.getClassAttributes();
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+
+            if(anAttribute.shouldSerialize == false)
+            {
+                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
+                 continue;
             }
             
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST)
+            // Write out a method call to serialize a primitive type
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
             {
-                //System.out.println("Generating fixed list for " + anAttribute.getName() + " listIsClass:" + anAttribute.listIsClass());
-                // If this is a fixed list of primitives, it's the list size times the size of the primitive.
-                if(anAttribute.getUnderlyingTypeIsPrimitive() == true)
+                String marshalType = marshalTypes.getProperty(anAttribute.getType());
+                String capped = this.initialCap(marshalType);
+                if( capped.equals("Byte") ){
+                    capped = "";    // ByteBuffer just has put() for bytesf
+                }
+
+                // If we're a normal primitivetype, marshal out directly; otherwise, marshall out
+                // the list length.
+                if(anAttribute.getIsDynamicListLengthField() == false)
                 {
-                    pw.println( "   marshalSize = marshalSize + " + anAttribute.getListLength() + " * " + primitiveSizes.get(anAttribute.getType()) + ";  // " + anAttribute.getName());
+                     //pw.println("       dos.write" + capped + "( (" + marshalType + ")" + anAttribute.getName() + ");");
+                     pw.println("       buff.put" + capped + "( (" + marshalType + ")" + anAttribute.getName() + ");");
                 }
-                else if(anAttribute.listIsClass() == true)
+               else
+               {
+                   ClassAttribute listAttribute = anAttribute.getDynamicListClassAttribute();
+                   //pw.println("       dos.write" + capped + "( (" + marshalType + ")" + listAttribute.getName() + ".size());");
+                   pw.println("       buff.put" + capped + "( (" + marshalType + ")" + this.listSize(listAttribute) + ");");
+               }
+
+            }
+
+            // Write out a method call to serialize a class.
+            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF )
+            {
+                String marshalType = anAttribute.getType();
+
+                //pw.println("       " + anAttribute.getName() + ".marshal(dos);" );
+                pw.println("       " + anAttribute.getName() + ".marshal(buff);" );
+            }
+
+            // Write out the method call to marshal a fixed length list, aka an array.
+            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            {
+                pw.println();
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
                 {
-                    pw.println("\n   for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
-                    pw.println("   {");
-                    pw.println("       marshalSize = marshalSize + " + anAttribute.getName() + "[idx].getMarshalledSize();");
-                    pw.println("   }\n");
+                    this.writePrimitiveArrayWrite(pw, anAttribute.getType(), anAttribute.getName(), "buff");
                 }
                 else
                 {
-                    //pw.println( anAttribute.getListLength() + " * " +  " new " + anAttribute.getType() + "().getMarshalledSize()"  + ";  // " + anAttribute.getName());
-                    pw.println(" THIS IS A CONDITION NOT HANDLED BY XMLPG: a fixed list array of lists. That's  why you got the compile error.");
+                    pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
+                    pw.println("       {");
+                    pw.println("           " + anAttribute.getName() + "[idx].marshal(buff);" );
+                    pw.println("       } // end of array marshaling");
                 }
+                pw.println();
+            }
+
+            // Write out a section of code to marshal a variable length list. The code should look like
+            //
+            // for(int idx = 0; idx < attrName.size(); idx++)
+            // { anAttribute.marshal(dos);
+            // }
+            //
+
+            if(this.isPrimitiveList(anAttribute))
+            {
+                pw.println();
+                this.writePrimitiveArrayWrite(pw, anAttribute.getType(), anAttribute.getName(), "buff");
+                pw.println();
+            }
+            else if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+            {
+                pw.println();
+                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".size(); idx++)");
+                pw.println("       {");
+                pw.println("            " + anAttribute.getType() + " a" + initialCap(anAttribute.getType() + " = (" + anAttribute.getType() + ")" +
+                                                                                 anAttribute.getName() + ".get(idx);"));
+                pw.println("            a" + initialCap(anAttribute.getType()) + ".marshal(buff);" );
+                pw.println("       } // end of list marshalling");
+                pw.println();
+            }
+        } // End of loop through the ivars for a marshal method
+
+        //pw.println("    } // end try \n    catch(Exception e)");
+        //pw.println("    { \n      System.out.println(e);}");
+
+        pw.println("    } // end of marshal method");
+    }
+
+    private void writeUnmarshallMethodWithByteBuffer(PrintWriter pw, GeneratedClass aClass)
+    {
+        List ivars = aClass.getClassAttributes();
+        String superclassName;
+
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Unpacks a Pdu from the underlying data.");
+        pw.println(" * @throws java.nio.BufferUnderflowException if buff is too small");
+        pw.println(" * @see java.nio.ByteBuffer");
+        pw.println(" * @param buff The ByteBuffer at the position to begin reading");
+        pw.println(" * @since ??");
+        pw.println(" */");
+        pw.println("public void unmarshal(java.nio.ByteBuffer buff)");
+        pw.println("{");
+
+        superclassName = aClass.getParentClass();
+        if(!(superclassName.equalsIgnoreCase("root")))
+        {
+            pw.println("       super.unmarshal(buff);\n");
+        }
+
+        // The fields skipped by the last unmarshal, if any, are no longer wanted
+        if(lazyClasses.contains(aClass.getName()) && aClass == pduTypes.getBaseClass())
+        {
+            pw.println("       this.dropLazyFields();");
+        }
+
+
+        //pw.println("    try \n    {");
+
+        // Loop through the class attributes, generating the output for each.
+
+        ivars = aClass.getClassAttributes();
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+
+            if(anAttribute.shouldSerialize == false)
+            {
+                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
+                 continue;
             }
             
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST)
+            if(this.isLazy(aClass, anAttribute))
             {
-                // If this is a dynamic list of primitives, it's the list size times the size of the primitive.
-                if(anAttribute.getUnderlyingTypeIsPrimitive() == true)
+                this.writeDeferredField(pw, anAttribute);
+                continue;
+            }
+            
+            // Write out a method call to deserialize a primitive type
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            {
+                String marshalType = unmarshalTypes.getProperty(anAttribute.getType());
+                String capped = this.initialCap(marshalType);
+                if( capped.equals("Byte") ){
+                    capped = "";
+                }
+                if(marshalType.equalsIgnoreCase("UnsignedByte")){
+                    //pw.println("       " + anAttribute.getName() + " = (short)dis.read" + capped + "();");
+                    pw.println("       " + anAttribute.getName() + " = (short)(buff.get() & 0xFF);");
+                }
+                else if (marshalType.equalsIgnoreCase("UnsignedShort")){
+                    //pw.println("       " + anAttribute.getName() + " = (int)dis.read" + capped + "();");
+                    pw.println("       " + anAttribute.getName() + " = (int)(buff.getShort() & 0xFFFF);");
+                }
+                else{
+                    //pw.println("       " + anAttribute.getName() + " = dis.read" + capped + "();");
+                    pw.println("       " + anAttribute.getName() + " = buff.get" + capped + "();");
+                }
+
+            }
+
+            // Write out a method call to deserialize a class.
+            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
+            {
+                String marshalType = anAttribute.getType();
+
+                //pw.println("       " + anAttribute.getName() + ".unmarshal(dis);" );
+                pw.println("       " + anAttribute.getName() + ".unmarshal(buff);" );
+            }
+
+            // Write out the method call to unmarshal a fixed length list, aka an array.
+            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            {
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
                 {
-                    pw.println( anAttribute.getName() + ".size() " + " * " + primitiveSizes.get(anAttribute.getType()) + ";  // " + anAttribute.getName());
+                    this.writePrimitiveArrayRead(pw, anAttribute.getType(), anAttribute.getName(), "buff");
                 }
                 else
                 {
-                    pw.println("   for(int idx=0; idx < " + anAttribute.getName() + ".size(); idx++)");
-                    pw.println("   {");
-                    //pw.println( anAttribute.getName() + ".size() " + " * " +  " new " + anAttribute.getType() + "().getMarshalledSize()"  + ";  // " + anAttribute.getName());
-                    pw.println("        " + anAttribute.getType() + " listElement = " + anAttribute.getName() + ".get(idx);");
-                    pw.println("        marshalSize = marshalSize + listElement.getMarshalledSize();");
-                    pw.println("   }");
+                    pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
+                    pw.println("       {");
+                    pw.println("           " + anAttribute.getName() + "[idx].unmarshal(buff);" );
+                    pw.println("       } // end of array unmarshaling");
+                }
+            } // end of array unmarshalling
+
+            // Unmarshall a variable length array.
+
+            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+            {
+                // This is some sleaze. We're an array, but an array of what? We could be either a
+                // primitive or a class. We need to figure out which. This is done via the expedient
+                // but not very reliable way of trying to do a lookup on the type. If we don't find
+                // it in our map of primitives to marshal types, we assume it is a class.
+
+                String marshalType = marshalTypes.getProperty(anAttribute.getType());
+
+                if(marshalType == null) // It's a class
+                {
+                    this.writeObjectListUnmarshal(pw, anAttribute, "buff");
+                }
+                else // It's a primitive
+                {
+                    this.writePrimitiveListUnmarshal(pw, anAttribute, "buff");
                 }
+            } // end of unmarshalling a variable list
+
+        } // End of loop through ivars for writing the unmarshal method
+
+        //pw.println("    } // end try \n   catch(Exception e)");
+        //pw.println("    { \n      System.out.println(e); \n    }");
+
+        pw.println(" } // end of unmarshal method \n");
+
+    }
+
+    /**
+     * Writes SegmentLayouts, the value layouts the MemorySegment methods read and write
+     * fields with
+     */
+    private void writeSegmentLayouts()
+    {
+        try
+        {
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("SegmentLayouts"));
+
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
+            {
+                pw.println("package " + packageName + ";");
+                pw.println();
             }
-            
+            pw.println("import java.lang.foreign.ValueLayout;");
+            pw.println("import java.nio.ByteOrder;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * The value layouts the generated classes use to read and write fields in a");
+            pw.println(" * MemorySegment. They are big endian, like the marshalled form, and unaligned, since");
+            pw.println(" * the marshalled form has no padding. Needs Java 22 or later.");
+            pw.println(" */");
+            pw.println("public class SegmentLayouts");
+            pw.println("{");
+            pw.println("    public static final ValueLayout.OfByte BYTE = ValueLayout.JAVA_BYTE;");
+            pw.println("    public static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);");
+            pw.println("    public static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);");
+            pw.println("    public static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);");
+            pw.println("    public static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);");
+            pw.println("    public static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);");
+            pw.println();
+            pw.println("    private SegmentLayouts()");
+            pw.println("    {");
+            pw.println("    }");
+            pw.println("}");
+            pw.close();
         }
-        
-        pw.println();
-        pw.println("   return marshalSize;");
-        pw.println("}");
+        catch(IOException e)
+        {
+            System.out.println("error writing SegmentLayouts " + e);
+        }
+    }
+
+    /** The SegmentLayouts constant for a primitive type */
+    private String segmentLayout(String type)
+    {
+        return "SegmentLayouts." + marshalTypes.getProperty(type).toUpperCase();
+    }
+
+    /** Java expression that reads a primitive from segment, widened to its Java type as unmarshal(ByteBuffer) does */
+    private String segmentRead(String type, String offset)
+    {
+        return this.widenRead(type, "segment.get(" + this.segmentLayout(type) + ", " + offset + ")");
+    }
+
+    /**
+     * Widens read, a Java expression for a primitive read as its marshal type, to the Java
+     * type of the field, the way unmarshal(ByteBuffer) does. Unsigned bytes and shorts are
+     * zero extended. Unsigned ints are sign extended, as buff.getInt() and dis.readInt()
+     * always have, so every codec puts the same value in a long field.
+     */
+    private String widenRead(String type, String read)
+    {
+        if(type.equals("unsigned byte"))
+            return "(short)(" + read + " & 0xFF)";
+        if(type.equals("unsigned short"))
+            return "(" + read + " & 0xFFFF)";
+        return read;
+    }
+
+    /**
+     * Writes LAYOUT, the MemoryLayout of a constant size class: a member for each marshalled
+     * field, inherited ones first. Other classes get a null LAYOUT, so that they don't inherit
+     * the layout of a constant size parent.
+     */
+    private void writeSegmentLayout(PrintWriter pw, GeneratedClass aClass)
+    {
+        List attributes = aClass.getWireAttributes();
+
         pw.println();
+        if(!constantSizeClasses.contains(aClass.getName()))
+        {
+            pw.println("/** null, since the marshalled size of " + aClass.getName() + " varies and no fixed layout describes it */");
+            pw.println("public static final java.lang.foreign.StructLayout LAYOUT = null;");
+            return;
+        }
+
+        pw.println("/** Layout of a marshalled " + aClass.getName() + ", with a member for each field including the inherited ones */");
+        if(attributes.isEmpty())
+        {
+            pw.println("public static final java.lang.foreign.StructLayout LAYOUT = java.lang.foreign.MemoryLayout.structLayout();");
+            return;
+        }
+
+        pw.println("public static final java.lang.foreign.StructLayout LAYOUT = java.lang.foreign.MemoryLayout.structLayout(");
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+
+            String element;
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF || anAttribute.listIsClass())
+                element = anAttribute.getType() + ".LAYOUT";
+            else
+                element = this.segmentLayout(anAttribute.getType());
+
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST)
+                element = "java.lang.foreign.MemoryLayout.sequenceLayout(" + anAttribute.getListLength() + ", " + element + ")";
+
+            pw.println("    " + element + ".withName(\"" + anAttribute.getName() + "\")" + (idx == attributes.size() - 1 ? ");" : ","));
+        }
     }
-    
-    private void writeGettersAndSetters(PrintWriter pw, GeneratedClass aClass)
+
+    /**
+     * Writes the code that reads the elements of a primitive array from segment at offset,
+     * and moves offset past them. The array must already be the right length.
+     */
+    private void writeSegmentArrayRead(PrintWriter pw, String type, String array)
     {
-        List ivars = aClass.getClassAttributes();
-        
-         pw.println();
+        int size = WireLayout.primitiveSize(type);
 
-        if(this.useHibernateAnnotations && aClass.parentClass.equalsIgnoreCase("root"))
+        if(this.marshalsAsJavaType(type))
         {
-           pw.println("/** Primary key for hibernate, not part of the DIS standard */");
-           String keyName = "pk_" + aClass.getName();
-           pw.println("@Id");
-           pw.println("@GeneratedValue(strategy=GenerationType.AUTO)");
-           pw.println("public long get" + this.initialCap(keyName) + "()");
-           pw.println("{");
-           pw.println("   return " + keyName + ";");
-           pw.println("}");
-           pw.println();
+            // Copies the whole array, swapping the bytes of each element if the platform is little endian
+            pw.println("       java.lang.foreign.MemorySegment.copy(segment, " + this.segmentLayout(type) + ", offset, " + array + ", 0, " + array + ".length);");
+            pw.println("       offset = offset + " + array + ".length * " + size + ";");
+            return;
+        }
 
-           pw.println("/** Hibernate primary key, not part of the DIS standard */");
-           pw.println("public void set" + this.initialCap(keyName) + "(long pKeyName)");
-           pw.println("{");
-           pw.println("   this." + keyName + " = pKeyName;");
-           pw.println("}");
-           pw.println();
-           
+        pw.println("       for(int idx = 0; idx < " + array + ".length; idx++)");
+        pw.println("       {");
+        pw.println("           " + array + "[idx] = " + this.segmentRead(type, "offset") + ";");
+        pw.println("           offset = offset + " + size + ";");
+        pw.println("       }");
+    }
+
+    /**
+     * Writes the code that writes the elements of a primitive array to segment at offset,
+     * and moves offset past them
+     */
+    private void writeSegmentArrayWrite(PrintWriter pw, String type, String array)
+    {
+        String marshalType = marshalTypes.getProperty(type);
+        int size = WireLayout.primitiveSize(type);
+
+        if(this.marshalsAsJavaType(type))
+        {
+            pw.println("       java.lang.foreign.MemorySegment.copy(" + array + ", 0, segment, " + this.segmentLayout(type) + ", offset, " + array + ".length);");
+            pw.println("       offset = offset + " + array + ".length * " + size + ";");
+            return;
         }
-        
+
+        pw.println("       for(int idx = 0; idx < " + array + ".length; idx++)");
+        pw.println("       {");
+        pw.println("           segment.set(" + this.segmentLayout(type) + ", offset, (" + marshalType + ")" + array + "[idx]);");
+        pw.println("           offset = offset + " + size + ";");
+        pw.println("       }");
+    }
+
+    /**
+     * Writes marshal(MemorySegment, long), and the LAYOUT that describes what it writes.
+     * The fields go in the same order and byte order as marshal(ByteBuffer), but at an offset
+     * passed in and handed back rather than at a buffer position, so one segment can be
+     * shared by many threads and PDUs.
+     */
+    private void writeMarshalMethodWithSegment(PrintWriter pw, GeneratedClass aClass)
+    {
+        this.writeSegmentLayout(pw, aClass);
+
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Packs this object into a MemorySegment.");
+        pw.println(" * @throws IndexOutOfBoundsException if the segment is too small");
+        pw.println(" * @throws UnsupportedOperationException if the segment is read only");
+        pw.println(" * @param segment The segment to write to");
+        pw.println(" * @param offset Where in the segment to begin writing");
+        pw.println(" * @return The offset just past what was written");
+        pw.println(" */");
+        pw.println("public long marshal(java.lang.foreign.MemorySegment segment, long offset)");
+        pw.println("{");
+
+        if(!aClass.getParentClass().equalsIgnoreCase("root"))
+        {
+            pw.println("       offset = super.marshal(segment, offset);");
+        }
+
+        if(lazyClasses.contains(aClass.getName()) && aClass == pduTypes.getBaseClass())
+        {
+            pw.println("       this.decodeAll();");
+        }
+
+        List ivars = aClass.getClassAttributes();
         for(int idx = 0; idx < ivars.size(); idx++)
         {
             ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
-            
-            // The setter method should be of the form
-            //
-            // public void setName(AType pName)
-            // { name = pName;
-            // }
-            //
-            
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            String name = anAttribute.getName();
+
+            if(anAttribute.shouldSerialize == false)
             {
-                if(anAttribute.getIsDynamicListLengthField() == false)
-                {
-                    String beanType = types.getProperty(anAttribute.getType());
-                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + beanType + " p" + this.initialCap(anAttribute.getName()) + ")");
-                    pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
-                    pw.println("}");
-                    
-                    pw.println();
+                pw.println("    // attribute " + name + " marked as not serialized");
+                continue;
+            }
 
-                    if(this.useJaxbAnnotations)
+            switch(anAttribute.getAttributeKind())
+            {
+                case PRIMITIVE:
+                    String marshalType = marshalTypes.getProperty(anAttribute.getType());
+                    String value = name;
+                    if(anAttribute.getIsDynamicListLengthField())
+                        value = this.listSize(anAttribute.getDynamicListClassAttribute());
+                    pw.println("       segment.set(" + this.segmentLayout(anAttribute.getType()) + ", offset, (" + marshalType + ")" + value + ");");
+                    pw.println("       offset = offset + " + WireLayout.primitiveSize(anAttribute.getType()) + ";");
+                    break;
+
+                case CLASSREF:
+                    pw.println("       offset = " + name + ".marshal(segment, offset);");
+                    break;
+
+                case FIXED_LIST:
+                    pw.println();
+                    if(anAttribute.listIsClass())
                     {
-                        pw.println("@XmlAttribute // Jaxb");
+                        pw.println("       for(int idx = 0; idx < " + name + ".length; idx++)");
+                        pw.println("           offset = " + name + "[idx].marshal(segment, offset);");
                     }
-                    if(this.useHibernateAnnotations)
+                    else
                     {
-                        pw.println("@Basic       // Hibernate");
+                        this.writeSegmentArrayWrite(pw, anAttribute.getType(), name);
                     }
-                    pw.println("public " + beanType + " get" + this.initialCap(anAttribute.getName()) + "()");
-                    pw.println("{ return " + anAttribute.getName() + "; \n}");
-                    pw.println();   
-                }
-                else // This is the count field for a dynamic list
-                {
-                    String beanType = types.getProperty(anAttribute.getType());
-                    ClassAttribute listAttribute = anAttribute.getDynamicListClassAttribute();
-                    
-                    if(this.useJaxbAnnotations)
+                    pw.println();
+                    break;
+
+                case VARIABLE_LIST:
+                    pw.println();
+                    if(this.isPrimitiveList(anAttribute))
                     {
-                        pw.println("@XmlAttribute");
+                        this.writeSegmentArrayWrite(pw, anAttribute.getType(), name);
                     }
-                    if(this.useHibernateAnnotations)
+                    else
                     {
-                        pw.println("@Basic");
+                        pw.println("       for(int idx = 0; idx < " + name + ".size(); idx++)");
+                        pw.println("           offset = " + name + ".get(idx).marshal(segment, offset);");
                     }
-                    pw.println("public " + beanType + " get" + this.initialCap(anAttribute.getName()) + "()");
-                    pw.println("{ return (" + beanType + ")" + listAttribute.getName() + ".size();");
-                    pw.println("}");
-                    pw.println();
-                    
-                    pw.println("/** Note that setting this value will not change the marshalled value. The list whose length this describes is used for that purpose.");
-                    pw.println(" * The get" + anAttribute.getName() + " method will also be based on the actual list length rather than this value. ");
-                    pw.println(" * The method is simply here for java bean completeness.");
-                    pw.println(" */");
-                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + beanType + " p" + this.initialCap(anAttribute.getName()) + ")");
-                    pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
-                    pw.println("}");
                     pw.println();
-                    
-                }
-            } // End is primitive
-            
-            // The attribute is a class of some sort. Generate getters and setters.
-            
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
-            {
-                pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + anAttribute.getType() + " p" + this.initialCap(anAttribute.getName()) + ")");
-                pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
-                pw.println("}");
-                
-                pw.println();
+                    break;
 
-                if(this.useHibernateAnnotations)
-                {
-                    pw.println("// HIBERNATE: this ivar is a foreign key, linked to the below class table. ");
-                    pw.println("// It is not a DIS-standard variable and is not marshalled to IEEE-1278.1");
-                    pw.println("public long fk_" + anAttribute.getName() + ";");
-                    pw.println();
-                }
-                if(this.useJaxbAnnotations)
-                {
-                    pw.println("@XmlElement");
-                }
-                if(this.useHibernateAnnotations)
-                {
-                    pw.println("@OneToOne(cascade = CascadeType.ALL)");
-                    pw.println("@JoinColumn(name=\"fk_" + anAttribute.getName() + "\")");
-                }
-                pw.println("public " + anAttribute.getType() + " get" + this.initialCap(anAttribute.getName()) + "()");
-                pw.println("{ return " + anAttribute.getName() + "; \n}");
-                pw.println();
-                
+                default:
+                    break;
             }
-            
-            // The attribute is an array of some sort. Generate getters and setters.
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+        }
+
+        pw.println("       return offset;");
+        pw.println("} // end of marshal method");
+    }
+
+    /**
+     * Writes unmarshal(MemorySegment, long), which reads everything straight away, even in
+     * the classes that decode lazily from a ByteBuffer
+     */
+    private void writeUnmarshalMethodWithSegment(PrintWriter pw, GeneratedClass aClass)
+    {
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Unpacks this object from a MemorySegment.");
+        pw.println(" * @throws IndexOutOfBoundsException if the segment is too small");
+        pw.println(" * @param segment The segment to read from");
+        pw.println(" * @param offset Where in the segment to begin reading");
+        pw.println(" * @return The offset just past what was read");
+        pw.println(" */");
+        pw.println("public long unmarshal(java.lang.foreign.MemorySegment segment, long offset)");
+        pw.println("{");
+
+        if(!aClass.getParentClass().equalsIgnoreCase("root"))
+        {
+            pw.println("       offset = super.unmarshal(segment, offset);");
+        }
+
+        if(lazyClasses.contains(aClass.getName()) && aClass == pduTypes.getBaseClass())
+        {
+            pw.println("       this.dropLazyFields();");
+        }
+
+        List ivars = aClass.getClassAttributes();
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            String name = anAttribute.getName();
+
+            if(anAttribute.shouldSerialize == false)
             {
-                if(anAttribute.getUnderlyingTypeIsPrimitive())
-                {
-                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + types.getProperty(anAttribute.getType()) + "[] p" + this.initialCap(anAttribute.getName()) + ")");
-                    pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
-                    pw.println("}");
-                    
-                    pw.println();
+                pw.println("    // attribute " + name + " marked as not serialized");
+                continue;
+            }
 
-                    if(this.useJaxbAnnotations)
+            switch(anAttribute.getAttributeKind())
+            {
+                case PRIMITIVE:
+                    pw.println("       " + name + " = " + this.segmentRead(anAttribute.getType(), "offset") + ";");
+                    pw.println("       offset = offset + " + WireLayout.primitiveSize(anAttribute.getType()) + ";");
+                    break;
+
+                case CLASSREF:
+                    pw.println("       offset = " + name + ".unmarshal(segment, offset);");
+                    break;
+
+                case FIXED_LIST:
+                    pw.println();
+                    if(anAttribute.listIsClass())
                     {
-                        pw.println("@XmlElement(name=\"" + anAttribute.getName() + "\" )");
+                        pw.println("       for(int idx = 0; idx < " + name + ".length; idx++)");
+                        pw.println("           offset = " + name + "[idx].unmarshal(segment, offset);");
                     }
-                    if(this.useHibernateAnnotations)
+                    else
                     {
-                        pw.println("@Basic");
+                        this.writeSegmentArrayRead(pw, anAttribute.getType(), name);
                     }
-                    pw.println("public " + types.getProperty(anAttribute.getType()) + "[] get" + this.initialCap(anAttribute.getName()) + "()");
-                    pw.println("{ return " + anAttribute.getName() + "; }");
-                    pw.println();                    
-                }
-                 else if(anAttribute.listIsClass() == true)
-                {
-                    pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(" + anAttribute.getType() + "[] p" + this.initialCap(anAttribute.getName()) + ")");
-                    pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
-                    pw.println("}");
-                    
                     pw.println();
+                    break;
 
-                    if(this.useJaxbAnnotations)
+                case VARIABLE_LIST:
+                    pw.println();
+                    if(this.isPrimitiveList(anAttribute))
                     {
-                        pw.println("@XmlElementWrapper(name=\"" + anAttribute.getName() + "Array\" )  // Jaxb");
+                        String count = "(int)" + anAttribute.getCountFieldName();
+                        pw.println("       if(" + name + ".length != " + count + ")");
+                        pw.println("           " + name + " = new " + types.getProperty(anAttribute.getType()) + "[" + count + "];");
+                        this.writeSegmentArrayRead(pw, anAttribute.getType(), name);
+                        pw.println();
                     }
-                    if(this.useHibernateAnnotations)
+                    else
                     {
-                        pw.println("@OneToMany(cascade=CascadeType.ALL)   // Hibernate");
+                        this.writeObjectListUnmarshal(pw, anAttribute, "segment");
                     }
-                    pw.println("public " + anAttribute.getType() + "[] get" + this.initialCap(anAttribute.getName()) + "()");
-                    pw.println("{ return " + anAttribute.getName() + "; \n}");
-                    pw.println();         
-       
-                }
-                
+                    break;
+
+                default:
+                    break;
             }
-                
-            
-             if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
-             {
-                 pw.println("public void set" + this.initialCap(anAttribute.getName()) + "(List<" + anAttribute.getType() + ">" + " p" + this.initialCap(anAttribute.getName()) + ")");
-                 pw.println("{ " + anAttribute.getName() + " = p" + this.initialCap(anAttribute.getName()) + ";");
-                 pw.println("}");
-                 
-                 pw.println();
+        }
 
-                 if(this.useJaxbAnnotations)
-                 {
-                    pw.println("@XmlElementWrapper(name=\"" + anAttribute.getName() + "List\" ) //  Jaxb");
-                 }
-                 if(this.useHibernateAnnotations)
-                 {
-                     pw.println("@OneToMany    // Hibernate");
-                 }
-                 pw.println("public List<" + anAttribute.getType() + ">"  + " get" + this.initialCap(anAttribute.getName()) + "()");
-                 pw.println("{ return " + anAttribute.getName() + "; }");
-                 pw.println();
-                 
-             }
-        } // End of loop trough writing getter/setter methods
+        pw.println("       return offset;");
+        pw.println("} // end of unmarshal method");
+    }
+
+    /**
+     * Writes static peekXxx(ByteBuffer, int) methods for the header fields declared in a
+     * class, which read a field of a marshalled PDU straight from the buffer. The offset
+     * is where the PDU starts; the buffer's position is not used or changed.
+     */
+    private void writePeekMethods(PrintWriter pw, GeneratedClass aClass)
+    {
+        List primitives = this.fixedOffsetPrimitives(aClass);
+        if(primitives.isEmpty())
+            return;
         
+        for(int idx = 0; idx < primitives.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)primitives.get(idx);
+            String javaType = types.getProperty(anAttribute.getType());
+
+            pw.println();
+            pw.println("/** Reads " + anAttribute.getName() + " from a marshalled PDU starting at offset, without unmarshalling it */");
+            pw.println("public static " + javaType + " peek" + this.initialCap(anAttribute.getName()) + "(java.nio.ByteBuffer buff, int offset)");
+            pw.println("{");
+            pw.println("    return " + this.viewRead(anAttribute.getType(), "buff", "offset + " + anAttribute.getWireOffset()) + ";");
+            pw.println("}");
+        }
+        pw.println();
     }
-    
+
     /**
-     * Some fields have integers with bit fields defined, eg an integer where 
-     * bits 0-2 represent some value, while bits 3-4 represent another value, 
-     * and so on. This writes accessor and mutator methods for those fields.
-     * 
-     * @param pw
-     * @param aClass 
+     * Writes the static methods that measure a marshalled object without unmarshalling it:
+     * an xxxEnd() for each variable size field the class declares, which finds where the
+     * field ends from the count fields and the sizes of what is in it, then sizeAt() and
+     * skip(), which use them. The view and projection classes find their fields with the
+     * same xxxEnd() methods.
      */
-    private void writeBitflagMethods(PrintWriter pw, GeneratedClass aClass)
+    private void writeSizeAtMethods(PrintWriter pw, GeneratedClass aClass)
     {
         List attributes = aClass.getClassAttributes();
-        
         for(int idx = 0; idx < attributes.size(); idx++)
         {
             ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
-           
-            
-            switch(anAttribute.getAttributeKind())
+            if(anAttribute.shouldSerialize && !anAttribute.isFixedSize())
+                this.writeEndMethod(pw, aClass, anAttribute);
+        }
+
+        pw.println("/**");
+        pw.println(" * Size in bytes of the marshalled " + aClass.getName() + " starting at offset in buff, without unmarshalling it.");
+        pw.println(" * Throws IndexOutOfBoundsException if buff ends before a count field it needs.");
+        pw.println(" */");
+        pw.println("public static int sizeAt(java.nio.ByteBuffer buff, int offset)");
+        pw.println("{");
+
+        List wireAttributes = aClass.getWireAttributes();
+        if(aClass.isFixedSize())
+        {
+            pw.println("    return " + aClass.getFixedSize() + ";");
+        }
+        else
+        {
+            ClassAttribute last = (ClassAttribute)wireAttributes.get(wireAttributes.size() - 1);
+            if(last.isFixedSize())
+                pw.println("    return " + this.viewOffset(aClass, last, "buff", "offset") + " + " + last.getWireSize() + " - offset;");
+            else
+                pw.println("    return " + aClass.getName() + "." + last.getName() + "End(buff, offset) - offset;");
+        }
+        pw.println("}");
+        pw.println();
+        pw.println("/** Moves the buffer's position past the marshalled " + aClass.getName() + " that starts there, without unmarshalling it */");
+        pw.println("public static void skip(java.nio.ByteBuffer buff)");
+        pw.println("{");
+        pw.println("    buff.position(buff.position() + sizeAt(buff, buff.position()));");
+        pw.println("}");
+        pw.println();
+    }
+
+    /**
+     * Writes the static method that finds the end of a variable length attribute, which
+     * is where the next segment starts
+     */
+    private void writeEndMethod(PrintWriter pw, GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        pw.println("/** Offset in buff just past " + anAttribute.getName() + ", in the marshalled " + aClass.getName() + " starting at offset */");
+        pw.println("protected static int " + anAttribute.getName() + "End(java.nio.ByteBuffer buff, int offset)");
+        pw.println("{");
+
+        // Where the segment starts is worked out once, for both the field and a count field in the same segment
+        ClassAttribute previous = this.previousVariable(aClass, anAttribute);
+        if(previous == null)
+        {
+            pw.println("    int pos = " + this.viewOffset(aClass, anAttribute, "buff", "offset") + ";");
+        }
+        else
+        {
+            pw.println("    int segment = " + aClass.getName() + "." + previous.getName() + "End(buff, offset);");
+            pw.println("    int pos = segment" + (anAttribute.getSegmentOffset() == 0 ? "" : " + " + anAttribute.getSegmentOffset()) + ";");
+        }
+
+        switch(anAttribute.getAttributeKind())
+        {
+            case CLASSREF:
+                pw.println("    return pos + " + anAttribute.getType() + ".sizeAt(buff, pos);");
+                break;
+
+            case FIXED_LIST:
+                this.writeElementWalk(pw, "    ", anAttribute, "buff", "pos", String.valueOf(anAttribute.getListLength()));
+                pw.println("    return pos;");
+                break;
+
+            case VARIABLE_LIST:
+                String count = this.viewListCount(aClass, anAttribute, "buff", "offset");
+                ClassAttribute countField = this.countField(aClass, anAttribute);
+                if(previous != null && countField != null && this.previousVariable(aClass, countField) == previous)
+                    count = "(int)" + this.viewRead(countField.getType(), "buff", "segment + " + countField.getSegmentOffset());
+                if(anAttribute.getWireElementSize() >= 0 && !this.isPduList(anAttribute))
+                {
+                    pw.println("    return pos + " + count + " * " + anAttribute.getWireElementSize() + ";");
+                }
+                else
+                {
+                    pw.println("    int count = " + count + ";");
+                    this.writeElementWalk(pw, "    ", anAttribute, "buff", "pos", "count");
+                    pw.println("    return pos;");
+                }
+                break;
+
+            default:
+                pw.println("    return pos;");
+        }
+
+        pw.println("}");
+        pw.println();
+    }
+
+    /**
+     * Writes a loop that moves pos past count elements of a list of objects, measuring each
+     * with sizeAt(). PDUs of a pduType with no class are measured by their length field if
+     * there is one; one with neither can't be measured, and throws.
+     */
+    private void writeElementWalk(PrintWriter pw, String indent, ClassAttribute anAttribute, String buff, String pos, String count)
+    {
+        pw.println(indent + "for(int idx = 0; idx < " + count + "; idx++)");
+        pw.println(indent + "{");
+        if(this.isPduList(anAttribute))
+        {
+            String base = pduTypes.getBaseClass().getName();
+            pw.println(indent + "    int size = PduFactory.sizeAt(" + buff + ", " + pos + ");");
+            if(pduTypes.getLengthAttribute() != null)
             {
-                
-                // Anything with bitfields must be a primitive type
-                case PRIMITIVE:
-                    
-                    List bitfields = anAttribute.bitFieldList;
-                    String attributeType = types.getProperty(anAttribute.getType());
-                    String bitfieldIvarName = anAttribute.getName();
-   
-                    for(int jdx = 0; jdx < bitfields.size(); jdx++)
-                    {
-                        BitField bitfield = (BitField)bitfields.get(jdx);
-                        String capped = this.initialCap(bitfield.name);
-                        String cappedIvar = this.initialCap(bitfieldIvarName);
-                        int shiftBits = super.getBitsToShift(anAttribute, bitfield.mask);
-                        
-                        // write getter
-                        pw.println();
-                        if(bitfield.comment != null)
-                        {
-                            pw.println( "/**\n * " + bitfield.comment + "\n */");
-                        }
-                        
-                        pw.println("public int get" + cappedIvar + "_" + bitfield.name + "()");
-                        pw.println("{");
-                        
-                        
-                        pw.println("    " + attributeType + " val = (" + attributeType + ")(this." + bitfield.parentAttribute.getName() + "   & " + "(" + attributeType + ")" + bitfield.mask + ");");
-                        pw.println("    return (int)(val >> " + shiftBits + ");");
-                        pw.println("}\n");
-                        
-                        // Write the setter/mutator
-                        
-                        pw.println();
-                        if(bitfield.comment != null)
-                        {
-                            pw.println( "/** \n * " + bitfield.comment + "\n */");
-                        }
-                        pw.println("public void set" + cappedIvar + "_" + bitfield.name + "(int val)");
-                        pw.println("{");
-                        pw.println("    " + attributeType + " " + " aVal = 0;");
-                        pw.println("    this." + bitfield.parentAttribute.getName() + " &= (" + attributeType + ")(~" + bitfield.mask + "); // clear bits");
-                        pw.println("    aVal = (" + attributeType + ")(val << " + shiftBits + ");");
-                        pw.println("    this." + bitfield.parentAttribute.getName() + " = (" + attributeType + ")(this." + bitfield.parentAttribute.getName() + " | aVal);" );
-                        pw.println("}\n");
-                    }
-                    
-                    break;
-                    
-                default:
-                    bitfields = anAttribute.bitFieldList;
-                    if(!bitfields.isEmpty())
-                    {
-                        System.out.println("Attempted to use bit flags on a non-primitive field");
-                        System.out.println( "Field: " + anAttribute.getName() );
-                    }
+                pw.println(indent + "    if(size < 0)");
+                pw.println(indent + "        size = (int)" + base + ".peek" + this.initialCap(PduTypeTable.LENGTH_FIELD) + "(" + buff + ", " + pos + ");");
             }
-        
+            pw.println(indent + "    if(size <= 0)");
+            pw.println(indent + "        throw new IllegalArgumentException(\"Can't measure the PDU at offset \" + " + pos + " + \" with unknown " + PduTypeTable.TYPE_FIELD + " \" + "
+                    + base + ".peek" + this.initialCap(PduTypeTable.TYPE_FIELD) + "(" + buff + ", " + pos + "));");
+            pw.println(indent + "    " + pos + " = " + pos + " + size;");
+        }
+        else
+        {
+            pw.println(indent + "    " + pos + " = " + pos + " + " + anAttribute.getType() + ".sizeAt(" + buff + ", " + pos + ");");
+        }
+        pw.println(indent + "}");
+    }
+
+    /**
+     * True for a list of PDUs. Each PDU in it is whichever class its pduType says, so the
+     * list's type doesn't give its size, and PduFactory measures each one when it is written.
+     */
+    private boolean isPduList(ClassAttribute anAttribute)
+    {
+        return pduTypes != null && anAttribute.listIsClass() && headerClasses.contains(anAttribute.getType());
+    }
+
+    /** The name of a class with a list of PDUs, or null if there isn't one */
+    private String findPduListClass()
+    {
+        Iterator it = classDescriptions.values().iterator();
+        while(it.hasNext())
+        {
+            GeneratedClass aClass = (GeneratedClass)it.next();
+            List attributes = aClass.getClassAttributes();
+            for(int idx = 0; idx < attributes.size(); idx++)
+            {
+                if(this.isPduList((ClassAttribute)attributes.get(idx)))
+                    return aClass.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the XxxProjection classes listed in the projections option, skipping any that
+     * name a class or field that isn't there. A class listed more than once gets one
+     * projection with the fields of every entry for it.
+     */
+    private void writeProjections()
+    {
+        // Class name to the set of field names asked for, both in the order first listed
+        Map requested = new LinkedHashMap();
+        StringTokenizer entries = new StringTokenizer(projections, ";");
+        while(entries.hasMoreTokens())
+        {
+            String entry = entries.nextToken().trim();
+            int colon = entry.indexOf(':');
+            if(colon < 0)
+            {
+                System.out.println("Projection " + entry + " should be ClassName:field,field...");
+                continue;
+            }
+
+            String className = entry.substring(0, colon).trim();
+            Set names = (Set)requested.get(className);
+            if(names == null)
+            {
+                names = new LinkedHashSet();
+                requested.put(className, names);
+            }
+            else
+            {
+                System.out.println("Projection of " + className + " is listed more than once, so its fields are merged into one projection");
+            }
+
+            StringTokenizer fields = new StringTokenizer(entry.substring(colon + 1), ", ");
+            while(fields.hasMoreTokens())
+                names.add(fields.nextToken());
+        }
+
+        Iterator it = requested.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry request = (Map.Entry)it.next();
+            String className = (String)request.getKey();
+            Set names = (Set)request.getValue();
+            GeneratedClass aClass = (GeneratedClass)classDescriptions.get(className);
+            if(aClass == null)
+            {
+                System.out.println("Projection of " + className + ", which isn't a class in the XML file");
+                continue;
+            }
+            if(classDescriptions.containsKey(className + "Projection"))
+            {
+                System.out.println("The XML file has a class called " + className + "Projection, so no projection of " + className + " was written");
+                continue;
+            }
+
+            // The fields asked for, in the order they are marshalled
+            List selected = new ArrayList();
+            List wireAttributes = aClass.getWireAttributes();
+            for(int idx = 0; idx < wireAttributes.size(); idx++)
+            {
+                ClassAttribute anAttribute = (ClassAttribute)wireAttributes.get(idx);
+                if(names.remove(anAttribute.getName()))
+                    selected.add(anAttribute);
+            }
+
+            Iterator missing = names.iterator();
+            while(missing.hasNext())
+                System.out.println("Projection of " + className + " asks for " + missing.next() + ", which isn't a marshalled field of it");
+
+            if(selected.isEmpty())
+                continue;
+
+            try
+            {
+                PrintWriter pw = this.openOutputFile(this.sourceFilePath(className + "Projection"));
+                this.writeProjectionClass(pw, aClass, selected);
+                pw.close();
+            }
+            catch(IOException e)
+            {
+                System.out.println("error writing " + className + "Projection " + e);
+            }
+        }
+    }
+
+    /**
+     * Writes XxxProjection, which holds a few fields of an Xxx and decodes just those from a
+     * marshalled Xxx. Fields at fixed offsets are read where they are; fields after a
+     * variable length one are found with Xxx's static xxxEnd() methods.
+     */
+    private void writeProjectionClass(PrintWriter pw, GeneratedClass aClass, List selected) throws IOException
+    {
+        String name = aClass.getName() + "Projection";
+
+        String packageName = languageProperties.getProperty("package");
+        if(packageName != null)
+        {
+            pw.println("package " + packageName + ";");
+            pw.println();
+        }
+        pw.println("import java.nio.ByteBuffer;");
+        pw.println("import java.util.*;");
+        pw.println();
+
+        StringBuilder fieldNames = new StringBuilder();
+        for(int idx = 0; idx < selected.size(); idx++)
+        {
+            if(idx > 0)
+                fieldNames.append(idx == selected.size() - 1 ? " and " : ", ");
+            fieldNames.append(((ClassAttribute)selected.get(idx)).getName());
+        }
+
+        pw.println("/**");
+        pw.println(" * Holds the " + fieldNames + " fields of " + aClass.getName() + ", decoded from a marshalled");
+        pw.println(" * " + aClass.getName() + " without decoding anything else. The objects and lists are reused by each unmarshal.");
+        pw.println(" */");
+        pw.println("public class " + name);
+        pw.println("{");
+
+        for(int idx = 0; idx < selected.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)selected.get(idx);
+            if(anAttribute.getComment() != null)
+                pw.println("   /** " + anAttribute.getComment() + " */");
+            pw.println("   protected " + this.projectionType(anAttribute) + " " + anAttribute.getName() + this.projectionInitializer(anAttribute) + ";");
+            pw.println();
+        }
+
+        pw.println("/** Decodes the fields from the marshalled " + aClass.getName() + " starting at offset in buff, leaving the buffer's position alone */");
+        pw.println("public void unmarshal(ByteBuffer buff, int offset)");
+        pw.println("{");
+        pw.println("    int start = buff.position();");
+        for(int idx = 0; idx < selected.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)selected.get(idx);
+            this.writeProjectionRead(pw, aClass, anAttribute, this.viewOffset(aClass, anAttribute, "buff", "offset"));
+        }
+        pw.println("    buff.position(start);");
+        pw.println("}");
+        pw.println();
+
+        for(int idx = 0; idx < selected.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)selected.get(idx);
+            pw.println("public " + this.projectionType(anAttribute) + " get" + this.initialCap(anAttribute.getName()) + "()");
+            pw.println("{");
+            pw.println("    return " + anAttribute.getName() + ";");
+            pw.println("}");
+            pw.println();
         }
+
+        pw.println("}");
     }
-    
-    
-    private void writeMarshalMethod(PrintWriter pw, GeneratedClass aClass)
+
+    /** The Java type of a field in a projection, the same as in the full class */
+    private String projectionType(ClassAttribute anAttribute)
     {
-        List ivars = aClass.getClassAttributes();
-        
-        pw.println();
-        pw.println("public void marshal(DataOutputStream dos)");
-        pw.println("{");
-         
-        // If we're a sublcass of another class, we should first call super
-        // to make sure the superclass's ivars are marshaled out.
-        
-        String superclassName = aClass.getParentClass();
-        if(!(superclassName.equalsIgnoreCase("root")))
+        switch(anAttribute.getAttributeKind())
         {
-            pw.println("    super.marshal(dos);");
+            case PRIMITIVE:
+                return types.getProperty(anAttribute.getType());
+            case FIXED_LIST:
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                    return types.getProperty(anAttribute.getType()) + "[]";
+                return anAttribute.getType() + "[]";
+            case VARIABLE_LIST:
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                    return types.getProperty(anAttribute.getType()) + "[]";
+                return "List<" + anAttribute.getType() + ">";
+            default:
+                return anAttribute.getType();
         }
-        
-       
-        pw.println("    try \n    {");
-        
-        // Loop through the class attributes, generating the output for each.
-        
-        ivars = aClass.getClassAttributes();
-        for(int idx = 0; idx < ivars.size(); idx++)
+    }
+
+    private String projectionInitializer(ClassAttribute anAttribute)
+    {
+        switch(anAttribute.getAttributeKind())
         {
-            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
-            
-            if(anAttribute.shouldSerialize == false)
+            case PRIMITIVE:
+                return "";
+            case FIXED_LIST:
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                    return " = new " + types.getProperty(anAttribute.getType()) + "[" + anAttribute.getListLength() + "]";
+                return " = new " + anAttribute.getType() + "[" + anAttribute.getListLength() + "]";
+            case VARIABLE_LIST:
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                    return " = new " + types.getProperty(anAttribute.getType()) + "[0]";
+                return " = new ArrayList<" + anAttribute.getType() + ">()";
+            default:
+                return " = new " + anAttribute.getType() + "()";
+        }
+    }
+
+    /**
+     * Writes the code that decodes one selected field at position
+     */
+    private void writeProjectionRead(PrintWriter pw, GeneratedClass aClass, ClassAttribute anAttribute, String position)
+    {
+        String name = anAttribute.getName();
+        String elementSize = String.valueOf(anAttribute.getWireElementSize());
+
+        switch(anAttribute.getAttributeKind())
+        {
+            case PRIMITIVE:
+                pw.println("    " + name + " = " + this.viewRead(anAttribute.getType(), "buff", position) + ";");
+                break;
+
+            case CLASSREF:
+                pw.println("    buff.position(" + position + ");");
+                pw.println("    " + name + ".unmarshal(buff);");
+                break;
+
+            case FIXED_LIST:
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                {
+                    pw.println("    int " + name + "At = " + position + ";");
+                    pw.println("    for(int idx = 0; idx < " + anAttribute.getListLength() + "; idx++)");
+                    pw.println("        " + name + "[idx] = " + this.viewRead(anAttribute.getType(), "buff", name + "At + idx * " + elementSize) + ";");
+                }
+                else
+                {
+                    pw.println("    buff.position(" + position + ");");
+                    pw.println("    for(int idx = 0; idx < " + anAttribute.getListLength() + "; idx++)");
+                    pw.println("    {");
+                    pw.println("        if(" + name + "[idx] == null)");
+                    pw.println("            " + name + "[idx] = new " + anAttribute.getType() + "();");
+                    pw.println("        " + name + "[idx].unmarshal(buff);");
+                    pw.println("    }");
+                }
+                break;
+
+            case VARIABLE_LIST:
+                String count = name + "Count";
+                pw.println("    int " + count + " = " + this.viewListCount(aClass, anAttribute, "buff", "offset") + ";");
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                {
+                    pw.println("    int " + name + "At = " + position + ";");
+                    pw.println("    if(" + name + ".length != " + count + ")");
+                    pw.println("        " + name + " = new " + types.getProperty(anAttribute.getType()) + "[" + count + "];");
+                    pw.println("    for(int idx = 0; idx < " + count + "; idx++)");
+                    pw.println("        " + name + "[idx] = " + this.viewRead(anAttribute.getType(), "buff", name + "At + idx * " + elementSize) + ";");
+                }
+                else
+                {
+                    pw.println("    buff.position(" + position + ");");
+                    pw.println("    for(int idx = 0; idx < " + count + "; idx++)");
+                    pw.println("    {");
+                    pw.println("        if(idx == " + name + ".size())");
+                    pw.println("            " + name + ".add(new " + anAttribute.getType() + "());");
+                    pw.println("        " + name + ".get(idx).unmarshal(buff);");
+                    pw.println("    }");
+                    pw.println("    while(" + name + ".size() > " + count + ")");
+                    pw.println("        " + name + ".remove(" + name + ".size() - 1);");
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes static methods that set each primitive field at a fixed offset directly in a
+     * marshalled buffer, and constants giving the offsets of fixed-offset class fields, so
+     * a relay can change a few fields of a received PDU and forward the same bytes.
+     */
+    private void writePokeMethods(PrintWriter pw, GeneratedClass aClass)
+    {
+        List attributes = aClass.getClassAttributes();
+        boolean any = false;
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            if(!anAttribute.shouldSerialize || anAttribute.getWireOffset() < 0)
+                continue;
+
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
             {
-                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
-                 continue;
+                pw.println();
+                pw.println("/** Offset of " + anAttribute.getName() + " in a marshalled " + aClass.getName() + ", for its poke methods */");
+                pw.println("public static final int " + this.constantName(anAttribute.getName()) + "_OFFSET = " + anAttribute.getWireOffset() + ";");
+                any = true;
             }
-        
-            // Write out a method call to serialize a primitive type
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            else if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
             {
+                String javaType = types.getProperty(anAttribute.getType());
                 String marshalType = marshalTypes.getProperty(anAttribute.getType());
-                String capped = this.initialCap(marshalType);
-                
-                // If we're a normal primitivetype, marshal out directly; otherwise, marshall out
-                // the list length.
-                if(anAttribute.getIsDynamicListLengthField() == false)
-                {
-                     pw.println("       dos.write" + capped + "( (" + marshalType + ")" + anAttribute.getName() + ");");
-                }
-               else
-               {
-                   ClassAttribute listAttribute = anAttribute.getDynamicListClassAttribute();
-                   pw.println("       dos.write" + capped + "( (" + marshalType + ")" + listAttribute.getName() + ".size());");
-               }
-                
+                String method = marshalType.equals("byte") ? "put" : "put" + this.initialCap(marshalType);
+                String cast = marshalType.equals(javaType) ? "" : "(" + marshalType + ")";
+
+                pw.println();
+                pw.println("/** Writes " + anAttribute.getName() + " into a marshalled " + aClass.getName() + " starting at offset, in place */");
+                pw.println("public static void poke" + this.initialCap(anAttribute.getName()) + "(java.nio.ByteBuffer buff, int offset, " + javaType + " p" + this.initialCap(anAttribute.getName()) + ")");
+                pw.println("{");
+                pw.println("    buff." + method + "(offset + " + anAttribute.getWireOffset() + ", " + cast + "p" + this.initialCap(anAttribute.getName()) + ");");
+                pw.println("}");
+                any = true;
             }
-            
-            // Write out a method call to serialize a class.
-            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF )
+        }
+        if(any)
+            pw.println();
+    }
+
+    /** A field name as a constant name, eg entityID to ENTITY_ID */
+    private String constantName(String name)
+    {
+        StringBuilder constant = new StringBuilder();
+        for(int idx = 0; idx < name.length(); idx++)
+        {
+            char c = name.charAt(idx);
+            if(idx > 0 && Character.isUpperCase(c) && Character.isLowerCase(name.charAt(idx - 1)))
+                constant.append('_');
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.toString();
+    }
+
+    /**
+     * Writes PduFilter, which tests the header fields of a marshalled PDU against a set of
+     * allowed values. Fields of up to 16 bits are checked with a lookup table indexed by
+     * the value, wider ones against a range. Nothing is unmarshalled or allocated.
+     */
+    private void writePduFilter(PduTypeTable pduTypes)
+    {
+        if(classDescriptions.containsKey("PduFilter"))
+        {
+            System.out.println("The XML file has a class called PduFilter, so no PDU filter was written");
+            return;
+        }
+
+        GeneratedClass baseClass = pduTypes.getBaseClass();
+        String base = baseClass.getName();
+
+        // Integer fields only; there's no sensible filter on a float
+        List fields = new ArrayList();
+        List primitives = this.fixedOffsetPrimitives(baseClass);
+        int headerSize = 0;
+        for(int idx = 0; idx < primitives.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)primitives.get(idx);
+            if(WireLayout.maxCount(anAttribute.getType()) < 0)
+                continue;
+            fields.add(anAttribute);
+            headerSize = Math.max(headerSize, anAttribute.getWireOffset() + anAttribute.getWireSize());
+        }
+
+        try
+        {
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("PduFilter"));
+
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
             {
-                String marshalType = anAttribute.getType();
-            
-                pw.println("       " + anAttribute.getName() + ".marshal(dos);" );
+                pw.println("package " + packageName + ";");
+                pw.println();
             }
-            
-            // Write out the method call to marshal a fixed length list, aka an array.
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Decides whether to keep a marshalled PDU by looking at its header fields, read");
+            pw.println(" * straight from the buffer with the " + base + ".peekXxx() methods. Build one up with");
+            pw.println(" * the field methods, eg");
+            pw.println(" *");
+            pw.println(" * <pre>PduFilter filter = new PduFilter().exerciseID(1).pduType(1, 2);</pre>");
+            pw.println(" *");
+            pw.println(" * and then call matches() on each PDU received. Fields with no condition set accept");
+            pw.println(" * any value. Calling a field method again widens the condition on that field.");
+            pw.println(" */");
+            pw.println("public class PduFilter");
+            pw.println("{");
+            pw.println("    /** The bytes of the header needed to check every field */");
+            pw.println("    public static final int HEADER_SIZE = " + headerSize + ";");
+
+            // Fields too wide for a lookup table keep a list of ranges instead
+            boolean wideFields = false;
+            for(int idx = 0; idx < fields.size(); idx++)
             {
+                ClassAttribute anAttribute = (ClassAttribute)fields.get(idx);
+                String name = anAttribute.getName();
                 pw.println();
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
-                pw.println("       {");
-                
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-                
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-                
-                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                if(anAttribute.getWireSize() <= 2)
                 {
-                    String capped = this.initialCap(marshalType);
-                    pw.println("           dos.write" + capped + "(" + anAttribute.getName() + "[idx]);");
+                    pw.println("    /** Allowed values of " + name + ", indexed by value" + (this.filterIndexOffset(anAttribute) == 0 ? "" : " + " + this.filterIndexOffset(anAttribute))
+                            + ", or null for any value */");
+                    pw.println("    private boolean[] " + name + "Values;");
                 }
                 else
                 {
-                     pw.println("           " + anAttribute.getName() + "[idx].marshal(dos);" );
+                    pw.println("    /** Allowed ranges of " + name + ", as min and max inclusive pairs, or null for any value */");
+                    pw.println("    private long[] " + name + "Ranges;");
+                    wideFields = true;
                 }
-            
-                pw.println("       } // end of array marshaling");
-                pw.println();
             }
-            
-            // Write out a section of code to marshal a variable length list. The code should look like
-            //
-            // for(int idx = 0; idx < attrName.size(); idx++)
-            // { anAttribute.marshal(dos);
-            // }
-            //    
-            
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+
+            for(int idx = 0; idx < fields.size(); idx++)
+            {
+                ClassAttribute anAttribute = (ClassAttribute)fields.get(idx);
+                this.writePduFilterMethods(pw, anAttribute);
+            }
+
+            pw.println();
+            pw.println("    /** True if the PDU starting at offset in buff passes the filter */");
+            pw.println("    public boolean matches(ByteBuffer buff, int offset)");
+            pw.println("    {");
+            pw.println("        if(offset < 0 || buff.limit() - offset < HEADER_SIZE)");
+            pw.println("            return false;");
+            for(int idx = 0; idx < fields.size(); idx++)
             {
+                ClassAttribute anAttribute = (ClassAttribute)fields.get(idx);
+                String name = anAttribute.getName();
+                String peek = base + ".peek" + this.initialCap(name) + "(buff, offset)";
                 pw.println();
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".size(); idx++)");
-                pw.println("       {");
-                
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-                
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-                
-                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                if(anAttribute.getWireSize() <= 2)
                 {
-                    String capped = this.initialCap(marshalType);
-                    pw.println("           dos.write" + capped + "(" + anAttribute.getName() + ");");
+                    int indexOffset = this.filterIndexOffset(anAttribute);
+                    pw.println("        if(" + name + "Values != null && !" + name + "Values[" + peek + (indexOffset == 0 ? "" : " + " + indexOffset) + "])");
+                    pw.println("            return false;");
                 }
                 else
                 {
-                    pw.println("            " + anAttribute.getType() + " a" + initialCap(anAttribute.getType() + " = " +
-                                                                                     anAttribute.getName() + ".get(idx);"));
-                    pw.println("            a" + initialCap(anAttribute.getType()) + ".marshal(dos);" );
+                    pw.println("        if(" + name + "Ranges != null && !PduFilter.inRanges(" + name + "Ranges, " + peek + "))");
+                    pw.println("            return false;");
                 }
-                
-                pw.println("       } // end of list marshalling");
+            }
+            pw.println();
+            pw.println("        return true;");
+            pw.println("    }");
+            if(wideFields)
+            {
+                pw.println();
+                pw.println("    /** True if value is in one of the min and max pairs in ranges */");
+                pw.println("    private static boolean inRanges(long[] ranges, long value)");
+                pw.println("    {");
+                pw.println("        for(int idx = 0; idx < ranges.length; idx = idx + 2)");
+                pw.println("        {");
+                pw.println("            if(value >= ranges[idx] && value <= ranges[idx + 1])");
+                pw.println("                return true;");
+                pw.println("        }");
+                pw.println("        return false;");
+                pw.println("    }");
+            }
+            pw.println();
+            pw.println("    /** True if the PDU starting at the buffer's position passes the filter */");
+            pw.println("    public boolean matches(ByteBuffer buff)");
+            pw.println("    {");
+            pw.println("        return this.matches(buff, buff.position());");
+            pw.println("    }");
+            pw.println("}");
+            pw.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing PduFilter " + e);
+        }
+    }
+
+    /**
+     * Writes the methods of PduFilter that set the condition on one field
+     */
+    private void writePduFilterMethods(PrintWriter pw, ClassAttribute anAttribute)
+    {
+        String name = anAttribute.getName();
+
+        if(anAttribute.getWireSize() > 2)
+        {
+            pw.println();
+            pw.println("    /** Only PDUs with " + name + " from min to max inclusive */");
+            pw.println("    public PduFilter " + name + "Between(long min, long max)");
+            pw.println("    {");
+            pw.println("        int count = " + name + "Ranges == null ? 0 : " + name + "Ranges.length;");
+            pw.println("        " + name + "Ranges = count == 0 ? new long[2] : java.util.Arrays.copyOf(" + name + "Ranges, count + 2);");
+            pw.println("        " + name + "Ranges[count] = min;");
+            pw.println("        " + name + "Ranges[count + 1] = max;");
+            pw.println("        return this;");
+            pw.println("    }");
+            return;
+        }
+
+        int tableSize = 1 << (anAttribute.getWireSize() * 8);
+        int indexOffset = this.filterIndexOffset(anAttribute);
+        String index = indexOffset == 0 ? "value" : "value + " + indexOffset;
+
+        pw.println();
+        pw.println("    /** Only PDUs whose " + name + " is one of values */");
+        pw.println("    public PduFilter " + name + "(int... values)");
+        pw.println("    {");
+        pw.println("        for(int idx = 0; idx < values.length; idx++)");
+        pw.println("        {");
+        pw.println("            this." + name + "Between(values[idx], values[idx]);");
+        pw.println("        }");
+        pw.println("        return this;");
+        pw.println("    }");
+        pw.println();
+        pw.println("    /** Only PDUs with " + name + " from min to max inclusive */");
+        pw.println("    public PduFilter " + name + "Between(int min, int max)");
+        pw.println("    {");
+        pw.println("        if(" + name + "Values == null)");
+        pw.println("            " + name + "Values = new boolean[" + tableSize + "];");
+        pw.println("        for(int value = Math.max(min, " + (-indexOffset) + "); value <= max && value < " + (tableSize - indexOffset) + "; value++)");
+        pw.println("        {");
+        pw.println("            " + name + "Values[" + index + "] = true;");
+        pw.println("        }");
+        pw.println("        return this;");
+        pw.println("    }");
+    }
+
+    /** What PduFilter adds to a field's value to index its lookup table: 0 for unsigned fields */
+    private int filterIndexOffset(ClassAttribute anAttribute)
+    {
+        if(anAttribute.getType().startsWith("unsigned"))
+            return 0;
+        return 1 << (anAttribute.getWireSize() * 8 - 1);
+    }
+
+    /**
+     * The PduContainer class, if the XML file describes one this code knows how to fill:
+     * a count field followed by a variable list of PDUs and nothing else. Null otherwise.
+     */
+    private GeneratedClass findPduContainer(GeneratedClass baseClass)
+    {
+        GeneratedClass container = (GeneratedClass)classDescriptions.get("PduContainer");
+        if(container == null)
+            return null;
+
+        List attributes = container.getWireAttributes();
+        if(attributes.size() != 2)
+            return null;
+
+        ClassAttribute countField = (ClassAttribute)attributes.get(0);
+        ClassAttribute listField = (ClassAttribute)attributes.get(1);
+        if(countField.getAttributeKind() != ClassAttribute.ClassAttributeType.PRIMITIVE || countField.getWireOffset() != 0
+                || listField.getAttributeKind() != ClassAttribute.ClassAttributeType.VARIABLE_LIST
+                || !countField.getName().equals(listField.getCountFieldName()))
+            return null;
+
+        // The list has to hold PDUs
+        GeneratedClass current = (GeneratedClass)classDescriptions.get(listField.getType());
+        while(current != null && current != baseClass)
+        {
+            String parentName = current.getParentClass();
+            current = parentName == null ? null : (GeneratedClass)classDescriptions.get(parentName);
+        }
+        return current == null ? null : container;
+    }
+
+    /**
+     * Writes PduBatchWriter, which marshals many PDUs back to back into one buffer that is
+     * reused from batch to batch, and sends them from there with one call per datagram or
+     * one write for the whole batch, rather than a byte[] and a send for every PDU.
+     */
+    private void writePduBatchWriter(PduTypeTable pduTypes)
+    {
+        if(classDescriptions.containsKey("PduBatchWriter"))
+        {
+            System.out.println("The XML file has a class called PduBatchWriter, so no PDU batch writer was written");
+            return;
+        }
+
+        GeneratedClass baseClass = pduTypes.getBaseClass();
+        String base = baseClass.getName();
+        GeneratedClass container = this.findPduContainer(baseClass);
+
+        try
+        {
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("PduBatchWriter"));
+
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
+            {
+                pw.println("package " + packageName + ";");
+                pw.println();
+            }
+            pw.println("import java.io.IOException;");
+            pw.println("import java.net.SocketAddress;");
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println("import java.nio.channels.DatagramChannel;");
+            pw.println("import java.nio.channels.WritableByteChannel;");
+            pw.println("import java.util.Arrays;");
+            if(container != null)
+                pw.println("import java.util.List;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Marshals PDUs back to back into one buffer and sends or writes them from there.");
+            pw.println(" * The buffer, and everything else, is reused from one batch to the next, so once it");
+            pw.println(" * has grown to the size of a batch nothing more is allocated:");
+            pw.println(" *");
+            pw.println(" * <pre>batch.clear();");
+            pw.println(" * for(...)");
+            pw.println(" *     batch.add(pdu);");
+            pw.println(" * batch.send(channel, target);</pre>");
+            pw.println(" *");
+            pw.println(" * The buffer has the byte order it was made with, big endian, which is the order the");
+            pw.println(" * PDU classes marshal in. A direct buffer saves the channel copying each PDU into one");
+            pw.println(" * of its own before sending it.");
+            pw.println(" */");
+            pw.println("public class PduBatchWriter");
+            pw.println("{");
+            pw.println("    /** Starting size of the buffer if none is given */");
+            pw.println("    public static final int DEFAULT_CAPACITY = 65536;");
+            pw.println();
+            pw.println("    /** The marshalled PDUs, from 0 to the buffer's position */");
+            pw.println("    private ByteBuffer buffer;");
+            pw.println();
+            pw.println("    /** If true the buffer is direct, and so is any bigger one that replaces it */");
+            pw.println("    private boolean direct;");
+            pw.println();
+            pw.println("    /** Offset of the end of each PDU in the buffer. Each PDU starts where the one before it ends. */");
+            pw.println("    private int[] ends = new int[64];");
+            pw.println();
+            pw.println("    /** The number of PDUs in the batch */");
+            pw.println("    private int pduCount = 0;");
+            pw.println();
+            pw.println("    /** Another view of the buffer, for reading PDUs out without moving the buffer's position */");
+            pw.println("    private ByteBuffer out;");
+            pw.println();
+            pw.println("    /** Views of the buffer handed out by getPduBuffers(), made when first needed */");
+            pw.println("    private ByteBuffer[] pduBuffers = new ByteBuffer[0];");
+            pw.println();
+            pw.println("    public PduBatchWriter()");
+            pw.println("    {");
+            pw.println("        this(DEFAULT_CAPACITY, false);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** A writer with a buffer of the given starting size, which grows as needed */");
+            pw.println("    public PduBatchWriter(int pCapacity, boolean pDirect)");
+            pw.println("    {");
+            pw.println("        direct = pDirect;");
+            pw.println("        buffer = direct ? ByteBuffer.allocateDirect(pCapacity) : ByteBuffer.allocate(pCapacity);");
+            pw.println("        out = buffer.duplicate();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Marshals a PDU onto the end of the batch, and returns its index in the batch */");
+            pw.println("    public int add(" + base + " pdu)");
+            pw.println("    {");
+            pw.println("        int size = pdu.getMarshalledSize();");
+            pw.println("        if(buffer.remaining() < size)");
+            pw.println("            this.grow(size);");
+            pw.println();
+            pw.println("        pdu.marshal(buffer);");
+            pw.println("        return this.endPdu();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Copies an already marshalled PDU, the bytes between the position and limit of");
+            pw.println("     * marshalled, onto the end of the batch, and returns its index in the batch. The");
+            pw.println("     * position of marshalled moves to its limit.");
+            pw.println("     */");
+            pw.println("    public int add(ByteBuffer marshalled)");
+            pw.println("    {");
+            pw.println("        if(buffer.remaining() < marshalled.remaining())");
+            pw.println("            this.grow(marshalled.remaining());");
+            pw.println();
+            pw.println("        buffer.put(marshalled);");
+            pw.println("        return this.endPdu();");
+            pw.println("    }");
+            if(container != null)
+            {
+                ClassAttribute listField = (ClassAttribute)container.getWireAttributes().get(1);
+                String listType = listField.getType();
+                pw.println();
+                pw.println("    /** Marshals the PDUs in a " + container.getName() + " onto the end of the batch */");
+                pw.println("    public void addAll(" + container.getName() + " container)");
+                pw.println("    {");
+                pw.println("        List<" + listType + "> pdus = container.get" + this.initialCap(listField.getName()) + "();");
+                pw.println("        for(int idx = 0; idx < pdus.size(); idx++)");
+                pw.println("        {");
+                pw.println("            this.add(pdus.get(idx));");
+                pw.println("        }");
+                pw.println("    }");
+            }
+            pw.println();
+            pw.println("    /** Empties the batch, keeping the buffer for the next one */");
+            pw.println("    public void clear()");
+            pw.println("    {");
+            pw.println("        buffer.clear();");
+            pw.println("        pduCount = 0;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The number of PDUs in the batch */");
+            pw.println("    public int getPduCount()");
+            pw.println("    {");
+            pw.println("        return pduCount;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The number of bytes in the batch */");
+            pw.println("    public int getSize()");
+            pw.println("    {");
+            pw.println("        return buffer.position();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Where a PDU starts, in bytes from the start of the batch */");
+            pw.println("    public int getPduOffset(int index)");
+            pw.println("    {");
+            pw.println("        if(index < 0 || index >= pduCount)");
+            pw.println("            throw new IndexOutOfBoundsException(\"PDU \" + index + \" of \" + pduCount);");
+            pw.println("        return index == 0 ? 0 : ends[index - 1];");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The marshalled size of a PDU */");
+            pw.println("    public int getPduLength(int index)");
+            pw.println("    {");
+            pw.println("        return ends[index] - this.getPduOffset(index);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * The marshalled PDUs, as a view of the buffer positioned at the first and limited at");
+            pw.println("     * the end of the last. The same view is returned each time, so it is only good until");
+            pw.println("     * the next call on this writer.");
+            pw.println("     */");
+            pw.println("    public ByteBuffer getBatch()");
+            pw.println("    {");
+            pw.println("        return this.view(0, buffer.position());");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * A view of the buffer for each PDU, positioned at its start and limited at its end,");
+            pw.println("     * for a gathering write that mixes PDUs with other buffers, eg");
+            pw.println("     * channel.write(batch.getPduBuffers(), 0, batch.getPduCount()). Only the first");
+            pw.println("     * getPduCount() entries are set. The array and the views are reused by the next call.");
+            pw.println("     */");
+            pw.println("    public ByteBuffer[] getPduBuffers()");
+            pw.println("    {");
+            pw.println("        if(pduBuffers.length < pduCount)");
+            pw.println("            pduBuffers = Arrays.copyOf(pduBuffers, ends.length);");
+            pw.println();
+            pw.println("        int start = 0;");
+            pw.println("        for(int idx = 0; idx < pduCount; idx++)");
+            pw.println("        {");
+            pw.println("            if(pduBuffers[idx] == null)");
+            pw.println("                pduBuffers[idx] = buffer.duplicate();");
+            pw.println("            pduBuffers[idx].limit(ends[idx]);");
+            pw.println("            pduBuffers[idx].position(start);");
+            pw.println("            start = ends[idx];");
+            pw.println("        }");
+            pw.println("        return pduBuffers;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Writes the whole batch to a stream channel, eg a SocketChannel or FileChannel. The PDUs");
+            pw.println("     * are next to each other in the buffer, so this is a single write unless the channel");
+            pw.println("     * takes only part of it. Returns the number of bytes written, which is less than");
+            pw.println("     * getSize() only if the channel is non-blocking and had no room for the rest.");
+            pw.println("     */");
+            pw.println("    public long writeTo(WritableByteChannel channel) throws IOException");
+            pw.println("    {");
+            pw.println("        ByteBuffer batch = this.getBatch();");
+            pw.println("        long written = 0;");
+            pw.println("        while(batch.hasRemaining())");
+            pw.println("        {");
+            pw.println("            int count = channel.write(batch);");
+            pw.println("            if(count <= 0)");
+            pw.println("                break;");
+            pw.println("            written = written + count;");
+            pw.println("        }");
+            pw.println("        return written;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Sends each PDU in a datagram of its own. Returns the number of PDUs sent, which is");
+            pw.println("     * less than getPduCount() only if the channel is non-blocking and had no room.");
+            pw.println("     */");
+            pw.println("    public int send(DatagramChannel channel, SocketAddress target) throws IOException");
+            pw.println("    {");
+            pw.println("        int start = 0;");
+            pw.println("        for(int idx = 0; idx < pduCount; idx++)");
+            pw.println("        {");
+            pw.println("            if(channel.send(this.view(start, ends[idx]), target) == 0)");
+            pw.println("                return idx;");
+            pw.println("            start = ends[idx];");
+            pw.println("        }");
+            pw.println("        return pduCount;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Sends the PDUs with as many in each datagram as fit in maxDatagramSize bytes, for");
+            pw.println("     * receivers that read more than one PDU from a datagram. A PDU bigger than that goes");
+            pw.println("     * in a datagram of its own. Returns the number of PDUs sent, which is less than");
+            pw.println("     * getPduCount() only if the channel is non-blocking and had no room.");
+            pw.println("     */");
+            pw.println("    public int sendBundled(DatagramChannel channel, SocketAddress target, int maxDatagramSize) throws IOException");
+            pw.println("    {");
+            pw.println("        int start = 0;");
+            pw.println("        int idx = 0;");
+            pw.println("        while(idx < pduCount)");
+            pw.println("        {");
+            pw.println("            int next = idx + 1;");
+            pw.println("            while(next < pduCount && ends[next] - start <= maxDatagramSize)");
+            pw.println("                next++;");
+            pw.println();
+            pw.println("            if(channel.send(this.view(start, ends[next - 1]), target) == 0)");
+            pw.println("                break;");
+            pw.println("            start = ends[next - 1];");
+            pw.println("            idx = next;");
+            pw.println("        }");
+            pw.println("        return idx;");
+            pw.println("    }");
+            if(container != null)
+            {
+                ClassAttribute countField = (ClassAttribute)container.getWireAttributes().get(0);
+                String marshalType = marshalTypes.getProperty(countField.getType());
+                String capped = this.initialCap(marshalType);
+                if(capped.equals("Byte"))
+                    capped = "";
                 pw.println();
-            }   
-        } // End of loop through the ivars for a marshal method
-        
-        pw.println("    } // end try \n    catch(Exception e)");
-        pw.println("    { \n      System.out.println(e);}");
-        
-        pw.println("    } // end of marshal method");
+                pw.println("    /** The marshalled size of a " + container.getName() + " holding the PDUs in the batch */");
+                pw.println("    public int getContainerSize()");
+                pw.println("    {");
+                pw.println("        return " + countField.getWireSize() + " + buffer.position();");
+                pw.println("    }");
+                pw.println();
+                pw.println("    /**");
+                pw.println("     * Writes the batch as a marshalled " + container.getName() + ": the same bytes that");
+                pw.println("     * marshalling a " + container.getName() + " holding these PDUs would write, without");
+                pw.println("     * making one or marshalling the PDUs again.");
+                pw.println("     */");
+                pw.println("    public void marshalContainer(ByteBuffer buff)");
+                pw.println("    {");
+                pw.println("        buff.put" + capped + "((" + marshalType + ")pduCount);");
+                pw.println("        buff.put(this.getBatch());");
+                pw.println("    }");
+            }
+            pw.println();
+            pw.println("    /** Records the end of the PDU just put in the buffer */");
+            pw.println("    private int endPdu()");
+            pw.println("    {");
+            pw.println("        if(pduCount == ends.length)");
+            pw.println("            ends = Arrays.copyOf(ends, pduCount * 2);");
+            pw.println("        ends[pduCount] = buffer.position();");
+            pw.println("        return pduCount++;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Replaces the buffer with one that has room for at least size more bytes */");
+            pw.println("    private void grow(int size)");
+            pw.println("    {");
+            pw.println("        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);");
+            pw.println("        ByteBuffer bigger = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);");
+            pw.println("        bigger.order(buffer.order());");
+            pw.println("        buffer.flip();");
+            pw.println("        bigger.put(buffer);");
+            pw.println("        buffer = bigger;");
+            pw.println("        out = buffer.duplicate();");
+            pw.println("        Arrays.fill(pduBuffers, null);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The out view, set to the bytes from start to end */");
+            pw.println("    private ByteBuffer view(int start, int end)");
+            pw.println("    {");
+            pw.println("        out.limit(end);");
+            pw.println("        out.position(start);");
+            pw.println("        return out;");
+            pw.println("    }");
+            pw.println("}");
+            pw.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing PduBatchWriter " + e);
+        }
     }
-    
-    private void writeUnmarshallMethod(PrintWriter pw, GeneratedClass aClass)
+
+    /**
+     * Writes PduStreamReader, which reads PDUs one after another from a channel, a buffer or
+     * a memory mapped file, framing each by the length field in its header. It unmarshals
+     * into one reusable PDU per pduType, or hands out each PDU still marshalled.
+     */
+    private void writePduStreamReader(PduTypeTable pduTypes)
     {
-        List ivars = aClass.getClassAttributes();
-        String superclassName;
-        
-		pw.println();
-        pw.println("public void unmarshal(DataInputStream dis)");
-        pw.println("{");
-		pw.flush();
-        
-        superclassName = aClass.getParentClass();
-        if(!(superclassName.equalsIgnoreCase("root")))
+        if(classDescriptions.containsKey("PduStreamReader"))
         {
-            pw.println("     super.unmarshal(dis);\n");
+            System.out.println("The XML file has a class called PduStreamReader, so no PDU stream reader was written");
+            return;
         }
-        
-        
-        pw.println("    try \n    {");
-        
-        // Loop through the class attributes, generating the output for each.
-        
-        ivars = aClass.getClassAttributes();
-        for(int idx = 0; idx < ivars.size(); idx++)
+
+        GeneratedClass baseClass = pduTypes.getBaseClass();
+        String base = baseClass.getName();
+        ClassAttribute typeAttribute = pduTypes.getTypeAttribute();
+        ClassAttribute lengthAttribute = pduTypes.getLengthAttribute();
+
+        int headerSize = Math.max(baseClass.getMinSize(), typeAttribute.getWireOffset() + typeAttribute.getWireSize());
+        long maxPduSize = 65535;
+        if(lengthAttribute != null)
         {
-            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
-            
-            if(anAttribute.shouldSerialize == false)
+            headerSize = Math.max(headerSize, lengthAttribute.getWireOffset() + lengthAttribute.getWireSize());
+            maxPduSize = Math.min(WireLayout.maxCount(lengthAttribute.getType()), Integer.MAX_VALUE / 2);
+        }
+
+        // Captures saved with a PduStream record in front of the PDUs
+        boolean hasPduStream = constantSizeClasses.contains("PduStream");
+
+        try
+        {
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("PduStreamReader"));
+
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
             {
-                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
-                 continue;
+                pw.println("package " + packageName + ";");
+                pw.println();
             }
-            
-            // Write out a method call to deserialize a primitive type
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            pw.println("import java.io.IOException;");
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println("import java.nio.channels.FileChannel;");
+            pw.println("import java.nio.channels.ReadableByteChannel;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Reads PDUs one after another from a channel, a ByteBuffer (such as a MappedByteBuffer),");
+            pw.println(" * or a capture file mapped into memory a window at a time, so files bigger than 2GB can");
+            pw.println(" * be read. Each PDU is framed by the " + PduTypeTable.LENGTH_FIELD + " field of its header; PDUs with no " + PduTypeTable.LENGTH_FIELD);
+            pw.println(" * set are framed by working out their size from their count fields with sizeAt().<p>");
+            pw.println(" *");
+            pw.println(" * next() unmarshals each PDU into an instance the reader keeps for that pduType, so");
+            pw.println(" * nothing is allocated per PDU; copy the PDU with copyFrom() or deepCopy() to keep it.");
+            pw.println(" * nextFrame() doesn't unmarshal at all, and hands out the PDU still marshalled for the");
+            pw.println(" * view classes or a PduFilter. Either way, what it returns is only good until the");
+            pw.println(" * next call, and that includes the fields a lazily decoding PDU hasn't decoded yet.");
+            pw.println(" */");
+            pw.println("public class PduStreamReader");
+            pw.println("{");
+            pw.println("    /** Bytes of the header read to decide how to read a PDU; no PDU is shorter */");
+            pw.println("    public static final int HEADER_SIZE = " + headerSize + ";");
+            pw.println();
+            pw.println("    /** The biggest PDU the " + PduTypeTable.LENGTH_FIELD + " field can describe */");
+            pw.println("    public static final int MAX_PDU_SIZE = " + maxPduSize + ";");
+            pw.println();
+            pw.println("    /** Size of the buffer used to read from a channel if none is given */");
+            pw.println("    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;");
+            pw.println();
+            pw.println("    /** The most of a file mapped into memory at once */");
+            pw.println("    public static final long MAP_SIZE = 1L << 30;");
+            pw.println();
+            pw.println("    /** The channel being read, or null if reading a buffer or a mapped file */");
+            pw.println("    private ReadableByteChannel channel = null;");
+            pw.println();
+            pw.println("    /** The file being mapped, or null */");
+            pw.println("    private FileChannel file = null;");
+            pw.println();
+            pw.println("    /** Size of the file being mapped */");
+            pw.println("    private long fileSize = 0;");
+            pw.println();
+            pw.println("    /** The bytes read but not yet used, from position to limit */");
+            pw.println("    private ByteBuffer buffer;");
+            pw.println();
+            pw.println("    /** Offset in the input of the start of the buffer */");
+            pw.println("    private long bufferStart = 0;");
+            pw.println();
+            pw.println("    /** True once the channel has no more to read */");
+            pw.println("    private boolean endOfInput = false;");
+            pw.println();
+            pw.println("    /** If not null, PDUs that don't pass are skipped without being unmarshalled */");
+            pw.println("    private PduFilter filter = null;");
+            pw.println();
+            pw.println("    /** The PDUs handed out by next(), indexed by pduType and made when first needed */");
+            pw.println("    private " + base + "[] instances = new " + base + "[" + pduTypes.getTableSize() + "];");
+            pw.println();
+            pw.println("    /** Where the PDU found by advance() starts in the buffer, its length and pduType */");
+            pw.println("    private int frameStart;");
+            pw.println("    private int frameLength;");
+            pw.println("    private int framePduType;");
+            pw.println();
+            pw.println("    /** The view of the buffer handed out by nextFrame(), and the buffer it is a view of */");
+            pw.println("    private ByteBuffer frame = null;");
+            pw.println("    private ByteBuffer frameOf = null;");
+            pw.println();
+            pw.println("    /** Reads from a channel, which should be in blocking mode */");
+            pw.println("    public PduStreamReader(ReadableByteChannel pChannel)");
+            pw.println("    {");
+            pw.println("        this(pChannel, DEFAULT_BUFFER_SIZE);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Reads from a channel, which should be in blocking mode, through a direct buffer of the given size */");
+            pw.println("    public PduStreamReader(ReadableByteChannel pChannel, int pBufferSize)");
+            pw.println("    {");
+            pw.println("        channel = pChannel;");
+            pw.println("        buffer = ByteBuffer.allocateDirect(Math.max(pBufferSize, HEADER_SIZE));");
+            pw.println("        buffer.limit(0);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Reads the PDUs between the position and the limit of a buffer, without changing either */");
+            pw.println("    public PduStreamReader(ByteBuffer pBuffer)");
+            pw.println("    {");
+            pw.println("        buffer = pBuffer.duplicate();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Reads a file from its current position to its end by mapping it into memory, up to");
+            pw.println("     * MAP_SIZE bytes at a time");
+            pw.println("     */");
+            pw.println("    public static PduStreamReader map(FileChannel pFile) throws IOException");
+            pw.println("    {");
+            pw.println("        PduStreamReader reader = new PduStreamReader(ByteBuffer.allocate(0));");
+            pw.println("        reader.file = pFile;");
+            pw.println("        reader.fileSize = pFile.size();");
+            pw.println("        reader.bufferStart = pFile.position();");
+            pw.println("        return reader;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Only PDUs that pass the filter are returned; null returns them all */");
+            pw.println("    public void setFilter(PduFilter pFilter)");
+            pw.println("    {");
+            pw.println("        filter = pFilter;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Offset in the input of the next PDU */");
+            pw.println("    public long getOffset()");
+            pw.println("    {");
+            pw.println("        return bufferStart + buffer.position();");
+            pw.println("    }");
+            if(hasPduStream)
             {
-                String marshalType = unmarshalTypes.getProperty(anAttribute.getType());
-                String capped = this.initialCap(marshalType);
-                if(marshalType.equalsIgnoreCase("UnsignedByte"))
-                    pw.println("       " + anAttribute.getName() + " = (short)dis.read" + capped + "();");
-                else if (marshalType.equalsIgnoreCase("UnsignedShort"))
-                    pw.println("       " + anAttribute.getName() + " = (int)dis.read" + capped + "();");
-				else if(marshalType.equalsIgnoreCase("UnsignedLong"))
-					pw.println("       " + anAttribute.getName() + " = (int)dis.readLong" + "();"); // ^^^This is wrong; need to read unsigned here
-                else
-                    pw.println("       " + anAttribute.getName() + " = dis.read" + capped + "();");
-                pw.flush();
+                pw.println();
+                pw.println("    /**");
+                pw.println("     * Reads the PduStream record that describes a recording, for captures that start with");
+                pw.println("     * one. Call it before reading any PDUs. Returns null if the input is too short.");
+                pw.println("     */");
+                pw.println("    public PduStream readPduStream() throws IOException");
+                pw.println("    {");
+                pw.println("        if(!this.ensure(PduStream.MARSHALLED_SIZE))");
+                pw.println("            return null;");
+                pw.println();
+                pw.println("        PduStream pduStream = new PduStream();");
+                pw.println("        pduStream.unmarshal(buffer);");
+                pw.println("        return pduStream;");
+                pw.println("    }");
             }
-            
-            // Write out a method call to deserialize a class.
-            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Unmarshals the next PDU into the reader's instance for its pduType, and returns it.");
+            pw.println("     * PDUs of unknown types are skipped. Returns null at the end of the input, or if the");
+            pw.println("     * input ends part way through a PDU.");
+            pw.println("     */");
+            pw.println("    public " + base + " next() throws IOException");
+            pw.println("    {");
+            pw.println("        if(!this.advance(true))");
+            pw.println("            return null;");
+            pw.println();
+            pw.println("        " + base + " pdu = this.instance(framePduType);");
+            pw.println();
+            pw.println("        // The frame, not what unmarshal reads, decides where the next PDU starts");
+            pw.println("        int limit = buffer.limit();");
+            pw.println("        buffer.limit(frameStart + frameLength);");
+            pw.println("        try");
+            pw.println("        {");
+            pw.println("            pdu.unmarshal(buffer);");
+            pw.println("        }");
+            pw.println("        finally");
+            pw.println("        {");
+            pw.println("            buffer.limit(limit);");
+            pw.println("        }");
+            pw.println("        buffer.position(frameStart + frameLength);");
+            pw.println("        return pdu;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * The next PDU, still marshalled, as a view of the reader's buffer positioned at the");
+            pw.println("     * start of the PDU and limited at its end. The same view is reused by the next call.");
+            pw.println("     * Returns null at the end of the input.");
+            pw.println("     */");
+            pw.println("    public ByteBuffer nextFrame() throws IOException");
+            pw.println("    {");
+            pw.println("        if(!this.advance(false))");
+            pw.println("            return null;");
+            pw.println();
+            pw.println("        if(frameOf != buffer)");
+            pw.println("        {");
+            pw.println("            frame = buffer.duplicate();");
+            pw.println("            frameOf = buffer;");
+            pw.println("        }");
+            pw.println("        frame.limit(frameStart + frameLength);");
+            pw.println("        frame.position(frameStart);");
+            pw.println("        buffer.position(frameStart + frameLength);");
+            pw.println("        return frame;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Finds the next PDU that passes the filter, and if knownOnly is set has a class, and");
+            pw.println("     * makes sure all of it is in the buffer. Returns false at the end of the input.");
+            pw.println("     */");
+            pw.println("    private boolean advance(boolean knownOnly) throws IOException");
+            pw.println("    {");
+            pw.println("        while(true)");
+            pw.println("        {");
+            pw.println("            if(!this.ensure(HEADER_SIZE))");
+            pw.println("                return false;");
+            pw.println();
+            pw.println("            int start = buffer.position();");
+            pw.println("            int pduType = " + base + ".peek" + this.initialCap(PduTypeTable.TYPE_FIELD) + "(buffer, start);");
+            if(lengthAttribute != null)
+                pw.println("            int length = (int)" + base + ".peek" + this.initialCap(PduTypeTable.LENGTH_FIELD) + "(buffer, start);");
+            else
+                pw.println("            int length = 0;");
+            pw.println("            if(length < HEADER_SIZE)");
+            pw.println("                length = this.measure(pduType);");
+            pw.println("            if(length < 0 || !this.ensure(length))");
+            pw.println("                return false;");
+            pw.println();
+            pw.println("            start = buffer.position();");
+            pw.println("            if((filter != null && !filter.matches(buffer, start)) || (knownOnly && this.instance(pduType) == null))");
+            pw.println("            {");
+            pw.println("                buffer.position(start + length);");
+            pw.println("                continue;");
+            pw.println("            }");
+            pw.println();
+            pw.println("            frameStart = start;");
+            pw.println("            frameLength = length;");
+            pw.println("            framePduType = pduType;");
+            pw.println("            return true;");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * The size of a PDU that doesn't have its " + PduTypeTable.LENGTH_FIELD + " set, worked out from its count fields.");
+            pw.println("     * sizeAt() throws if the buffer ends before a count field, so more is read a byte at a");
+            pw.println("     * time until it doesn't; a live channel never has to deliver more than the PDU itself.");
+            pw.println("     * Returns -1 if the input ends before the count fields.");
+            pw.println("     */");
+            pw.println("    private int measure(int pduType) throws IOException");
+            pw.println("    {");
+            pw.println("        PduFactory.Decoder decoder = PduFactory.getDecoder(pduType);");
+            pw.println("        if(decoder == null)");
+            pw.println("            throw new IOException(\"PDU with unknown " + PduTypeTable.TYPE_FIELD + " \" + pduType + \" and no " + PduTypeTable.LENGTH_FIELD + " at offset \" + this.getOffset());");
+            pw.println();
+            pw.println("        while(true)");
+            pw.println("        {");
+            pw.println("            try");
+            pw.println("            {");
+            pw.println("                return decoder.sizeAt(buffer, buffer.position());");
+            pw.println("            }");
+            pw.println("            catch(IndexOutOfBoundsException e)");
+            pw.println("            {");
+            pw.println("                if(!this.ensure(buffer.remaining() + 1))");
+            pw.println("                    return -1;");
+            pw.println("            }");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The reader's instance for a pduType, or null if no class has that type */");
+            pw.println("    private " + base + " instance(int pduType)");
+            pw.println("    {");
+            pw.println("        if(pduType < 0 || pduType >= instances.length)");
+            pw.println("            return null;");
+            pw.println();
+            pw.println("        " + base + " pdu = instances[pduType];");
+            pw.println("        if(pdu == null)");
+            pw.println("        {");
+            pw.println("            PduFactory.Decoder decoder = PduFactory.getDecoder(pduType);");
+            pw.println("            if(decoder == null)");
+            pw.println("                return null;");
+            pw.println("            pdu = decoder.create();");
+            pw.println("            instances[pduType] = pdu;");
+            pw.println("        }");
+            pw.println("        return pdu;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * True if at least count bytes from the position are in the buffer, reading from the");
+            pw.println("     * channel or mapping more of the file if needed");
+            pw.println("     */");
+            pw.println("    private boolean ensure(int count) throws IOException");
+            pw.println("    {");
+            pw.println("        if(buffer.remaining() >= count)");
+            pw.println("            return true;");
+            pw.println();
+            pw.println("        if(file != null)");
+            pw.println("        {");
+            pw.println("            long start = bufferStart + buffer.position();");
+            pw.println("            long size = Math.min(MAP_SIZE, fileSize - start);");
+            pw.println("            if(size <= buffer.remaining())");
+            pw.println("                return false;");
+            pw.println("            buffer = file.map(FileChannel.MapMode.READ_ONLY, start, size);");
+            pw.println("            bufferStart = start;");
+            pw.println("            return buffer.remaining() >= count;");
+            pw.println("        }");
+            pw.println();
+            pw.println("        if(channel == null || endOfInput)");
+            pw.println("            return false;");
+            pw.println();
+            pw.println("        // Move what's left to the start of the buffer, or a bigger one, and fill up behind it");
+            pw.println("        bufferStart = bufferStart + buffer.position();");
+            pw.println("        if(count > buffer.capacity())");
+            pw.println("        {");
+            pw.println("            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(count, 2 * buffer.capacity()));");
+            pw.println("            bigger.put(buffer);");
+            pw.println("            buffer = bigger;");
+            pw.println("        }");
+            pw.println("        else");
+            pw.println("        {");
+            pw.println("            buffer.compact();");
+            pw.println("        }");
+            pw.println("        while(buffer.position() < count && !endOfInput)");
+            pw.println("        {");
+            pw.println("            if(channel.read(buffer) < 0)");
+            pw.println("                endOfInput = true;");
+            pw.println("        }");
+            pw.println("        buffer.flip();");
+            pw.println("        return buffer.remaining() >= count;");
+            pw.println("    }");
+            pw.println("}");
+            pw.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing PduStreamReader " + e);
+        }
+    }
+
+    /**
+     * Writes PduCaptureWriter, which records PDUs to a data file and an index file giving
+     * the time, pduType and entity of each, so PduCaptureReader can find them again without
+     * reading through the data.
+     */
+    private void writePduCaptureWriter(PduTypeTable pduTypes)
+    {
+        if(classDescriptions.containsKey("PduCaptureWriter"))
+        {
+            System.out.println("The XML file has a class called PduCaptureWriter, so no PDU capture writer was written");
+            return;
+        }
+
+        String base = pduTypes.getBaseClass().getName();
+        ClassAttribute typeAttribute = pduTypes.getTypeAttribute();
+        String typeCap = this.initialCap(PduTypeTable.TYPE_FIELD);
+        int headerSize = typeAttribute.getWireOffset() + typeAttribute.getWireSize();
+        int tableSize = pduTypes.getTableSize();
+        List pduTypeList = new ArrayList(pduTypes.getPduTypes());
+
+        String entityName = null;
+        String entityField = PduTypeTable.ENTITY_FIELD;
+        int entitySize = 0;
+        if(pduTypes.getEntityClass() != null)
+        {
+            entityName = pduTypes.getEntityClass().getName();
+            entitySize = pduTypes.getEntityClass().getFixedSize();
+        }
+
+        try
+        {
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("PduCaptureWriter"));
+
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
             {
-                String marshalType = anAttribute.getType();
-                
-                pw.println("       " + anAttribute.getName() + ".unmarshal(dis);" );
+                pw.println("package " + packageName + ";");
+                pw.println();
             }
-            
-            // Write out the method call to unmarshal a fixed length list, aka an array.
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            pw.println("import java.io.File;");
+            pw.println("import java.io.IOException;");
+            pw.println("import java.io.RandomAccessFile;");
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println("import java.nio.channels.FileChannel;");
+            pw.println("import java.util.Arrays;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Records PDUs to a pair of files that PduCaptureReader can search without decoding them.");
+            pw.println(" * The data file holds the marshalled PDUs back to back, and nothing else, so it can also");
+            pw.println(" * be read straight through with PduStreamReader. The index file has one fixed size record");
+            pw.println(" * for each PDU, in the same order, giving where the PDU is in the data file, its time,");
+            pw.println(" * its pduType and the entity it is about.<p>");
+            pw.println(" *");
+            pw.println(" * Both files are only ever appended to. Opening a capture that is already there carries on");
+            pw.println(" * from the end of it, dropping anything half written when the last writer stopped. PDUs are");
+            pw.println(" * collected in memory and written in large pieces, the data before the index, so the index");
+            pw.println(" * never points past the end of the data file.");
+            pw.println(" */");
+            pw.println("public class PduCaptureWriter");
+            pw.println("{");
+            pw.println("    /** Size in bytes of a record in the index file */");
+            pw.println("    public static final int INDEX_RECORD_SIZE = 32;");
+            pw.println();
+            pw.println("    /** Where in an index record the offset of the PDU in the data file is, as a long*/");
+            pw.println("    public static final int INDEX_OFFSET = 0;");
+            pw.println();
+            pw.println("    /** Where in an index record the time is, as a long */");
+            pw.println("    public static final int INDEX_TIME = 8;");
+            pw.println();
+            pw.println("    /** Where in an index record the entity key is, as a long */");
+            pw.println("    public static final int INDEX_ENTITY = 16;");
+            pw.println();
+            pw.println("    /** Where in an index record the length of the PDU is, as an int */");
+            pw.println("    public static final int INDEX_LENGTH = 24;");
+            pw.println();
+            pw.println("    /** Where in an index record the pduType is, as an int */");
+            pw.println("    public static final int INDEX_PDU_TYPE = 28;");
+            pw.println();
+            pw.println("    /** The entity key of PDUs that aren't about an entity */");
+            pw.println("    public static final long NO_ENTITY = -1;");
+            pw.println();
+            if(entityName != null)
             {
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
-                pw.println("       {");
-                
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-                
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-                
-                if(marshalType == null) // It's a class
-                {
-                    pw.println("           " + anAttribute.getName() + "[idx].unmarshal(dis);" );
-                }
-                else // It's a primitive
+                pw.println("    /** Marshalled size of the " + entityName + " the entity key is made from */");
+                pw.println("    public static final int ENTITY_SIZE = " + entitySize + ";");
+                pw.println();
+                pw.println("    /**");
+                pw.println("     * Offset of the field that identifies the entity PDUs of each pduType are about: their");
+                pw.println("     * " + entityField + " field, or else their first " + entityName + " field at a fixed offset. PDUs of a");
+                pw.println("     * pduType with -1, which have neither, are indexed under NO_ENTITY.");
+                pw.println("     */");
+                pw.println("    private static final int[] ENTITY_OFFSETS = new int[" + tableSize + "];");
+                pw.println();
+                pw.println("    static");
+                pw.println("    {");
+                pw.println("        Arrays.fill(ENTITY_OFFSETS, -1);");
+                for(int idx = 0; idx < pduTypeList.size(); idx++)
                 {
-                    String capped = this.initialCap(marshalType);
-                    pw.println("                " +  anAttribute.getName() + "[idx] = dis.read" + capped + "();");
+                    int pduType = ((Integer)pduTypeList.get(idx)).intValue();
+                    if(pduTypes.getEntityOffset(pduType) >= 0)
+                        pw.println("        ENTITY_OFFSETS[" + pduType + "] = " + pduTypes.getEntityOffset(pduType) + "; // "
+                                + pduTypes.getClassName(pduType) + "." + pduTypes.getEntityField(pduType));
                 }
-                
-                pw.println("       } // end of array unmarshaling");
-            } // end of array unmarshalling
-            
-            // Unmarshall a variable length array.
-            
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+                pw.println("    }");
+                pw.println();
+            }
+            pw.println("    /** Size of the buffer PDUs are marshalled into before being written */");
+            pw.println("    public static final int DATA_BUFFER_SIZE = 1 << 20;");
+            pw.println();
+            pw.println("    /** The number of index records held before being written */");
+            pw.println("    public static final int INDEX_BUFFER_RECORDS = 4096;");
+            pw.println();
+            pw.println("    private FileChannel data;");
+            pw.println("    private FileChannel index;");
+            pw.println();
+            pw.println("    /** PDUs not written yet */");
+            pw.println("    private ByteBuffer dataBuffer = ByteBuffer.allocateDirect(DATA_BUFFER_SIZE);");
+            pw.println();
+            pw.println("    /** Index records not written yet */");
+            pw.println("    private ByteBuffer indexBuffer = ByteBuffer.allocateDirect(INDEX_BUFFER_RECORDS * INDEX_RECORD_SIZE);");
+            pw.println();
+            pw.println("    /** Size of the data file once the PDUs in the buffer are written */");
+            pw.println("    private long dataSize;");
+            pw.println();
+            pw.println("    /** The number of PDUs in the capture */");
+            pw.println("    private int recordCount;");
+            pw.println();
+            pw.println("    /** Creates the files, or carries on from the end of them if they are already there */");
+            pw.println("    public PduCaptureWriter(File pDataFile, File pIndexFile) throws IOException");
+            pw.println("    {");
+            pw.println("        data = new RandomAccessFile(pDataFile, \"rw\").getChannel();");
+            pw.println("        index = new RandomAccessFile(pIndexFile, \"rw\").getChannel();");
+            pw.println();
+            pw.println("        // Drop a partly written last index record, and any that point past the data");
+            pw.println("        ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);");
+            pw.println("        long records = index.size() / INDEX_RECORD_SIZE;");
+            pw.println("        dataSize = 0;");
+            pw.println("        while(records > 0)");
+            pw.println("        {");
+            pw.println("            record.clear();");
+            pw.println("            while(record.hasRemaining() && index.read(record, (records - 1) * INDEX_RECORD_SIZE + record.position()) >= 0)");
+            pw.println("                ;");
+            pw.println("            long end = record.getLong(INDEX_OFFSET) + record.getInt(INDEX_LENGTH);");
+            pw.println("            if(end <= data.size())");
+            pw.println("            {");
+            pw.println("                dataSize = end;");
+            pw.println("                break;");
+            pw.println("            }");
+            pw.println("            records--;");
+            pw.println("        }");
+            pw.println("        if(records > Integer.MAX_VALUE)");
+            pw.println("            throw new IOException(\"Capture has more than \" + Integer.MAX_VALUE + \" PDUs\");");
+            pw.println();
+            pw.println("        recordCount = (int)records;");
+            pw.println("        index.truncate(records * INDEX_RECORD_SIZE);");
+            pw.println("        index.position(records * INDEX_RECORD_SIZE);");
+            pw.println("        data.truncate(dataSize);");
+            pw.println("        data.position(dataSize);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Appends a PDU, with the current time in milliseconds as its time. Returns its record number.");
+            if(pduTypes.getTimestampAttribute() != null)
             {
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getCountFieldName() + "; idx++)");
-                pw.println("       {");
-                
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-                
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-                
-                if(marshalType == null) // It's a class
-                {
-                    pw.println("           " + anAttribute.getType() + " anX = new " + anAttribute.getType() + "();");
-                    pw.println("           anX.unmarshal(dis);");
-                    pw.println("           " + anAttribute.getName() + ".add(anX);");
-                }
-                else // It's a primitive
-                {
-                    String capped = this.initialCap(marshalType);
-                    pw.println("           dis.read" + capped + "(" + anAttribute.getName() + ");");
-                }
-                pw.println("       }");
+                pw.println("     * The PDU's own " + PduTypeTable.TIMESTAMP_FIELD + " isn't used, since it is in the sender's units and may wrap.");
+            }
+            pw.println("     */");
+            pw.println("    public int add(" + base + " pdu) throws IOException");
+            pw.println("    {");
+            pw.println("        return this.add(pdu, System.currentTimeMillis());");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Appends a PDU with the given time, such as when it was received, in whatever units");
+            pw.println("     * the queries will use. Searching by time is quickest if times never go backwards.");
+            pw.println("     * Returns the PDU's record number.");
+            pw.println("     */");
+            pw.println("    public int add(" + base + " pdu, long time) throws IOException");
+            pw.println("    {");
+            pw.println("        int length = pdu.getMarshalledSize();");
+            pw.println("        this.reserve(length);");
+            pw.println("        int start = dataBuffer.position();");
+            pw.println("        pdu.marshal(dataBuffer);");
+            pw.println("        return this.index(start, length, time);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Appends a PDU that is already marshalled, from the position to the limit of the buffer,");
+            pw.println("     * with the given time. The buffer's position isn't changed. Returns its record number.");
+            pw.println("     */");
+            pw.println("    public int add(ByteBuffer pdu, long time) throws IOException");
+            pw.println("    {");
+            pw.println("        int length = pdu.remaining();");
+            pw.println("        if(length < " + headerSize + ")");
+            pw.println("            throw new IOException(\"A PDU of \" + length + \" bytes is too short to have a header\");");
+            pw.println();
+            pw.println("        this.reserve(length);");
+            pw.println("        int start = dataBuffer.position();");
+            pw.println("        dataBuffer.put(pdu.duplicate());");
+            pw.println("        return this.index(start, length, time);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The number of PDUs in the capture */");
+            pw.println("    public int getRecordCount()");
+            pw.println("    {");
+            pw.println("        return recordCount;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Size of the data file, counting PDUs not written yet */");
+            pw.println("    public long getDataSize()");
+            pw.println("    {");
+            pw.println("        return dataSize;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Writes out everything added so far */");
+            pw.println("    public void flush() throws IOException");
+            pw.println("    {");
+            pw.println("        this.writeData();");
+            pw.println("        this.writeIndex();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Writes out everything added, and closes the files */");
+            pw.println("    public void close() throws IOException");
+            pw.println("    {");
+            pw.println("        try");
+            pw.println("        {");
+            pw.println("            this.flush();");
+            pw.println("        }");
+            pw.println("        finally");
+            pw.println("        {");
+            pw.println("            data.close();");
+            pw.println("            index.close();");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println();
+            if(entityName != null)
+            {
+                pw.println("    /** The key an entity is indexed under, made from its marshalled bytes */");
+                pw.println("    public static long entityKey(" + entityName + " entity)");
+                pw.println("    {");
+                pw.println("        ByteBuffer buff = ByteBuffer.allocate(ENTITY_SIZE);");
+                pw.println("        entity.marshal(buff);");
+                pw.println("        return PduCaptureWriter.entityKey(buff, 0);");
+                pw.println("    }");
                 pw.println();
-            } // end of unmarshalling a variable list
-            
-        } // End of loop through ivars for writing the unmarshal method
-        
-        pw.println("    } // end try \n   catch(Exception e)");
-        pw.println("    { \n      System.out.println(e); \n    }");
-        
-        pw.println(" } // end of unmarshal method \n");
-        
-    }
-
+                pw.println("    /** The key of the marshalled " + entityName + " at an offset in a buffer */");
+                pw.println("    public static long entityKey(ByteBuffer buff, int offset)");
+                pw.println("    {");
+                pw.println("        long key = 0;");
+                pw.println("        for(int idx = 0; idx < ENTITY_SIZE; idx++)");
+                pw.println("            key = (key << 8) | (buff.get(offset + idx) & 0xff);");
+                pw.println("        return key;");
+                pw.println("    }");
+                pw.println();
+            }
+            pw.println("    /** Makes room in the buffer for a PDU of the given length */");
+            pw.println("    private void reserve(int length) throws IOException");
+            pw.println("    {");
+            pw.println("        if(dataBuffer.remaining() >= length)");
+            pw.println("            return;");
+            pw.println();
+            pw.println("        this.writeData();");
+            pw.println("        if(dataBuffer.capacity() < length)");
+            pw.println("            dataBuffer = ByteBuffer.allocateDirect(length);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Adds the index record for the PDU just put in the buffer */");
+            pw.println("    private int index(int start, int length, long time) throws IOException");
+            pw.println("    {");
+            pw.println("        if(recordCount == Integer.MAX_VALUE)");
+            pw.println("            throw new IOException(\"Capture has \" + Integer.MAX_VALUE + \" PDUs, which is as many as it can hold\");");
+            pw.println();
+            pw.println("        int pduType = " + base + ".peek" + typeCap + "(dataBuffer, start);");
+            pw.println("        long entity = NO_ENTITY;");
+            if(entityName != null)
+            {
+                pw.println("        if(pduType >= 0 && pduType < ENTITY_OFFSETS.length && ENTITY_OFFSETS[pduType] >= 0 && ENTITY_OFFSETS[pduType] + ENTITY_SIZE <= length)");
+                pw.println("            entity = PduCaptureWriter.entityKey(dataBuffer, start + ENTITY_OFFSETS[pduType]);");
+            }
+            pw.println();
+            pw.println("        if(indexBuffer.remaining() < INDEX_RECORD_SIZE)");
+            pw.println("            this.flush();");
+            pw.println("        indexBuffer.putLong(dataSize);");
+            pw.println("        indexBuffer.putLong(time);");
+            pw.println("        indexBuffer.putLong(entity);");
+            pw.println("        indexBuffer.putInt(length);");
+            pw.println("        indexBuffer.putInt(pduType);");
+            pw.println();
+            pw.println("        dataSize = dataSize + length;");
+            pw.println("        return recordCount++;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    private void writeData() throws IOException");
+            pw.println("    {");
+            pw.println("        dataBuffer.flip();");
+            pw.println("        while(dataBuffer.hasRemaining())");
+            pw.println("            data.write(dataBuffer);");
+            pw.println("        dataBuffer.clear();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    private void writeIndex() throws IOException");
+            pw.println("    {");
+            pw.println("        indexBuffer.flip();");
+            pw.println("        while(indexBuffer.hasRemaining())");
+            pw.println("            index.write(indexBuffer);");
+            pw.println("        indexBuffer.clear();");
+            pw.println("    }");
+            pw.println("}");
 
+            pw.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing PduCaptureWriter " + e);
+        }
+    }
 
-    private void writeMarshalMethodWithByteBuffer(PrintWriter pw, GeneratedClass aClass)
+    /**
+     * Writes PduCaptureReader, which opens a capture written by PduCaptureWriter and finds
+     * PDUs in it by time, pduType and entity.
+     */
+    private void writePduCaptureReader(PduTypeTable pduTypes)
     {
-        List ivars = aClass.getClassAttributes();
-        
-        pw.println();
-        pw.println("/**");
-        pw.println(" * Packs a Pdu into the ByteBuffer.");
-        pw.println(" * @throws java.nio.BufferOverflowException if buff is too small");
-        pw.println(" * @throws java.nio.ReadOnlyBufferException if buff is read only");
-        pw.println(" * @see java.nio.ByteBuffer");
-        pw.println(" * @param buff The ByteBuffer at the position to begin writing");
-        pw.println(" * @since ??");
-        pw.println(" */");
-        pw.println("public void marshal(java.nio.ByteBuffer buff)");
-        pw.println("{");
-
-        // If we're a sublcass of another class, we should first call super
-        // to make sure the superclass's ivars are marshaled out.
-
-        String superclassName = aClass.getParentClass();
-        if(!(superclassName.equalsIgnoreCase("root")))
+        if(classDescriptions.containsKey("PduCaptureReader"))
         {
-            pw.println("       super.marshal(buff);");
+            System.out.println("The XML file has a class called PduCaptureReader, so no PDU capture reader was written");
+            return;
         }
 
+        String base = pduTypes.getBaseClass().getName();
+        int tableSize = pduTypes.getTableSize();
+        String entityName = null;
+        if(pduTypes.getEntityClass() != null)
+            entityName = pduTypes.getEntityClass().getName();
 
-        //pw.println("    try \n    {");
-
-        // Loop through the class attributes, generating the output for each.
-
-        ivars = aClass.getClassAttributes();
-        for(int idx = 0; idx < ivars.size(); idx++)
+        try
         {
-            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("PduCaptureReader"));
 
-            if(anAttribute.shouldSerialize == false)
-            {
-                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
-                 continue;
-            }
-            
-            // Write out a method call to serialize a primitive type
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
             {
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-                String capped = this.initialCap(marshalType);
-                if( capped.equals("Byte") ){
-                    capped = "";    // ByteBuffer just has put() for bytesf
-                }
-
-                // If we're a normal primitivetype, marshal out directly; otherwise, marshall out
-                // the list length.
-                if(anAttribute.getIsDynamicListLengthField() == false)
-                {
-                     //pw.println("       dos.write" + capped + "( (" + marshalType + ")" + anAttribute.getName() + ");");
-                     pw.println("       buff.put" + capped + "( (" + marshalType + ")" + anAttribute.getName() + ");");
-                }
-               else
-               {
-                   ClassAttribute listAttribute = anAttribute.getDynamicListClassAttribute();
-                   //pw.println("       dos.write" + capped + "( (" + marshalType + ")" + listAttribute.getName() + ".size());");
-                   pw.println("       buff.put" + capped + "( (" + marshalType + ")" + listAttribute.getName() + ".size());");
-               }
-
+                pw.println("package " + packageName + ";");
+                pw.println();
             }
-
-            // Write out a method call to serialize a class.
-            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF )
+            pw.println("import java.io.File;");
+            pw.println("import java.io.IOException;");
+            pw.println("import java.io.RandomAccessFile;");
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println("import java.nio.channels.FileChannel;");
+            pw.println("import java.util.Arrays;");
+            pw.println("import java.util.HashMap;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Searches a capture written by PduCaptureWriter. Both files are memory mapped, a window");
+            pw.println(" * at a time, so captures of any size can be opened. The first query reads through the index");
+            pw.println(" * once to list the records of each pduType and each entity; after that a query only looks at");
+            pw.println(" * the index records of the entity or pduType asked for, and if times never go backwards");
+            pw.println(" * in the capture, finds the start of the time range by binary search:");
+            pw.println(" *");
+            if(entityName != null)
             {
-                String marshalType = anAttribute.getType();
-
-                //pw.println("       " + anAttribute.getName() + ".marshal(dos);" );
-                pw.println("       " + anAttribute.getName() + ".marshal(buff);" );
+                pw.println(" * <pre>int[] records = reader.find(entity, pduType, t1, t2);");
             }
-
-            // Write out the method call to marshal a fixed length list, aka an array.
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            else
             {
-                pw.println();
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
-                pw.println("       {");
-
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-
-                if(anAttribute.getUnderlyingTypeIsPrimitive())
-                {
-                    String capped = this.initialCap(marshalType);
-                    if( capped.equals("Byte") ){
-                        capped = "";    // ByteBuffer just has put() for bytesf
-                    }
-                    //pw.println("           dos.write" + capped + "(" + anAttribute.getName() + "[idx]);");
-                    pw.println("           buff.put" + capped + "((" + marshalType + ")" + anAttribute.getName() + "[idx]);"); // have to cast to right type
-                }
-                else
-                {
-                     //pw.println("           " + anAttribute.getName() + "[idx].marshal(dos);" );
-                     pw.println("           " + anAttribute.getName() + "[idx].marshal(buff);" );
-                }
-
-                pw.println("       } // end of array marshaling");
-                pw.println();
+                pw.println(" * <pre>int[] records = reader.find(pduType, t1, t2);");
             }
-
-            // Write out a section of code to marshal a variable length list. The code should look like
-            //
-            // for(int idx = 0; idx < attrName.size(); idx++)
-            // { anAttribute.marshal(dos);
-            // }
-            //
-
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+            pw.println(" * for(int idx = 0; idx < records.length; idx++)");
+            pw.println(" *     process(reader.read(records[idx]));</pre>");
+            pw.println(" *");
+            pw.println(" * Queries return record numbers, in the order the PDUs were written. read() unmarshals a");
+            pw.println(" * record into an instance the reader keeps for that pduType, and getFrame() hands out the");
+            pw.println(" * marshalled PDU for the view classes; either is only good until the next call.");
+            pw.println(" */");
+            pw.println("public class PduCaptureReader");
+            pw.println("{");
+            pw.println("    /** Matches PDUs of any pduType */");
+            pw.println("    public static final int ANY_PDU_TYPE = -1;");
+            pw.println();
+            pw.println("    /** The most of a file mapped into memory at once */");
+            pw.println("    public static final long MAP_SIZE = 1L << 30;");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Bytes each window of the data file reaches past the start of the next, so that a PDU");
+            pw.println("     * that starts near the end of a window can be read from it. Longer PDUs that cross into");
+            pw.println("     * the next window are mapped on their own.");
+            pw.println("     */");
+            pw.println("    public static final long MAP_OVERLAP = 1L << 16;");
+            pw.println();
+            pw.println("    /** The number of index records in each window of the index file */");
+            pw.println("    private static final int INDEX_WINDOW_RECORDS = (int)(MAP_SIZE / PduCaptureWriter.INDEX_RECORD_SIZE);");
+            pw.println();
+            pw.println("    /** A growable list of record numbers */");
+            pw.println("    private static class Records");
+            pw.println("    {");
+            pw.println("        int[] items = new int[16];");
+            pw.println("        int size = 0;");
+            pw.println();
+            pw.println("        void add(int record)");
+            pw.println("        {");
+            pw.println("            if(size == items.length)");
+            pw.println("                items = Arrays.copyOf(items, size * 2);");
+            pw.println("            items[size++] = record;");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println();
+            pw.println("    private FileChannel data;");
+            pw.println("    private FileChannel index;");
+            pw.println();
+            pw.println("    /** Size of the data file */");
+            pw.println("    private long dataSize;");
+            pw.println();
+            pw.println("    /** The index file, mapped in windows of INDEX_WINDOW_RECORDS records */");
+            pw.println("    private ByteBuffer[] indexWindows;");
+            pw.println();
+            pw.println("    /** The number of PDUs in the capture */");
+            pw.println("    private int recordCount;");
+            pw.println();
+            pw.println("    /** True if no record has an earlier time than the one before it; set by scanIndex() */");
+            pw.println("    private boolean timeOrdered = true;");
+            pw.println();
+            pw.println("    /** pduType to the Records with that type, or null until scanIndex() has run */");
+            pw.println("    private HashMap<Integer, Records> byPduType = null;");
+            pw.println();
+            pw.println("    /** Entity key to the Records about that entity, or null until scanIndex() has run */");
+            pw.println("    private HashMap<Long, Records> byEntity = null;");
+            pw.println();
+            pw.println("    /** The data file, mapped in windows starting every MAP_SIZE bytes as they are first needed */");
+            pw.println("    private ByteBuffer[] dataWindows;");
+            pw.println();
+            pw.println("    /** The view handed out by getFrame(), and the mapped buffer it is a view of */");
+            pw.println("    private ByteBuffer frame = null;");
+            pw.println("    private ByteBuffer frameOf = null;");
+            pw.println();
+            pw.println("    /** The PDUs handed out by read(), indexed by pduType and made when first needed */");
+            pw.println("    private " + base + "[] instances = new " + base + "[" + tableSize + "];");
+            pw.println();
+            pw.println("    /** Opens a capture */");
+            pw.println("    public PduCaptureReader(File pDataFile, File pIndexFile) throws IOException");
+            pw.println("    {");
+            pw.println("        data = new RandomAccessFile(pDataFile, \"r\").getChannel();");
+            pw.println("        index = new RandomAccessFile(pIndexFile, \"r\").getChannel();");
+            pw.println("        dataSize = data.size();");
+            pw.println("        dataWindows = new ByteBuffer[(int)((dataSize + MAP_SIZE - 1) / MAP_SIZE)];");
+            pw.println();
+            pw.println("        long records = Math.min(index.size() / PduCaptureWriter.INDEX_RECORD_SIZE, Integer.MAX_VALUE);");
+            pw.println("        indexWindows = new ByteBuffer[(int)((records + INDEX_WINDOW_RECORDS - 1) / INDEX_WINDOW_RECORDS)];");
+            pw.println("        for(int idx = 0; idx < indexWindows.length; idx++)");
+            pw.println("        {");
+            pw.println("            long first = (long)idx * INDEX_WINDOW_RECORDS;");
+            pw.println("            long count = Math.min(INDEX_WINDOW_RECORDS, records - first);");
+            pw.println("            indexWindows[idx] = index.map(FileChannel.MapMode.READ_ONLY, first * PduCaptureWriter.INDEX_RECORD_SIZE, count * PduCaptureWriter.INDEX_RECORD_SIZE);");
+            pw.println("        }");
+            pw.println();
+            pw.println("        // A writer still running may have written index records for data it hasn't yet");
+            pw.println("        recordCount = (int)records;");
+            pw.println("        while(recordCount > 0 && this.getOffset(recordCount - 1) + this.getLength(recordCount - 1) > dataSize)");
+            pw.println("            recordCount--;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The number of PDUs in the capture */");
+            pw.println("    public int getRecordCount()");
+            pw.println("    {");
+            pw.println("        return recordCount;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** True if times never go backwards in the capture, so queries can find the start of a time range by binary search */");
+            pw.println("    public boolean isTimeOrdered()");
+            pw.println("    {");
+            pw.println("        this.scanIndex();");
+            pw.println("        return timeOrdered;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The records with times from fromTime to toTime, inclusive */");
+            pw.println("    public int[] find(long fromTime, long toTime)");
+            pw.println("    {");
+            pw.println("        return this.select(null, ANY_PDU_TYPE, fromTime, toTime);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The records of a pduType, or ANY_PDU_TYPE, with times from fromTime to toTime, inclusive */");
+            pw.println("    public int[] find(int pduType, long fromTime, long toTime)");
+            pw.println("    {");
+            pw.println("        if(pduType == ANY_PDU_TYPE)");
+            pw.println("            return this.select(null, ANY_PDU_TYPE, fromTime, toTime);");
+            pw.println();
+            pw.println("        this.scanIndex();");
+            pw.println("        Records records = byPduType.get(Integer.valueOf(pduType));");
+            pw.println("        if(records == null)");
+            pw.println("            return new int[0];");
+            pw.println("        return this.select(records, ANY_PDU_TYPE, fromTime, toTime);");
+            pw.println("    }");
+            pw.println();
+            if(entityName != null)
             {
+                pw.println("    /** The records about an entity, of a pduType or ANY_PDU_TYPE, with times from fromTime to toTime, inclusive */");
+                pw.println("    public int[] find(" + entityName + " entity, int pduType, long fromTime, long toTime)");
+                pw.println("    {");
+                pw.println("        return this.find(PduCaptureWriter.entityKey(entity), pduType, fromTime, toTime);");
+                pw.println("    }");
                 pw.println();
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".size(); idx++)");
-                pw.println("       {");
-
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-
-                if(anAttribute.getUnderlyingTypeIsPrimitive())
-                {
-                    String capped = this.initialCap(marshalType);
-                    if( capped.equals("Byte") ){
-                        capped = "";    // ByteBuffer just uses put() for bytes
-                    }
-                    //pw.println("           dos.write" + capped + "(" + anAttribute.getName() + ");");
-                    pw.println("           buff.put" + capped + "(" + anAttribute.getName() + ");");
-                }
-                else
-                {
-                    //pw.println("            " + anAttribute.getType() + " a" + initialCap(anAttribute.getType() + " = (" + anAttribute.getType() + ")" +
-                    //                                                                 anAttribute.getName() + ".get(idx);"));
-                    //pw.println("            a" + initialCap(anAttribute.getType()) + ".marshal(dos);" );
-                    pw.println("            " + anAttribute.getType() + " a" + initialCap(anAttribute.getType() + " = (" + anAttribute.getType() + ")" +
-                                                                                     anAttribute.getName() + ".get(idx);"));
-                    pw.println("            a" + initialCap(anAttribute.getType()) + ".marshal(buff);" );
-                }
-
-                pw.println("       } // end of list marshalling");
+                pw.println("    /** The records about the entity with the given key, of a pduType or ANY_PDU_TYPE, with times from fromTime to toTime, inclusive */");
+                pw.println("    public int[] find(long entityKey, int pduType, long fromTime, long toTime)");
+                pw.println("    {");
+                pw.println("        this.scanIndex();");
+                pw.println("        Records records = byEntity.get(Long.valueOf(entityKey));");
+                pw.println("        if(records == null)");
+                pw.println("            return new int[0];");
+                pw.println("        return this.select(records, pduType, fromTime, toTime);");
+                pw.println("    }");
                 pw.println();
             }
-        } // End of loop through the ivars for a marshal method
-
-        //pw.println("    } // end try \n    catch(Exception e)");
-        //pw.println("    { \n      System.out.println(e);}");
+            pw.println("    /** Unmarshals a record into the reader's instance for its pduType, and returns it; null if no class has its pduType */");
+            pw.println("    public " + base + " read(int record) throws IOException");
+            pw.println("    {");
+            pw.println("        " + base + " pdu = this.instance(this.getPduType(record));");
+            pw.println("        if(pdu == null)");
+            pw.println("            return null;");
+            pw.println();
+            pw.println("        pdu.unmarshal(this.getFrame(record));");
+            pw.println("        return pdu;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * A record's marshalled PDU, as a view of the mapped data file positioned at the start of");
+            pw.println("     * the PDU and limited at its end. The same view is reused by the next call.");
+            pw.println("     */");
+            pw.println("    public ByteBuffer getFrame(int record) throws IOException");
+            pw.println("    {");
+            pw.println("        long offset = this.getOffset(record);");
+            pw.println("        int length = this.getLength(record);");
+            pw.println("        int window = (int)(offset / MAP_SIZE);");
+            pw.println("        long windowStart = window * MAP_SIZE;");
+            pw.println("        if(dataWindows[window] == null)");
+            pw.println("            dataWindows[window] = data.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_SIZE + MAP_OVERLAP, dataSize - windowStart));");
+            pw.println();
+            pw.println("        ByteBuffer mapped = dataWindows[window];");
+            pw.println("        int start = (int)(offset - windowStart);");
+            pw.println("        if(start + length > mapped.capacity())");
+            pw.println("        {");
+            pw.println("            mapped = data.map(FileChannel.MapMode.READ_ONLY, offset, length);");
+            pw.println("            start = 0;");
+            pw.println("        }");
+            pw.println();
+            pw.println("        if(frameOf != mapped)");
+            pw.println("        {");
+            pw.println("            frame = mapped.duplicate();");
+            pw.println("            frameOf = mapped;");
+            pw.println("        }");
+            pw.println("        frame.limit(start + length);");
+            pw.println("        frame.position(start);");
+            pw.println("        return frame;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Offset of a record's PDU in the data file */");
+            pw.println("    public long getOffset(int record)");
+            pw.println("    {");
+            pw.println("        return this.indexWindow(record).getLong(this.indexPosition(record) + PduCaptureWriter.INDEX_OFFSET);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** A record's time */");
+            pw.println("    public long getTime(int record)");
+            pw.println("    {");
+            pw.println("        return this.indexWindow(record).getLong(this.indexPosition(record) + PduCaptureWriter.INDEX_TIME);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The key of the entity a record's PDU is about, or PduCaptureWriter.NO_ENTITY */");
+            pw.println("    public long getEntityKey(int record)");
+            pw.println("    {");
+            pw.println("        return this.indexWindow(record).getLong(this.indexPosition(record) + PduCaptureWriter.INDEX_ENTITY);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Length of a record's PDU */");
+            pw.println("    public int getLength(int record)");
+            pw.println("    {");
+            pw.println("        return this.indexWindow(record).getInt(this.indexPosition(record) + PduCaptureWriter.INDEX_LENGTH);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** pduType of a record's PDU */");
+            pw.println("    public int getPduType(int record)");
+            pw.println("    {");
+            pw.println("        return this.indexWindow(record).getInt(this.indexPosition(record) + PduCaptureWriter.INDEX_PDU_TYPE);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public void close() throws IOException");
+            pw.println("    {");
+            pw.println("        data.close();");
+            pw.println("        index.close();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * The records out of candidates, or all of them if candidates is null, that have the");
+            pw.println("     * given pduType and times in the range");
+            pw.println("     */");
+            pw.println("    private int[] select(Records candidates, int pduType, long fromTime, long toTime)");
+            pw.println("    {");
+            pw.println("        this.scanIndex();");
+            pw.println("        int count = candidates == null ? recordCount : candidates.size;");
+            pw.println("        if(count == 0 || fromTime > toTime)");
+            pw.println("            return new int[0];");
+            pw.println();
+            pw.println("        // Skip to the first candidate in the time range");
+            pw.println("        int first = 0;");
+            pw.println("        if(timeOrdered)");
+            pw.println("        {");
+            pw.println("            int high = count;");
+            pw.println("            while(first < high)");
+            pw.println("            {");
+            pw.println("                int middle = (first + high) >>> 1;");
+            pw.println("                if(this.getTime(candidates == null ? middle : candidates.items[middle]) < fromTime)");
+            pw.println("                    first = middle + 1;");
+            pw.println("                else");
+            pw.println("                    high = middle;");
+            pw.println("            }");
+            pw.println("        }");
+            pw.println();
+            pw.println("        Records found = new Records();");
+            pw.println("        for(int idx = first; idx < count; idx++)");
+            pw.println("        {");
+            pw.println("            int record = candidates == null ? idx : candidates.items[idx];");
+            pw.println("            long time = this.getTime(record);");
+            pw.println("            if(time > toTime && timeOrdered)");
+            pw.println("                break;");
+            pw.println("            if(time >= fromTime && time <= toTime && (pduType == ANY_PDU_TYPE || this.getPduType(record) == pduType))");
+            pw.println("                found.add(record);");
+            pw.println("        }");
+            pw.println("        return Arrays.copyOf(found.items, found.size);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    private ByteBuffer indexWindow(int record)");
+            pw.println("    {");
+            pw.println("        if(record < 0 || record >= recordCount)");
+            pw.println("            throw new IndexOutOfBoundsException(\"No record \" + record + \" in a capture of \" + recordCount);");
+            pw.println("        return indexWindows[record / INDEX_WINDOW_RECORDS];");
+            pw.println("    }");
+            pw.println();
+            pw.println("    private int indexPosition(int record)");
+            pw.println("    {");
+            pw.println("        return (record % INDEX_WINDOW_RECORDS) * PduCaptureWriter.INDEX_RECORD_SIZE;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Reads through the index the first time it is called, to list the records of each pduType");
+            pw.println("     * and each entity, and to see whether times ever go backwards");
+            pw.println("     */");
+            pw.println("    private void scanIndex()");
+            pw.println("    {");
+            pw.println("        if(byPduType != null)");
+            pw.println("            return;");
+            pw.println();
+            pw.println("        byPduType = new HashMap<Integer, Records>();");
+            pw.println("        byEntity = new HashMap<Long, Records>();");
+            pw.println("        long lastTime = Long.MIN_VALUE;");
+            pw.println("        for(int record = 0; record < recordCount; record++)");
+            pw.println("        {");
+            pw.println("            long time = this.getTime(record);");
+            pw.println("            if(time < lastTime)");
+            pw.println("                timeOrdered = false;");
+            pw.println("            lastTime = time;");
+            pw.println();
+            pw.println("            PduCaptureReader.records(byPduType, Integer.valueOf(this.getPduType(record))).add(record);");
+            pw.println("            long entity = this.getEntityKey(record);");
+            pw.println("            if(entity != PduCaptureWriter.NO_ENTITY)");
+            pw.println("                PduCaptureReader.records(byEntity, Long.valueOf(entity)).add(record);");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The Records for a key, made if there aren't any yet */");
+            pw.println("    private static <K> Records records(HashMap<K, Records> map, K key)");
+            pw.println("    {");
+            pw.println("        Records records = map.get(key);");
+            pw.println("        if(records == null)");
+            pw.println("        {");
+            pw.println("            records = new Records();");
+            pw.println("            map.put(key, records);");
+            pw.println("        }");
+            pw.println("        return records;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The reader's instance for a pduType, or null if no class has that type */");
+            pw.println("    private " + base + " instance(int pduType)");
+            pw.println("    {");
+            pw.println("        if(pduType < 0 || pduType >= instances.length)");
+            pw.println("            return null;");
+            pw.println();
+            pw.println("        " + base + " pdu = instances[pduType];");
+            pw.println("        if(pdu == null)");
+            pw.println("        {");
+            pw.println("            PduFactory.Decoder decoder = PduFactory.getDecoder(pduType);");
+            pw.println("            if(decoder == null)");
+            pw.println("                return null;");
+            pw.println("            pdu = decoder.create();");
+            pw.println("            instances[pduType] = pdu;");
+            pw.println("        }");
+            pw.println("        return pdu;");
+            pw.println("    }");
+            pw.println("}");
 
-        pw.println("    } // end of marshal method");
+            pw.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing PduCaptureReader " + e);
+        }
     }
 
-    private void writeUnmarshallMethodWithByteBuffer(PrintWriter pw, GeneratedClass aClass)
+    /**
+     * Writes PduReplayer, which sends the PDUs of a capture read by PduCaptureReader again,
+     * in time or as fast as possible, without unmarshalling them.
+     */
+    private void writePduReplayer(PduTypeTable pduTypes)
     {
-        List ivars = aClass.getClassAttributes();
-        String superclassName;
-
-        pw.println();
-        pw.println("/**");
-        pw.println(" * Unpacks a Pdu from the underlying data.");
-        pw.println(" * @throws java.nio.BufferUnderflowException if buff is too small");
-        pw.println(" * @see java.nio.ByteBuffer");
-        pw.println(" * @param buff The ByteBuffer at the position to begin reading");
-        pw.println(" * @since ??");
-        pw.println(" */");
-        pw.println("public void unmarshal(java.nio.ByteBuffer buff)");
-        pw.println("{");
-
-        superclassName = aClass.getParentClass();
-        if(!(superclassName.equalsIgnoreCase("root")))
+        if(classDescriptions.containsKey("PduReplayer"))
         {
-            pw.println("       super.unmarshal(buff);\n");
+            System.out.println("The XML file has a class called PduReplayer, so no PDU replayer was written");
+            return;
         }
 
+        ClassAttribute timestamp = pduTypes.getTimestampAttribute();
+        String timestampField = PduTypeTable.TIMESTAMP_FIELD;
+        int timestampOffset = 0;
+        String timestampPut = null;
+        String timestampCast = null;
+        if(timestamp != null)
+        {
+            timestampOffset = timestamp.getWireOffset();
+            switch(timestamp.getWireSize())
+            {
+                case 1:
+                    timestampPut = "put";
+                    timestampCast = "(byte)";
+                    break;
+                case 2:
+                    timestampPut = "putShort";
+                    timestampCast = "(short)";
+                    break;
+                case 4:
+                    timestampPut = "putInt";
+                    timestampCast = "(int)";
+                    break;
+                default:
+                    timestampPut = "putLong";
+                    timestampCast = "";
+            }
+        }
 
-        //pw.println("    try \n    {");
-
-        // Loop through the class attributes, generating the output for each.
-
-        ivars = aClass.getClassAttributes();
-        for(int idx = 0; idx < ivars.size(); idx++)
+        try
         {
-            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            PrintWriter pw = this.openOutputFile(this.sourceFilePath("PduReplayer"));
 
-            if(anAttribute.shouldSerialize == false)
+            String packageName = languageProperties.getProperty("package");
+            if(packageName != null)
             {
-                 pw.println("    // attribute " + anAttribute.getName() + " marked as not serialized");
-                 continue;
+                pw.println("package " + packageName + ";");
+                pw.println();
             }
-            
-            // Write out a method call to deserialize a primitive type
-            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE)
+            pw.println("import java.io.IOException;");
+            pw.println("import java.net.SocketAddress;");
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println("import java.nio.channels.DatagramChannel;");
+            pw.println("import java.util.ArrayList;");
+            pw.println("import java.util.List;");
+            pw.println("import java.util.concurrent.locks.LockSupport;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Sends the PDUs of a capture again, over UDP and to listeners in the same program, with");
+            pw.println(" * the same spacing in time they were recorded with, sped up or slowed down, or as fast as");
+            pw.println(" * they can go. The PDUs are copied from the mapped capture file straight into a");
+            pw.println(" * PduBatchWriter and sent from there; none of them are unmarshalled.<p>");
+            pw.println(" *");
+            pw.println(" * PDUs recorded with the same time are sent together as one batch. At full speed PDUs are");
+            pw.println(" * sent in batches of up to maxBatch, whatever their times. The capture's times are in");
+            pw.println(" * whatever units it was recorded with, so the replayer is told how many of them make a");
+            pw.println(" * second.");
+            pw.println(" */");
+            pw.println("public class PduReplayer");
+            pw.println("{");
+            pw.println("    /** Called with each batch of PDUs as it is replayed */");
+            pw.println("    public interface Listener");
+            pw.println("    {");
+            pw.println("        /**");
+            pw.println("         * The batch is only good until this returns. time is the capture time the batch");
+            pw.println("         * was recorded at.");
+            pw.println("         */");
+            pw.println("        public void replayed(PduBatchWriter batch, long time);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The most PDUs sent in one batch if none is given */");
+            pw.println("    public static final int DEFAULT_MAX_BATCH = 1024;");
+            pw.println();
+            pw.println("    /** How close to the time a batch is due the replayer stops sleeping and spins */");
+            pw.println("    public static final long SPIN_NANOS = 100000;");
+            pw.println();
+            if(timestamp != null)
             {
-                String marshalType = unmarshalTypes.getProperty(anAttribute.getType());
-                String capped = this.initialCap(marshalType);
-                if( capped.equals("Byte") ){
-                    capped = "";
-                }
-                if(marshalType.equalsIgnoreCase("UnsignedByte")){
-                    //pw.println("       " + anAttribute.getName() + " = (short)dis.read" + capped + "();");
-                    pw.println("       " + anAttribute.getName() + " = (short)(buff.get() & 0xFF);");
-                }
-                else if (marshalType.equalsIgnoreCase("UnsignedShort")){
-                    //pw.println("       " + anAttribute.getName() + " = (int)dis.read" + capped + "();");
-                    pw.println("       " + anAttribute.getName() + " = (int)(buff.getShort() & 0xFFFF);");
-                }
-                else{
-                    //pw.println("       " + anAttribute.getName() + " = dis.read" + capped + "();");
-                    pw.println("       " + anAttribute.getName() + " = buff.get" + capped + "();");
-                }
-
+                pw.println("    /** Offset of the " + timestampField + " field in a marshalled PDU */");
+                pw.println("    public static final int TIMESTAMP_OFFSET = " + timestampOffset + ";");
+                pw.println();
             }
-
-            // Write out a method call to deserialize a class.
-            if( anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF)
+            pw.println("    private PduCaptureReader reader;");
+            pw.println();
+            pw.println("    /** Nanoseconds in one unit of the capture's times */");
+            pw.println("    private double nanosPerUnit;");
+            pw.println();
+            pw.println("    /** How many times faster than it was recorded the capture is replayed */");
+            pw.println("    private double speed = 1.0;");
+            pw.println();
+            pw.println("    /** If true PDUs are sent as fast as they can be, and their times are ignored */");
+            pw.println("    private boolean maxSpeed = false;");
+            pw.println();
+            pw.println("    private int maxBatch = DEFAULT_MAX_BATCH;");
+            pw.println();
+            pw.println("    /** Where the PDUs are sent; channel is null if they aren't */");
+            pw.println("    private DatagramChannel channel = null;");
+            pw.println("    private SocketAddress target = null;");
+            pw.println();
+            pw.println("    /** If more than 0, PDUs are bundled into datagrams of up to this size */");
+            pw.println("    private int maxDatagramSize = 0;");
+            pw.println();
+            pw.println("    private List<Listener> listeners = new ArrayList<Listener>();");
+            pw.println();
+            if(timestamp != null)
             {
-                String marshalType = anAttribute.getType();
-
-                //pw.println("       " + anAttribute.getName() + ".unmarshal(dis);" );
-                pw.println("       " + anAttribute.getName() + ".unmarshal(buff);" );
+                pw.println("    /** If true the " + timestampField + " of each PDU is rewritten as it is sent */");
+                pw.println("    private boolean patchTimestamps = false;");
+                pw.println();
+                pw.println("    /** What the " + timestampField + " of the first PDU replayed is rewritten to */");
+                pw.println("    private long timestampBase = 0;");
+                pw.println();
             }
-
-            // Write out the method call to unmarshal a fixed length list, aka an array.
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) )
+            pw.println("    /** Set to stop a replay running in another thread */");
+            pw.println("    private volatile boolean stopped = false;");
+            pw.println();
+            pw.println("    private PduBatchWriter batch = new PduBatchWriter(PduBatchWriter.DEFAULT_CAPACITY, true);");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Replays PDUs from a capture whose times have unitsPerSecond units to the second, eg 1000");
+            pw.println("     * for one recorded with System.currentTimeMillis()");
+            pw.println("     */");
+            pw.println("    public PduReplayer(PduCaptureReader pReader, double pUnitsPerSecond)");
+            pw.println("    {");
+            pw.println("        if(pUnitsPerSecond <= 0)");
+            pw.println("            throw new IllegalArgumentException(\"Units per second must be more than 0, not \" + pUnitsPerSecond);");
+            pw.println("        reader = pReader;");
+            pw.println("        nanosPerUnit = 1.0e9 / pUnitsPerSecond;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Sends each PDU in a datagram of its own */");
+            pw.println("    public void setTarget(DatagramChannel pChannel, SocketAddress pTarget)");
+            pw.println("    {");
+            pw.println("        this.setTarget(pChannel, pTarget, 0);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Sends the PDUs bundled together in datagrams of up to maxDatagramSize bytes, or each in a");
+            pw.println("     * datagram of its own if maxDatagramSize is 0");
+            pw.println("     */");
+            pw.println("    public void setTarget(DatagramChannel pChannel, SocketAddress pTarget, int pMaxDatagramSize)");
+            pw.println("    {");
+            pw.println("        channel = pChannel;");
+            pw.println("        target = pTarget;");
+            pw.println("        maxDatagramSize = pMaxDatagramSize;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public void addListener(Listener pListener)");
+            pw.println("    {");
+            pw.println("        listeners.add(pListener);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public void removeListener(Listener pListener)");
+            pw.println("    {");
+            pw.println("        listeners.remove(pListener);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Replays this many times faster than recorded; 0.5 is half speed, 10 ten times as fast */");
+            pw.println("    public void setSpeed(double pSpeed)");
+            pw.println("    {");
+            pw.println("        if(!(pSpeed > 0))");
+            pw.println("            throw new IllegalArgumentException(\"Speed must be more than 0, not \" + pSpeed);");
+            pw.println("        speed = pSpeed;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public double getSpeed()");
+            pw.println("    {");
+            pw.println("        return speed;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** If true PDUs are sent as fast as they can be, for load testing */");
+            pw.println("    public void setMaxSpeed(boolean pMaxSpeed)");
+            pw.println("    {");
+            pw.println("        maxSpeed = pMaxSpeed;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public boolean isMaxSpeed()");
+            pw.println("    {");
+            pw.println("        return maxSpeed;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** The most PDUs put in one batch */");
+            pw.println("    public void setMaxBatch(int pMaxBatch)");
+            pw.println("    {");
+            pw.println("        if(pMaxBatch < 1)");
+            pw.println("            throw new IllegalArgumentException(\"The batch size must be at least 1, not \" + pMaxBatch);");
+            pw.println("        maxBatch = pMaxBatch;");
+            pw.println("    }");
+            pw.println();
+            if(timestamp != null)
+            {
+                pw.println("    /**");
+                pw.println("     * Rewrites the " + timestampField + " of each PDU as it is sent: the first PDU replayed gets base,");
+                pw.println("     * and the rest base plus the capture time since the first, divided by the speed. The");
+                pw.println("     * capture's times should be in the units of the " + timestampField + " field.");
+                pw.println("     */");
+                pw.println("    public void patchTimestamps(long base)");
+                pw.println("    {");
+                pw.println("        patchTimestamps = true;");
+                pw.println("        timestampBase = base;");
+                pw.println("    }");
+                pw.println();
+                pw.println("    /** Sends the PDUs with the " + timestampField + " they were recorded with */");
+                pw.println("    public void keepTimestamps()");
+                pw.println("    {");
+                pw.println("        patchTimestamps = false;");
+                pw.println("    }");
+                pw.println();
+            }
+            pw.println("    /** Stops a replay running in another thread after the batch it is sending */");
+            pw.println("    public void stop()");
+            pw.println("    {");
+            pw.println("        stopped = true;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Replays the whole capture. Returns the number of PDUs sent. */");
+            pw.println("    public long replay() throws IOException");
+            pw.println("    {");
+            pw.println("        return this.replay(null, 0, reader.getRecordCount());");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Replays the records a PduCaptureReader query found. Returns the number of PDUs sent. */");
+            pw.println("    public long replay(int[] records) throws IOException");
+            pw.println("    {");
+            pw.println("        return this.replay(records, 0, records.length);");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /**");
+            pw.println("     * Replays records[first] up to but not including records[last], or the capture's records");
+            pw.println("     * first to last if records is null. Returns the number of PDUs sent.");
+            pw.println("     */");
+            pw.println("    public long replay(int[] records, int first, int last) throws IOException");
+            pw.println("    {");
+            pw.println("        stopped = false;");
+            pw.println("        if(first >= last)");
+            pw.println("            return 0;");
+            pw.println();
+            pw.println("        long startNanos = System.nanoTime();");
+            pw.println("        long startTime = reader.getTime(records == null ? first : records[first]);");
+            pw.println("        long sent = 0;");
+            pw.println("        int next = first;");
+            pw.println("        while(next < last && !stopped)");
+            pw.println("        {");
+            pw.println("            // Gather the PDUs recorded at the same time as the first, up to maxBatch of them");
+            pw.println("            int batchStart = next;");
+            pw.println("            long time = reader.getTime(records == null ? next : records[next]);");
+            pw.println("            batch.clear();");
+            pw.println("            while(next < last && batch.getPduCount() < maxBatch)");
+            pw.println("            {");
+            pw.println("                int record = records == null ? next : records[next];");
+            pw.println("                if(!maxSpeed && reader.getTime(record) != time)");
+            pw.println("                    break;");
+            pw.println("                batch.add(reader.getFrame(record));");
+            pw.println("                next++;");
+            pw.println("            }");
+            pw.println();
+            if(timestamp != null)
             {
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getName() + ".length; idx++)");
-                pw.println("       {");
-
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-
-                if(marshalType == null) // It's a class
-                {
-                    //pw.println("           " + anAttribute.getName() + "[idx].unmarshal(dis);" );
-                    pw.println("           " + anAttribute.getName() + "[idx].unmarshal(buff);" );
-                }
-                else // It's a primitive
-                {
-                    String capped = this.initialCap(marshalType);
-                    if( capped.equals("Byte") ){
-                        capped = "";
-                    }
-                    pw.println("                " +  anAttribute.getName() + "[idx] = buff.get" + capped + "();");
-                }
-
-                pw.println("       } // end of array unmarshaling");
-            } // end of array unmarshalling
-
-            // Unmarshall a variable length array.
-
-            if( (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) )
+                pw.println("            if(patchTimestamps)");
+                pw.println("                this.writeTimestamps(records, batchStart, startTime);");
+            }
+            pw.println("            if(!maxSpeed)");
+            pw.println("                PduReplayer.waitUntil(startNanos + (long)((time - startTime) * nanosPerUnit / speed));");
+            pw.println();
+            pw.println("            this.send(time);");
+            pw.println("            sent = sent + batch.getPduCount();");
+            pw.println("        }");
+            pw.println("        return sent;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    /** Sends the batch to the channel and the listeners */");
+            pw.println("    private void send(long time) throws IOException");
+            pw.println("    {");
+            pw.println("        if(channel != null)");
+            pw.println("        {");
+            pw.println("            if(maxDatagramSize > 0)");
+            pw.println("                batch.sendBundled(channel, target, maxDatagramSize);");
+            pw.println("            else");
+            pw.println("                batch.send(channel, target);");
+            pw.println("        }");
+            pw.println();
+            pw.println("        for(int idx = 0; idx < listeners.size(); idx++)");
+            pw.println("            listeners.get(idx).replayed(batch, time);");
+            pw.println("    }");
+            pw.println();
+            if(timestamp != null)
             {
-                pw.println("       for(int idx = 0; idx < " + anAttribute.getCountFieldName() + "; idx++)");
-                pw.println("       {");
-
-                // This is some sleaze. We're an array, but an array of what? We could be either a
-                // primitive or a class. We need to figure out which. This is done via the expedient
-                // but not very reliable way of trying to do a lookup on the type. If we don't find
-                // it in our map of primitives to marshal types, we assume it is a class.
-
-                String marshalType = marshalTypes.getProperty(anAttribute.getType());
-
-                if(marshalType == null) // It's a class
-                {
-                    pw.println("            " + anAttribute.getType() + " anX = new " + anAttribute.getType() + "();");
-                    //pw.println("            anX.unmarshal(dis);");
-                    pw.println("            anX.unmarshal(buff);");
-                    pw.println("            " + anAttribute.getName() + ".add(anX);");
-                }
-                else // It's a primitive
-                {
-                    String capped = this.initialCap(marshalType);
-                    if( capped.equals("Byte") ){
-                        capped = "";
-                    }
-                    //pw.println("           dis.read" + capped + "(" + anAttribute.getName() + ");");
-                    pw.println("           buff.get" + capped + "(" + anAttribute.getName() + ");");
-                }
-                pw.println("       }");
+                pw.println("    /**");
+                pw.println("     * Writes the " + timestampField + " of each PDU in the batch from its own capture time. The batch");
+                pw.println("     * holds records[batchStart] on, or the capture's records from batchStart if records is null.");
+                pw.println("     */");
+                pw.println("    private void writeTimestamps(int[] records, int batchStart, long startTime)");
+                pw.println("    {");
+                pw.println("        ByteBuffer buff = batch.getBatch();");
+                pw.println("        for(int idx = 0; idx < batch.getPduCount(); idx++)");
+                pw.println("        {");
+                pw.println("            long time = reader.getTime(records == null ? batchStart + idx : records[batchStart + idx]);");
+                pw.println("            long timestamp = timestampBase + (long)((time - startTime) / speed);");
+                pw.println("            buff." + timestampPut + "(batch.getPduOffset(idx) + TIMESTAMP_OFFSET, " + timestampCast + "timestamp);");
+                pw.println("        }");
+                pw.println("    }");
                 pw.println();
-            } // end of unmarshalling a variable list
-
-        } // End of loop through ivars for writing the unmarshal method
-
-        //pw.println("    } // end try \n   catch(Exception e)");
-        //pw.println("    { \n      System.out.println(e); \n    }");
-
-        pw.println(" } // end of unmarshal method \n");
-
+            }
+            pw.println("    /** Sleeps until shortly before a System.nanoTime(), then spins until it comes */");
+            pw.println("    private static void waitUntil(long due)");
+            pw.println("    {");
+            pw.println("        long left = due - System.nanoTime();");
+            pw.println("        while(left > 0)");
+            pw.println("        {");
+            pw.println("            if(left > SPIN_NANOS)");
+            pw.println("                LockSupport.parkNanos(left - SPIN_NANOS);");
+            pw.println("            else");
+            pw.println("                Thread.yield();");
+            pw.println("            left = due - System.nanoTime();");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println("}");
+            pw.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("error writing PduReplayer " + e);
+        }
     }
 
 
@@ -1493,6 +5478,326 @@ public class JavaGenerator extends Generator
         pw.println("}");
 
     }
+
+    /**
+     * Writes XxxView, a flyweight that reads the fields of a marshalled Xxx straight out
+     * of a ByteBuffer, at the offsets worked out by WireLayout. Reading a primitive field
+     * doesn't unmarshal or allocate anything. Contained objects and list elements are read
+     * through views that are created once and then pointed at each new position.
+     */
+    private void writeViewClass(PrintWriter pw, GeneratedClass aClass)
+    {
+        String viewName = aClass.getName() + "View";
+        boolean isRoot = aClass.getParentClass().equalsIgnoreCase("root");
+        
+        String packageName = languageProperties.getProperty("package");
+        if(packageName != null)
+        {
+            pw.println("package " + packageName + ";");
+        }
+        pw.println();
+        pw.println("import java.nio.ByteBuffer;");
+        pw.println();
+        pw.println("/**");
+        pw.println(" * Read-only view of a marshalled " + aClass.getName() + " in a ByteBuffer. The getters read");
+        pw.println(" * directly from the buffer, so nothing is unmarshalled or allocated. Wrap the view around a");
+        pw.println(" * buffer and offset, read the fields you need, then wrap it around the next one.<p>");
+        pw.println(" *");
+        pw.println(" * Views of contained objects and list elements are reused, so the view returned by a getter");
+        pw.println(" * is only good until the next call to that getter. Views are not thread safe.");
+        pw.println(" */");
+        if(isRoot)
+            pw.println("public class " + viewName);
+        else
+            pw.println("public class " + viewName + " extends " + aClass.getParentClass() + "View");
+        pw.println("{");
+        
+        if(isRoot)
+        {
+            pw.println("   /** The buffer holding the marshalled object */");
+            pw.println("   protected ByteBuffer buffer;");
+            pw.println();
+            pw.println("   /** Where the marshalled object starts in the buffer */");
+            pw.println("   protected int offset;");
+            pw.println();
+        }
+        
+        List ivars = this.serializedAttributes(aClass);
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF || anAttribute.listIsClass())
+            {
+                pw.println("   /** Reused to read " + anAttribute.getName() + " */");
+                pw.println("   private " + anAttribute.getType() + "View " + anAttribute.getName() + "View;");
+                pw.println();
+            }
+        }
+        
+        pw.println("/** Constructor; call wrap() before reading any fields */");
+        pw.println(" public " + viewName + "()");
+        pw.println(" {");
+        pw.println(" }");
+        pw.println();
+        pw.println("/** Constructor for a view of the object at offset in buff */");
+        pw.println(" public " + viewName + "(ByteBuffer buff, int pOffset)");
+        pw.println(" {");
+        pw.println("    wrap(buff, pOffset);");
+        pw.println(" }");
+        pw.println();
+        
+        pw.println("/** Points the view at the object starting at offset in buff */");
+        pw.println("public " + viewName + " wrap(ByteBuffer buff, int pOffset)");
+        pw.println("{");
+        if(isRoot)
+        {
+            pw.println("    buffer = buff;");
+            pw.println("    offset = pOffset;");
+        }
+        else
+        {
+            pw.println("    super.wrap(buff, pOffset);");
+        }
+        pw.println("    return this;");
+        pw.println("}");
+        pw.println();
+        
+        if(isRoot)
+        {
+            pw.println("public ByteBuffer getBuffer()");
+            pw.println("{");
+            pw.println("    return buffer;");
+            pw.println("}");
+            pw.println();
+            pw.println("public int getOffset()");
+            pw.println("{");
+            pw.println("    return offset;");
+            pw.println("}");
+            pw.println();
+        }
+        
+        this.writeViewSizeMethods(pw, aClass);
+        
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            this.writeViewGetters(pw, aClass, anAttribute);
+        }
+        
+        pw.println("} // end of class");
+        pw.close();
+    }
+    
+    /** The attributes declared in the class itself that are marshalled */
+    private List serializedAttributes(GeneratedClass aClass)
+    {
+        List serialized = new ArrayList();
+        List ivars = aClass.getClassAttributes();
+        for(int idx = 0; idx < ivars.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)ivars.get(idx);
+            if(anAttribute.shouldSerialize)
+                serialized.add(anAttribute);
+        }
+        return serialized;
+    }
+    
+    /**
+     * Writes getMarshalledSize() and the static marshalledSizeAt() for a view
+     */
+    private void writeViewSizeMethods(PrintWriter pw, GeneratedClass aClass)
+    {
+        pw.println("/** Size in bytes of the marshalled object */");
+        pw.println("public int getMarshalledSize()");
+        pw.println("{");
+        pw.println("    return marshalledSizeAt(buffer, offset);");
+        pw.println("}");
+        pw.println();
+        pw.println("/** Size in bytes of the marshalled " + aClass.getName() + " starting at offset in buff */");
+        pw.println("public static int marshalledSizeAt(ByteBuffer buff, int offset)");
+        pw.println("{");
+        pw.println("    return " + aClass.getName() + ".sizeAt(buff, offset);");
+        pw.println("}");
+        pw.println();
+    }
+    
+    /**
+     * Writes the view getter(s) for one attribute
+     */
+    private void writeViewGetters(PrintWriter pw, GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        String name = anAttribute.getName();
+        String capped = this.initialCap(name);
+        String position = this.viewOffset(aClass, anAttribute, "buffer", "offset");
+        String elementView = anAttribute.getType() + "View";
+        
+        if(anAttribute.getComment() != null)
+        {
+            pw.println("/** " + anAttribute.getComment() + " */");
+        }
+        
+        switch(anAttribute.getAttributeKind())
+        {
+            case PRIMITIVE:
+                String attributeType = types.getProperty(anAttribute.getType());
+                pw.println("public " + attributeType + " get" + capped + "()");
+                pw.println("{");
+                pw.println("    return " + this.viewRead(anAttribute.getType(), "buffer", position) + ";");
+                pw.println("}");
+                pw.println();
+                
+                List bitfields = anAttribute.bitFieldList;
+                for(int jdx = 0; jdx < bitfields.size(); jdx++)
+                {
+                    BitField bitfield = (BitField)bitfields.get(jdx);
+                    int shiftBits = super.getBitsToShift(anAttribute, bitfield.mask);
+                    if(bitfield.comment != null)
+                    {
+                        pw.println("/** " + bitfield.comment + " */");
+                    }
+                    pw.println("public int get" + capped + "_" + bitfield.name + "()");
+                    pw.println("{");
+                    pw.println("    " + attributeType + " val = (" + attributeType + ")(get" + capped + "() & (" + attributeType + ")" + bitfield.mask + ");");
+                    pw.println("    return (int)(val >> " + shiftBits + ");");
+                    pw.println("}");
+                    pw.println();
+                }
+                break;
+                
+            case CLASSREF:
+                pw.println("public " + elementView + " get" + capped + "()");
+                pw.println("{");
+                pw.println("    if(" + name + "View == null)");
+                pw.println("        " + name + "View = new " + elementView + "();");
+                pw.println("    return " + name + "View.wrap(buffer, " + position + ");");
+                pw.println("}");
+                pw.println();
+                break;
+                
+            case FIXED_LIST:
+            case VARIABLE_LIST:
+                if(anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST)
+                {
+                    pw.println("public int get" + capped + "Length()");
+                    pw.println("{");
+                    pw.println("    return " + anAttribute.getListLength() + ";");
+                    pw.println("}");
+                }
+                else
+                {
+                    pw.println("public int get" + capped + "Count()");
+                    pw.println("{");
+                    pw.println("    return " + this.viewListCount(aClass, anAttribute, "buffer", "offset") + ";");
+                    pw.println("}");
+                }
+                pw.println();
+                
+                pw.println("/** Element index of " + name + " */");
+                if(anAttribute.getUnderlyingTypeIsPrimitive())
+                {
+                    pw.println("public " + types.getProperty(anAttribute.getType()) + " get" + capped + "(int index)");
+                    pw.println("{");
+                    pw.println("    return " + this.viewRead(anAttribute.getType(), "buffer", position + " + index * " + anAttribute.getWireElementSize()) + ";");
+                    pw.println("}");
+                }
+                else
+                {
+                    pw.println("public " + elementView + " get" + capped + "(int index)");
+                    pw.println("{");
+                    pw.println("    if(" + name + "View == null)");
+                    pw.println("        " + name + "View = new " + elementView + "();");
+                    if(anAttribute.getWireElementSize() >= 0)
+                    {
+                        pw.println("    return " + name + "View.wrap(buffer, " + position + " + index * " + anAttribute.getWireElementSize() + ");");
+                    }
+                    else
+                    {
+                        pw.println("    int pos = " + position + ";");
+                        this.writeElementWalk(pw, "    ", anAttribute, "buffer", "pos", "index");
+                        pw.println("    return " + name + "View.wrap(buffer, pos);");
+                    }
+                    pw.println("}");
+                }
+                pw.println();
+                break;
+                
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Java expression for where an attribute starts: a constant offset from the start of
+     * the object, or a constant offset from the end of the last variable length attribute
+     * before it, found with the class's static xxxEnd() method.
+     */
+    private String viewOffset(GeneratedClass aClass, ClassAttribute anAttribute, String buff, String offset)
+    {
+        if(anAttribute.getWireOffset() >= 0)
+            return offset + " + " + anAttribute.getWireOffset();
+        
+        ClassAttribute previous = this.previousVariable(aClass, anAttribute);
+        String start = aClass.getName() + "." + previous.getName() + "End(" + buff + ", " + offset + ")";
+        if(anAttribute.getSegmentOffset() == 0)
+            return start;
+        return start + " + " + anAttribute.getSegmentOffset();
+    }
+    
+    /** The last variable length attribute marshalled before this one, or null if it is at a fixed offset */
+    private ClassAttribute previousVariable(GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        if(anAttribute.getWireOffset() >= 0)
+            return null;
+        
+        ClassAttribute previous = null;
+        List wireAttributes = aClass.getWireAttributes();
+        for(int idx = 0; idx < wireAttributes.size(); idx++)
+        {
+            ClassAttribute wireAttribute = (ClassAttribute)wireAttributes.get(idx);
+            if(wireAttribute == anAttribute)
+                break;
+            if(!wireAttribute.isFixedSize())
+                previous = wireAttribute;
+        }
+        return previous;
+    }
+    
+    /** The attribute that holds the number of elements in a variable list, or null if there isn't one */
+    private ClassAttribute countField(GeneratedClass aClass, ClassAttribute anAttribute)
+    {
+        List wireAttributes = aClass.getWireAttributes();
+        for(int idx = 0; idx < wireAttributes.size(); idx++)
+        {
+            ClassAttribute countField = (ClassAttribute)wireAttributes.get(idx);
+            if(countField.getName().equals(anAttribute.getCountFieldName()))
+                return countField;
+        }
+        return null;
+    }
+    
+    /**
+     * Java expression that reads the number of elements in a variable list from its count field
+     */
+    private String viewListCount(GeneratedClass aClass, ClassAttribute anAttribute, String buff, String offset)
+    {
+        ClassAttribute countField = this.countField(aClass, anAttribute);
+        if(countField != null)
+            return "(int)" + this.viewRead(countField.getType(), buff, this.viewOffset(aClass, countField, buff, offset));
+        
+        System.out.println("Could not find count field " + anAttribute.getCountFieldName() + " for list " + anAttribute.getName() + " in class " + aClass.getName());
+        return "0";
+    }
+    
+    /**
+     * Java expression that reads a primitive of the given XML type at an absolute position
+     * in a ByteBuffer, as the value the getters of an unmarshalled object return
+     */
+    private String viewRead(String type, String buff, String position)
+    {
+        String marshalType = marshalTypes.getProperty(type);
+        String method = marshalType.equals("byte") ? "get" : "get" + this.initialCap(marshalType);
+        return this.widenRead(type, buff + "." + method + "(" + position + ")");
+    }
     
   
     
@@ -1838,7 +6143,8 @@ public class JavaGenerator extends Generator
 		try {
 			pw.println();
 			pw.println(" /*");
-			pw.println("  * The equals method doesn't always work--mostly it works only on classes that consist only of primitives. Be careful.");
+			pw.println("  * Compares all the fields, including inherited ones. hashCode() agrees with it, but");
+			pw.println("  * changes when a field does, so don't change an object while it's a key in a map.");
 			pw.println("  */");
 			pw.println("@Override");
 			pw.println(" public boolean equals(Object obj)");
@@ -1863,11 +6169,15 @@ public class JavaGenerator extends Generator
 
 		writeEqualityImplMethod(pw, aClass); // Write impl for establishing
 												// equality
+		writeHashCodeMethod(pw, aClass);
 
 	}
 
 	/**
-	 * write equalsImpl(...) method to this class to parent or subclasses
+	 * write equalsImpl(...) method to this class to parent or subclasses. The
+	 * superclass fields are compared first, since for PDUs the header is where
+	 * two objects usually differ, and the method returns as soon as a field
+	 * doesn't match.
 	 * 
 	 * @param pw
 	 * @param aClass
@@ -1887,9 +6197,6 @@ public class JavaGenerator extends Generator
 			}
 			pw.println(" public boolean equalsImpl(Object obj)");
 			pw.println(" {");
-			pw.println("     boolean ivarsEqual = true;");
-			pw.println();
-
 			pw.println("    if(!(obj instanceof " + aClass.getName() + "))");
 			pw.println("        return false;");
 			pw.println();
@@ -1897,45 +6204,48 @@ public class JavaGenerator extends Generator
 					+ aClass.getName() + ")obj;");
 			pw.println();
 
+			if (lazyClasses.contains(aClass.getName())) {
+				pw.println("     this.decodeAll();");
+				pw.println("     rhs.decodeAll();");
+				pw.println();
+			}
+
+			if (!aClass.getParentClass().equalsIgnoreCase("root")) {
+				pw.println("     if( ! super.equalsImpl(rhs)) return false;");
+			}
+
 			for (int idx = 0; idx < aClass.getClassAttributes().size(); idx++) {
 				ClassAttribute anAttribute = (ClassAttribute) aClass
 						.getClassAttributes().get(idx);
+				String name = anAttribute.getName();
 
 				if (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE) {
-					pw.println("     if( ! (" + anAttribute.getName()
-							+ " == rhs." + anAttribute.getName()
-							+ ")) ivarsEqual = false;");
+					// Floats compare by their bits, as Float.equals() does, so that equals() agrees with hashCode()
+					String javaType = types.getProperty(anAttribute.getType());
+					if (javaType.equals("float")) {
+						pw.println("     if(Float.floatToIntBits(" + name + ") != Float.floatToIntBits(rhs." + name + ")) return false;");
+					} else if (javaType.equals("double")) {
+						pw.println("     if(Double.doubleToLongBits(" + name + ") != Double.doubleToLongBits(rhs." + name + ")) return false;");
+					} else {
+						pw.println("     if(" + name + " != rhs." + name + ") return false;");
+					}
 				}
 
 				if (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF) {
-					pw.println("     if( ! (" + anAttribute.getName()
-							+ ".equals( rhs." + anAttribute.getName()
-							+ ") )) ivarsEqual = false;");
+					pw.println("     if( ! " + name + ".equals(rhs." + name + ")) return false;");
 				}
 
-				if (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST) {
-					pw.println();
-					pw.println("     for(int idx = 0; idx < "
-							+ anAttribute.getListLength() + "; idx++)");
-					pw.println("     {");
-					pw.println("          if(!(" + anAttribute.getName()
-							+ "[idx] == rhs." + anAttribute.getName()
-							+ "[idx])) ivarsEqual = false;");
-					pw.println("     }");
-					pw.println();
+				// Arrays.equals() compares arrays of objects element by element with equals()
+				if (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.FIXED_LIST
+						|| this.isPrimitiveList(anAttribute)) {
+					pw.println("     if( ! java.util.Arrays.equals(" + name + ", rhs." + name + ")) return false;");
 				}
-
-				if (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) {
+				else if (anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.VARIABLE_LIST) {
 					pw.println();
-					pw.println("     for(int idx = 0; idx < "
-							+ anAttribute.getName() + ".size(); idx++)");
+					pw.println("     if(" + name + ".size() != rhs." + name + ".size()) return false;");
+					pw.println("     for(int idx = 0; idx < " + name + ".size(); idx++)");
 					pw.println("     {");
-					// pw.println("        " + anAttribute.getType() + " x = ("
-					// + anAttribute.getType() + ")" + anAttribute.getName() +
-					// ".get(idx);");
-					pw.println("        if( ! ( " + anAttribute.getName()
-							+ ".get(idx).equals(rhs." + anAttribute.getName()
-							+ ".get(idx)))) ivarsEqual = false;");
+					pw.println("        if( ! " + name + ".get(idx).equals(rhs." + name + ".get(idx))) return false;");
 					pw.println("     }");
 					pw.println();
 				}
@@ -1943,11 +6253,7 @@ public class JavaGenerator extends Generator
 			}
 
 			pw.println();
-			if (aClass.getParentClass().equalsIgnoreCase("root")) {
-				pw.println("    return ivarsEqual;");
-			} else {
-				pw.println("    return ivarsEqual && super.equalsImpl(rhs);");
-			}
+			pw.println("    return true;");
 			pw.println(" }");
 		} catch (Exception e) {
 			System.out.println(e);
@@ -1955,6 +6261,74 @@ public class JavaGenerator extends Generator
 
 	}
 
+	/**
+	 * Write a hashCode() that agrees with equals(). Primitives are mixed in
+	 * directly and lists are walked by index, so nothing is boxed or allocated.
+	 * 
+	 * @param pw
+	 * @param aClass
+	 */
+	public void writeHashCodeMethod(PrintWriter pw, GeneratedClass aClass) {
+		pw.println();
+		pw.println("@Override");
+		pw.println(" public int hashCode()");
+		pw.println(" {");
+
+		if (lazyClasses.contains(aClass.getName())) {
+			pw.println("     this.decodeAll();");
+		}
+
+		if (aClass.getParentClass().equalsIgnoreCase("root")) {
+			pw.println("     int result = 17;");
+		} else {
+			pw.println("     int result = super.hashCode();");
+		}
+
+		for (int idx = 0; idx < aClass.getClassAttributes().size(); idx++) {
+			ClassAttribute anAttribute = (ClassAttribute) aClass
+					.getClassAttributes().get(idx);
+			String name = anAttribute.getName();
+
+			switch (anAttribute.getAttributeKind()) {
+			case PRIMITIVE:
+				String javaType = types.getProperty(anAttribute.getType());
+				if (javaType.equals("long")) {
+					pw.println("     result = 31 * result + Long.hashCode(" + name + ");");
+				} else if (javaType.equals("float")) {
+					pw.println("     result = 31 * result + Float.floatToIntBits(" + name + ");");
+				} else if (javaType.equals("double")) {
+					pw.println("     result = 31 * result + Double.hashCode(" + name + ");");
+				} else {
+					pw.println("     result = 31 * result + " + name + ";");
+				}
+				break;
+
+			case CLASSREF:
+				pw.println("     result = 31 * result + " + name + ".hashCode();");
+				break;
+
+			case FIXED_LIST:
+				pw.println("     result = 31 * result + java.util.Arrays.hashCode(" + name + ");");
+				break;
+
+			case VARIABLE_LIST:
+				if (this.isPrimitiveList(anAttribute)) {
+					pw.println("     result = 31 * result + java.util.Arrays.hashCode(" + name + ");");
+				} else {
+					pw.println("     for(int idx = 0; idx < " + name + ".size(); idx++)");
+					pw.println("        result = 31 * result + " + name + ".get(idx).hashCode();");
+				}
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		pw.println("     return result;");
+		pw.println(" }");
+	}
+
   
 /**
  * This should be needed only for the XmlRoot class(es). 
@@ -0,0 +1,170 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * Compiles generated Java source code held in memory, typically from a MemorySink,
+ * with the compiler in javax.tools, and loads the resulting classes. Neither the
+ * source nor the class files touch the disk. This needs a JDK rather than a JRE.<p>
+ *
+ * <pre>
+ *   Xmlpg xmlpg = new Xmlpg(new File("DIS2012.xml"));
+ *   MemorySink sink = new MemorySink();
+ *   xmlpg.generate(Xmlpg.LanguageType.JAVA, sink);
+ *   ClassLoader loader = JavaMemoryCompiler.compile(sink.getSources(".java"), null, null);
+ *   Class pduClass = loader.loadClass("edu.nps.moves.dis.EntityStatePdu");
+ * </pre>
+ *
+ * @author DMcG
+ */
+public class JavaMemoryCompiler
+{
+    /**
+     * Compiles the sources, a map of path to source code text, and returns a class loader
+     * for the compiled classes. Options are passed to the compiler as they are, for example
+     * "-classpath" and its value. The parent class loader may be null, in which case this
+     * class's loader is used. If anything fails to compile the compiler's messages are in
+     * the exception.
+     */
+    public static MemoryClassLoader compile(Map sources, List options, ClassLoader parent) throws IOException
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null)
+            throw new IOException("No Java compiler available; run with a JDK rather than a JRE");
+
+        List compilationUnits = new ArrayList();
+        Iterator it = sources.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            compilationUnits.add(new SourceFile((String)entry.getKey(), (String)entry.getValue()));
+        }
+
+        DiagnosticCollector diagnostics = new DiagnosticCollector();
+        ClassFileManager fileManager = new ClassFileManager(compiler.getStandardFileManager(diagnostics, null, null));
+
+        try
+        {
+            Boolean ok = compiler.getTask(null, fileManager, diagnostics, options, null, compilationUnits).call();
+            if(!ok.booleanValue())
+            {
+                StringBuilder message = new StringBuilder("Generated code did not compile");
+                Iterator diagnosticIt = diagnostics.getDiagnostics().iterator();
+                while(diagnosticIt.hasNext())
+                {
+                    message.append("\n").append(diagnosticIt.next());
+                }
+                throw new IOException(message.toString());
+            }
+        }
+        finally
+        {
+            fileManager.close();
+        }
+
+        if(parent == null)
+            parent = JavaMemoryCompiler.class.getClassLoader();
+        return new MemoryClassLoader(fileManager.classFiles, parent);
+    }
+
+    /**
+     * Loads classes from the class files the compiler produced
+     */
+    public static class MemoryClassLoader extends ClassLoader
+    {
+        /** binary class name to ClassFile */
+        private Map classFiles;
+
+        MemoryClassLoader(Map pClassFiles, ClassLoader parent)
+        {
+            super(parent);
+            classFiles = pClassFiles;
+        }
+
+        /** The binary names of all the compiled classes, including nested classes */
+        public Set getClassNames()
+        {
+            return Collections.unmodifiableSet(classFiles.keySet());
+        }
+
+        /** The class file for a compiled class, or null if it isn't one of ours */
+        public byte[] getClassBytes(String className)
+        {
+            ClassFile classFile = (ClassFile)classFiles.get(className);
+            if(classFile == null)
+                return null;
+            return classFile.getBytes();
+        }
+
+        protected Class findClass(String className) throws ClassNotFoundException
+        {
+            byte[] bytes = this.getClassBytes(className);
+            if(bytes == null)
+                throw new ClassNotFoundException(className);
+            return this.defineClass(className, bytes, 0, bytes.length);
+        }
+    }
+
+    /** Source code held in a string */
+    private static class SourceFile extends SimpleJavaFileObject
+    {
+        private String source;
+
+        SourceFile(String path, String pSource)
+        {
+            super(URI.create("string:///" + path), Kind.SOURCE);
+            source = pSource;
+        }
+
+        public CharSequence getCharContent(boolean ignoreEncodingErrors)
+        {
+            return source;
+        }
+    }
+
+    /** A class file written to memory by the compiler */
+    private static class ClassFile extends SimpleJavaFileObject
+    {
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className)
+        {
+            super(URI.create("bytes:///" + className.replace('.', '/') + ".class"), Kind.CLASS);
+        }
+
+        public OutputStream openOutputStream()
+        {
+            return bytes;
+        }
+
+        byte[] getBytes()
+        {
+            return bytes.toByteArray();
+        }
+    }
+
+    /** Hands the compiler ClassFiles to write to rather than files on disk */
+    private static class ClassFileManager extends ForwardingJavaFileManager<StandardJavaFileManager>
+    {
+        /** binary class name to ClassFile */
+        Map classFiles = new HashMap();
+
+        ClassFileManager(StandardJavaFileManager fileManager)
+        {
+            super(fileManager);
+        }
+
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, JavaFileObject.Kind kind, FileObject sibling)
+        {
+            ClassFile classFile = new ClassFile(className);
+            synchronized(classFiles)
+            {
+                classFiles.put(className, classFile);
+            }
+            return classFile;
+        }
+    }
+}
@@ -193,49 +193,7 @@ public class JavascriptGenerator extends Generator
 
         this.createDirectory();
         
-        Iterator it = classDescriptions.values().iterator();
-        
-        while(it.hasNext())
-        {
-            try
-           {
-              GeneratedClass aClass = (GeneratedClass)it.next();
-              String name = aClass.getName();
-              
-              // Create package structure, if any
-              String pack = languageProperties.getProperty("namespace");
-              String fullPath;
-              
-              // If we have a package specified, replace the dots in the package name (edu.nps.moves.dis)
-              // with slashes (edu/nps/moves/dis and create that directory
-              if(pack != null)
-              {
-                  pack = pack.replace(".", "/");
-                  fullPath = getDirectory() + "/" + name + ".js";
-                  //System.out.println("full path is " + fullPath);
-              }
-              else
-             {
-                   fullPath = getDirectory() + "/" + name + ".js";
-             }
-             //System.out.println("Creating Javascript source code file for " + fullPath);
-              
-              // Create the new, empty file, and create printwriter object for output to it
-              File outputFile = new File(fullPath);
-              outputFile.getParentFile().mkdirs();
-              outputFile.createNewFile();
-              PrintWriter pw = new PrintWriter(outputFile);
-              
-              // print the source code of the class to the file
-              this.writeClass(pw, aClass);
-           }
-           catch(Exception e)
-           {
-               System.out.println("error creating source code " + e);
-               e.printStackTrace();
-           }
-            
-        } // End while
+        this.writeAllClasses();
         
         // Write out a require.js exports file. This is later incorporated
         // into the dis.js file via ant.
@@ -271,6 +229,46 @@ public class JavascriptGenerator extends Generator
     
     } // End write classes
     
+    /**
+     * Write the javascript source file for one class
+     */
+    protected void writeClassFiles(GeneratedClass aClass)
+    {
+        try
+        {
+            String name = aClass.getName();
+            
+            // Create package structure, if any
+            String pack = languageProperties.getProperty("namespace");
+            String fullPath;
+            
+            // If we have a package specified, replace the dots in the package name (edu.nps.moves.dis)
+            // with slashes (edu/nps/moves/dis and create that directory
+            if(pack != null)
+            {
+                pack = pack.replace(".", "/");
+                fullPath = getDirectory() + "/" + name + ".js";
+                //System.out.println("full path is " + fullPath);
+            }
+            else
+            {
+                fullPath = getDirectory() + "/" + name + ".js";
+            }
+            //System.out.println("Creating Javascript source code file for " + fullPath);
+            
+            // Create a writer for the new file; the parent directories are created when it is closed
+            PrintWriter pw = this.openOutputFile(fullPath);
+            
+            // print the source code of the class to the file
+            this.writeClass(pw, aClass);
+        }
+        catch(Exception e)
+        {
+            System.out.println("error creating source code " + e);
+            e.printStackTrace();
+        }
+    }
+    
     /**
      * Generate a source code file with a psuedo-classical constructor. 
      * No getters or setters; that's sorta not the style in javascript.
@@ -0,0 +1,78 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Keeps the generated files in memory rather than writing them to disk, for
+ * example to hand them straight to JavaMemoryCompiler. Files are kept in
+ * order of their paths, so the contents don't depend on the order the
+ * generator's threads happened to finish in.
+ *
+ * @author DMcG
+ */
+public class MemorySink implements OutputSink
+{
+    /** path to contents, as bytes */
+    private SortedMap files = new TreeMap();
+
+    public synchronized boolean write(String path, byte[] contents)
+    {
+        byte[] old = (byte[])files.put(path, contents);
+        return old == null || !Arrays.equals(old, contents);
+    }
+
+    public void close()
+    {
+    }
+
+    /** The paths of all the files written so far, in order */
+    public synchronized List getPaths()
+    {
+        return new ArrayList(files.keySet());
+    }
+
+    /** The contents of one file, or null if there is no file with that path */
+    public synchronized byte[] getBytes(String path)
+    {
+        return (byte[])files.get(path);
+    }
+
+    /** The contents of one file as text, or null if there is no file with that path */
+    public String getSource(String path)
+    {
+        byte[] contents = this.getBytes(path);
+        if(contents == null)
+            return null;
+        return new String(contents);
+    }
+
+    /**
+     * The files whose paths end with the suffix (".java", ".h", ...), as a map of
+     * path to source code text
+     */
+    public synchronized Map getSources(String suffix)
+    {
+        Map sources = new TreeMap();
+        Iterator it = files.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            String path = (String)entry.getKey();
+            if(path.endsWith(suffix))
+                sources.put(path, new String((byte[])entry.getValue()));
+        }
+        return sources;
+    }
+
+    /** Writes all the files to another sink, for example to save them to disk */
+    public synchronized void copyTo(OutputSink sink) throws IOException
+    {
+        Iterator it = files.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            sink.write((String)entry.getKey(), (byte[])entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * A compact binary copy of the protocol description read from the XML file:
+ * the GeneratedClass, ClassAttribute, BitField and InitialValue objects, plus
+ * the language-specific properties. The snapshot is keyed by a hash of the XML file
+ * it was made from together with the format version, so a later run can load the
+ * snapshot instead of parsing and checking the XML again, and falls back to parsing
+ * if the XML has changed or the snapshot was made by a version of xmlpg that read it
+ * differently.<p>
+ *
+ * Other tools can use read() or load() to get at the class descriptions without
+ * going through the XML.<p>
+ *
+ * The format is written with DataOutputStream: a magic string, a format version,
+ * the key, the language properties, then the classes in order.
+ *
+ * @author DMcG
+ */
+public class ModelSnapshot
+{
+    /** Identifies a snapshot file */
+    public static final String MAGIC = "XMLPGSNAPSHOT";
+
+    /**
+     * Bump this whenever the layout of the file changes, or the parser or the model classes
+     * change what would be read from the same XML; snapshots of other versions are then ignored.
+     * 2: list elements with a type attribute are read.
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /** The sourceKey() of the XML file the snapshot was made from */
+    private String sourceKey;
+
+    /** The class descriptions, key = name, value = GeneratedClass */
+    private HashMap classes;
+
+    /** Language name (java, cpp, ...) to the properties from that language's XML element */
+    private Map languageProperties;
+
+    public ModelSnapshot(String pSourceKey, HashMap pClasses, Map pLanguageProperties)
+    {
+        sourceKey = pSourceKey;
+        classes = pClasses;
+        languageProperties = pLanguageProperties;
+    }
+
+    /** The sourceKey() of the XML file this snapshot was made from */
+    public String getSourceKey()
+    {
+        return sourceKey;
+    }
+
+    /** The class descriptions, key = class name, value = GeneratedClass */
+    public HashMap getClasses()
+    {
+        return classes;
+    }
+
+    /** The properties for one language, by its XML element name (java, cpp, ...). Never null. */
+    public Properties getLanguageProperties(String language)
+    {
+        Properties props = (Properties)languageProperties.get(language);
+        if(props == null)
+            return new Properties();
+        return props;
+    }
+
+    /**
+     * Returns the hex SHA-256 hash of a file's contents
+     */
+    public static String hashFile(File aFile) throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(Files.readAllBytes(aFile.toPath()));
+
+            StringBuilder hex = new StringBuilder();
+            for(int idx = 0; idx < hash.length; idx++)
+            {
+                hex.append(String.format("%02x", hash[idx] & 0xff));
+            }
+            return hex.toString();
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new IOException("SHA-256 not available " + e);
+        }
+    }
+
+    /**
+     * What a snapshot of an XML file is stored under: the format version and the hash of
+     * the file, so that neither a changed file nor a changed xmlpg uses an old snapshot
+     */
+    public static String sourceKey(File xmlFile) throws IOException
+    {
+        return FORMAT_VERSION + ":" + ModelSnapshot.hashFile(xmlFile);
+    }
+
+    /**
+     * Loads the snapshot for an XML file. Returns null if there is no snapshot, it can't
+     * be read, it was written by another version of xmlpg, or it was made from a different
+     * version of the XML file.
+     */
+    public static ModelSnapshot load(File snapshotFile, File xmlFile)
+    {
+        if(!snapshotFile.isFile())
+            return null;
+
+        try
+        {
+            if(ModelSnapshot.readVersion(snapshotFile) != FORMAT_VERSION)
+            {
+                System.out.println("Snapshot " + snapshotFile + " was written by another version of xmlpg, so the XML file is parsed instead");
+                return null;
+            }
+
+            ModelSnapshot snapshot = ModelSnapshot.read(snapshotFile);
+            if(!snapshot.getSourceKey().equals(ModelSnapshot.sourceKey(xmlFile)))
+                return null;
+            return snapshot;
+        }
+        catch(IOException e)
+        {
+            System.out.println("Could not read snapshot " + snapshotFile + ", parsing the XML file instead: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * The format version of a snapshot file, or -1 if it isn't one
+     */
+    public static int readVersion(File snapshotFile) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        try
+        {
+            if(!MAGIC.equals(dis.readUTF()))
+                return -1;
+            return dis.readInt();
+        }
+        catch(IOException e)
+        {
+            return -1;
+        }
+        finally
+        {
+            dis.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot file
+     */
+    public static ModelSnapshot read(File snapshotFile) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        try
+        {
+            if(!MAGIC.equals(dis.readUTF()) || dis.readInt() != FORMAT_VERSION)
+                throw new IOException("not a snapshot file, or written by a different version of xmlpg");
+
+            String sourceKey = dis.readUTF();
+
+            Map languageProperties = new HashMap();
+            int languageCount = dis.readInt();
+            for(int idx = 0; idx < languageCount; idx++)
+            {
+                String language = dis.readUTF();
+                Properties props = new Properties();
+                int propertyCount = dis.readInt();
+                for(int jdx = 0; jdx < propertyCount; jdx++)
+                {
+                    String key = dis.readUTF();
+                    props.setProperty(key, dis.readUTF());
+                }
+                languageProperties.put(language, props);
+            }
+
+            HashMap classes = new HashMap();
+            int classCount = dis.readInt();
+            for(int idx = 0; idx < classCount; idx++)
+            {
+                GeneratedClass aClass = ModelSnapshot.readClass(dis);
+                classes.put(aClass.getName(), aClass);
+            }
+
+            return new ModelSnapshot(sourceKey, classes, languageProperties);
+        }
+        finally
+        {
+            dis.close();
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file. The file is written under a temporary name and then
+     * renamed, so a reader never sees a partly written snapshot.
+     */
+    public void write(File snapshotFile) throws IOException
+    {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try
+        {
+            dos.writeUTF(MAGIC);
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeUTF(sourceKey);
+
+            dos.writeInt(languageProperties.size());
+            Iterator it = languageProperties.entrySet().iterator();
+            while(it.hasNext())
+            {
+                Map.Entry entry = (Map.Entry)it.next();
+                Properties props = (Properties)entry.getValue();
+                dos.writeUTF((String)entry.getKey());
+                dos.writeInt(props.size());
+
+                Iterator names = props.stringPropertyNames().iterator();
+                while(names.hasNext())
+                {
+                    String key = (String)names.next();
+                    dos.writeUTF(key);
+                    dos.writeUTF(props.getProperty(key));
+                }
+            }
+
+            // Written in the map's own order, so that reading them back into a new HashMap
+            // gives the same iteration order, and so the same generated output.
+            dos.writeInt(classes.size());
+            it = classes.values().iterator();
+            while(it.hasNext())
+            {
+                ModelSnapshot.writeClass(dos, (GeneratedClass)it.next());
+            }
+        }
+        finally
+        {
+            dos.close();
+        }
+
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The snapshot encoding of a single class. Two classes with the same encoding generate
+     * the same code, which makes this a convenient way to tell whether a class has changed.
+     */
+    static byte[] classBytes(GeneratedClass aClass)
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            ModelSnapshot.writeClass(dos, aClass);
+            dos.flush();
+            return baos.toByteArray();
+        }
+        catch(IOException e)
+        {
+            // Can't happen writing to memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeClass(DataOutputStream dos, GeneratedClass aClass) throws IOException
+    {
+        writeString(dos, aClass.getName());
+        writeString(dos, aClass.getClassComments());
+        writeString(dos, aClass.getParentClass());
+        dos.writeBoolean(aClass.isXmlRootElement());
+
+        List attributes = aClass.getClassAttributes();
+        dos.writeInt(attributes.size());
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            writeString(dos, anAttribute.getName());
+            dos.writeInt(anAttribute.getAttributeKind().ordinal());
+            writeString(dos, anAttribute.getType());
+            writeString(dos, anAttribute.getComment());
+            dos.writeInt(anAttribute.getListLength());
+            writeString(dos, anAttribute.getCountFieldName());
+            dos.writeBoolean(anAttribute.getIsDynamicListLengthField());
+            // The list a count field describes is another attribute of the same class
+            dos.writeInt(attributes.indexOf(anAttribute.getDynamicListClassAttribute()));
+            writeString(dos, anAttribute.getDefaultValue());
+            dos.writeBoolean(anAttribute.getUnderlyingTypeIsPrimitive());
+            dos.writeBoolean(anAttribute.underlyingTypeIsClass);
+            dos.writeBoolean(anAttribute.getCouldBeString());
+            dos.writeBoolean(anAttribute.getIsBitField());
+            dos.writeBoolean(anAttribute.shouldSerialize);
+
+            List bitFields = anAttribute.bitFieldList;
+            dos.writeInt(bitFields.size());
+            for(int jdx = 0; jdx < bitFields.size(); jdx++)
+            {
+                BitField aBitField = (BitField)bitFields.get(jdx);
+                writeString(dos, aBitField.name);
+                writeString(dos, aBitField.mask);
+                writeString(dos, aBitField.comment);
+            }
+        }
+
+        List initialValues = aClass.getInitialValues();
+        dos.writeInt(initialValues.size());
+        for(int idx = 0; idx < initialValues.size(); idx++)
+        {
+            InitialValue anInitialValue = (InitialValue)initialValues.get(idx);
+            writeString(dos, anInitialValue.getVariable());
+            writeString(dos, anInitialValue.getVariableValue());
+        }
+    }
+
+    private static GeneratedClass readClass(DataInputStream dis) throws IOException
+    {
+        GeneratedClass aClass = new GeneratedClass();
+        aClass.setName(readString(dis));
+        aClass.setComment(readString(dis));
+        aClass.setParentClass(readString(dis));
+        aClass.setXmlRootElement(dis.readBoolean());
+
+        int attributeCount = dis.readInt();
+        int[] dynamicListIndexes = new int[attributeCount];
+        for(int idx = 0; idx < attributeCount; idx++)
+        {
+            ClassAttribute anAttribute = new ClassAttribute();
+            anAttribute.setName(readString(dis));
+            anAttribute.setAttributeKind(ClassAttribute.ClassAttributeType.values()[dis.readInt()]);
+            anAttribute.setType(readString(dis));
+            anAttribute.setComment(readString(dis));
+            anAttribute.setListLength(dis.readInt());
+            anAttribute.setCountFieldName(readString(dis));
+            anAttribute.setIsDynamicListLengthField(dis.readBoolean());
+            dynamicListIndexes[idx] = dis.readInt();
+            anAttribute.setDefaultValue(readString(dis));
+            anAttribute.setUnderlyingTypeIsPrimitive(dis.readBoolean());
+            anAttribute.underlyingTypeIsClass = dis.readBoolean();
+            anAttribute.setCouldBeString(dis.readBoolean());
+            anAttribute.setIsBitField(dis.readBoolean());
+            anAttribute.shouldSerialize = dis.readBoolean();
+
+            int bitFieldCount = dis.readInt();
+            for(int jdx = 0; jdx < bitFieldCount; jdx++)
+            {
+                String name = readString(dis);
+                String mask = readString(dis);
+                String comment = readString(dis);
+                anAttribute.addBitField(new BitField(name, mask, comment, anAttribute));
+            }
+
+            aClass.addClassAttribute(anAttribute);
+        }
+
+        // Now that all the attributes exist, link the count fields to their lists
+        List attributes = aClass.getClassAttributes();
+        for(int idx = 0; idx < attributeCount; idx++)
+        {
+            if(dynamicListIndexes[idx] >= 0)
+            {
+                ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+                anAttribute.setDynamicListClassAttribute((ClassAttribute)attributes.get(dynamicListIndexes[idx]));
+            }
+        }
+
+        int initialValueCount = dis.readInt();
+        for(int idx = 0; idx < initialValueCount; idx++)
+        {
+            String variable = readString(dis);
+            aClass.addInitialValue(new InitialValue(variable, readString(dis)));
+        }
+
+        return aClass;
+    }
+
+    /** Writes a string that may be null */
+    private static void writeString(DataOutputStream dos, String aString) throws IOException
+    {
+        dos.writeBoolean(aString != null);
+        if(aString != null)
+            dos.writeUTF(aString);
+    }
+
+    /** Reads a string written by writeString() */
+    private static String readString(DataInputStream dis) throws IOException
+    {
+        if(!dis.readBoolean())
+            return null;
+        return dis.readUTF();
+    }
+}
@@ -0,0 +1,241 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Watches the XML file and regenerates source code whenever it is saved. After
+ * each edit the XML is parsed again and compared with the previous class
+ * descriptions; only the classes that changed, plus the classes that inherit
+ * from them or contain them, are regenerated. An edit that breaks the XML is
+ * reported and the previous descriptions are kept until it is fixed.<p>
+ *
+ * Started from the command line with -Dxmlpg.watch=true. Runs until the
+ * process is killed.
+ *
+ * @author DMcG
+ */
+public class ModelWatcher
+{
+    /** Editors often save a file in several steps; wait this long for things to settle */
+    public static final long SETTLE_TIME = 200;
+
+    /** Parses the XML and runs the generators */
+    private Xmlpg xmlpg;
+
+    /** The XML file being watched */
+    private File xmlFile;
+
+    /** The languages to regenerate, LanguageType objects */
+    private List languages;
+
+    /** Hash of the XML file as of the last time it was parsed */
+    private String lastHash;
+
+    public ModelWatcher(Xmlpg pXmlpg, File pXmlFile, List pLanguages)
+    {
+        xmlpg = pXmlpg;
+        xmlFile = pXmlFile.getAbsoluteFile();
+        languages = pLanguages;
+    }
+
+    /**
+     * Waits for changes to the XML file and regenerates the affected classes. Only
+     * returns if the watch service fails or the thread is interrupted.
+     */
+    public void watch() throws IOException, InterruptedException
+    {
+        lastHash = ModelSnapshot.hashFile(xmlFile);
+
+        // A WatchService watches directories, not files, so watch the directory
+        // the XML file is in and ignore events for other files.
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        Path directory = xmlFile.getParentFile().toPath();
+        directory.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+
+        System.out.println("Watching " + xmlFile + " for changes");
+
+        try
+        {
+            while(true)
+            {
+                WatchKey key = watcher.take();
+                boolean touched = this.mentionsXmlFile(key);
+                key.reset();
+
+                if(!touched)
+                    continue;
+
+                // Let the editor finish writing, and throw away the events from that
+                Thread.sleep(SETTLE_TIME);
+                while((key = watcher.poll()) != null)
+                {
+                    key.pollEvents();
+                    key.reset();
+                }
+
+                this.regenerate();
+            }
+        }
+        finally
+        {
+            watcher.close();
+        }
+    }
+
+    private boolean mentionsXmlFile(WatchKey key)
+    {
+        boolean found = false;
+        Iterator it = key.pollEvents().iterator();
+        while(it.hasNext())
+        {
+            WatchEvent event = (WatchEvent)it.next();
+            Object context = event.context();
+            if(context != null && context.toString().equals(xmlFile.getName()))
+                found = true;
+        }
+        return found;
+    }
+
+    /**
+     * Parses the XML file again and regenerates the classes affected by the changes
+     * since the last parse. Does nothing if the file's contents haven't changed.
+     */
+    public void regenerate()
+    {
+        long start = System.currentTimeMillis();
+
+        String hash;
+        try
+        {
+            hash = ModelSnapshot.hashFile(xmlFile);
+        }
+        catch(IOException e)
+        {
+            System.out.println("Could not read " + xmlFile + " " + e);
+            return;
+        }
+
+        if(hash.equals(lastHash))
+            return;
+
+        HashMap oldClasses = xmlpg.getGeneratedClasses();
+        Map oldProperties = xmlpg.languageProperties();
+
+        if(!xmlpg.reparseXml(xmlFile))
+        {
+            System.out.println("Keeping the previous version of " + xmlFile.getName() + " until the errors are fixed");
+            return;
+        }
+        lastHash = hash;
+
+        HashMap newClasses = xmlpg.getGeneratedClasses();
+        Set affected;
+
+        // A change to the language properties (package, imports, ...) can change every file
+        if(!oldProperties.equals(xmlpg.languageProperties()))
+        {
+            affected = new HashSet(newClasses.keySet());
+        }
+        else
+        {
+            affected = ModelWatcher.affectedClasses(newClasses, ModelWatcher.changedClasses(oldClasses, newClasses));
+        }
+
+        if(affected.isEmpty())
+        {
+            System.out.println("No classes changed");
+            return;
+        }
+
+        xmlpg.generate(languages, affected);
+
+        String snapshotName = System.getProperty("xmlpg.snapshot");
+        if(snapshotName != null)
+        {
+            xmlpg.saveSnapshot(new File(snapshotName), xmlFile);
+        }
+
+        System.out.println("Regenerated " + affected.size() + " of " + newClasses.size() + " classes in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * The names of the classes in newClasses that are new or different from the class
+     * of the same name in oldClasses.
+     */
+    public static Set changedClasses(HashMap oldClasses, HashMap newClasses)
+    {
+        Set changed = new HashSet();
+
+        Iterator it = newClasses.values().iterator();
+        while(it.hasNext())
+        {
+            GeneratedClass aClass = (GeneratedClass)it.next();
+            GeneratedClass oldClass = (GeneratedClass)oldClasses.get(aClass.getName());
+
+            if(oldClass == null || !Arrays.equals(ModelSnapshot.classBytes(aClass), ModelSnapshot.classBytes(oldClass)))
+                changed.add(aClass.getName());
+        }
+
+        return changed;
+    }
+
+    /**
+     * The changed classes plus every class whose generated code depends on one of them:
+     * subclasses, which repeat the inherited fields in their marshalling code, and classes
+     * that have an attribute or list of that type.
+     */
+    public static Set affectedClasses(HashMap classes, Set changed)
+    {
+        // class name to the names of the classes that depend on it
+        Map dependents = new HashMap();
+        Iterator it = classes.values().iterator();
+        while(it.hasNext())
+        {
+            GeneratedClass aClass = (GeneratedClass)it.next();
+            addDependent(dependents, aClass.getParentClass(), aClass.getName());
+
+            List attributes = aClass.getClassAttributes();
+            for(int idx = 0; idx < attributes.size(); idx++)
+            {
+                ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+                addDependent(dependents, anAttribute.getType(), aClass.getName());
+            }
+        }
+
+        Set affected = new HashSet(changed);
+        LinkedList toVisit = new LinkedList(changed);
+        while(!toVisit.isEmpty())
+        {
+            Set users = (Set)dependents.get(toVisit.removeFirst());
+            if(users == null)
+                continue;
+
+            Iterator userIt = users.iterator();
+            while(userIt.hasNext())
+            {
+                String user = (String)userIt.next();
+                if(affected.add(user))
+                    toVisit.add(user);
+            }
+        }
+
+        return affected;
+    }
+
+    private static void addDependent(Map dependents, String className, String dependent)
+    {
+        if(className == null)
+            return;
+
+        Set users = (Set)dependents.get(className);
+        if(users == null)
+        {
+            users = new HashSet();
+            dependents.put(className, users);
+        }
+        users.add(dependent);
+    }
+}
@@ -108,25 +108,19 @@ public class ObjcGenerator extends Generator
     {
         this.createDirectory();
         
-        Iterator it = classDescriptions.values().iterator();
+        // Loop through all the class descriptions, generating a header file and .m file for each.
+        this.writeAllClasses();
 
-        // Loop through all the class descriptions, generating a header file and cpp file for each.
-        while(it.hasNext())
-        {
-            try
-           {
-              GeneratedClass aClass = (GeneratedClass)it.next();
-			  // System.out.println("Generating class " + aClass.getName());
-              this.writeHeaderFile(aClass);
-              this.writeObjcFile(aClass);
-           }
-           catch(Exception e)
-           {
-                System.out.println("error creating source code " + e);
-           }
-
-        } // End while
+    }
 
+    /**
+     * Generates the header file and .m file for one class
+     */
+    protected void writeClassFiles(GeneratedClass aClass)
+    {
+        // System.out.println("Generating class " + aClass.getName());
+        this.writeHeaderFile(aClass);
+        this.writeObjcFile(aClass);
     }
 
    
@@ -140,9 +134,7 @@ public void writeHeaderFile(GeneratedClass aClass)
         String name = aClass.getName();
         //System.out.println("Creating cpp and .h source code files for " + name);
         String headerFullPath = getDirectory() + "/" + name + ".h";
-        File outputFile = new File(headerFullPath);
-        outputFile.createNewFile();
-        PrintWriter pw = new PrintWriter(outputFile);
+        PrintWriter pw = this.openOutputFile(headerFullPath);
 
         // Write includes for any classes we may reference. this generates multiple #includes if we
         // use a class multiple times, but that's innocuous. We could sort and do a unqiue to prevent
@@ -317,9 +309,7 @@ public void writeObjcFile(GeneratedClass aClass)
         String name = aClass.getName();
         System.out.println("Creating Objc .m and .h source code files for " + name);
         String headerFullPath = getDirectory() + "/" + name + ".m";
-        File outputFile = new File(headerFullPath);
-        outputFile.createNewFile();
-        PrintWriter pw = new PrintWriter(outputFile);
+        PrintWriter pw = this.openOutputFile(headerFullPath);
 
         pw.println("#import \"" + aClass.getName() + ".h\" ");
         pw.println();
@@ -0,0 +1,28 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+
+/**
+ * Where the generated source files go. The generators hand each finished file to
+ * the sink, which might write it to disk (FileSystemSink), keep it in memory
+ * (MemorySink), or add it to a zip or jar file (ZipSink).<p>
+ *
+ * The generators render classes on several threads at once, so write() may be
+ * called from more than one thread.
+ *
+ * @author DMcG
+ */
+public interface OutputSink
+{
+    /**
+     * Stores one generated file. The path uses forward slashes and is relative to the
+     * generator's output directory, for example edu/nps/moves/dis/EntityID.java.
+     * Returns false if the sink already held exactly these contents and left them alone.
+     */
+    public boolean write(String path, byte[] contents) throws IOException;
+
+    /**
+     * Called once all the files have been written
+     */
+    public void close() throws IOException;
+}
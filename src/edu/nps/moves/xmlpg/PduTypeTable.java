@@ -0,0 +1,341 @@
+package edu.nps.moves.xmlpg;
+
+import java.util.*;
+
+/**
+ * Which class goes with each value of the pduType field, worked out from the
+ * initialValue name="pduType" entries in the XML file. Also records the class
+ * that declares the pduType field, which is the common superclass of all the
+ * PDUs, and where the field is in the marshalled header. The generators use
+ * this to write code that picks the right class for a received PDU.<p>
+ *
+ * Needs the wire layout, so build() must be called after WireLayout.annotate().
+ *
+ * @author DMcG
+ */
+public class PduTypeTable
+{
+    /** The header field that identifies the class of a PDU */
+    public static final String TYPE_FIELD = "pduType";
+
+    /** The header field that holds the marshalled size of a PDU */
+    public static final String LENGTH_FIELD = "length";
+
+    /** The header field that holds the time a PDU was sent */
+    public static final String TIMESTAMP_FIELD = "timestamp";
+
+    /** The field of a PDU that identifies the entity it is about */
+    public static final String ENTITY_FIELD = "entityID";
+
+    /** The class that declares the pduType field */
+    private GeneratedClass baseClass;
+
+    /** The pduType field itself */
+    private ClassAttribute typeAttribute;
+
+    /** The length field, or null if the base class doesn't have one at a fixed offset */
+    private ClassAttribute lengthAttribute;
+
+    /** The timestamp field, or null if the base class doesn't have one at a fixed offset */
+    private ClassAttribute timestampAttribute;
+
+    /** The class of the entityID fields, or null if no PDU has one that can be used */
+    private GeneratedClass entityClass;
+
+    /** pduType (Integer) to the offset (Integer) of the field that identifies the entity in PDUs of that type */
+    private TreeMap entityOffsets = new TreeMap();
+
+    /** pduType (Integer) to the name of the field whose offset is in entityOffsets */
+    private TreeMap entityFields = new TreeMap();
+
+    /** pduType (Integer) to the name of the class with that type, in pduType order */
+    private TreeMap classNames = new TreeMap();
+
+    private PduTypeTable()
+    {
+    }
+
+    /**
+     * Builds the table for a set of class descriptions. Returns null if no class sets
+     * an initial pduType, or the pduType field isn't somewhere it can be read from a
+     * marshalled PDU without unmarshalling it.
+     */
+    public static PduTypeTable build(HashMap classes)
+    {
+        PduTypeTable table = new PduTypeTable();
+
+        // Sorted, so that if two classes claim the same pduType the same one wins every time
+        List names = new ArrayList(classes.keySet());
+        Collections.sort(names);
+
+        for(int idx = 0; idx < names.size(); idx++)
+        {
+            GeneratedClass aClass = (GeneratedClass)classes.get(names.get(idx));
+            String value = PduTypeTable.initialPduType(aClass);
+            if(value == null)
+                continue;
+
+            GeneratedClass declaringClass = PduTypeTable.declaringClass(classes, aClass);
+            if(declaringClass == null)
+            {
+                System.out.println("Class " + aClass.getName() + " sets an initial " + TYPE_FIELD + " but has no " + TYPE_FIELD + " field");
+                continue;
+            }
+
+            if(table.baseClass == null)
+            {
+                table.baseClass = declaringClass;
+                table.typeAttribute = PduTypeTable.findAttribute(declaringClass, TYPE_FIELD);
+            }
+            else if(table.baseClass != declaringClass)
+            {
+                System.out.println("Class " + aClass.getName() + " gets its " + TYPE_FIELD + " field from " + declaringClass.getName()
+                        + " rather than " + table.baseClass.getName() + ", so it is left out of the " + TYPE_FIELD + " table");
+                continue;
+            }
+
+            Integer pduType;
+            try
+            {
+                pduType = Integer.decode(value.trim());
+            }
+            catch(NumberFormatException e)
+            {
+                System.out.println("Class " + aClass.getName() + " has " + TYPE_FIELD + " " + value + ", which isn't a number");
+                continue;
+            }
+
+            if(pduType.intValue() < 0 || pduType.intValue() >= table.getTableSize())
+            {
+                System.out.println("Class " + aClass.getName() + " has " + TYPE_FIELD + " " + value + ", which doesn't fit in the field");
+                continue;
+            }
+
+            String existing = (String)table.classNames.get(pduType);
+            if(existing != null)
+            {
+                System.out.println(TYPE_FIELD + " " + pduType + " is used by both " + existing + " and " + aClass.getName() + "; using " + existing);
+                continue;
+            }
+
+            table.classNames.put(pduType, aClass.getName());
+        }
+
+        if(table.classNames.isEmpty())
+            return null;
+
+        if(table.typeAttribute.getWireOffset() < 0 || table.typeAttribute.getAttributeKind() != ClassAttribute.ClassAttributeType.PRIMITIVE)
+        {
+            System.out.println("The " + TYPE_FIELD + " field of " + table.baseClass.getName() + " is not at a fixed offset");
+            return null;
+        }
+
+        ClassAttribute length = PduTypeTable.findAttribute(table.baseClass, LENGTH_FIELD);
+        if(length != null && length.getWireOffset() >= 0 && length.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE
+                && WireLayout.maxCount(length.getType()) > 0)
+            table.lengthAttribute = length;
+
+        ClassAttribute timestamp = PduTypeTable.findAttribute(table.baseClass, TIMESTAMP_FIELD);
+        if(timestamp != null && timestamp.getWireOffset() >= 0 && timestamp.getAttributeKind() == ClassAttribute.ClassAttributeType.PRIMITIVE
+                && WireLayout.maxCount(timestamp.getType()) > 0)
+            table.timestampAttribute = timestamp;
+
+        table.findEntityOffsets(classes);
+
+        return table;
+    }
+
+    /** The class that declares the pduType field, which all the PDU classes inherit from */
+    public GeneratedClass getBaseClass()
+    {
+        return baseClass;
+    }
+
+    /** The pduType field */
+    public ClassAttribute getTypeAttribute()
+    {
+        return typeAttribute;
+    }
+
+    /**
+     * The field that holds the marshalled size of a PDU, or null if the base class doesn't
+     * have an integer length field at a fixed offset
+     */
+    public ClassAttribute getLengthAttribute()
+    {
+        return lengthAttribute;
+    }
+
+    /**
+     * The field that holds the time a PDU was sent, or null if the base class doesn't have
+     * an integer timestamp field at a fixed offset
+     */
+    public ClassAttribute getTimestampAttribute()
+    {
+        return timestampAttribute;
+    }
+
+    /**
+     * The class of the entityID field of the PDUs, or null if no PDU has an entityID field
+     * at a fixed offset that fits in a long
+     */
+    public GeneratedClass getEntityClass()
+    {
+        return entityClass;
+    }
+
+    /**
+     * Offset in bytes of the field that identifies the entity PDUs with the given pduType are
+     * about, or -1 if they don't have one. See findEntityOffsets() for which field that is.
+     */
+    public int getEntityOffset(int pduType)
+    {
+        Integer offset = (Integer)entityOffsets.get(new Integer(pduType));
+        if(offset == null)
+            return -1;
+        return offset.intValue();
+    }
+
+    /** The name of the field getEntityOffset() gives the offset of, or null */
+    public String getEntityField(int pduType)
+    {
+        return (String)entityFields.get(new Integer(pduType));
+    }
+
+    /** Offset in bytes of the pduType field from the start of a marshalled PDU */
+    public int getTypeOffset()
+    {
+        return typeAttribute.getWireOffset();
+    }
+
+    /** The number of different values the pduType field can hold, and so the size of a table indexed by it */
+    public int getTableSize()
+    {
+        long maxCount = WireLayout.maxCount(typeAttribute.getType());
+        if(maxCount < 0 || maxCount >= 65536)
+            return 65536;
+        return (int)maxCount + 1;
+    }
+
+    /** The pduTypes that have a class, as Integers in increasing order */
+    public Set getPduTypes()
+    {
+        return classNames.keySet();
+    }
+
+    /** The name of the class with the given pduType, or null if there isn't one */
+    public String getClassName(int pduType)
+    {
+        return (String)classNames.get(new Integer(pduType));
+    }
+
+    /**
+     * Finds the field that identifies the entity each PDU class is about. The first class found
+     * with a usable entityID field decides the class of the field. A PDU's entityID field is used
+     * if it has one of that class; otherwise its first field of that class at a fixed offset,
+     * such as the firing entity of a fire PDU. PDUs with neither are left out.
+     */
+    private void findEntityOffsets(HashMap classes)
+    {
+        Iterator it = classNames.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            GeneratedClass aClass = (GeneratedClass)classes.get(entry.getValue());
+            ClassAttribute entity = PduTypeTable.findWireAttribute(aClass, ENTITY_FIELD);
+            if(entity == null || entity.getWireOffset() < 0 || entity.getAttributeKind() != ClassAttribute.ClassAttributeType.CLASSREF)
+                continue;
+
+            GeneratedClass fieldClass = (GeneratedClass)classes.get(entity.getType());
+            if(fieldClass == null || !fieldClass.isFixedSize() || fieldClass.getFixedSize() > 8)
+                continue;
+
+            if(entityClass == null)
+                entityClass = fieldClass;
+            else if(entityClass != fieldClass)
+                continue;
+
+            entityOffsets.put(entry.getKey(), new Integer(entity.getWireOffset()));
+            entityFields.put(entry.getKey(), entity.getName());
+        }
+
+        if(entityClass == null)
+            return;
+
+        it = classNames.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            if(entityOffsets.containsKey(entry.getKey()))
+                continue;
+
+            List attributes = ((GeneratedClass)classes.get(entry.getValue())).getWireAttributes();
+            for(int idx = 0; idx < attributes.size(); idx++)
+            {
+                ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+                if(anAttribute.getWireOffset() >= 0 && anAttribute.getAttributeKind() == ClassAttribute.ClassAttributeType.CLASSREF
+                        && entityClass.getName().equals(anAttribute.getType()))
+                {
+                    entityOffsets.put(entry.getKey(), new Integer(anAttribute.getWireOffset()));
+                    entityFields.put(entry.getKey(), anAttribute.getName());
+                    break;
+                }
+            }
+        }
+    }
+
+    /** The value a class's initialValue entries set pduType to, or null */
+    private static String initialPduType(GeneratedClass aClass)
+    {
+        List initialValues = aClass.getInitialValues();
+        for(int idx = 0; idx < initialValues.size(); idx++)
+        {
+            InitialValue anInitialValue = (InitialValue)initialValues.get(idx);
+            if(TYPE_FIELD.equals(anInitialValue.getVariable()))
+                return anInitialValue.getVariableValue();
+        }
+        return null;
+    }
+
+    /** The class, aClass or one of its superclasses, that declares the pduType field */
+    private static GeneratedClass declaringClass(HashMap classes, GeneratedClass aClass)
+    {
+        GeneratedClass current = aClass;
+        while(current != null)
+        {
+            if(PduTypeTable.findAttribute(current, TYPE_FIELD) != null)
+                return current;
+
+            String parentName = current.getParentClass();
+            if(parentName == null || parentName.equalsIgnoreCase("root"))
+                return null;
+            current = (GeneratedClass)classes.get(parentName);
+        }
+        return null;
+    }
+
+    /** An attribute of a class or one of its superclasses, found by name */
+    private static ClassAttribute findWireAttribute(GeneratedClass aClass, String name)
+    {
+        List attributes = aClass.getWireAttributes();
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            if(name.equals(anAttribute.getName()))
+                return anAttribute;
+        }
+        return null;
+    }
+
+    private static ClassAttribute findAttribute(GeneratedClass aClass, String name)
+    {
+        List attributes = aClass.getClassAttributes();
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            if(name.equals(anAttribute.getName()))
+                return anAttribute;
+        }
+        return null;
+    }
+}
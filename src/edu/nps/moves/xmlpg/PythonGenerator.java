@@ -6,8 +6,8 @@
 
 package edu.nps.moves.xmlpg;
 
-import java.io.File;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -30,6 +30,14 @@ public class PythonGenerator extends Generator
     {
         super(pClassDescriptions, pythonProperties);
         
+        // Directory to place generated source code, defaulting to where it always went
+        String clDirectory = System.getProperty("xmlpg.generatedSourceDir");
+        if(clDirectory != null)
+            pythonProperties.setProperty("directory", clDirectory);
+        if(pythonProperties.getProperty("directory") == null)
+            pythonProperties.setProperty("directory", "src/main/python");
+        super.setDirectory(pythonProperties.getProperty("directory"));
+        
         marshalTypes.setProperty("unsigned short", "unsigned_short");
         marshalTypes.setProperty("unsigned byte", "unsigned_byte");
         marshalTypes.setProperty("unsigned int", "unsigned_int");
@@ -61,7 +69,6 @@ public class PythonGenerator extends Generator
     public void writeClasses()
     {
        List sortedClasses =  this.sortClasses();
-       this.directory = "src/main/python";
        
        this.createDirectory();
         
@@ -71,12 +78,8 @@ public class PythonGenerator extends Generator
        {
             // Create the new, empty file, and create printwriter object for output to it
             String outputFileName = (String)languageProperties.getProperty("filename");
-            String directoryName = (String)languageProperties.getProperty("directory");
-            System.out.println("putting network code in " + directoryName + "/" + outputFileName);
-            File outputFile = new File(directoryName + "/" + outputFileName);
-            outputFile.getParentFile().mkdirs();
-            outputFile.createNewFile();
-            pw = new PrintWriter(outputFile);
+            System.out.println("putting network code in " + this.getDirectory() + "/" + outputFileName);
+            pw = this.openOutputFile(this.getDirectory() + "/" + outputFileName);
             this.writeLicense(pw);
             pw.println();
             
@@ -87,16 +90,29 @@ public class PythonGenerator extends Generator
              
               
             System.out.println("number of classes: " + sortedClasses.size());
-        Iterator it = sortedClasses.iterator();
-         while(it.hasNext())
-          {
-           
-              GeneratedClass aClass = (GeneratedClass)it.next();
-              String name = aClass.getName();
-              System.out.println("creating python class " + name);
-              // print the source code of the class to the file
-              this.writeClass(pw, aClass);
-           }
+            
+            // All the classes go in one file, and superclasses have to come before their
+            // subclasses. Render each class into its own buffer, possibly in parallel, then
+            // write the buffers out in sorted order.
+            final String[] classSource = new String[sortedClasses.size()];
+            this.forEachClass(sortedClasses, new ClassAction()
+            {
+                public void apply(int index, GeneratedClass aClass)
+                {
+                    System.out.println("creating python class " + aClass.getName());
+                    StringWriter buffer = new StringWriter();
+                    PrintWriter classWriter = new PrintWriter(buffer);
+                    writeClass(classWriter, aClass);
+                    classWriter.flush();
+                    classSource[index] = buffer.toString();
+                }
+            });
+            
+            for(int idx = 0; idx < classSource.length; idx++)
+            {
+                if(classSource[idx] != null)
+                    pw.print(classSource[idx]);
+            }
          
          pw.flush();
          pw.close();
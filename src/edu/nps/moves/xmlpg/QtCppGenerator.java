@@ -112,22 +112,17 @@ public class QtCppGenerator extends Generator
 
     writeMacroFile();
 
-    Iterator<?> it = classDescriptions.values().iterator();
-
     // Loop through all the class descriptions, generating a header file and cpp file for each.
-    while(it.hasNext())
-    {
-      try
-      {
-        GeneratedClass aClass = (GeneratedClass)it.next();
-        this.writeHeaderFile(aClass);
-        this.writeCppFile(aClass);
-      }
-      catch(Exception e)
-      {
-        System.out.println("error creating source code " + e);
-      }
-    } // End while
+    writeAllClasses();
+  }
+
+  /**
+   * Generates the header file and cpp file for one class
+   */
+  protected void writeClassFiles(GeneratedClass aClass)
+  {
+    this.writeHeaderFile(aClass);
+    this.writeCppFile(aClass);
   }
 
   /**
@@ -142,9 +137,7 @@ public class QtCppGenerator extends Generator
     try
     {
       String headerFullPath = getDirectory() + "/" + headerFile + ".h";
-      File outputFile = new File(headerFullPath);
-      outputFile.createNewFile();
-      PrintWriter pw = new PrintWriter(outputFile);
+      PrintWriter pw = this.openOutputFile(headerFullPath);
 
       pw.println("#ifndef " + headerFile.toUpperCase() + "_H");
       pw.println("#define " + headerFile.toUpperCase() + "_H");
@@ -187,9 +180,7 @@ public class QtCppGenerator extends Generator
       String name = aClass.getName();
       //System.out.println("Creating cpp and .h source code files for " + name);
       String headerFullPath = getDirectory() + "/" + name + ".h";
-      File outputFile = new File(headerFullPath);
-      outputFile.createNewFile();
-      PrintWriter pw = new PrintWriter(outputFile);
+      PrintWriter pw = this.openOutputFile(headerFullPath);
 
       // Write the usual #ifdef to prevent multiple inclusions by the preprocessor
       pw.println("#ifndef " + aClass.getName().toUpperCase() + "_H");
@@ -441,9 +432,7 @@ public class QtCppGenerator extends Generator
       String name = aClass.getName();
       //System.out.println("Creating cpp and .h source code files for " + name);
       String headerFullPath = getDirectory() + "/" + name + ".cpp";
-      File outputFile = new File(headerFullPath);
-      outputFile.createNewFile();
-      PrintWriter pw = new PrintWriter(outputFile);
+      PrintWriter pw = this.openOutputFile(headerFullPath);
 
       String namespace = languageProperties.getProperty("namespace");
       if(namespace==null)
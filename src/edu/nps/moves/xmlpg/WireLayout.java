@@ -0,0 +1,324 @@
+package edu.nps.moves.xmlpg;
+
+import java.util.*;
+
+/**
+ * Works out where each attribute sits in the marshalled form of its class, and
+ * how big each class is, and records the results in the GeneratedClass and
+ * ClassAttribute objects. This runs once the XML has been read and checked, so
+ * that the generators can use constant sizes and offsets rather than adding
+ * things up in the generated code at runtime.<p>
+ *
+ * Inherited attributes are marshalled first, so offsets are counted from the start
+ * of the outermost superclass. Everything up to the first variable length field
+ * (a variable list, or anything containing one) is at a fixed offset. After that,
+ * each variable length field starts a new segment, and attributes are located by
+ * their offset within their segment.
+ *
+ * @author DMcG
+ */
+public class WireLayout
+{
+    /** Marshalled size in bytes of each primitive type */
+    private static final Map PRIMITIVE_SIZES = new HashMap();
+
+    static
+    {
+        PRIMITIVE_SIZES.put("byte", new Integer(1));
+        PRIMITIVE_SIZES.put("unsigned byte", new Integer(1));
+        PRIMITIVE_SIZES.put("short", new Integer(2));
+        PRIMITIVE_SIZES.put("unsigned short", new Integer(2));
+        PRIMITIVE_SIZES.put("int", new Integer(4));
+        PRIMITIVE_SIZES.put("unsigned int", new Integer(4));
+        PRIMITIVE_SIZES.put("float", new Integer(4));
+        PRIMITIVE_SIZES.put("long", new Integer(8));
+        PRIMITIVE_SIZES.put("unsigned long", new Integer(8));
+        PRIMITIVE_SIZES.put("double", new Integer(8));
+    }
+
+    /** The class descriptions, key = name, value = GeneratedClass */
+    private HashMap classes;
+
+    /** Classes whose layout has been worked out */
+    private Set done = new HashSet();
+
+    /** Classes whose layout is being worked out; used to catch classes that contain themselves */
+    private Set inProgress = new HashSet();
+
+    private WireLayout(HashMap pClasses)
+    {
+        classes = pClasses;
+    }
+
+    /**
+     * Works out the layout of every class. Returns false if some class contains
+     * itself, directly or indirectly; such classes are left marked as variable size.
+     */
+    public static boolean annotate(HashMap classes)
+    {
+        WireLayout layout = new WireLayout(classes);
+        boolean ok = true;
+
+        Iterator it = classes.values().iterator();
+        while(it.hasNext())
+        {
+            ok = layout.layOut((GeneratedClass)it.next()) && ok;
+        }
+
+        return ok;
+    }
+
+    /** Marshalled size in bytes of a primitive type, or -1 if it isn't one */
+    public static int primitiveSize(String type)
+    {
+        Integer size = (Integer)PRIMITIVE_SIZES.get(type);
+        if(size == null)
+            return -1;
+        return size.intValue();
+    }
+
+    /**
+     * The largest count a count field of this type can hold, or -1 if it isn't an integer type
+     */
+    public static long maxCount(String type)
+    {
+        int size = WireLayout.primitiveSize(type);
+        if(size < 0 || type.equals("float") || type.equals("double"))
+            return -1;
+
+        int bits = size * 8;
+        if(!type.startsWith("unsigned"))
+            bits = bits - 1;
+
+        if(bits >= 63)
+            return Long.MAX_VALUE;
+        return (1L << bits) - 1;
+    }
+
+    /**
+     * A readable description of a class's layout, one line per attribute
+     */
+    public static String describe(GeneratedClass aClass)
+    {
+        StringBuilder text = new StringBuilder();
+        text.append(aClass.getName());
+        if(aClass.isFixedSize())
+            text.append(" fixed size ").append(aClass.getFixedSize());
+        else
+            text.append(" variable size ").append(aClass.getMinSize()).append("..").append(aClass.getMaxSize() < 0 ? "unbounded" : String.valueOf(aClass.getMaxSize()))
+                .append(", fixed part ").append(aClass.getFixedPartSize()).append(", ").append(aClass.getSegmentCount()).append(" segments");
+        text.append("\n");
+
+        List attributes = aClass.getWireAttributes();
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            text.append("  ");
+            if(anAttribute.getWireOffset() >= 0)
+                text.append("@").append(anAttribute.getWireOffset());
+            else
+                text.append("segment ").append(anAttribute.getWireSegment()).append(" +").append(anAttribute.getSegmentOffset());
+            text.append(" ").append(anAttribute.getName()).append(" ");
+            text.append(anAttribute.isFixedSize() ? String.valueOf(anAttribute.getWireSize()) : "variable");
+            text.append("\n");
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Works out the layout of one class, and of the classes it inherits from or contains
+     */
+    private boolean layOut(GeneratedClass aClass)
+    {
+        if(done.contains(aClass.getName()))
+            return true;
+
+        if(!inProgress.add(aClass.getName()))
+        {
+            System.out.println("Class " + aClass.getName() + " contains itself, so it has no fixed layout");
+            return false;
+        }
+
+        boolean ok = true;
+
+        // The chain of classes from the outermost superclass down to this one
+        LinkedList chain = new LinkedList();
+        GeneratedClass current = aClass;
+        while(current != null)
+        {
+            chain.addFirst(current);
+            String parentName = current.getParentClass();
+            if(parentName == null || parentName.equalsIgnoreCase("root"))
+                current = null;
+            else
+                current = (GeneratedClass)classes.get(parentName);
+        }
+
+        List wireAttributes = new ArrayList();
+        Iterator it = chain.iterator();
+        while(it.hasNext())
+        {
+            List attributes = ((GeneratedClass)it.next()).getClassAttributes();
+            for(int idx = 0; idx < attributes.size(); idx++)
+            {
+                ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+                if(anAttribute.shouldSerialize)
+                {
+                    wireAttributes.add(anAttribute);
+                }
+                else
+                {
+                    anAttribute.setWireOffset(-1);
+                    anAttribute.setWireSize(0);
+                    anAttribute.setMinWireSize(0);
+                    anAttribute.setMaxWireSize(0);
+                }
+            }
+        }
+
+        int offset = 0;             // -1 once past a variable length field
+        int segment = 0;
+        int segmentOffset = 0;
+        int fixedPart = 0;
+        long minSize = 0;
+        long maxSize = 0;           // -1 if unbounded
+
+        for(int idx = 0; idx < wireAttributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)wireAttributes.get(idx);
+            ok = this.sizeAttribute(anAttribute, wireAttributes) && ok;
+
+            anAttribute.setWireOffset(offset);
+            anAttribute.setWireSegment(segment);
+            anAttribute.setSegmentOffset(segmentOffset);
+
+            if(anAttribute.isFixedSize())
+            {
+                int size = anAttribute.getWireSize();
+                if(offset >= 0)
+                    offset = offset + size;
+                segmentOffset = segmentOffset + size;
+                fixedPart = fixedPart + size;
+            }
+            else
+            {
+                offset = -1;
+                segment++;
+                segmentOffset = 0;
+            }
+
+            minSize = minSize + anAttribute.getMinWireSize();
+            if(maxSize >= 0 && anAttribute.getMaxWireSize() >= 0)
+                maxSize = maxSize + anAttribute.getMaxWireSize();
+            else
+                maxSize = -1;
+        }
+
+        aClass.setWireAttributes(wireAttributes);
+        aClass.setFixedSize(segment == 0 ? offset : -1);
+        aClass.setFixedPartSize(fixedPart);
+        aClass.setMinSize(WireLayout.toSize(minSize));
+        aClass.setMaxSize(WireLayout.toSize(maxSize));
+        aClass.setSegmentCount(segment + 1);
+
+        inProgress.remove(aClass.getName());
+        done.add(aClass.getName());
+        return ok;
+    }
+
+    /**
+     * Works out the size of one attribute. wireAttributes holds the other attributes of the
+     * class, where the count field for a variable list can be found.
+     */
+    private boolean sizeAttribute(ClassAttribute anAttribute, List wireAttributes)
+    {
+        boolean ok = true;
+
+        // Size of a single value of the attribute's type: the whole attribute for
+        // primitives and class references, one element for lists.
+        int size = -1;
+        long min = 0;
+        long max = -1;
+
+        int primitive = WireLayout.primitiveSize(anAttribute.getType());
+        if(primitive >= 0 && anAttribute.getAttributeKind() != ClassAttribute.ClassAttributeType.CLASSREF)
+        {
+            size = primitive;
+            min = primitive;
+            max = primitive;
+        }
+        else
+        {
+            GeneratedClass refClass = (GeneratedClass)classes.get(anAttribute.getType());
+            if(refClass != null)
+            {
+                ok = this.layOut(refClass);
+                size = refClass.getFixedSize();
+                min = refClass.getMinSize();
+                max = refClass.getMaxSize();
+            }
+        }
+
+        switch(anAttribute.getAttributeKind())
+        {
+            case PRIMITIVE:
+            case CLASSREF:
+                anAttribute.setWireElementSize(-1);
+                break;
+
+            case FIXED_LIST:
+                anAttribute.setWireElementSize(size);
+                int length = anAttribute.getListLength();
+                size = size < 0 ? -1 : size * length;
+                min = min * length;
+                max = max < 0 ? -1 : max * length;
+                break;
+
+            case VARIABLE_LIST:
+                anAttribute.setWireElementSize(size);
+                long maxCount = -1;
+                ClassAttribute countField = WireLayout.findAttribute(wireAttributes, anAttribute.getCountFieldName());
+                if(countField != null)
+                    maxCount = WireLayout.maxCount(countField.getType());
+                size = -1;
+                min = 0;
+                if(maxCount < 0 || max < 0 || (max > 0 && maxCount > Integer.MAX_VALUE / max))
+                    max = -1;
+                else
+                    max = max * maxCount;
+                break;
+
+            default:
+                size = -1;
+                max = -1;
+        }
+
+        anAttribute.setWireSize(size);
+        anAttribute.setMinWireSize(WireLayout.toSize(min));
+        anAttribute.setMaxWireSize(WireLayout.toSize(max));
+        return ok;
+    }
+
+    private static ClassAttribute findAttribute(List attributes, String name)
+    {
+        if(name == null)
+            return null;
+
+        for(int idx = 0; idx < attributes.size(); idx++)
+        {
+            ClassAttribute anAttribute = (ClassAttribute)attributes.get(idx);
+            if(name.equals(anAttribute.getName()))
+                return anAttribute;
+        }
+        return null;
+    }
+
+    /** A size as an int, or -1 for unbounded or too big to be an int */
+    private static int toSize(long size)
+    {
+        if(size < 0 || size > Integer.MAX_VALUE)
+            return -1;
+        return (int)size;
+    }
+}
@@ -2,6 +2,7 @@ package edu.nps.moves.xmlpg;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.xml.parsers.*;
 import org.w3c.dom.*;
 import org.xml.sax.*;
@@ -30,8 +31,35 @@ public class Xmlpg
     /** Contains the database of all the classes described by the XML document */
     protected HashMap generatedClassNames = new HashMap();
     
-    /** The language types we generate */
-    public enum LanguageType {CPP, QTCPP, JAVA, CSHARP, OBJECTIVEC, JAVASCRIPT, PYTHON }
+    /** The language types we generate, and the names used for them on the command line */
+    public enum LanguageType 
+    {
+        CPP("cpp"), QTCPP("qtcpp"), JAVA("java"), CSHARP("csharp"), OBJECTIVEC("objc"), JAVASCRIPT("javascript"), PYTHON("python");
+        
+        /** Name of the language on the command line */
+        private final String argName;
+        
+        LanguageType(String pArgName)
+        {
+            argName = pArgName;
+        }
+        
+        public String getArgName()
+        {
+            return argName;
+        }
+        
+        /** Returns the language with the given command line name, or null if there is none */
+        public static LanguageType fromArgName(String name)
+        {
+            for(LanguageType aType : LanguageType.values())
+            {
+                if(aType.argName.equalsIgnoreCase(name.trim()))
+                    return aType;
+            }
+            return null;
+        }
+    }
     
     /** As we parse the XML document, this is the class we are currently working on */
     private GeneratedClass currentGeneratedClass = null;
@@ -90,139 +118,496 @@ public class Xmlpg
     /**
      * Create a new collection of Java objects by reading an XML file; these
      * java objects can be used to generate code templates of any language,
-     * once you write the translator.
+     * once you write the translator. languageToGenerate is one language name,
+     * a comma-separated list of them, or "all".
      */
     public Xmlpg(String xmlDescriptionFileName, 
                  String languageToGenerate)
     {
         // Which languages to generate
-//         boolean generateJava = false, generateCpp=false, generateQtCpp=false, generateCs=false, generateObjc=false, generatePython= false;
-        LanguageType toGenerate = null;
+        List toGenerate = Xmlpg.parseLanguages(languageToGenerate);
+        
+        File xmlFile = new File(xmlDescriptionFileName);
+        
+        // If a snapshot file is given with -Dxmlpg.snapshot=aFile, and it was made from this
+        // version of the XML file, use it rather than parsing the XML again.
+        String snapshotName = System.getProperty("xmlpg.snapshot");
+        File snapshotFile = null;
+        boolean loaded = false;
+        if(snapshotName != null)
+        {
+            snapshotFile = new File(snapshotName);
+            loaded = this.loadSnapshot(ModelSnapshot.load(snapshotFile, xmlFile));
+        }
 
-        if(languageToGenerate.equalsIgnoreCase("java"))
+        if(!loaded)
         {
-            toGenerate = Xmlpg.LanguageType.JAVA;
+            try
+            {
+                this.parseXml(xmlFile);
+            }
+            catch(Exception e)
+            {
+                System.out.println(e);
+            }
+                   
+            // This does at least a cursory santity check on the data that has been read in from XML
+            // It is far from complete.
+            if(!this.astIsPlausible())
+            {
+                System.out.println("The generated XML file is not internally consistent according to astIsPlausible()");
+                System.out.println("There are one or more errors in the XML file. See output for details.");
+                System.exit(1);
+            }
+            
+            if(snapshotFile != null)
+            {
+                this.saveSnapshot(snapshotFile, xmlFile);
+            }
         }
-        else if(languageToGenerate.equalsIgnoreCase("cpp"))
+        
+        this.computeLayout();
+        
+        this.generate(toGenerate);
+    }
+    
+    /**
+     * Reads and checks the XML file without generating anything, for programs that
+     * want to generate code themselves, for example into a MemorySink with
+     * generate(LanguageType, OutputSink).
+     */
+    public Xmlpg(File xmlFile) throws Exception
+    {
+        this.parseXml(xmlFile);
+        
+        if(!this.astIsPlausible())
+            throw new Exception("The XML file " + xmlFile + " is not internally consistent according to astIsPlausible(). See output for details.");
+        
+        this.computeLayout();
+    }
+    
+    /**
+     * Reads the XML file into generatedClassNames and the language properties, replacing
+     * anything read before.
+     */
+    protected void parseXml(File xmlFile) throws Exception
+    {
+        generatedClassNames = new HashMap();
+        javaProperties = new Properties();
+        cppProperties = new Properties();
+        qtCppProperties = new Properties();
+        csharpProperties = new Properties();
+        objcProperties = new Properties();
+        javascriptProperties = new Properties();
+        pythonProperties = new Properties();
+        currentGeneratedClass = null;
+        currentClassAttribute = null;
+        classCount = 0;
+        
+        DefaultHandler handler = new MyHandler();
+        
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setValidating(false);
+        factory.newSAXParser().parse(xmlFile, handler);
+    }
+    
+    /**
+     * Reads the XML file again, for example after it has been edited. If the file can't be
+     * parsed or fails astIsPlausible() the problem is reported, the previous class descriptions
+     * are kept, and false is returned.
+     */
+    protected boolean reparseXml(File xmlFile)
+    {
+        HashMap oldClasses = generatedClassNames;
+        Map oldProperties = this.languageProperties();
+        
+        boolean ok;
+        try
         {
-            toGenerate = Xmlpg.LanguageType.CPP;
+            this.parseXml(xmlFile);
+            ok = this.astIsPlausible();
+            if(!ok)
+                System.out.println("The XML file is not internally consistent according to astIsPlausible(). See output for details.");
         }
-        else if(languageToGenerate.equalsIgnoreCase("qtcpp"))
+        catch(Exception e)
         {
-            toGenerate = Xmlpg.LanguageType.QTCPP;
+            System.out.println("Could not parse " + xmlFile + " " + e);
+            ok = false;
         }
-        else if(languageToGenerate.equalsIgnoreCase("objc"))
+        
+        if(ok)
         {
-            toGenerate = Xmlpg.LanguageType.OBJECTIVEC;
+            this.computeLayout();
         }
-        else if(languageToGenerate.equalsIgnoreCase("csharp"))
+        else
         {
-            toGenerate = Xmlpg.LanguageType.CSHARP;
+            generatedClassNames = oldClasses;
+            javaProperties = (Properties)oldProperties.get(LanguageType.JAVA.getArgName());
+            cppProperties = (Properties)oldProperties.get(LanguageType.CPP.getArgName());
+            qtCppProperties = (Properties)oldProperties.get(LanguageType.QTCPP.getArgName());
+            csharpProperties = (Properties)oldProperties.get(LanguageType.CSHARP.getArgName());
+            objcProperties = (Properties)oldProperties.get(LanguageType.OBJECTIVEC.getArgName());
+            javascriptProperties = (Properties)oldProperties.get(LanguageType.JAVASCRIPT.getArgName());
+            pythonProperties = (Properties)oldProperties.get(LanguageType.PYTHON.getArgName());
         }
-        else if(languageToGenerate.equalsIgnoreCase("javascript"))
+        
+        return ok;
+    }
+    
+    /**
+     * Works out the marshalled sizes of the classes and the offsets of their attributes,
+     * for the generators to use. With -Dxmlpg.printLayout=true the layouts are printed.
+     */
+    protected void computeLayout()
+    {
+        WireLayout.annotate(generatedClassNames);
+        
+        if(Boolean.getBoolean("xmlpg.printLayout"))
         {
-            toGenerate = Xmlpg.LanguageType.JAVASCRIPT;
+            List names = new ArrayList(generatedClassNames.keySet());
+            Collections.sort(names);
+            for(int idx = 0; idx < names.size(); idx++)
+            {
+                System.out.print(WireLayout.describe((GeneratedClass)generatedClassNames.get(names.get(idx))));
+            }
         }
-        else if(languageToGenerate.equalsIgnoreCase("python"))
-            toGenerate = Xmlpg.LanguageType.PYTHON;
-
-        Properties sourceGenerationOptions = new Properties();
-
+    }
+    
+    /** The class descriptions, key = class name, value = GeneratedClass */
+    public HashMap getGeneratedClasses()
+    {
+        return generatedClassNames;
+    }
+    
+    /**
+     * The language-specific properties read from the XML file, keyed by the name of the
+     * language's XML element (java, cpp, ...)
+     */
+    protected Map languageProperties()
+    {
+        Map props = new HashMap();
+        props.put(LanguageType.JAVA.getArgName(), javaProperties);
+        props.put(LanguageType.CPP.getArgName(), cppProperties);
+        props.put(LanguageType.QTCPP.getArgName(), qtCppProperties);
+        props.put(LanguageType.CSHARP.getArgName(), csharpProperties);
+        props.put(LanguageType.OBJECTIVEC.getArgName(), objcProperties);
+        props.put(LanguageType.JAVASCRIPT.getArgName(), javascriptProperties);
+        props.put(LanguageType.PYTHON.getArgName(), pythonProperties);
+        return props;
+    }
+    
+    /**
+     * Takes the class descriptions and language properties from a snapshot rather than the
+     * XML file. Returns false, and changes nothing, if the snapshot is null.
+     */
+    protected boolean loadSnapshot(ModelSnapshot snapshot)
+    {
+        if(snapshot == null)
+            return false;
+        
+        generatedClassNames = snapshot.getClasses();
+        
+        Map props = this.languageProperties();
+        Iterator it = props.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)it.next();
+            ((Properties)entry.getValue()).putAll(snapshot.getLanguageProperties((String)entry.getKey()));
+        }
+        
+        System.out.println("Using snapshot of " + generatedClassNames.size() + " classes");
+        return true;
+    }
+    
+    /**
+     * Saves the parsed and checked class descriptions so that the next run can skip the XML.
+     * Failing to save the snapshot is reported but does not stop code generation.
+     */
+    protected void saveSnapshot(File snapshotFile, File xmlFile)
+    {
         try
         {
-            DefaultHandler handler = new MyHandler();
-            
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            factory.setValidating(false);
-            factory.newSAXParser().parse(new File(xmlDescriptionFileName), handler);
+            ModelSnapshot snapshot = new ModelSnapshot(ModelSnapshot.sourceKey(xmlFile), generatedClassNames, this.languageProperties());
+            snapshot.write(snapshotFile);
         }
-        catch(Exception e)
+        catch(IOException e)
         {
-            System.out.println(e);
+            System.out.println("Could not write snapshot " + snapshotFile + " " + e);
         }
-               
-        // This does at least a cursory santity check on the data that has been read in from XML
-        // It is far from complete.
-        if(!this.astIsPlausible())
+    }
+    
+    /**
+     * Creates the generator object for one language. All the generators share the
+     * same class descriptions. Each gets its own copy of the language properties, since
+     * the generators add command line settings to them; the properties read from the XML
+     * file stay as they were.
+     */
+    protected Generator createGenerator(LanguageType language)
+    {
+        switch(language)
         {
-            System.out.println("The generated XML file is not internally consistent according to astIsPlausible()");
-            System.out.println("There are one or more errors in the XML file. See output for details.");
-            System.exit(1);
+            case JAVA:
+                return new JavaGenerator(generatedClassNames, copyOf(javaProperties));
+            case CPP:
+                return new CppGenerator(generatedClassNames, copyOf(cppProperties));
+            case QTCPP:
+                return new QtCppGenerator(generatedClassNames, copyOf(qtCppProperties));
+            case CSHARP:
+                return new CsharpGenerator(generatedClassNames, copyOf(csharpProperties));
+            case OBJECTIVEC:
+                return new ObjcGenerator(generatedClassNames, copyOf(objcProperties));
+            case JAVASCRIPT:
+                return new JavascriptGenerator(generatedClassNames, copyOf(javascriptProperties));
+            case PYTHON:
+                return new PythonGenerator(generatedClassNames, copyOf(pythonProperties));
+            default:
+                return null;
         }
+    }
+    
+    private static Properties copyOf(Properties props)
+    {
+        Properties copy = new Properties();
+        copy.putAll(props);
+        return copy;
+    }
+    
+    /**
+     * Writes out the source code for each of the languages in the list. The class descriptions
+     * are parsed once and are only read by the generators, so when there is more than one
+     * language the generators run at the same time, one thread each.<p>
+     *
+     * If the output directory is given on the command line with -Dxmlpg.generatedSourceDir
+     * and more than one language is generated, each language goes in a subdirectory named
+     * after the language (java, cpp, ...) so that, for example, the C++ and Objective-C
+     * header files don't overwrite each other.
+     */
+    protected void generate(List languages)
+    {
+        this.generate(languages, null);
+    }
+    
+    /**
+     * Generates the source code for one language into an output sink rather than to disk.
+     * The file paths in the sink are relative to the language's output directory. The sink
+     * is not closed.
+     */
+    public void generate(LanguageType language, OutputSink sink)
+    {
+        Generator aGenerator = this.createGenerator(language);
+        aGenerator.setOutputSink(sink);
+        aGenerator.writeClasses();
+    }
+    
+    /**
+     * Writes out the source code for only the named classes, in each of the languages in
+     * the list. If classNames is null all the classes are written.
+     */
+    protected void generate(List languages, final Collection classNames)
+    {
+        String clDirectory = System.getProperty("xmlpg.generatedSourceDir");
         
-        //System.out.println("putting java files in " + javaDirectory);
+        // The generator constructors read properties and may exit on bad input, so create them
+        // all before any starts writing.
+        final List generators = new ArrayList();
+        for(int idx = 0; idx < languages.size(); idx++)
+        {
+            LanguageType language = (LanguageType)languages.get(idx);
+            Generator aGenerator = this.createGenerator(language);
+            
+            if(clDirectory != null && languages.size() > 1)
+            {
+                aGenerator.setDirectory(clDirectory + "/" + language.getArgName());
+            }
+            generators.add(aGenerator);
+        }
         
-        // Create a new generator object to write out the source code for all the classes in java
-        if(toGenerate == Xmlpg.LanguageType.JAVA)
+        // With -Dxmlpg.outputArchive=aFile.zip (or .jar) everything goes into one archive file,
+        // each language under its own directory if there is more than one.
+        String clArchive = System.getProperty("xmlpg.outputArchive");
+        ZipSink archive = null;
+        if(clArchive != null)
         {
-            JavaGenerator javaGenerator = new JavaGenerator(generatedClassNames, javaProperties );
-            javaGenerator.writeClasses();
+            try
+            {
+                archive = new ZipSink(new File(clArchive));
+            }
+            catch(IOException e)
+            {
+                System.out.println("Could not create " + clArchive + " " + e);
+                return;
+            }
+            
+            for(int idx = 0; idx < generators.size(); idx++)
+            {
+                OutputSink sink = archive;
+                if(generators.size() > 1)
+                    sink = Xmlpg.prefixedSink(archive, ((LanguageType)languages.get(idx)).getArgName() + "/");
+                ((Generator)generators.get(idx)).setOutputSink(sink);
+            }
         }
         
-        // Use the same information to generate classes in C++
-        if(toGenerate == Xmlpg.LanguageType.CPP)
+        if(generators.size() == 1)
+        {
+            Xmlpg.writeClasses((Generator)generators.get(0), classNames);
+        }
+        else
         {
-            CppGenerator cppGenerator = new CppGenerator(generatedClassNames, cppProperties);
-            cppGenerator.writeClasses();
+            Xmlpg.runGenerators(generators, languages, classNames);
         }
         
-        // Use the same information to generate classes in C++
-        if(toGenerate == Xmlpg.LanguageType.QTCPP)
+        if(archive != null)
         {
-            QtCppGenerator qtCppGenerator = new QtCppGenerator(generatedClassNames, qtCppProperties);
-            qtCppGenerator.writeClasses();
+            try
+            {
+                archive.close();
+            }
+            catch(IOException e)
+            {
+                System.out.println("error writing " + clArchive + " " + e);
+            }
         }
+    }
+    
+    /**
+     * Runs the generators at the same time, one thread each, and waits for them all to finish
+     */
+    private static void runGenerators(List generators, List languages, final Collection classNames)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(generators.size());
+        List results = new ArrayList();
         
-        if(toGenerate == Xmlpg.LanguageType.CSHARP)
+        for(int idx = 0; idx < generators.size(); idx++)
         {
-            // Create a new generator object to write out the source code for all the classes in csharp
-            CsharpGenerator csharpGenerator = new CsharpGenerator(generatedClassNames, csharpProperties);
-            csharpGenerator.writeClasses();
+            final Generator aGenerator = (Generator)generators.get(idx);
+            results.add(executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    Xmlpg.writeClasses(aGenerator, classNames);
+                }
+            }));
         }
-
-        if(toGenerate == Xmlpg.LanguageType.OBJECTIVEC)
+        
+        for(int idx = 0; idx < results.size(); idx++)
+        {
+            try
+            {
+                ((Future)results.get(idx)).get();
+            }
+            catch(ExecutionException e)
+            {
+                System.out.println("error generating " + languages.get(idx) + " source code " + e.getCause());
+            }
+            catch(InterruptedException e)
+            {
+                System.out.println(e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        executor.shutdown();
+    }
+    
+    /**
+     * A sink that puts the files below a directory in another sink
+     */
+    private static OutputSink prefixedSink(final OutputSink sink, final String prefix)
+    {
+        return new OutputSink()
         {
-            // create a new generator object for objc
-            ObjcGenerator objcGenerator = new ObjcGenerator(generatedClassNames, objcProperties);
-            objcGenerator.writeClasses();
+            public boolean write(String path, byte[] contents) throws IOException
+            {
+                return sink.write(prefix + path, contents);
+            }
+            
+            public void close()
+            {
+            }
+        };
+    }
+    
+    private static void writeClasses(Generator aGenerator, Collection classNames)
+    {
+        if(classNames == null)
+        {
+            aGenerator.writeClasses();
+            return;
         }
         
-        if(toGenerate == Xmlpg.LanguageType.JAVASCRIPT)
+        // Files shared by all the classes are still written; don't touch them unless they changed
+        aGenerator.setIncremental(true);
+        aGenerator.writeClasses(classNames);
+    }
+    
+    /**
+     * Converts a language argument--a single language, a comma-separated list of languages,
+     * or "all"--to a list of LanguageTypes. Unknown names are skipped; preflightArgs()
+     * reports them.
+     */
+    public static List parseLanguages(String languageArg)
+    {
+        List languages = new ArrayList();
+        
+        if(languageArg.trim().equalsIgnoreCase("all"))
         {
-            // create a new generator object for javascript
-            JavascriptGenerator javascriptGenerator = new JavascriptGenerator(generatedClassNames, javascriptProperties);
-            javascriptGenerator.writeClasses();
+            languages.addAll(Arrays.asList(LanguageType.values()));
+            return languages;
         }
         
-        if(toGenerate == Xmlpg.LanguageType.PYTHON)
+        StringTokenizer tokenizer = new StringTokenizer(languageArg, ", ");
+        while(tokenizer.hasMoreTokens())
         {
-            // create a new generator object for Python
-            PythonGenerator pythonGenerator = new PythonGenerator(generatedClassNames, pythonProperties);
-            pythonGenerator.writeClasses();
+            LanguageType aType = LanguageType.fromArgName(tokenizer.nextToken());
+            if(aType != null && !languages.contains(aType))
+                languages.add(aType);
         }
+        
+        return languages;
     }
     
     /**
-     * entry point. Pass in two arguments, the language you want to generate for and the XML file
-     * that describes the classes
+     * entry point. Pass in two arguments, the XML file that describes the classes and the
+     * language(s) you want to generate for. Several languages can be given, separated by commas
+     * or as separate arguments, or "all" for every language; the XML file is parsed only once.
      */
     public static void main(String args[])
     {
-        if(args.length < 2 || args.length > 2)
+        if(args.length < 2)
         {
-            System.out.println("Usage: Xmlpg xmlFile language"); 
-            System.out.println("Allowable languages are java, cpp, qtcpp, objc, python, and csharp");
+            System.out.println("Usage: Xmlpg xmlFile language[,language...]|all"); 
+            System.out.println("Allowable languages are java, cpp, qtcpp, objc, javascript, python, and csharp");
             System.exit(0);
         }
         
-        Xmlpg.preflightArgs(args[0], args[1]);
+        // Languages may be given as one comma-separated argument or as several arguments
+        String languages = args[1];
+        for(int idx = 2; idx < args.length; idx++)
+        {
+            languages = languages + "," + args[idx];
+        }
+        
+        Xmlpg.preflightArgs(args[0], languages);
+        
+        Xmlpg xmlpg = new Xmlpg(args[0], languages);
         
-        new Xmlpg(args[0], args[1]);   
+        // With -Dxmlpg.watch=true, keep running and regenerate whenever the XML file changes
+        if(Boolean.getBoolean("xmlpg.watch"))
+        {
+            try
+            {
+                new ModelWatcher(xmlpg, new File(args[0]), Xmlpg.parseLanguages(languages)).watch();
+            }
+            catch(Exception e)
+            {
+                System.out.println("Stopped watching " + args[0] + " " + e);
+            }
+        }
     } // end of main
     
     /** 
      * Does a sanity check on the args passed in: does the XML file exist, and is
-     * the language valid.
+     * each language valid.
      */
     public static void preflightArgs(String xmlFile, String language)
     {
@@ -231,27 +616,39 @@ public class Xmlpg
             FileInputStream fis = new FileInputStream(xmlFile);
             fis.close();
             
-            if(!(language.equalsIgnoreCase("java") || language.equalsIgnoreCase("cpp") ||
-               language.equalsIgnoreCase("objc") || language.equalsIgnoreCase("csharp") ||
-               language.equalsIgnoreCase("javascript") || language.equalsIgnoreCase("python") ||
-							 language.equalsIgnoreCase("qtcpp")))
+            boolean valid = !language.trim().isEmpty();
+            if(!language.trim().equalsIgnoreCase("all"))
+            {
+                StringTokenizer tokenizer = new StringTokenizer(language, ", ");
+                while(tokenizer.hasMoreTokens())
+                {
+                    String aLanguage = tokenizer.nextToken();
+                    if(LanguageType.fromArgName(aLanguage) == null)
+                    {
+                        System.out.println(aLanguage + " is not a valid language to generate.");
+                        valid = false;
+                    }
+                }
+            }
+            
+            if(!valid)
             {
-                System.out.println("Not a valid language to generate. The options are java, cpp, objc, javascript, python and csharp");
-                System.out.println("Usage: Xmlpg xmlFile language"); 
+                System.out.println("Not a valid language to generate. The options are java, cpp, qtcpp, objc, javascript, python and csharp, or all");
+                System.out.println("Usage: Xmlpg xmlFile language[,language...]|all"); 
                 System.exit(0);
             }
         }
         catch (FileNotFoundException fnfe) 
         {
             System.out.println("XML file " + xmlFile + " not found. Please check the path and try again");
-            System.out.println("Usage: Xmlpg xmlFile language"); 
+            System.out.println("Usage: Xmlpg xmlFile language[,language...]|all"); 
             System.exit(0);
         }
         catch(Exception e)
         {
             System.out.println("Problem with arguments to Xmlpg. Please check them.");
-            System.out.println("Usage: Xmlpg xmlFile language"); 
-
+            System.out.println("Usage: Xmlpg xmlFile language[,language...]|all"); 
+ 
             System.exit(0);
         }
         
@@ -270,7 +667,7 @@ public class Xmlpg
      * AST is a reference to "abstract syntax tree", which this really isn't, but
      * sort of is.
      */
-    private boolean astIsPlausible()
+    protected boolean astIsPlausible()
     {
         
         // Create a list of primitive types we can use to check against
@@ -649,8 +1046,20 @@ public class Xmlpg
                 }
             }
             
+            // <list type="variable" ...> and <list type="fixed" ...> are the same as variablelist
+            // and fixedlist, and are what DIS2012.xml uses.
+            String listElement = qName;
+            if(qName.compareToIgnoreCase("list") == 0)
+            {
+                listElement = attributes.getValue("type") + "list";
+                if(listElement.compareToIgnoreCase("variablelist") != 0 && listElement.compareToIgnoreCase("fixedlist") != 0)
+                {
+                    System.out.println("A list element needs type=\"fixed\" or type=\"variable\", found " + attributes.getValue("type"));
+                }
+            }
+            
             // A variable lenght list attribute (a list of some sort).
-            if(qName.compareToIgnoreCase("variablelist") == 0)
+            if(listElement.compareToIgnoreCase("variablelist") == 0)
             {
                 currentClassAttribute.setAttributeKind(ClassAttribute.ClassAttributeType.VARIABLE_LIST);
                 for(int idx = 0; idx < attributes.getLength(); idx++)
@@ -692,7 +1101,7 @@ public class Xmlpg
                 
             
             // A list element, of either fixed length (generally an array) or variable length (a list of some sort).
-            if(qName.compareToIgnoreCase("fixedlist") == 0)
+            if(listElement.compareToIgnoreCase("fixedlist") == 0)
             {
                 currentClassAttribute.setAttributeKind(ClassAttribute.ClassAttributeType.FIXED_LIST);
                 
@@ -0,0 +1,61 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.*;
+import java.util.zip.*;
+
+/**
+ * Writes the generated files into a single zip file, or a jar file if the file
+ * name ends in .jar. The archive is complete once close() has been called.
+ *
+ * @author DMcG
+ */
+public class ZipSink implements OutputSink
+{
+    /** The archive being written */
+    private ZipOutputStream zos;
+
+    /** Names already in the archive; a zip can't hold two entries with the same name */
+    private Set entryNames = new HashSet();
+
+    public ZipSink(File zipFile) throws IOException
+    {
+        File parent = zipFile.getAbsoluteFile().getParentFile();
+        if(parent != null)
+            parent.mkdirs();
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(zipFile));
+        if(zipFile.getName().endsWith(".jar"))
+        {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            zos = new JarOutputStream(os, manifest);
+        }
+        else
+        {
+            zos = new ZipOutputStream(os);
+        }
+    }
+
+    public ZipSink(OutputStream os)
+    {
+        zos = new ZipOutputStream(os);
+    }
+
+    public synchronized boolean write(String path, byte[] contents) throws IOException
+    {
+        if(!entryNames.add(path))
+            throw new IOException("duplicate entry " + path);
+
+        zos.putNextEntry(new ZipEntry(path));
+        zos.write(contents);
+        zos.closeEntry();
+        return true;
+    }
+
+    public synchronized void close() throws IOException
+    {
+        zos.close();
+    }
+}
@@ -0,0 +1,94 @@
+package edu.nps.moves.dis;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * A PDU unmarshalled from a DataInputStream, a heap ByteBuffer or a direct ByteBuffer gets
+ * the same field values, including unsigned fields and arrays with the high bit set, and
+ * each marshals back to the bytes it came from.
+ */
+public class CodecCheck
+{
+    public static void main(String args[])
+    {
+        List<Pdu> pdus = CodecCheck.highBitPdus();
+        for(int idx = 0; idx < pdus.size(); idx++)
+        {
+            Pdu pdu = pdus.get(idx);
+            byte[] data = pdu.marshal();
+
+            Pdu fromBuffer = CodecCheck.newPdu(pdu);
+            fromBuffer.unmarshal(ByteBuffer.wrap(data));
+
+            Pdu fromStream = CodecCheck.newPdu(pdu);
+            fromStream.unmarshal(new DataInputStream(new ByteArrayInputStream(data)));
+            CodecCheck.compare("DataInputStream", fromStream, fromBuffer, data);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data);
+            direct.flip();
+            Pdu fromDirect = CodecCheck.newPdu(pdu);
+            fromDirect.unmarshal(direct);
+            CodecCheck.compare("direct ByteBuffer", fromDirect, fromBuffer, data);
+        }
+
+        EntityStatePdu espdu = new EntityStatePdu();
+        espdu.unmarshal(ByteBuffer.wrap(pdus.get(0).marshal()));
+        if(espdu.getEntityAppearance() != (long)(int)0x80000001L)
+            throw new RuntimeException("entityAppearance 0x80000001 unmarshalled as " + Long.toHexString(espdu.getEntityAppearance()));
+    }
+
+    /**
+     * PDUs with unsigned fields, and unsigned arrays, whose high bit is set. The first is
+     * an EntityStatePdu whose entityAppearance is 0x80000001.
+     */
+    public static List<Pdu> highBitPdus()
+    {
+        List<Pdu> pdus = new ArrayList<Pdu>();
+
+        EntityStatePdu espdu = new EntityStatePdu();
+        espdu.setExerciseID((short)200);
+        espdu.setTimestamp(0x80000000L);
+        espdu.getEntityID().setEntityID(65000);
+        espdu.setEntityAppearance(0x80000001L);
+        espdu.setCapabilities(0xFFFFFFFFL);
+        short parameters[] = espdu.getDeadReckoningParameters().getParameters();
+        for(int idx = 0; idx < parameters.length; idx++)
+        {
+            parameters[idx] = (short)(0xF0 + idx);
+        }
+        VariableParameter parameter = new VariableParameter();
+        parameter.setRecordType((short)0xFE);
+        parameter.setVariableParameterFields2(0xFFFFFFF0L);
+        parameter.setVariableParameterFields3(0x8001);
+        parameter.setVariableParameterFields4((short)0x81);
+        espdu.getVariableParameters().add(parameter);
+        espdu.getVariableParameters().add(new VariableParameter());
+        pdus.add(espdu);
+
+        FirePdu fire = new FirePdu();
+        fire.setTimestamp(0xFFFFFFFFL);
+        fire.setFireMissionIndex(0x80000002L);
+        pdus.add(fire);
+
+        return pdus;
+    }
+
+    /** A new PDU of the same type as pdu */
+    public static Pdu newPdu(Pdu pdu)
+    {
+        return (Pdu)new PduFactory().createPdu(pdu.getPduType());
+    }
+
+    /** Throws if decoded doesn't equal expected, or doesn't marshal back to data */
+    public static void compare(String codec, Pdu decoded, Pdu expected, byte[] data)
+    {
+        String name = expected.getClass().getName();
+        if(!decoded.equals(expected))
+            throw new RuntimeException(name + " unmarshalled from a " + codec + " differs from one unmarshalled from a ByteBuffer");
+        if(!Arrays.equals(decoded.marshal(), data))
+            throw new RuntimeException(name + " unmarshalled from a " + codec + " marshals to different bytes");
+    }
+}
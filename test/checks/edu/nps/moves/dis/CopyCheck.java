@@ -0,0 +1,67 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * deepCopy() and copyFrom() give an equal object with the same hashCode() that shares
+ * no contained objects, lists or primitive arrays with the original, and equals() tells
+ * apart objects that differ only in the high bit of an unsigned field or array element.
+ */
+public class CopyCheck
+{
+    public static void main(String args[])
+    {
+        EntityStatePdu original = new EntityStatePdu();
+        original.unmarshal(ByteBuffer.wrap(CodecCheck.highBitPdus().get(0).marshal()));
+        byte[] data = original.marshal();
+
+        EntityStatePdu copy = original.deepCopy();
+        CopyCheck.checkCopy("deepCopy()", copy, original, data);
+
+        // copyFrom() into an object whose list is longer, and one from the pool
+        EntityStatePdu target = new EntityStatePdu();
+        for(int idx = 0; idx < 4; idx++)
+        {
+            target.getVariableParameters().add(new VariableParameter());
+        }
+        target.copyFrom(original);
+        CopyCheck.checkCopy("copyFrom()", target, original, data);
+
+        EntityStatePdu pooled = EntityStatePdu.acquire();
+        pooled.copyFrom(original);
+        CopyCheck.checkCopy("copyFrom() into a pooled object", pooled, original, data);
+        pooled.release();
+
+        // Changes to the copy leave the original alone
+        copy.getDeadReckoningParameters().getParameters()[0] = 0x01;
+        copy.getVariableParameters().get(0).setVariableParameterFields2(1);
+        copy.getEntityID().setEntityID(1);
+        if(!Arrays.equals(original.marshal(), data))
+            throw new RuntimeException("Changing the deep copy changed the original");
+
+        // Objects that differ only in a high bit are not equal
+        EntityStatePdu lowBit = original.deepCopy();
+        lowBit.setEntityAppearance(original.getEntityAppearance() & 0x7FFFFFFFL);
+        if(lowBit.equals(original))
+            throw new RuntimeException("equals() ignored the high bit of entityAppearance");
+        lowBit = original.deepCopy();
+        lowBit.getDeadReckoningParameters().getParameters()[1] = (short)(original.getDeadReckoningParameters().getParameters()[1] & 0x7F);
+        if(lowBit.equals(original))
+            throw new RuntimeException("equals() ignored the high bit of a deadReckoningParameters parameter");
+    }
+
+    private static void checkCopy(String how, EntityStatePdu copy, EntityStatePdu original, byte[] data)
+    {
+        if(!copy.equals(original) || !original.equals(copy))
+            throw new RuntimeException("The object made by " + how + " is not equal to the original");
+        if(copy.hashCode() != original.hashCode())
+            throw new RuntimeException("The object made by " + how + " has a different hashCode()");
+        if(!Arrays.equals(copy.marshal(), data))
+            throw new RuntimeException("The object made by " + how + " marshals to different bytes");
+        if(copy.getEntityID() == original.getEntityID() || copy.getVariableParameters() == original.getVariableParameters()
+                || copy.getVariableParameters().get(0) == original.getVariableParameters().get(0)
+                || copy.getDeadReckoningParameters().getParameters() == original.getDeadReckoningParameters().getParameters())
+            throw new RuntimeException("The object made by " + how + " shares objects with the original");
+    }
+}
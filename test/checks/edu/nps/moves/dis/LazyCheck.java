@@ -0,0 +1,58 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * With lazy decoding, a list's count and the object's marshalled size are read from the
+ * buffer without decoding the fields unmarshal(ByteBuffer) skipped, and the object marshals
+ * back to the same bytes once they are decoded.
+ */
+public class LazyCheck
+{
+    public static void main(String args[])
+    {
+        EntityStatePdu espdu = new EntityStatePdu();
+        espdu.getEntityID().setEntityID(77);
+        espdu.getVariableParameters().add(new VariableParameter());
+        espdu.getVariableParameters().add(new VariableParameter());
+        espdu.getVariableParameters().add(new VariableParameter());
+        byte[] data = LazyCheck.bytes(espdu);
+
+        EntityStatePdu lazy = new EntityStatePdu();
+        lazy.unmarshal(ByteBuffer.wrap(data));
+        if(lazy.getNumberOfVariableParameters() != 3)
+            throw new RuntimeException("getNumberOfVariableParameters() is " + lazy.getNumberOfVariableParameters() + ", not 3");
+        if(lazy.getMarshalledSize() != data.length)
+            throw new RuntimeException("getMarshalledSize() is " + lazy.getMarshalledSize() + ", not " + data.length);
+        if(lazy.variableParametersAt < 0 || lazy.entityIDAt < 0)
+            throw new RuntimeException("Reading the count or the size decoded the skipped fields");
+        if(!Arrays.equals(LazyCheck.bytes(lazy), data))
+            throw new RuntimeException("The decoded EntityStatePdu marshals to different bytes");
+
+        // Elements that vary in size are measured one at a time
+        DirectedEnergyFirePdu fire = new DirectedEnergyFirePdu();
+        StandardVariableSpecification record = new StandardVariableSpecification();
+        record.getStandardVariables().add(new SimulationManagementPduHeader());
+        record.getStandardVariables().add(new SimulationManagementPduHeader());
+        fire.getDERecords().add(record);
+        fire.getDERecords().add(new StandardVariableSpecification());
+        data = LazyCheck.bytes(fire);
+
+        DirectedEnergyFirePdu lazyFire = new DirectedEnergyFirePdu();
+        lazyFire.unmarshal(ByteBuffer.wrap(data));
+        if(lazyFire.getMarshalledSize() != data.length)
+            throw new RuntimeException("DirectedEnergyFirePdu getMarshalledSize() is " + lazyFire.getMarshalledSize() + ", not " + data.length);
+        if(lazyFire.dERecordsAt < 0)
+            throw new RuntimeException("getMarshalledSize() decoded dERecords");
+        if(lazyFire.getDERecords().get(0).getStandardVariables().size() != 2)
+            throw new RuntimeException("dERecords decoded wrongly");
+    }
+
+    private static byte[] bytes(Pdu pdu)
+    {
+        ByteBuffer buff = ByteBuffer.allocate(pdu.getMarshalledSize());
+        pdu.marshal(buff);
+        return buff.array();
+    }
+}
@@ -0,0 +1,70 @@
+package edu.nps.moves.dis;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * PduBatchWriter packs PDUs back to back exactly as marshal() writes them, and its
+ * container form matches a marshalled PduContainer.
+ */
+public class PduBatchWriterCheck
+{
+    public static void main(String args[]) throws IOException
+    {
+        PduBatchWriter writer = new PduBatchWriter(16, true);
+        List<Pdu> pdus = new ArrayList<Pdu>();
+        for(int idx = 0; idx < 300; idx++)
+        {
+            Pdu pdu = idx % 3 == 0 ? new EntityStatePdu() : (idx % 3 == 1 ? (Pdu)new FirePdu() : new DirectedEnergyFirePdu());
+            pdu.setExerciseID((short)(idx & 0x7f));
+            pdus.add(pdu);
+            if(writer.add(pdu) != idx)
+                throw new RuntimeException("add() returned the wrong index for PDU " + idx);
+        }
+
+        ByteBuffer batch = writer.getBatch();
+        int offset = 0;
+        for(int idx = 0; idx < pdus.size(); idx++)
+        {
+            byte[] expected = pdus.get(idx).marshal();
+            if(writer.getPduOffset(idx) != offset || writer.getPduLength(idx) != expected.length)
+                throw new RuntimeException("wrong bounds for PDU " + idx);
+            for(int jdx = 0; jdx < expected.length; jdx++)
+            {
+                if(batch.get(offset + jdx) != expected[jdx])
+                    throw new RuntimeException("wrong bytes in PDU " + idx);
+            }
+            offset = offset + expected.length;
+        }
+        if(offset != writer.getSize())
+            throw new RuntimeException("getSize() is " + writer.getSize() + ", not " + offset);
+
+        PduContainer container = new PduContainer();
+        container.setPdus(pdus);
+        container.setNumberOfPdus(pdus.size());
+        ByteBuffer fromWriter = ByteBuffer.allocate(writer.getContainerSize());
+        writer.marshalContainer(fromWriter);
+        ByteBuffer fromContainer = ByteBuffer.allocate(container.getMarshalledSize());
+        container.marshal(fromContainer);
+        if(!Arrays.equals(fromWriter.array(), fromContainer.array()))
+            throw new RuntimeException("marshalContainer() differs from PduContainer.marshal()");
+
+        PduBatchWriter copy = new PduBatchWriter();
+        copy.addAll(container);
+        if(!copy.getBatch().equals(writer.getBatch()))
+            throw new RuntimeException("addAll() differs from adding each PDU");
+
+        File file = File.createTempFile("batch", ".bin");
+        file.deleteOnExit();
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        if(writer.writeTo(channel) != writer.getSize() || channel.size() != writer.getSize())
+            throw new RuntimeException("writeTo() did not write the whole batch");
+        channel.close();
+
+        writer.clear();
+        if(writer.getPduCount() != 0 || writer.getSize() != 0)
+            throw new RuntimeException("clear() left PDUs in the batch");
+    }
+}
@@ -0,0 +1,130 @@
+package edu.nps.moves.dis;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * PduCaptureReader finds what PduCaptureWriter recorded by time, pduType and entity,
+ * including after the writer is reopened and after a partly written index record.
+ */
+public class PduCaptureCheck
+{
+    public static void main(String args[]) throws IOException
+    {
+        File dataFile = File.createTempFile("capture", ".bin");
+        File indexFile = File.createTempFile("capture", ".idx");
+        dataFile.deleteOnExit();
+        indexFile.deleteOnExit();
+
+        EntityID firing = PduCaptureCheck.entity(7);
+        List<byte[]> expected = new ArrayList<byte[]>();
+        PduCaptureWriter writer = new PduCaptureWriter(dataFile, indexFile);
+        for(int idx = 0; idx < 6000; idx++)
+        {
+            if(idx == 4000)
+            {
+                writer.close();
+                writer = new PduCaptureWriter(dataFile, indexFile);
+                if(writer.getRecordCount() != 4000)
+                    throw new RuntimeException("the reopened writer has " + writer.getRecordCount() + " records, not 4000");
+            }
+
+            Pdu pdu;
+            if(idx % 3 == 0)
+            {
+                EntityStatePdu espdu = new EntityStatePdu();
+                espdu.setEntityID(PduCaptureCheck.entity(idx % 50));
+                pdu = espdu;
+            }
+            else if(idx % 3 == 1)
+            {
+                FirePdu fire = new FirePdu();
+                fire.setFiringEntityID(firing);
+                pdu = fire;
+            }
+            else
+                pdu = new DirectedEnergyFirePdu();
+            expected.add(pdu.marshal());
+
+            int record = idx % 2 == 0 ? writer.add(pdu, idx) : writer.add(ByteBuffer.wrap(pdu.marshal()), idx);
+            if(record != idx)
+                throw new RuntimeException("add() returned record " + record + ", not " + idx);
+        }
+        writer.close();
+
+        // What a writer stopped part way through a record leaves behind
+        FileOutputStream out = new FileOutputStream(indexFile, true);
+        out.write(new byte[10]);
+        out.close();
+
+        PduCaptureReader reader = new PduCaptureReader(dataFile, indexFile);
+        if(reader.getRecordCount() != 6000 || !reader.isTimeOrdered())
+            throw new RuntimeException("the reader found " + reader.getRecordCount() + " records");
+
+        int[] found = reader.find(PduCaptureCheck.entity(42), 1, 1000, 3000);
+        int count = 0;
+        for(int idx = 1000; idx <= 3000; idx++)
+        {
+            if(idx % 3 == 0 && idx % 50 == 42 && (count >= found.length || found[count++] != idx))
+                throw new RuntimeException("find() by entity missed record " + idx);
+        }
+        if(count != found.length)
+            throw new RuntimeException("find() by entity returned " + found.length + " records, not " + count);
+        for(int idx = 0; idx < found.length; idx++)
+        {
+            Pdu pdu = (Pdu)reader.read(found[idx]);
+            if(!(pdu instanceof EntityStatePdu) || !Arrays.equals(pdu.marshal(), expected.get(found[idx])))
+                throw new RuntimeException("read() got the wrong PDU for record " + found[idx]);
+        }
+
+        // Fire PDUs have no entityID field, and are indexed by the entity firing
+        if(reader.find(firing, 2, 0, 5999).length != 2000)
+            throw new RuntimeException("find() by firing entity returned " + reader.find(firing, 2, 0, 5999).length + " records, not 2000");
+
+        int[] fires = reader.find(2, 100, 199);
+        if(fires.length != 34)
+            throw new RuntimeException("find() by pduType returned " + fires.length + " records, not 34");
+        if(reader.find(3, 0, 5999).length != 0 || reader.find(PduCaptureCheck.entity(99), PduCaptureReader.ANY_PDU_TYPE, 0, 5999).length != 0)
+            throw new RuntimeException("find() returned records for a pduType or entity with none");
+        if(reader.find(0, 5999).length != 6000 || reader.find(PduCaptureReader.ANY_PDU_TYPE, 5, 5)[0] != 5)
+            throw new RuntimeException("find() by time returned the wrong records");
+
+        // Out of order, as a query result might be used
+        for(int record = 5999; record >= 0; record = record - 89)
+        {
+            ByteBuffer frame = reader.getFrame(record);
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            if(!Arrays.equals(bytes, expected.get(record)))
+                throw new RuntimeException("getFrame() got the wrong bytes for record " + record);
+        }
+        reader.close();
+
+        // Without a time, add() uses the time the PDU was captured
+        writer = new PduCaptureWriter(dataFile, indexFile);
+        long before = System.currentTimeMillis();
+        FirePdu late = new FirePdu();
+        late.setTimestamp(5);
+        int record = writer.add(late);
+        long after = System.currentTimeMillis();
+        writer.add(new FirePdu(), 3);
+        writer.close();
+
+        reader = new PduCaptureReader(dataFile, indexFile);
+        if(reader.getTime(record) < before || reader.getTime(record) > after)
+            throw new RuntimeException("add() without a time recorded " + reader.getTime(record) + ", not the current time");
+        if(reader.isTimeOrdered() || reader.find(2, 3, 3).length != 1 || reader.find(2, 3, 3)[0] != 6001)
+            throw new RuntimeException("find() got a capture whose times go backwards wrong");
+        reader.close();
+    }
+
+    public static EntityID entity(int number)
+    {
+        EntityID id = new EntityID();
+        id.setSiteID(1);
+        id.setApplicationID(3);
+        id.setEntityID(number);
+        return id;
+    }
+}
@@ -0,0 +1,42 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+
+/**
+ * PduFactory decodes each PDU type to the right class, leaves the buffer alone for an
+ * unknown type, and hands pooled instances back out after release().
+ */
+public class PduFactoryCheck
+{
+    public static void main(String args[])
+    {
+        EntityStatePdu espdu = new EntityStatePdu();
+        espdu.getEntityID().setEntityID(77);
+        byte[] data = espdu.marshal();
+
+        PduFactory factory = new PduFactory();
+        PduSuperclass pdu = factory.createPdu(data);
+        if(!(pdu instanceof EntityStatePdu) || ((EntityStatePdu)pdu).getEntityID().getEntityID() != 77)
+            throw new RuntimeException("EntityStatePdu decoded as " + pdu);
+
+        FirePdu fire = new FirePdu();
+        fire.getEventID().setEventNumber(5);
+        pdu = factory.createPdu(fire.marshal());
+        if(!(pdu instanceof FirePdu) || ((FirePdu)pdu).getEventID().getEventNumber() != 5)
+            throw new RuntimeException("FirePdu decoded as " + pdu);
+
+        PduFactory pooled = new PduFactory(true);
+        ByteBuffer buff = ByteBuffer.wrap(data);
+        PduSuperclass first = pooled.createPdu(buff);
+        if(buff.remaining() != 0)
+            throw new RuntimeException("createPdu left " + buff.remaining() + " bytes");
+        first.release();
+        if(pooled.createPdu(ByteBuffer.wrap(data)) != first)
+            throw new RuntimeException("a released PDU was not reused");
+
+        data[2] = (byte)250;
+        ByteBuffer unknown = ByteBuffer.wrap(data);
+        if(factory.createPdu(unknown) != null || unknown.position() != 0)
+            throw new RuntimeException("an unknown pduType was decoded");
+    }
+}
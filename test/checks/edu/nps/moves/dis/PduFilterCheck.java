@@ -0,0 +1,38 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+
+/**
+ * PduFilter passes only PDUs whose header fields meet every condition, and a field given
+ * several values or ranges accepts any of them but nothing in between.
+ */
+public class PduFilterCheck
+{
+    public static void main(String args[])
+    {
+        PduFilter filter = new PduFilter().pduType(1, 2).exerciseIDBetween(3, 4).timestampBetween(0, 10).timestampBetween(100, 110);
+
+        PduFilterCheck.check(filter, new EntityStatePdu(), 3, 5, true);
+        PduFilterCheck.check(filter, new FirePdu(), 4, 105, true);
+        PduFilterCheck.check(filter, new EntityStatePdu(), 3, 50, false);
+        PduFilterCheck.check(filter, new EntityStatePdu(), 5, 5, false);
+        PduFilterCheck.check(filter, new DetonationPdu(), 3, 5, false);
+        PduFilterCheck.check(new PduFilter(), new DetonationPdu(), 200, 0xFFFFFFF0L, true);
+
+        ByteBuffer shortBuffer = ByteBuffer.allocate(PduFilter.HEADER_SIZE - 1);
+        if(new PduFilter().matches(shortBuffer, 0))
+            throw new RuntimeException("a buffer too short for the header matched");
+    }
+
+    private static void check(PduFilter filter, PduSuperclass pdu, int exerciseID, long timestamp, boolean expected)
+    {
+        pdu.setExerciseID((short)exerciseID);
+        pdu.setTimestamp(timestamp);
+
+        ByteBuffer buff = ByteBuffer.allocate(pdu.getMarshalledSize() + 5);
+        buff.position(5);
+        pdu.marshal(buff);
+        if(filter.matches(buff, 5) != expected)
+            throw new RuntimeException(pdu.getClass().getName() + " exerciseID " + exerciseID + " timestamp " + timestamp + " should " + (expected ? "" : "not ") + "match");
+    }
+}
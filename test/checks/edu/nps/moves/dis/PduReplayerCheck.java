@@ -0,0 +1,85 @@
+package edu.nps.moves.dis;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * PduReplayer spaces batches by their capture times scaled by the speed, and patches each
+ * PDU's timestamp from its own capture time. The timing bounds are loose, so that a busy
+ * machine doesn't fail the check.
+ */
+public class PduReplayerCheck
+{
+    public static void main(String args[]) throws IOException
+    {
+        File dataFile = File.createTempFile("replay", ".bin");
+        File indexFile = File.createTempFile("replay", ".idx");
+        dataFile.deleteOnExit();
+        indexFile.deleteOnExit();
+
+        // Five groups of three PDUs, a capture time unit apart
+        PduCaptureWriter writer = new PduCaptureWriter(dataFile, indexFile);
+        for(int group = 0; group < 5; group++)
+        {
+            for(int idx = 0; idx < 3; idx++)
+            {
+                FirePdu pdu = new FirePdu();
+                pdu.setTimestamp(777);
+                writer.add(pdu, group);
+            }
+        }
+        writer.close();
+
+        PduCaptureReader reader = new PduCaptureReader(dataFile, indexFile);
+        final List<long[]> seen = new ArrayList<long[]>();
+        PduReplayer.Listener listener = new PduReplayer.Listener()
+        {
+            public void replayed(PduBatchWriter batch, long time)
+            {
+                ByteBuffer buff = batch.getBatch();
+                for(int idx = 0; idx < batch.getPduCount(); idx++)
+                {
+                    long timestamp = PduSuperclass.peekTimestamp(buff, batch.getPduOffset(idx));
+                    seen.add(new long[] {time, timestamp, System.nanoTime()});
+                }
+            }
+        };
+
+        // Ten units to the second, so the capture spans 400ms, replayed at 8 times speed
+        PduReplayer replayer = new PduReplayer(reader, 10);
+        replayer.addListener(listener);
+        replayer.setSpeed(8);
+        if(replayer.replay() != 15 || seen.size() != 15)
+            throw new RuntimeException("replayed " + seen.size() + " PDUs, not 15");
+        long took = (seen.get(14)[2] - seen.get(0)[2]) / 1000000;
+        if(took < 40 || took > 400)
+            throw new RuntimeException("a 400ms capture at 8 times speed took " + took + "ms, not about 50ms");
+        for(int idx = 0; idx < seen.size(); idx++)
+        {
+            if(seen.get(idx)[0] != idx / 3 || seen.get(idx)[1] != 777)
+                throw new RuntimeException("PDU " + idx + " was replayed at the wrong time or with a changed timestamp");
+        }
+
+        // At full speed one batch holds PDUs with different times, and each gets its own timestamp
+        seen.clear();
+        replayer.setSpeed(1);
+        replayer.setMaxSpeed(true);
+        replayer.patchTimestamps(5000);
+        replayer.replay();
+        if(seen.size() != 15 || seen.get(0)[0] != 0)
+            throw new RuntimeException("replayed " + seen.size() + " PDUs at full speed, not 15 in one batch");
+        for(int idx = 0; idx < seen.size(); idx++)
+        {
+            if(seen.get(idx)[1] != 5000 + idx / 3)
+                throw new RuntimeException("PDU " + idx + " was given timestamp " + seen.get(idx)[1] + ", not " + (5000 + idx / 3));
+        }
+
+        replayer.removeListener(listener);
+        seen.clear();
+        replayer.replay();
+        if(!seen.isEmpty())
+            throw new RuntimeException("a removed listener was still called");
+        reader.close();
+    }
+}
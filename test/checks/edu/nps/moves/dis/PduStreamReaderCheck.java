@@ -0,0 +1,127 @@
+package edu.nps.moves.dis;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * PduStreamReader reads back what PduBatchWriter wrote from a channel, a mapped file and a
+ * buffer, framing PDUs that have no length set by their count fields. On a pipe it returns
+ * each PDU as soon as all of it has arrived, without waiting for more input.
+ */
+public class PduStreamReaderCheck
+{
+    public static void main(String args[]) throws Exception
+    {
+        List<byte[]> expected = new ArrayList<byte[]>();
+        PduBatchWriter writer = new PduBatchWriter();
+        for(int idx = 0; idx < 3000; idx++)
+        {
+            Pdu pdu = PduStreamReaderCheck.makePdu(idx);
+            expected.add(pdu.marshal());
+            writer.add(pdu);
+        }
+
+        File file = File.createTempFile("stream", ".bin");
+        file.deleteOnExit();
+        FileChannel out = new FileOutputStream(file).getChannel();
+        writer.writeTo(out);
+        out.close();
+
+        FileChannel in = new FileInputStream(file).getChannel();
+        PduStreamReaderCheck.readAll(new PduStreamReader(in, 1000), expected, "channel");
+        in.close();
+
+        in = new FileInputStream(file).getChannel();
+        PduStreamReaderCheck.readAll(PduStreamReader.map(in), expected, "mapped file");
+        in.close();
+
+        ByteBuffer buff = writer.getBatch();
+        PduStreamReaderCheck.readAll(new PduStreamReader(buff), expected, "buffer");
+
+        PduStreamReader frames = new PduStreamReader(buff);
+        frames.setFilter(new PduFilter().pduType(2));
+        int count = 0;
+        ByteBuffer frame;
+        while((frame = frames.nextFrame()) != null)
+        {
+            if(frame.remaining() != expected.get(count * 3 + 1).length || PduSuperclass.peekPduType(frame, frame.position()) != 2)
+                throw new RuntimeException("wrong frame " + count + " from the filtered reader");
+            count++;
+        }
+        if(count != 1000)
+            throw new RuntimeException("the filtered reader returned " + count + " frames, not 1000");
+
+        // The sink stays open, so a reader that waits for more than one PDU blocks; the
+        // watchdog closes the sink after a while so that it fails instead of hanging.
+        final Pipe pipe = Pipe.open();
+        Thread watchdog = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(10000);
+                    pipe.sink().close();
+                }
+                catch(Exception e)
+                {
+                }
+            }
+        };
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        PduStreamReader live = new PduStreamReader(pipe.source());
+        for(int idx = 0; idx < 30; idx++)
+        {
+            pipe.sink().write(ByteBuffer.wrap(expected.get(idx)));
+            Pdu pdu = (Pdu)live.next();
+            if(pdu == null)
+                throw new RuntimeException("the reader blocked on a pipe waiting for more than PDU " + idx);
+            if(!Arrays.equals(pdu.marshal(), expected.get(idx)))
+                throw new RuntimeException("wrong PDU " + idx + " from the pipe");
+        }
+        watchdog.interrupt();
+        pipe.sink().close();
+        if(live.next() != null)
+            throw new RuntimeException("the reader returned a PDU after the pipe closed");
+    }
+
+    /** An EntityStatePdu, FirePdu or DirectedEnergyFirePdu with no length set */
+    public static Pdu makePdu(int idx)
+    {
+        Pdu pdu;
+        if(idx % 3 == 0)
+        {
+            EntityStatePdu espdu = new EntityStatePdu();
+            for(int jdx = 0; jdx < idx % 4; jdx++)
+            {
+                espdu.getVariableParameters().add(new VariableParameter());
+            }
+            pdu = espdu;
+        }
+        else if(idx % 3 == 1)
+            pdu = new FirePdu();
+        else
+            pdu = new DirectedEnergyFirePdu();
+        pdu.setExerciseID((short)(idx & 0x7f));
+        return pdu;
+    }
+
+    /** Reads every PDU and compares it with what was written */
+    public static void readAll(PduStreamReader reader, List<byte[]> expected, String what) throws IOException
+    {
+        int count = 0;
+        Pdu pdu;
+        while((pdu = (Pdu)reader.next()) != null)
+        {
+            if(count >= expected.size() || !Arrays.equals(pdu.marshal(), expected.get(count)))
+                throw new RuntimeException("wrong PDU " + count + " from the " + what);
+            count++;
+        }
+        if(count != expected.size())
+            throw new RuntimeException("read " + count + " PDUs from the " + what + ", not " + expected.size());
+    }
+}
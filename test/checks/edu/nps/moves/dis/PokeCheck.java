@@ -0,0 +1,44 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * The poke methods change a marshalled PDU in place to the same bytes that setting the
+ * field and marshalling again writes, including values with the high bit set.
+ */
+public class PokeCheck
+{
+    public static void main(String args[])
+    {
+        EntityStatePdu espdu = (EntityStatePdu)CodecCheck.highBitPdus().get(0);
+
+        // The PDU starts part way into the buffer, so that offsets are checked too
+        byte[] data = espdu.marshal();
+        ByteBuffer buff = ByteBuffer.allocate(data.length + 7);
+        buff.position(7);
+        buff.put(data);
+
+        PduSuperclass.pokeExerciseID(buff, 7, (short)0xFE);
+        PduSuperclass.pokeTimestamp(buff, 7, 0xFFFFFFFEL);
+        EntityStatePdu.pokeForceId(buff, 7, (short)0x83);
+        EntityStatePdu.pokeEntityAppearance(buff, 7, 0x80000003L);
+        EntityStatePdu.pokeCapabilities(buff, 7, 0x8000000FL);
+
+        espdu.setExerciseID((short)0xFE);
+        espdu.setTimestamp(0xFFFFFFFEL);
+        espdu.setForceId((short)0x83);
+        espdu.setEntityAppearance(0x80000003L);
+        espdu.setCapabilities(0x8000000FL);
+        if(!Arrays.equals(Arrays.copyOfRange(buff.array(), 7, buff.capacity()), espdu.marshal()))
+            throw new RuntimeException("Poking a marshalled EntityStatePdu wrote different bytes than setting the fields");
+
+        EntityStatePdu decoded = new EntityStatePdu();
+        buff.position(7);
+        decoded.unmarshal(buff);
+        if(decoded.getExerciseID() != 0xFE || decoded.getForceId() != 0x83 || decoded.getEntityAppearance() != (long)(int)0x80000003L)
+            throw new RuntimeException("The poked EntityStatePdu unmarshalled with different values");
+        if(PduSuperclass.peekTimestamp(buff, 7) != decoded.getTimestamp())
+            throw new RuntimeException("peekTimestamp() is " + PduSuperclass.peekTimestamp(buff, 7) + ", not " + decoded.getTimestamp());
+    }
+}
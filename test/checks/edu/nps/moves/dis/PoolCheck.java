@@ -0,0 +1,64 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+
+/**
+ * Shrinking a list in unmarshal(), copyFrom() or reset() drops its objects without putting
+ * them in the pool, so one the caller still holds is neither reset nor handed out again by
+ * acquire(). Only release() puts an object in the pool.
+ */
+public class PoolCheck
+{
+    public static void main(String args[])
+    {
+        EntityStatePdu longer = new EntityStatePdu();
+        for(int idx = 0; idx < 3; idx++)
+        {
+            VariableParameter parameter = new VariableParameter();
+            parameter.setRecordType((short)(idx + 1));
+            longer.getVariableParameters().add(parameter);
+        }
+        ByteBuffer longBuff = ByteBuffer.allocate(longer.getMarshalledSize());
+        longer.marshal(longBuff);
+        ByteBuffer shortBuff = ByteBuffer.allocate(new EntityStatePdu().getMarshalledSize());
+        new EntityStatePdu().marshal(shortBuff);
+
+        EntityStatePdu pdu = new EntityStatePdu();
+        longBuff.flip();
+        pdu.unmarshal(longBuff);
+        VariableParameter held = pdu.getVariableParameters().get(2);
+        shortBuff.flip();
+        pdu.unmarshal(shortBuff);
+        PoolCheck.checkHeld(held, "unmarshal()");
+
+        pdu.copyFrom(longer);
+        held = pdu.getVariableParameters().get(2);
+        pdu.copyFrom(new EntityStatePdu());
+        PoolCheck.checkHeld(held, "copyFrom()");
+
+        pdu.copyFrom(longer);
+        held = pdu.getVariableParameters().get(2);
+        pdu.reset();
+        PoolCheck.checkHeld(held, "reset()");
+
+        // An explicit release() is what fills the pool
+        VariableParameter released = VariableParameter.acquire();
+        released.setRecordType((short)9);
+        released.release();
+        VariableParameter again = VariableParameter.acquire();
+        if(again != released || again.getRecordType() != 0)
+            throw new RuntimeException("acquire() didn't hand out the released object, reset");
+    }
+
+    /** The held object still has its values, and acquire() doesn't hand it out */
+    public static void checkHeld(VariableParameter held, String what)
+    {
+        if(held.getRecordType() != 3)
+            throw new RuntimeException(what + " reset a list element the caller still holds");
+        for(int idx = 0; idx < 10; idx++)
+        {
+            if(VariableParameter.acquire() == held)
+                throw new RuntimeException(what + " put a list element the caller still holds in the pool");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * The projections decode the same values as unmarshal() for the fields they hold, including
+ * fields after variable length lists, and EntityStatePduProjection has the fields of both
+ * the entries that list it.
+ */
+public class ProjectionCheck
+{
+    public static void main(String args[])
+    {
+        EntityStatePdu espdu = new EntityStatePdu();
+        espdu.getEntityLocation().setX(9.5);
+        espdu.setCapabilities(33);
+        for(int idx = 0; idx < 3; idx++)
+        {
+            VariableParameter parameter = new VariableParameter();
+            parameter.setRecordType((short)(idx + 1));
+            espdu.getVariableParameters().add(parameter);
+        }
+
+        // Starts part way into the buffer, which the projection mustn't move
+        ByteBuffer buff = ByteBuffer.allocate(espdu.getMarshalledSize() + 5);
+        buff.position(5);
+        espdu.marshal(buff);
+        buff.position(2);
+
+        EntityStatePduProjection projection = new EntityStatePduProjection();
+        projection.unmarshal(buff, 5);
+        if(buff.position() != 2)
+            throw new RuntimeException("unmarshal() moved the buffer's position");
+        if(projection.getEntityLocation().getX() != 9.5 || projection.getCapabilities() != 33)
+            throw new RuntimeException("EntityStatePduProjection decoded the wrong fixed fields");
+        if(projection.getVariableParameters().size() != 3 || projection.getVariableParameters().get(2).getRecordType() != 3)
+            throw new RuntimeException("EntityStatePduProjection decoded the wrong variableParameters");
+
+        // Reused for a second PDU with a shorter list
+        espdu.getVariableParameters().clear();
+        espdu.setCapabilities(4);
+        buff = ByteBuffer.allocate(espdu.getMarshalledSize());
+        espdu.marshal(buff);
+        projection.unmarshal(buff, 0);
+        if(projection.getVariableParameters().size() != 0 || projection.getCapabilities() != 4)
+            throw new RuntimeException("EntityStatePduProjection kept values from the PDU before");
+
+        DataPdu data = new DataPdu();
+        for(int idx = 0; idx < 2; idx++)
+            data.getFixedDatums().add(new FixedDatum());
+        for(int idx = 0; idx < 4; idx++)
+        {
+            VariableDatum datum = new VariableDatum();
+            datum.setVariableDatumID(100 + idx);
+            data.getVariableDatums().add(datum);
+        }
+        buff = ByteBuffer.allocate(data.getMarshalledSize());
+        data.marshal(buff);
+
+        DataPduProjection dataProjection = new DataPduProjection();
+        dataProjection.unmarshal(buff, 0);
+        List<VariableDatum> datums = dataProjection.getVariableDatums();
+        if(datums.size() != 4 || datums.get(3).getVariableDatumID() != 103)
+            throw new RuntimeException("DataPduProjection decoded the wrong variableDatums");
+    }
+}
@@ -0,0 +1,37 @@
+package edu.nps.moves.dis;
+
+import java.lang.foreign.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * A PDU unmarshalled from a MemorySegment gets the same field values as one unmarshalled
+ * from a ByteBuffer, including unsigned fields with the high bit set, and marshal(MemorySegment)
+ * writes the same bytes as marshal(). Needs Java 22 or later.
+ */
+public class SegmentCheck
+{
+    public static void main(String args[])
+    {
+        List<Pdu> pdus = CodecCheck.highBitPdus();
+        for(int idx = 0; idx < pdus.size(); idx++)
+        {
+            Pdu pdu = pdus.get(idx);
+            byte[] data = pdu.marshal();
+
+            byte[] segmentData = new byte[data.length + 3];
+            long end = pdu.marshal(MemorySegment.ofArray(segmentData), 3);
+            if(end != segmentData.length || !Arrays.equals(Arrays.copyOfRange(segmentData, 3, segmentData.length), data))
+                throw new RuntimeException(pdu.getClass().getName() + " marshal(MemorySegment) wrote different bytes");
+
+            Pdu fromBuffer = CodecCheck.newPdu(pdu);
+            fromBuffer.unmarshal(ByteBuffer.wrap(data));
+
+            Pdu fromSegment = CodecCheck.newPdu(pdu);
+            end = fromSegment.unmarshal(MemorySegment.ofArray(segmentData), 3);
+            if(end != segmentData.length)
+                throw new RuntimeException(pdu.getClass().getName() + " unmarshal(MemorySegment) ended at " + end + ", not " + segmentData.length);
+            CodecCheck.compare("MemorySegment", fromSegment, fromBuffer, data);
+        }
+    }
+}
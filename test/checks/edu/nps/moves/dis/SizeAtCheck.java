@@ -0,0 +1,90 @@
+package edu.nps.moves.dis;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * The static sizeAt() of each class and PduFactory.sizeAt() agree with what marshal()
+ * wrote, including lists of PDUs in a PduContainer, and skip() moves past exactly one object.
+ * A PDU in a list whose pduType has no class is measured by its length field.
+ */
+public class SizeAtCheck
+{
+    public static void main(String args[])
+    {
+        List<Pdu> pdus = new ArrayList<Pdu>();
+
+        EntityStatePdu espdu = new EntityStatePdu();
+        espdu.getVariableParameters().add(new VariableParameter());
+        espdu.getVariableParameters().add(new VariableParameter());
+        pdus.add(espdu);
+        pdus.add(new FirePdu());
+
+        DataPdu data = new DataPdu();
+        data.getFixedDatums().add(new FixedDatum());
+        VariableDatum datum = new VariableDatum();
+        datum.setVariableDatumID(7);
+        data.getVariableDatums().add(datum);
+        pdus.add(data);
+
+        ByteBuffer buff = ByteBuffer.allocate(10000);
+        for(int idx = 0; idx < pdus.size(); idx++)
+        {
+            int start = buff.position();
+            pdus.get(idx).marshal(buff);
+            int size = buff.position() - start;
+            if(PduFactory.sizeAt(buff, start) != size)
+                throw new RuntimeException("PduFactory.sizeAt() of " + pdus.get(idx).getClass().getName() + " is " + PduFactory.sizeAt(buff, start) + ", not " + size);
+        }
+        if(EntityStatePdu.sizeAt(buff, 0) != espdu.getMarshalledSize())
+            throw new RuntimeException("EntityStatePdu.sizeAt() is " + EntityStatePdu.sizeAt(buff, 0) + ", not " + espdu.getMarshalledSize());
+
+        int end = buff.position();
+        buff.flip();
+        EntityStatePdu.skip(buff);
+        FirePdu.skip(buff);
+        DataPdu.skip(buff);
+        if(buff.position() != end)
+            throw new RuntimeException("skip() ended at " + buff.position() + ", not " + end);
+
+        PduContainer container = new PduContainer();
+        container.setPdus(pdus);
+        container.setNumberOfPdus(pdus.size());
+        ByteBuffer containerBuff = ByteBuffer.allocate(container.getMarshalledSize());
+        container.marshal(containerBuff);
+        if(PduContainer.sizeAt(containerBuff, 0) != containerBuff.position())
+            throw new RuntimeException("PduContainer.sizeAt() is " + PduContainer.sizeAt(containerBuff, 0) + ", not " + containerBuff.position());
+
+        // A PDU whose pduType has no class is measured by its length field, or not at all
+        FirePdu fire = new FirePdu();
+        fire.setLength(fire.getMarshalledSize());
+        PduContainer unknown = new PduContainer();
+        unknown.getPdus().add(fire);
+        unknown.setNumberOfPdus(1);
+        ByteBuffer unknownBuff = ByteBuffer.allocate(unknown.getMarshalledSize());
+        unknown.marshal(unknownBuff);
+        unknownBuff.put(4 + 2, (byte)250);
+        if(PduContainer.sizeAt(unknownBuff, 0) != unknownBuff.position())
+            throw new RuntimeException("PduContainer.sizeAt() with an unknown pduType is " + PduContainer.sizeAt(unknownBuff, 0) + ", not " + unknownBuff.position());
+        PduSuperclass.pokeLength(unknownBuff, 4, 0);
+        try
+        {
+            PduContainer.sizeAt(unknownBuff, 0);
+            throw new RuntimeException("sizeAt() measured a PDU with an unknown pduType and no length");
+        }
+        catch(IllegalArgumentException e)
+        {
+        }
+
+        // The variableParameters count is at byte 19, so 16 bytes are too few to measure
+        ByteBuffer truncated = ByteBuffer.allocate(16);
+        try
+        {
+            EntityStatePdu.sizeAt(truncated, 0);
+            throw new RuntimeException("sizeAt() measured a truncated EntityStatePdu");
+        }
+        catch(IndexOutOfBoundsException e)
+        {
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package edu.nps.moves.dis;
+
+import java.lang.reflect.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Every getter of a view returns the same value, bit for bit, as the getter of the same
+ * name on the PDU unmarshalled from the same bytes, including unsigned fields with the high
+ * bit set. Contained objects and list elements are compared the same way, field by field.
+ */
+public class ViewCheck
+{
+    public static void main(String args[])
+    {
+        List<Pdu> pdus = CodecCheck.highBitPdus();
+        for(int pduType = 0; pduType < 256; pduType++)
+        {
+            Pdu pdu = (Pdu)new PduFactory().createPdu(pduType);
+            if(pdu != null)
+                pdus.add(pdu);
+        }
+
+        for(int idx = 0; idx < pdus.size(); idx++)
+        {
+            Pdu pdu = pdus.get(idx);
+            byte[] data = pdu.marshal();
+            Pdu decoded = CodecCheck.newPdu(pdu);
+            decoded.unmarshal(ByteBuffer.wrap(data));
+
+            // The view starts part way into its buffer, so that offsets are checked too
+            ByteBuffer buff = ByteBuffer.allocate(data.length + 5);
+            buff.position(5);
+            buff.put(data);
+            try
+            {
+                Object view = Class.forName(pdu.getClass().getName() + "View").getConstructor(new Class[] {ByteBuffer.class, int.class}).newInstance(new Object[] {buff, 5});
+                ViewCheck.compare(pdu.getClass().getSimpleName(), view, decoded);
+            }
+            catch(RuntimeException e)
+            {
+                throw e;
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** Throws if a getter of view returns something other than the getter of the same name on pojo */
+    public static void compare(String path, Object view, Object pojo) throws Exception
+    {
+        Method methods[] = view.getClass().getMethods();
+        for(int idx = 0; idx < methods.length; idx++)
+        {
+            Method method = methods[idx];
+            String name = method.getName();
+            if(!name.startsWith("get") || method.getDeclaringClass() == Object.class || name.equals("getBuffer") || name.equals("getOffset"))
+                continue;
+
+            Method pojoMethod;
+            try
+            {
+                pojoMethod = pojo.getClass().getMethod(name, new Class[0]);
+            }
+            catch(NoSuchMethodException e)
+            {
+                continue; // getXCount() and getXLength(), which have no POJO getter
+            }
+            Object pojoValue = pojoMethod.invoke(pojo, new Object[0]);
+
+            if(method.getParameterTypes().length == 0)
+            {
+                ViewCheck.compareValue(path + "." + name + "()", method.invoke(view, new Object[0]), pojoValue);
+            }
+            else
+            {
+                int length = pojoValue instanceof List ? ((List)pojoValue).size() : Array.getLength(pojoValue);
+                for(int index = 0; index < length; index++)
+                {
+                    Object element = pojoValue instanceof List ? ((List)pojoValue).get(index) : Array.get(pojoValue, index);
+                    ViewCheck.compareValue(path + "." + name + "(" + index + ")", method.invoke(view, new Object[] {index}), element);
+                }
+            }
+        }
+    }
+
+    private static void compareValue(String path, Object viewValue, Object pojoValue) throws Exception
+    {
+        if(viewValue instanceof Number || viewValue instanceof Boolean || viewValue instanceof Character)
+        {
+            // Boxed equals() compares doubles and floats bit for bit
+            if(!viewValue.equals(pojoValue))
+                throw new RuntimeException(path + " is " + viewValue + " in the view, but " + pojoValue + " in the PDU");
+        }
+        else
+        {
+            ViewCheck.compare(path, viewValue, pojoValue);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package edu.nps.moves.xmlpg;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * Generates java from an XML file with the optional PDU helper classes, views, lazy decoding
+ * and projections turned on, and the MemorySegment methods on Java 22 or later. Compiles
+ * the result together with the check programs in a directory, then runs the main() of each
+ * check. A check passes if main() returns, and fails if it throws. Needs a JDK, since it
+ * compiles with javax.tools. The test target in build.xml runs it on DIS2012.xml:<p>
+ *
+ * java edu.nps.moves.xmlpg.GeneratedCodeTest xmlFile checkDirectory workDirectory
+ *
+ * @author DMcG
+ */
+public class GeneratedCodeTest
+{
+    /** Projections written for the checks. EntityStatePdu is listed twice, to check the entries are merged. */
+    public static final String PROJECTIONS = "EntityStatePdu:entityLocation,variableParameters;DataPdu:variableDatums;EntityStatePdu:capabilities";
+
+    /** DIS2012.xml imports these open-dis packages, which the generated code doesn't use.
+     * Stand-ins are written so that the generated code compiles on its own.
+     */
+    public static final String[] STUB_PACKAGES = {"edu.nps.moves.disenum", "edu.nps.moves.disutil"};
+
+    /** Checks whose file name ends with this use java.lang.foreign, so are only run on Java 22 or later */
+    public static final String SEGMENT_CHECK_SUFFIX = "SegmentCheck.java";
+
+    public static void main(String args[])
+    {
+        if(args.length < 3)
+        {
+            System.out.println("Usage: GeneratedCodeTest xmlFile checkDirectory workDirectory");
+            System.exit(-1);
+        }
+
+        File checkDirectory = new File(args[1]);
+        File workDirectory = new File(args[2]);
+        File sourceDirectory = new File(workDirectory, "src");
+        File classDirectory = new File(workDirectory, "classes");
+
+        GeneratedCodeTest.deleteTree(workDirectory);
+        classDirectory.mkdirs();
+
+        System.setProperty("xmlpg.generatedSourceDir", sourceDirectory.getPath());
+        System.setProperty("xmlpg.useJaxb", "false");
+        System.setProperty("xmlpg.useHibernate", "false");
+        System.setProperty("xmlpg.generatePduStreamReader", "true");
+        System.setProperty("xmlpg.generatePduReplayer", "true");
+        System.setProperty("xmlpg.lazyDecoding", "true");
+        System.setProperty("xmlpg.generateViews", "true");
+        System.setProperty("xmlpg.projections", PROJECTIONS);
+        boolean segments = GeneratedCodeTest.hasForeignMemory();
+        if(segments)
+            System.setProperty("xmlpg.generateMemorySegment", "true");
+        new Xmlpg(args[0], "java");
+
+        int failures = 0;
+        try
+        {
+            GeneratedCodeTest.writeStubPackages(sourceDirectory);
+
+            List checks = new ArrayList();
+            GeneratedCodeTest.findSources(checkDirectory, "", checks);
+            for(int idx = checks.size() - 1; idx >= 0 && !segments; idx--)
+            {
+                String path = (String)checks.get(idx);
+                if(path.endsWith(SEGMENT_CHECK_SUFFIX))
+                {
+                    System.out.println("skipped " + path + ": it needs java.lang.foreign, from Java 22");
+                    checks.remove(idx);
+                }
+            }
+            List sources = new ArrayList();
+            GeneratedCodeTest.findSources(sourceDirectory, "", sources);
+
+            if(!GeneratedCodeTest.compile(sourceDirectory, checkDirectory, sources, checks, classDirectory))
+            {
+                System.out.println("FAILED: the generated code and checks did not compile");
+                System.exit(1);
+            }
+
+            URLClassLoader loader = new URLClassLoader(new URL[] {classDirectory.toURI().toURL()}, GeneratedCodeTest.class.getClassLoader());
+            for(int idx = 0; idx < checks.size(); idx++)
+            {
+                String path = (String)checks.get(idx);
+                String className = path.substring(0, path.length() - ".java".length()).replace('/', '.');
+                try
+                {
+                    Method main = loader.loadClass(className).getMethod("main", new Class[] {String[].class});
+                    main.invoke(null, new Object[] {new String[0]});
+                    System.out.println("ok " + className);
+                }
+                catch(InvocationTargetException e)
+                {
+                    System.out.println("FAILED " + className + ": " + e.getCause());
+                    e.getCause().printStackTrace(System.out);
+                    failures++;
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            System.out.println("FAILED: " + e);
+            e.printStackTrace(System.out);
+            System.exit(1);
+        }
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * True if this JDK has the final java.lang.foreign API, which the MemorySegment methods use
+     */
+    public static boolean hasForeignMemory()
+    {
+        String version = System.getProperty("java.specification.version");
+        return !version.startsWith("1.") && Integer.parseInt(version) >= 22;
+    }
+
+    /**
+     * Compiles the generated sources and the checks into classDirectory. Returns false if javac reported errors.
+     */
+    public static boolean compile(File sourceDirectory, File checkDirectory, List sources, List checks, File classDirectory)
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null)
+        {
+            System.out.println("No java compiler found; run the checks with a JDK rather than a JRE");
+            return false;
+        }
+
+        List compilerArgs = new ArrayList();
+        compilerArgs.add("-nowarn");
+        compilerArgs.add("-d");
+        compilerArgs.add(classDirectory.getPath());
+        for(int idx = 0; idx < sources.size(); idx++)
+        {
+            compilerArgs.add(new File(sourceDirectory, (String)sources.get(idx)).getPath());
+        }
+        for(int idx = 0; idx < checks.size(); idx++)
+        {
+            compilerArgs.add(new File(checkDirectory, (String)checks.get(idx)).getPath());
+        }
+
+        return compiler.run(null, null, null, (String[])compilerArgs.toArray(new String[compilerArgs.size()])) == 0;
+    }
+
+    /**
+     * Adds the paths, relative to directory and separated with '/', of the java files under it.
+     */
+    public static void findSources(File directory, String prefix, List found)
+    {
+        File files[] = directory.listFiles();
+        if(files == null)
+            return;
+
+        Arrays.sort(files);
+        for(int idx = 0; idx < files.length; idx++)
+        {
+            if(files[idx].isDirectory())
+                GeneratedCodeTest.findSources(files[idx], prefix + files[idx].getName() + "/", found);
+            else if(files[idx].getName().endsWith(".java"))
+                found.add(prefix + files[idx].getName());
+        }
+    }
+
+    /**
+     * Writes an empty class in each of the STUB_PACKAGES. javac doesn't count a package that
+     * has only a package-info.java as existing.
+     */
+    public static void writeStubPackages(File sourceDirectory) throws IOException
+    {
+        for(int idx = 0; idx < STUB_PACKAGES.length; idx++)
+        {
+            File packageDirectory = new File(sourceDirectory, STUB_PACKAGES[idx].replace('.', '/'));
+            packageDirectory.mkdirs();
+            PrintWriter pw = new PrintWriter(new File(packageDirectory, "Stub.java"));
+            pw.println("package " + STUB_PACKAGES[idx] + ";");
+            pw.println();
+            pw.println("class Stub");
+            pw.println("{");
+            pw.println("}");
+            pw.close();
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it, so each run starts from nothing
+     */
+    public static void deleteTree(File file)
+    {
+        File files[] = file.listFiles();
+        if(files != null)
+        {
+            for(int idx = 0; idx < files.length; idx++)
+            {
+                GeneratedCodeTest.deleteTree(files[idx]);
+            }
+        }
+        file.delete();
+    }
+}